@@ -40,7 +40,7 @@ public final class Attribute extends PCS implements Value {
     static final AtomicLong ATTR_ID_GEN = new AtomicLong();
     
     final long id;
-    final String name;
+    String name;
     final Namespace namespace;
     Element element;
     int index;
@@ -51,9 +51,16 @@ public final class AttributeList implements Iterable<Attribute> {
     
     static final Attribute[] EMPTY_ATTRIBUTE_ARRAY = new Attribute[0];
     
+    /**
+     * Elements with more attributes use a hash index for lookup by name
+     */
+    static final int HASH_THRESHOLD = 8;
+    
     final Element element;
     
     Attribute[] data;
+    int size;
+    int[] hashIndex;
     AttributeListListener[] listeners;
 
     AttributeList(Element element) {
@@ -62,16 +69,26 @@ public final class AttributeList implements Iterable<Attribute> {
     }
 
     public AttributeList(Element element, AttributeList src) {
-        int size = src.data.length;
+        Attribute[] attributes = new Attribute[src.size];
+        for(int i=0 ; i<attributes.length ; i++) {
+            attributes[i] = src.data[i].clone();
+        }
         
         this.element = element;
-        this.data = new Attribute[size];
-        
-        for(int i=0 ; i<size ; i++) {
-            data[i] = src.data[i].clone();
-            data[i].element = element;
-            data[i].index = i;
+        init(attributes);
+    }
+    
+    /**
+     * Sets the initial attributes without firing events.
+     */
+    void init(Attribute[] attributes) {
+        for(int i=0 ; i<attributes.length ; i++) {
+            attributes[i].element = element;
+            attributes[i].index = i;
         }
+        this.data = (attributes.length == 0) ? EMPTY_ATTRIBUTE_ARRAY : attributes;
+        this.size = attributes.length;
+        this.hashIndex = null;
     }
     
     public void addListener(AttributeListListener listener) {
@@ -83,26 +100,35 @@ public final class AttributeList implements Iterable<Attribute> {
     }
 
     public int size() {
-        return data.length;
+        return size;
     }
     
     public boolean isEmpty() {
-        return data.length == 0;
+        return size == 0;
     }
     
     public Attribute[] toArray() {
-        if(data.length == 0) {
+        if(size == 0) {
             return EMPTY_ATTRIBUTE_ARRAY;
         }
-        return data.clone();
+        Attribute[] result = new Attribute[size];
+        System.arraycopy(data, 0, result, 0, size);
+        return result;
     }
     
     public Attribute get(int idx) {
+        if(idx < 0 || idx >= size) {
+            throw new IndexOutOfBoundsException();
+        }
         return data[idx];
     }
     
     public Attribute get(String name, Namespace namespace) {
-        for(Attribute attribute : data) {
+        if(size > HASH_THRESHOLD) {
+            return getHashed(name, namespace);
+        }
+        for(int i=0,n=size ; i<n ; i++) {
+            Attribute attribute = data[i];
             if(attribute.equals(name, namespace)) {
                 return attribute;
             }
@@ -111,19 +137,23 @@ public final class AttributeList implements Iterable<Attribute> {
     }
 
     public Attribute set(String name, Namespace namespace, String value) {
-        for(Attribute attribute : data) {
-            if(attribute.equals(name, namespace)) {
-                attribute.setValue(value);
-                return attribute;
-            }
+        Attribute attribute = get(name, namespace);
+        if(attribute != null) {
+            attribute.setValue(value);
+            return attribute;
+        }
+        Document document = element.getDocument();
+        if(document != null) {
+            name = document.symbols.intern(name);
         }
-        Attribute attribute = new Attribute(name, namespace, value);
+        attribute = new Attribute(name, namespace, value);
         add(attribute);
         return attribute;
     }
     
     public Attribute findAttribute(long id) {
-        for(Attribute attribute : data) {
+        for(int i=0,n=size ; i<n ; i++) {
+            Attribute attribute = data[i];
             if(attribute.id == id) {
                 return attribute;
             }
@@ -138,21 +168,33 @@ public final class AttributeList implements Iterable<Attribute> {
         if(attribute.element != null) {
             throw new IllegalStateException("attribute already has an element");
         }
-        if(idx < 0 || idx > size()) {
+        if(idx < 0 || idx > size) {
             throw new IndexOutOfBoundsException();
         }
         
-        final int oldLength = data.length;
-        Attribute[] newData = new Attribute[oldLength + 1];
-        System.arraycopy(data, 0, newData, 0, idx);
-        System.arraycopy(data, idx, newData, idx+1, oldLength-idx);
-        for(int i=idx,n=oldLength ; i<n ; i++) {
-            newData[i+1].index++;
-        }
-        newData[idx] = attribute;
-        data = newData;
+        if(size == data.length) {
+            Attribute[] newData = new Attribute[Math.max(4, size * 2)];
+            System.arraycopy(data, 0, newData, 0, idx);
+            System.arraycopy(data, idx, newData, idx+1, size-idx);
+            data = newData;
+        } else {
+            System.arraycopy(data, idx, data, idx+1, size-idx);
+        }
+        for(int i=idx+1,n=++size ; i<n ; i++) {
+            data[i].index = i;
+        }
+        data[idx] = attribute;
         attribute.element = element;
         attribute.index = idx;
+        Document document = element.getDocument();
+        if(document != null) {
+            attribute.name = document.symbols.intern(attribute.name);
+        }
+        if(idx == size-1 && hashIndex != null && size*2 <= hashIndex.length) {
+            insertHash(idx);
+        } else {
+            hashIndex = null;
+        }
         attribute.firePropertyChange("parent", null, this);
         
         if(listeners != null) {
@@ -160,7 +202,7 @@ public final class AttributeList implements Iterable<Attribute> {
                 all.attributeAdded(element, attribute, idx);
             }
         }
-        Document.documentChanged(element);
+        Document.attributeChanged(DocumentChange.Kind.ATTRIBUTE_ADDED, element, attribute, idx, null, attribute.value);
     }
     
     public void add(Attribute attribute) {
@@ -178,24 +220,18 @@ public final class AttributeList implements Iterable<Attribute> {
     }
     
     public void remove(int idx) {
-        if(data == null) {
+        if(idx < 0 || idx >= size) {
             throw new IndexOutOfBoundsException();
         }
         
         Attribute attribute = data[idx];
-        final int oldLength = data.length;
-        if(oldLength == 1) {
-            data = EMPTY_ATTRIBUTE_ARRAY;
-        } else {
-            final int newLength = oldLength - 1;
-            Attribute[] newData = new Attribute[newLength];
-            System.arraycopy(data, 0, newData, 0, idx);
-            System.arraycopy(data, idx+1, newData, idx, newLength-idx);
-            for(int i=idx ; i<newLength ; i++) {
-                newData[i].index--;
-            }
-            data = newData;
+        --size;
+        System.arraycopy(data, idx+1, data, idx, size-idx);
+        data[size] = null;
+        for(int i=idx ; i<size ; i++) {
+            data[i].index = i;
         }
+        hashIndex = null;
         
         attribute.element = null;
         attribute.firePropertyChange("parent", this, null);
@@ -205,7 +241,7 @@ public final class AttributeList implements Iterable<Attribute> {
                 all.attributeRemoved(element, attribute, idx);
             }
         }
-        Document.documentChanged(element);
+        Document.attributeChanged(DocumentChange.Kind.ATTRIBUTE_REMOVED, element, attribute, idx, attribute.value, null);
     }
     
     @Override
@@ -216,7 +252,7 @@ public final class AttributeList implements Iterable<Attribute> {
     }
     
     public void toString(StringBuilder sb) {
-        for(int i=0,n=data.length ; i<n ; i++) {
+        for(int i=0,n=size ; i<n ; i++) {
             if(i > 0) {
                 sb.append(' ');
             }
@@ -230,31 +266,70 @@ public final class AttributeList implements Iterable<Attribute> {
                 all.attributeChanged(element, attribute, oldValue, newValue);
             }
         }
-        Document.documentChanged(element);
+        Document.attributeChanged(DocumentChange.Kind.ATTRIBUTE_CHANGED, element, attribute, attribute.index, oldValue, newValue);
+    }
+
+    private Attribute getHashed(String name, Namespace namespace) {
+        if(hashIndex == null) {
+            buildHashIndex();
+        }
+        final int[] hi = hashIndex;
+        final int mask = hi.length - 1;
+        for(int h=hash(name) ; ; h++) {
+            int entry = hi[h & mask];
+            if(entry == 0) {
+                return null;
+            }
+            Attribute attribute = data[entry - 1];
+            if(attribute.equals(name, namespace)) {
+                return attribute;
+            }
+        }
+    }
+    
+    private void buildHashIndex() {
+        int tableSize = 16;
+        while(tableSize < size*2) {
+            tableSize *= 2;
+        }
+        hashIndex = new int[tableSize];
+        for(int i=0 ; i<size ; i++) {
+            insertHash(i);
+        }
+    }
+    
+    private void insertHash(int idx) {
+        final int[] hi = hashIndex;
+        final int mask = hi.length - 1;
+        int h = hash(data[idx].name);
+        while(hi[h & mask] != 0) {
+            h++;
+        }
+        hi[h & mask] = idx + 1;
+    }
+    
+    private static int hash(String name) {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
     }
 
     public Iterator<Attribute> iterator() {
-        return new I(data);
+        return new I();
     }
     
     class I implements Iterator<Attribute> {
-        private final Attribute[] attributes;
         private int idx;
         private Attribute a;
 
-        I(Attribute[] attributes) {
-            this.attributes = attributes;
-        }
-        
         public boolean hasNext() {
-            return idx < attributes.length;
+            return idx < size;
         }
         
         public Attribute next() {
             if(!hasNext()) {
                 throw new NoSuchElementException();
             }
-            a = attributes[idx++];
+            a = data[idx++];
             return a;
         }
 
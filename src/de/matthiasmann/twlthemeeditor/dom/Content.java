@@ -84,23 +84,32 @@ public abstract class Content extends PCS implements DomNode {
     }
     
     public int getIndex() {
-        return (parent != null) ? index : -1;
+        return (parent != null) ? getParentContentList().indexOf(this) : -1;
     }
     
     public Content getPrevSibling() {
-        if(parent != null && index > 0) {
-            return parent.getContent(index - 1);
+        int idx = getIndex();
+        if(idx > 0) {
+            return parent.getContent(idx - 1);
         }
         return null;
     }
     
     public Content getNextSibling() {
-        if(parent != null && index+1 < parent.getContentSize()) {
-            return parent.getContent(index + 1);
+        int idx = getIndex();
+        if(idx >= 0 && idx+1 < parent.getContentSize()) {
+            return parent.getContent(idx + 1);
         }
         return null;
     }
     
+    private ContentList getParentContentList() {
+        if(parent instanceof Element) {
+            return ((Element)parent).content;
+        }
+        return ((Document)parent).content;
+    }
+    
     @Override
     public abstract Content clone();
     
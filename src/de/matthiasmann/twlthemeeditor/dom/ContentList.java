@@ -33,6 +33,7 @@ import de.matthiasmann.twl.utils.CallbackSupport;
 import de.matthiasmann.twlthemeeditor.dom.Parent.ContentListener;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import org.xmlpull.v1.XmlSerializer;
 
@@ -47,6 +48,7 @@ final class ContentList implements Iterable<Content> {
     final Parent parent;
     Content[] data;
     int size;
+    int validIndices;
     ContentListener[] contentListeners;
 
     ContentList(Parent parent) {
@@ -69,6 +71,7 @@ final class ContentList implements Iterable<Content> {
         } else {
             this.data = EMPTY;
         }
+        this.validIndices = size;
     }
     
     void addContentListener(ContentListener listener) {
@@ -93,7 +96,7 @@ final class ContentList implements Iterable<Content> {
                 cl.contentAdded(parent, child, idx);
             }
         }
-        Document.documentChanged(parent);
+        Document.contentChanged(DocumentChange.Kind.CONTENT_ADDED, parent, child, idx, -1);
     }
     
     void fireRemoveEvent(Content child, int idx) {
@@ -103,7 +106,7 @@ final class ContentList implements Iterable<Content> {
                 cl.contentRemoved(parent, child, idx);
             }
         }
-        Document.documentChanged(parent);
+        Document.contentChanged(DocumentChange.Kind.CONTENT_REMOVED, parent, child, idx, -1);
     }
     
     void fireMoveEvent(Content child, int oldIndex, int newIndex) {
@@ -112,24 +115,74 @@ final class ContentList implements Iterable<Content> {
                 cl.contentMoved(parent, child, oldIndex, newIndex);
             }
         }
-        Document.documentChanged(parent);
+        Document.contentChanged(DocumentChange.Kind.CONTENT_MOVED, parent, child, newIndex, oldIndex);
     }
     
     void add(int idx, Content child) {
-        if(size == data.length) {
-            Content[] tmp = new Content[Math.max(8, size * 2)];
-            System.arraycopy(data,   0, tmp,     0,      idx);
-            System.arraycopy(data, idx, tmp, idx+1, size-idx);
-            data = tmp;
-        } else {
-            System.arraycopy(data, idx, data, idx+1, size-idx);
-        }
-        
+        makeRoom(idx, 1);
         child.parent = parent;
+        child.index = idx;
         data[idx] = child;
         size++;
-        
-        reindex(idx);
+        invalidateIndices(idx, idx == size-1);
+        internSymbols(child);
+    }
+    
+    /**
+     * Checks that the children can be added. They are marked with the parent
+     * so that duplicates are detected - {@link #addAll(int, Content[]) } must
+     * be called after a successful check.
+     */
+    Content[] checkNewChildren(List<? extends Content> children) {
+        Content[] result = children.toArray(new Content[children.size()]);
+        int i = 0;
+        try {
+            for(; i<result.length ; i++) {
+                Content child = result[i];
+                if(child == null) {
+                    throw new NullPointerException("child");
+                }
+                if(child.parent != null) {
+                    throw new IllegalStateException("child already has a parent");
+                }
+                child.parent = parent;
+            }
+        } finally {
+            if(i < result.length) {
+                while(i-- > 0) {
+                    result[i].parent = null;
+                }
+            }
+        }
+        return result;
+    }
+    
+    void addAll(int idx, Content[] children) {
+        int count = children.length;
+        makeRoom(idx, count);
+        for(int i=0 ; i<count ; i++) {
+            Content child = children[i];
+            child.parent = parent;
+            child.index = idx + i;
+            data[idx + i] = child;
+        }
+        size += count;
+        invalidateIndices(idx, idx+count == size);
+        for(Content child : children) {
+            internSymbols(child);
+        }
+    }
+
+    /**
+     * Appends a child without firing events - only used while building
+     * a new tree which has no listeners yet.
+     */
+    void append(Content child) {
+        makeRoom(size, 1);
+        child.parent = parent;
+        child.index = size;
+        data[size++] = child;
+        invalidateIndices(size-1, true);
     }
 
     Content remove(int idx) {
@@ -138,23 +191,49 @@ final class ContentList implements Iterable<Content> {
         System.arraycopy(data, idx+1, data, idx, size-idx);
         data[size] = null;
         child.parent = null;
-        reindex(idx);
+        invalidateIndices(idx, idx == size);
         return child;
     }
     
+    Content[] removeRange(int from, int to) {
+        int count = to - from;
+        Content[] children = new Content[count];
+        System.arraycopy(data, from, children, 0, count);
+        System.arraycopy(data, to, data, from, size-to);
+        for(int i=0 ; i<count ; i++) {
+            children[i].parent = null;
+            data[size-count+i] = null;
+        }
+        size -= count;
+        invalidateIndices(from, from == size);
+        return children;
+    }
+    
     void move(int from, int to) {
         Content tmp = data[from];
         if(from < to) {
             System.arraycopy(data, from+1, data, from, to-from);
             data[to] = tmp;
-            reindex(from);
+            invalidateIndices(from, false);
         } else {
             System.arraycopy(data, to, data, to+1, from-to);
             data[to] = tmp;
-            reindex(to);
+            invalidateIndices(to, false);
         }
     }
     
+    /**
+     * Returns the index of a child of this list. The indices are renumbered
+     * lazily from the first changed position.
+     */
+    int indexOf(Content child) {
+        if(validIndices < size) {
+            reindex(validIndices);
+            validIndices = size;
+        }
+        return child.index;
+    }
+    
     Element getChild(String name, Namespace namespace) {
         Content[] d = data;
         for(int i=0,n=size ; i<n ; i++) {
@@ -225,6 +304,36 @@ final class ContentList implements Iterable<Content> {
         };
     }
     
+    private void internSymbols(Content child) {
+        Document document = parent.getDocument();
+        if(document != null) {
+            document.symbols.internSubtree(child);
+        }
+    }
+    
+    private void makeRoom(int idx, int count) {
+        if(size + count > data.length) {
+            Content[] tmp = new Content[Math.max(Math.max(8, size * 2), size + count)];
+            System.arraycopy(data,   0, tmp,       0,      idx);
+            System.arraycopy(data, idx, tmp, idx+count, size-idx);
+            data = tmp;
+        } else {
+            System.arraycopy(data, idx, data, idx+count, size-idx);
+        }
+    }
+    
+    /**
+     * Marks all indices starting at idx as stale. When only the tail of the
+     * list was changed and the indices before it were valid they stay valid.
+     */
+    private void invalidateIndices(int idx, boolean atEnd) {
+        if(atEnd && validIndices >= idx) {
+            validIndices = size;
+        } else if(idx < validIndices) {
+            validIndices = idx;
+        }
+    }
+    
     private void reindex(int idx) {
         Content[] d = data;
         for(int n=size ; idx<n ; idx++) {
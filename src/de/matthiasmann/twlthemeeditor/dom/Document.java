@@ -30,12 +30,15 @@
 package de.matthiasmann.twlthemeeditor.dom;
 
 import de.matthiasmann.twl.model.HasCallback;
+import de.matthiasmann.twl.utils.CallbackSupport;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -47,19 +50,31 @@ import org.xmlpull.v1.XmlSerializer;
  */
 public final class Document extends HasCallback implements Parent {
     
+    /**
+     * Receives all changes of the document with one registration.
+     */
+    public interface ChangeListener {
+        
+        public void documentChanged(DocumentChange change);
+        
+    }
+    
     static final AtomicLong ID_GEN = new AtomicLong();
     
     final long id;
     final ContentList content;
     final HashMap<String, Object> properties;
+    final SymbolTable symbols;
     
     Namespace[] namespaces;
     Element undoElement;
+    ChangeListener[] changeListeners;
 
     public Document() {
         this.id = ID_GEN.incrementAndGet();
         this.content = new ContentList(this);
         this.properties = new HashMap<String, Object>();
+        this.symbols = new SymbolTable();
     }
 
     public Document(Element rootElement) {
@@ -88,6 +103,49 @@ public final class Document extends HasCallback implements Parent {
         return content.findNode(id);
     }
     
+    /**
+     * Finds a node by following the path from {@link #getPath(DomNode) }.
+     * Falls back to {@link #findNode(long) } when the path doesn't lead
+     * to the node with the given ID.
+     */
+    DomNode findNode(long id, int[] path) {
+        if(path != null && undoElement == null) {
+            DomNode node = this;
+            for(int idx : path) {
+                if(!(node instanceof Parent) || idx >= ((Parent)node).getContentSize()) {
+                    node = null;
+                    break;
+                }
+                node = ((Parent)node).getContent(idx);
+            }
+            if(node != null && node.getID() == id) {
+                return node;
+            }
+        }
+        return findNode(id);
+    }
+    
+    /**
+     * Returns the child indices from the document to the node.
+     * @return the path or null if the node is not part of a document
+     */
+    static int[] getPath(DomNode node) {
+        int depth = 0;
+        DomNode n = node;
+        while(n instanceof Content) {
+            n = ((Content)n).parent;
+            depth++;
+        }
+        if(!(n instanceof Document)) {
+            return null;
+        }
+        int[] path = new int[depth];
+        for(n=node ; depth-->0 ; n=((Content)n).parent) {
+            path[depth] = ((Content)n).getIndex();
+        }
+        return path;
+    }
+    
     public void setProperty(String key, Object value) {
         properties.put(key, value);
     }
@@ -96,6 +154,14 @@ public final class Document extends HasCallback implements Parent {
         return properties.get(key);
     }
     
+    public void addChangeListener(ChangeListener listener) {
+        changeListeners = CallbackSupport.addCallbackToList(changeListeners, listener, ChangeListener.class);
+    }
+    
+    public void removeChangeListener(ChangeListener listener) {
+        changeListeners = CallbackSupport.removeCallbackFromList(changeListeners, listener);
+    }
+    
     public void addContentListener(ContentListener listener) {
         content.addContentListener(listener);
     }
@@ -156,7 +222,7 @@ public final class Document extends HasCallback implements Parent {
         if(child.parent != this) {
             throw new IllegalStateException("not a direct child");
         }
-        removeContent(child.index);
+        removeContent(child.getIndex());
     }
 
     public Content removeContent(int idx) {
@@ -169,6 +235,40 @@ public final class Document extends HasCallback implements Parent {
         return child;
     }
 
+    public void addContent(int idx, List<? extends Content> children) {
+        if(idx < 0 || idx > content.size) {
+            throw new IndexOutOfBoundsException();
+        }
+        
+        Content[] tmp = content.checkNewChildren(children);
+        content.addAll(idx, tmp);
+        Undo.startComplexOperation();
+        try {
+            for(int i=0 ; i<tmp.length ; i++) {
+                content.fireAddEvent(tmp[i], idx + i);
+            }
+        } finally {
+            Undo.endComplexOperation();
+        }
+    }
+
+    public List<Content> removeContent(int fromIndex, int toIndex) {
+        if(fromIndex < 0 || fromIndex > toIndex || toIndex > content.size) {
+            throw new IndexOutOfBoundsException();
+        }
+        
+        Content[] tmp = content.removeRange(fromIndex, toIndex);
+        Undo.startComplexOperation();
+        try {
+            for(int i=tmp.length ; i-->0 ;) {
+                content.fireRemoveEvent(tmp[i], fromIndex + i);
+            }
+        } finally {
+            Undo.endComplexOperation();
+        }
+        return Arrays.asList(tmp);
+    }
+
     public void moveContent(int fromIndex, int toIndex) {
         Content child = content.get(fromIndex);
         if(toIndex < 0 || toIndex >= content.size) {
@@ -236,7 +336,7 @@ public final class Document extends HasCallback implements Parent {
                 return ns;
             }
         }
-        Namespace ns = new Namespace(prefix, uri);
+        Namespace ns = new Namespace(symbols.intern(prefix), symbols.intern(uri));
         ns.next = namespaces[idx];
         namespaces[idx] = ns;
         return ns;
@@ -250,8 +350,9 @@ public final class Document extends HasCallback implements Parent {
         
         xpp.require(XmlPullParser.START_DOCUMENT, null, null);
         Document document = new Document();
-        ArrayList<Parent> open = new ArrayList<Parent>();
-        Parent tos = document;
+        // the tree is built directly without events - nobody can listen yet
+        ArrayList<ContentList> open = new ArrayList<ContentList>();
+        ContentList tos = document.content;
         StringBuilder sb = new StringBuilder();
         int[] textStartAndLen = new int[2];
         int token = xpp.nextToken();
@@ -263,10 +364,10 @@ public final class Document extends HasCallback implements Parent {
                     }
                     return document;
                 case XmlPullParser.COMMENT:
-                    tos.addContent(new Comment(xpp.getText()));
+                    tos.append(new Comment(xpp.getText()));
                     break;
                 case XmlPullParser.DOCDECL:
-                    tos.addContent(new DocType(xpp.getText()));
+                    tos.append(new DocType(xpp.getText()));
                     break;
                 case XmlPullParser.IGNORABLE_WHITESPACE:
                 case XmlPullParser.ENTITY_REF:
@@ -283,16 +384,16 @@ public final class Document extends HasCallback implements Parent {
                                 sb.append(xpp.getText());
                                 break;
                             default:
-                                tos.addContent(new Text(sb.toString()));
+                                tos.append(new Text(sb.toString()));
                                 continue outer;
                         }
                         token = xpp.nextToken();
                     }
                 case XmlPullParser.PROCESSING_INSTRUCTION:
-                    tos.addContent(new ProcessingInstruction(xpp.getText()));
+                    tos.append(new ProcessingInstruction(xpp.getText()));
                     break;
                 case XmlPullParser.CDSECT:
-                    tos.addContent(new Text(xpp.getText()));
+                    tos.append(new Text(xpp.getText()));
                     break;
                 case XmlPullParser.START_TAG: {
                     String prefix = xpp.getPrefix();
@@ -300,29 +401,28 @@ public final class Document extends HasCallback implements Parent {
                     if(prefix != null) {
                         namespace = document.getNamespace(prefix, xpp.getNamespace());
                     }
+                    SymbolTable symbols = document.symbols;
                     int attrNum = xpp.getAttributeCount();
-                    Element e = new Element(xpp.getName(), namespace);
-                    e.attributes.data = new Attribute[attrNum];
+                    Element e = new Element(symbols.intern(xpp.getName()), namespace);
+                    Attribute[] attributes = new Attribute[attrNum];
                     for(int i=0 ; i<attrNum ; i++) {
                         prefix = xpp.getAttributePrefix(i);
                         namespace = Namespace.NO_NAMESPACE;
                         if(prefix != null) {
                             namespace = document.getNamespace(prefix, xpp.getAttributeNamespace(i));
                         }
-                        Attribute attr = new Attribute(xpp.getAttributeName(i),
-                                namespace, xpp.getAttributeValue(i));
-                        attr.element = e;
-                        attr.index = i;
-                        e.attributes.data[i] = attr;
+                        attributes[i] = new Attribute(symbols.intern(xpp.getAttributeName(i)),
+                                namespace, symbols.internValue(xpp.getAttributeValue(i)));
                     }
-                    tos.addContent(e);
+                    e.attributes.init(attributes);
+                    tos.append(e);
                     open.add(tos);
-                    tos = e;
+                    tos = e.content;
                     break;
                 }
                 case XmlPullParser.END_TAG:
-                    if(tos instanceof Element) {
-                        Element e = (Element)tos;
+                    if(tos.parent instanceof Element) {
+                        Element e = (Element)tos.parent;
                         xpp.require(XmlPullParser.END_TAG, e.namespace.xmlNS(), e.name);
                     } else {
                         xpp.require(XmlPullParser.END_DOCUMENT, null, null);
@@ -342,4 +442,37 @@ public final class Document extends HasCallback implements Parent {
             document.doCallback();
         }
     }
+    
+    static void contentChanged(DocumentChange.Kind kind, Parent parent, Content child, int index, int oldIndex) {
+        Document document = parent.getDocument();
+        if(document != null) {
+            if(document.changeListeners != null) {
+                document.fireChange(new DocumentChange(kind, parent, child, null, index, oldIndex, null, null));
+            }
+            document.doCallback();
+        }
+    }
+    
+    static void attributeChanged(DocumentChange.Kind kind, Element element, Attribute attribute, int index, String oldValue, String newValue) {
+        Document document = element.getDocument();
+        if(document != null) {
+            if(document.changeListeners != null) {
+                document.fireChange(new DocumentChange(kind, element, null, attribute, index, -1, oldValue, newValue));
+            }
+            document.doCallback();
+        }
+    }
+    
+    static void valueChanged(DocumentChange.Kind kind, Content node, Object oldValue, Object newValue) {
+        Document document = node.getDocument();
+        if(document != null && document.changeListeners != null) {
+            document.fireChange(new DocumentChange(kind, node, null, null, -1, -1, oldValue, newValue));
+        }
+    }
+    
+    private void fireChange(DocumentChange change) {
+        for(ChangeListener cl : changeListeners) {
+            cl.documentChanged(change);
+        }
+    }
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.dom;
+
+/**
+ * Describes one change of a document. All changes of nodes which are part
+ * of a document are sent to the {@link Document.ChangeListener}s of that
+ * document.
+ *
+ * @author Matthias Mann
+ */
+public final class DocumentChange {
+    
+    public enum Kind {
+        /** {@link #getContent() } was added to {@link #getNode() } at {@link #getIndex() } */
+        CONTENT_ADDED,
+        /** {@link #getContent() } was removed from {@link #getNode() } at {@link #getIndex() } */
+        CONTENT_REMOVED,
+        /** {@link #getContent() } was moved from {@link #getOldIndex() } to {@link #getIndex() } */
+        CONTENT_MOVED,
+        /** {@link #getAttribute() } was added to the element {@link #getNode() } */
+        ATTRIBUTE_ADDED,
+        /** {@link #getAttribute() } was removed from the element {@link #getNode() } */
+        ATTRIBUTE_REMOVED,
+        /** the value of {@link #getAttribute() } has changed */
+        ATTRIBUTE_CHANGED,
+        /** the value of the text node {@link #getNode() } has changed */
+        TEXT_CHANGED,
+        /** the name of the element {@link #getNode() } has changed */
+        NAME_CHANGED,
+        /** the namespace of the element {@link #getNode() } has changed */
+        NAMESPACE_CHANGED
+    }
+    
+    final Kind kind;
+    final DomNode node;
+    final Content content;
+    final Attribute attribute;
+    final int index;
+    final int oldIndex;
+    final Object oldValue;
+    final Object newValue;
+
+    DocumentChange(Kind kind, DomNode node, Content content, Attribute attribute,
+            int index, int oldIndex, Object oldValue, Object newValue) {
+        this.kind = kind;
+        this.node = node;
+        this.content = content;
+        this.attribute = attribute;
+        this.index = index;
+        this.oldIndex = oldIndex;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Returns the parent for content changes, the element for attribute
+     * and name changes or the text node for text changes.
+     * @return the changed node
+     */
+    public DomNode getNode() {
+        return node;
+    }
+
+    /**
+     * Returns the added, removed or moved child
+     * @return the child or null
+     */
+    public Content getContent() {
+        return content;
+    }
+
+    /**
+     * Returns the added, removed or changed attribute
+     * @return the attribute or null
+     */
+    public Attribute getAttribute() {
+        return attribute;
+    }
+
+    /**
+     * Returns the index of the child or attribute
+     * @return the index or -1
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the index before a move
+     * @return the old index or -1
+     */
+    public int getOldIndex() {
+        return oldIndex;
+    }
+
+    public Object getOldValue() {
+        return oldValue;
+    }
+
+    public Object getNewValue() {
+        return newValue;
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentChange[" + kind + " node=" + node + " index=" + index + "]";
+    }
+}
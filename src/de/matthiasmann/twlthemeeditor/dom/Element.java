@@ -30,7 +30,9 @@
 package de.matthiasmann.twlthemeeditor.dom;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import org.xmlpull.v1.XmlSerializer;
 
 /**
@@ -88,10 +90,15 @@ public final class Element extends Content implements Parent {
         if(name == null) {
             throw new NullPointerException("name");
         }
+        Document document = getDocument();
+        if(document != null) {
+            name = document.symbols.intern(name);
+        }
         String oldName = this.name;
         if(!oldName.equals(name)) {
             this.name = name;
             firePropertyChange("name", oldName, name);
+            Document.valueChanged(DocumentChange.Kind.NAME_CHANGED, this, oldName, name);
         }
     }
 
@@ -103,6 +110,7 @@ public final class Element extends Content implements Parent {
         if(!oldNamespace.equals(namespace)) {
             this.namespace = namespace;
             firePropertyChange("namespace", oldNamespace, namespace);
+            Document.valueChanged(DocumentChange.Kind.NAMESPACE_CHANGED, this, oldNamespace, namespace);
         }
     }
     
@@ -177,7 +185,7 @@ public final class Element extends Content implements Parent {
         if(child.parent != this) {
             throw new IllegalStateException("not a direct child");
         }
-        removeContent(child.index);
+        removeContent(child.getIndex());
     }
 
     public Content removeContent(int idx) {
@@ -191,6 +199,50 @@ public final class Element extends Content implements Parent {
         return child;
     }
 
+    public void addContent(int idx, List<? extends Content> children) {
+        if(idx < 0 || idx > content.size) {
+            throw new IndexOutOfBoundsException();
+        }
+        
+        Content[] tmp = content.checkNewChildren(children);
+        content.addAll(idx, tmp);
+        boolean hasText = false;
+        Undo.startComplexOperation();
+        try {
+            for(int i=0 ; i<tmp.length ; i++) {
+                content.fireAddEvent(tmp[i], idx + i);
+                hasText |= tmp[i] instanceof Text;
+            }
+        } finally {
+            Undo.endComplexOperation();
+        }
+        if(hasText) {
+            textChanged();
+        }
+    }
+
+    public List<Content> removeContent(int fromIndex, int toIndex) {
+        if(fromIndex < 0 || fromIndex > toIndex || toIndex > content.size) {
+            throw new IndexOutOfBoundsException();
+        }
+        
+        Content[] tmp = content.removeRange(fromIndex, toIndex);
+        boolean hasText = false;
+        Undo.startComplexOperation();
+        try {
+            for(int i=tmp.length ; i-->0 ;) {
+                content.fireRemoveEvent(tmp[i], fromIndex + i);
+                hasText |= tmp[i] instanceof Text;
+            }
+        } finally {
+            Undo.endComplexOperation();
+        }
+        if(hasText) {
+            textChanged();
+        }
+        return Arrays.asList(tmp);
+    }
+
     public void moveContent(int fromIndex, int toIndex) {
         Content child = content.get(fromIndex);
         if(toIndex < 0 || toIndex >= content.size) {
@@ -210,7 +262,7 @@ public final class Element extends Content implements Parent {
         if(child.parent != this) {
             return -1;
         }
-        return child.index;
+        return content.indexOf(child);
     }
     
     boolean disableTextChanged() {
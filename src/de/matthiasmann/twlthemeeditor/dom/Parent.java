@@ -29,6 +29,8 @@
  */
 package de.matthiasmann.twlthemeeditor.dom;
 
+import java.util.List;
+
 /**
  *
  * @author Matthias Mann
@@ -61,5 +63,20 @@ public interface Parent extends DomNode, Iterable<Content> {
     
     public Content removeContent(int idx);
     
+    /**
+     * Inserts several children with one array shift.
+     * Listeners receive one add event per child in ascending index order.
+     * The insert is recorded as one undo step.
+     */
+    public void addContent(int idx, List<? extends Content> children);
+    
+    /**
+     * Removes the children from fromIndex (inclusive) to toIndex (exclusive)
+     * with one array shift.
+     * Listeners receive one remove event per child in descending index order.
+     * The removal is recorded as one undo step.
+     */
+    public List<Content> removeContent(int fromIndex, int toIndex);
+    
     public void moveContent(int fromIndex, int toIndex);
 }
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.dom;
+
+/**
+ * Interns the names and short attribute values of one document so that
+ * equal strings share one instance.
+ *
+ * <p>Names are interned whenever they enter the document. Attribute values
+ * are only interned while a document is loaded - edited values are stored
+ * as they are.</p>
+ *
+ * @author Matthias Mann
+ */
+final class SymbolTable {
+    
+    /**
+     * Longer attribute values are usually unique and are not interned
+     */
+    static final int MAX_VALUE_LENGTH = 32;
+    
+    private String[] table;
+    private int count;
+
+    SymbolTable() {
+        this.table = new String[256];
+    }
+    
+    String intern(String str) {
+        if(str == null) {
+            return null;
+        }
+        final int hash = str.hashCode();
+        String[] t = table;
+        int mask = t.length - 1;
+        int idx = spread(hash) & mask;
+        for(String s ; (s=t[idx]) != null ; idx=(idx+1) & mask) {
+            if(s == str || (s.hashCode() == hash && s.equals(str))) {
+                return s;
+            }
+        }
+        t[idx] = str;
+        if(++count*2 > t.length) {
+            grow();
+        }
+        return str;
+    }
+    
+    String internValue(String value) {
+        if(value != null && value.length() <= MAX_VALUE_LENGTH) {
+            return intern(value);
+        }
+        return value;
+    }
+    
+    /**
+     * Interns the names of a subtree which is added to the document.
+     */
+    void internSubtree(Content content) {
+        if(content instanceof Element) {
+            Element e = (Element)content;
+            e.name = intern(e.name);
+            AttributeList attributes = e.attributes;
+            for(int i=0,n=attributes.size ; i<n ; i++) {
+                Attribute a = attributes.data[i];
+                a.name = intern(a.name);
+            }
+            ContentList children = e.content;
+            for(int i=0,n=children.size ; i<n ; i++) {
+                internSubtree(children.data[i]);
+            }
+        }
+    }
+    
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+    
+    private void grow() {
+        String[] oldTable = table;
+        String[] t = new String[oldTable.length * 2];
+        int mask = t.length - 1;
+        for(String s : oldTable) {
+            if(s != null) {
+                int idx = spread(s.hashCode()) & mask;
+                while(t[idx] != null) {
+                    idx = (idx+1) & mask;
+                }
+                t[idx] = s;
+            }
+        }
+        table = t;
+    }
+}
@@ -74,6 +74,7 @@ public final class Text extends Content implements Value {
         if(!oldValue.equals(value)) {
             this.value = value;
             firePropertyChange("value", oldValue, value);
+            Document.valueChanged(DocumentChange.Kind.TEXT_CHANGED, this, oldValue, value);
             
             if(parent instanceof Element) {
                 ((Element)parent).textChanged();
@@ -30,12 +30,22 @@
 package de.matthiasmann.twlthemeeditor.dom;
 
 import de.matthiasmann.twl.model.HasCallback;
-import java.beans.PropertyChangeEvent;
-import java.beans.PropertyChangeListener;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.IdentityHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
+ * Records undo steps for all registered documents.
+ *
+ * <p>The history is limited by the number of steps and by the estimated
+ * memory used by the steps. When the memory budget is exceeded the oldest
+ * steps are written to a temp file and read back when they are undone.</p>
  *
  * @author Matthias Mann
  */
@@ -48,53 +58,119 @@ public final class Undo extends HasCallback {
         }
     };
     
-    final Step undoListHead;
+    public static final long DEFAULT_MEMORY_BUDGET = 16 * 1024 * 1024;
+    
+    static final int RECORD_NORMAL = 0;
+    static final int RECORD_UNDO = 1;
+    static final int RECORD_REDO = 2;
+    
+    final StepList undoList;
+    final StepList redoList;
     final ArrayList<Entry> undoStepBuilder;
+    final ArrayList<Entry> replayStepBuilder;
     int maxUndoSteps;
-    int numUndoSteps;
-    boolean undoActive;
+    long memoryBudget;
+    long memoryUsed;
+    boolean journalFailed;
+    int recordMode;
     Entry[] lastUndoEntry;
     long lastUndoTime;
     Object userState;
     
     public Undo() {
-        this.undoListHead = new Step(null, null);
+        this.undoList = new StepList();
+        this.redoList = new StepList();
         this.undoStepBuilder = new ArrayList<Entry>();
+        this.replayStepBuilder = new ArrayList<Entry>();
         this.maxUndoSteps = 1000;
+        this.memoryBudget = DEFAULT_MEMORY_BUDGET;
         this.lastUndoTime = System.currentTimeMillis();
-        
-        undoListHead.next = undoListHead;
-        undoListHead.prev = undoListHead;
     }
     
     public void registerDocument(Document document) {
-        addListeners(document, new L(document));
+        document.addChangeListener(new L(document));
     }
     
     public boolean hasUndo() {
-        return numUndoSteps > 0;
+        return undoList.numSteps > 0;
     }
     
-    public boolean undo() {
-        if(isComplexOperationActive()) {
-            throw new IllegalStateException("Complex operation active");
+    public boolean hasRedo() {
+        return redoList.numSteps > 0;
+    }
+
+    public int getMaxUndoSteps() {
+        return maxUndoSteps;
+    }
+
+    public void setMaxUndoSteps(int maxUndoSteps) {
+        if(maxUndoSteps < 1) {
+            throw new IllegalArgumentException("maxUndoSteps");
         }
-        Step step = undoListHead.next;
-        if(step == undoListHead) {
-            return false;
+        this.maxUndoSteps = maxUndoSteps;
+        if(undoList.numSteps > maxUndoSteps || redoList.numSteps > maxUndoSteps) {
+            while(undoList.numSteps > maxUndoSteps) {
+                undoList.dropOldestStep();
+            }
+            while(redoList.numSteps > maxUndoSteps) {
+                redoList.dropOldestStep();
+            }
+            doCallback();
         }
-        step.unlink();
-        numUndoSteps--;
-        lastUndoEntry = null;
-        undoActive = true;
-        try {
-            undo(step.entries);
-        } finally {
-            undoActive = false;
-            userState = step.userState;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the estimated number of bytes which undo and redo steps may use
+     * in memory. Older steps are moved into a temp file.
+     * 
+     * @param memoryBudget the memory budget in bytes
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        if(memoryBudget < 0) {
+            throw new IllegalArgumentException("memoryBudget");
         }
+        this.memoryBudget = memoryBudget;
+        enforceMemoryBudget();
+    }
+
+    /**
+     * Returns the estimated number of bytes used by the undo and redo steps in memory.
+     * @return the estimated memory usage in bytes
+     */
+    public long getMemoryUsed() {
+        return memoryUsed;
+    }
+    
+    /**
+     * Discards the undo and redo history and deletes the temp files.
+     */
+    public void dispose() {
+        clearHistory();
         doCallback();
-        return true;
+    }
+    
+    /**
+     * Reverts the last step. The changes made by the undo are recorded
+     * as a redo step.
+     * 
+     * @return true if a step was reverted
+     */
+    public boolean undo() {
+        return replay(undoList, redoList, RECORD_UNDO);
+    }
+    
+    /**
+     * Applies the last reverted step again. The changes made by the redo
+     * are recorded as an undo step.
+     * 
+     * @return true if a step was applied
+     */
+    public boolean redo() {
+        return replay(redoList, undoList, RECORD_REDO);
     }
 
     public Object getUserState() {
@@ -120,6 +196,10 @@ public final class Undo extends HasCallback {
     }
     
     void registerUndo(Entry entry) {
+        if(recordMode != RECORD_NORMAL) {
+            replayStepBuilder.add(entry);
+            return;
+        }
         undoStepBuilder.add(entry);
         if(COMPLEX_OPERATION.get().canComplete(this)) {
             completeStep();
@@ -127,77 +207,92 @@ public final class Undo extends HasCallback {
     }
     
     void completeStep() {
+        if(undoStepBuilder.size() == 1 && coalescesWithLastStep(undoStepBuilder.get(0))) {
+            // the last step already restores the old value
+            undoStepBuilder.clear();
+            return;
+        }
         if(!undoStepBuilder.isEmpty()) {
             Step step = new Step(undoStepBuilder.toArray(new Entry[undoStepBuilder.size()]), userState);
             undoStepBuilder.clear();
             
-            while(numUndoSteps >= maxUndoSteps) {
-                undoListHead.prev.unlink();
-                numUndoSteps--;
-            }
-            
-            step.linkAfter(undoListHead);
-            numUndoSteps++;
+            // a new change makes the redo steps invalid
+            redoList.clear();
+            pushUndoStep(step);
             lastUndoEntry = step.entries;
             lastUndoTime = System.currentTimeMillis();
+            enforceMemoryBudget();
             doCallback();
             //System.out.println("Step added: " + step.entries.length);
         }
     }
     
-    static void undo(Entry[] step) {
-        for(int i=step.length ; i-->0 ;) {
-            step[i].undo();
+    void pushUndoStep(Step step) {
+        while(undoList.numSteps >= maxUndoSteps) {
+            undoList.dropOldestStep();
         }
+        undoList.push(step);
     }
     
-    <T extends Entry> T checkLastUndoTime(Class<T> type) {
-        if(lastUndoEntry != null && lastUndoEntry.length == 1 &&
-                type.isInstance(lastUndoEntry[0]) &&
-                (System.currentTimeMillis() - lastUndoTime) < 1000) {
-            return type.cast(lastUndoEntry[0]);
+    boolean replay(StepList from, StepList to, int mode) {
+        if(isComplexOperationActive()) {
+            throw new IllegalStateException("Complex operation active");
         }
-        return null;
-    }
-    
-    static void addListeners(DomNode node, L listener) {
-        if(node instanceof Element) {
-            Element element = (Element)node;
-            element.attributes.addListener(listener);
-            element.addPropertyChangeListener(listener);
-        } else if(node instanceof Text) {
-            Text text = (Text)node;
-            text.addPropertyChangeListener(listener);
+        Step step = from.head.next;
+        if(step == from.head) {
+            return false;
         }
-        
-        if(node instanceof Parent) {
-            Parent parent = (Parent)node;
-            parent.addContentListener(listener);
-            for(int i=0,n=parent.getContentSize() ; i<n ; i++) {
-                addListeners(parent.getContent(i), listener);
+        Entry[] entries = from.pop(step);
+        if(entries == null) {
+            return false;
+        }
+        lastUndoEntry = null;
+        recordMode = mode;
+        try {
+            undo(entries);
+        } finally {
+            recordMode = RECORD_NORMAL;
+            userState = step.userState;
+            if(!replayStepBuilder.isEmpty()) {
+                Step inverse = new Step(replayStepBuilder.toArray(
+                        new Entry[replayStepBuilder.size()]), step.userState);
+                replayStepBuilder.clear();
+                if(to == undoList) {
+                    pushUndoStep(inverse);
+                } else {
+                    to.push(inverse);
+                }
             }
         }
+        enforceMemoryBudget();
+        doCallback();
+        return true;
+    }
+    
+    void clearHistory() {
+        undoList.clear();
+        redoList.clear();
+        lastUndoEntry = null;
     }
     
-    static void removeListeners(DomNode node, L listener) {
-        if(node instanceof Element) {
-            Element element = (Element)node;
-            element.attributes.removeListener(listener);
-            element.removePropertyChangeListener(listener);
-        } else if(node instanceof Text) {
-            Text text = (Text)node;
-            text.removePropertyChangeListener(listener);
+    void enforceMemoryBudget() {
+        if(undoList.spillSteps()) {
+            redoList.spillSteps();
         }
-        
-        if(node instanceof Parent) {
-            Parent parent = (Parent)node;
-            parent.removeContentListener(listener);
-            for(int i=0,n=parent.getContentSize() ; i<n ; i++) {
-                removeListeners(parent.getContent(i), listener);
-            }
+    }
+    
+    static void undo(Entry[] step) {
+        for(int i=step.length ; i-->0 ;) {
+            step[i].undo();
         }
     }
     
+    boolean coalescesWithLastStep(Entry entry) {
+        return lastUndoEntry != null && lastUndoEntry.length == 1 &&
+                entry.coalescesWith(lastUndoEntry[0]) &&
+                (System.currentTimeMillis() - lastUndoTime) < 1000;
+    }
+    
     static Entry makeContentRemoved(Document doc, Parent parent, Content content, int index) {
         if(content instanceof Text) {
             return new TextRemoved(doc, parent, (Text)content, index);
@@ -212,15 +307,33 @@ public final class Undo extends HasCallback {
     }
     
     static final class Step {
-        final Entry[] entries;
         final Object userState;
+        final int size;
         
         Step prev;
         Step next;
+        
+        /** the entries or null when the step was moved into the journal */
+        Entry[] entries;
+        Document[] documents;
+        long journalPos;
+        int journalLength;
 
         Step(Entry[] entries, Object userState) {
             this.entries = entries;
             this.userState = userState;
+            this.size = estimateSize(entries);
+        }
+        
+        static int estimateSize(Entry[] entries) {
+            int size = 64;
+            if(entries != null) {
+                size += 16 + 4*entries.length;
+                for(Entry entry : entries) {
+                    size += entry.estimateSize();
+                }
+            }
+            return size;
         }
         
         void unlink() {
@@ -244,6 +357,130 @@ public final class Undo extends HasCallback {
         }
     }
     
+    /**
+     * A stack of steps. When the memory budget is exceeded the oldest steps
+     * are moved into a journal - so the journal is also used as a stack.
+     */
+    final class StepList {
+        final Step head;
+        int numSteps;
+        UndoJournal journal;
+
+        StepList() {
+            this.head = new Step(null, null);
+            head.next = head;
+            head.prev = head;
+        }
+        
+        void push(Step step) {
+            step.linkAfter(head);
+            numSteps++;
+            memoryUsed += step.size;
+        }
+        
+        /**
+         * Removes the newest step and returns its entries.
+         * @return the entries or null if they could not be read from the journal
+         */
+        Entry[] pop(Step step) {
+            Entry[] entries = step.entries;
+            if(entries == null) {
+                try {
+                    byte[] data = journal.read(step.journalPos, step.journalLength);
+                    journal.removeLast(step.journalPos);
+                    EntryReader r = new EntryReader(data, step.documents);
+                    entries = new Entry[r.in.readInt()];
+                    for(int i=0 ; i<entries.length ; i++) {
+                        entries[i] = r.readEntry();
+                    }
+                } catch(IOException ex) {
+                    Logger.getLogger(Undo.class.getName()).log(Level.SEVERE,
+                            "Could not read undo journal - discarding undo history", ex);
+                    clearHistory();
+                    doCallback();
+                    return null;
+                }
+            } else {
+                memoryUsed -= step.size;
+            }
+            step.unlink();
+            numSteps--;
+            return entries;
+        }
+        
+        void dropOldestStep() {
+            Step step = head.prev;
+            step.unlink();
+            numSteps--;
+            if(step.entries != null) {
+                memoryUsed -= step.size;
+            } else {
+                try {
+                    journal.removeFirst(step.journalPos + step.journalLength);
+                } catch(IOException ex) {
+                    Logger.getLogger(Undo.class.getName()).log(Level.WARNING, "Could not shrink undo journal", ex);
+                }
+            }
+        }
+        
+        void clear() {
+            while(numSteps > 0) {
+                Step step = head.prev;
+                step.unlink();
+                numSteps--;
+                if(step.entries != null) {
+                    memoryUsed -= step.size;
+                }
+            }
+            if(journal != null) {
+                journal.close();
+                journal = null;
+            }
+        }
+        
+        /**
+         * Moves the oldest steps into the journal until the memory budget is met.
+         * @return true if more memory is needed
+         */
+        boolean spillSteps() {
+            // the steps in the journal are always older than the steps in memory
+            for(Step step=head.prev ; memoryUsed > memoryBudget && step != head ; step=step.prev) {
+                if(step.entries != null && !spillStep(step)) {
+                    return false;
+                }
+            }
+            return memoryUsed > memoryBudget;
+        }
+        
+        private boolean spillStep(Step step) {
+            if(journalFailed) {
+                return false;
+            }
+            try {
+                EntryWriter w = new EntryWriter();
+                w.out.writeInt(step.entries.length);
+                for(Entry entry : step.entries) {
+                    w.writeEntry(entry);
+                }
+                byte[] data = w.toByteArray();
+                if(journal == null) {
+                    journal = new UndoJournal();
+                }
+                step.journalPos = journal.append(data);
+                step.journalLength = data.length;
+                step.documents = w.getDocuments();
+                step.entries = null;
+                memoryUsed -= step.size;
+                return true;
+            } catch(IOException ex) {
+                Logger.getLogger(Undo.class.getName()).log(Level.WARNING,
+                        "Could not write undo journal - keeping undo history in memory", ex);
+                journalFailed = true;
+                return false;
+            }
+        }
+    }
+    
     static final class ComplexOP {
         final IdentityHashMap<Undo, Boolean> undos;
         int count;
@@ -274,82 +511,178 @@ public final class Undo extends HasCallback {
         }
     }
     
-    class L implements Parent.ContentListener, AttributeList.AttributeListListener, PropertyChangeListener {
+    class L implements Document.ChangeListener {
         private final Document doc;
 
         L(Document doc) {
             this.doc = doc;
         }
 
-        public void contentAdded(Parent parent, Content child, int index) {
-            if(!undoActive) {
-                registerUndo(new ContentAdded(doc, child));
+        public void documentChanged(DocumentChange change) {
+            switch(change.kind) {
+                case CONTENT_ADDED:
+                    registerUndo(new ContentAdded(doc, change.content));
+                    break;
+                case CONTENT_REMOVED:
+                    registerUndo(makeContentRemoved(doc, (Parent)change.node, change.content, change.index));
+                    break;
+                case CONTENT_MOVED:
+                    registerUndo(new ContentMoved(doc, change.content, change.oldIndex));
+                    break;
+                case ATTRIBUTE_ADDED:
+                    registerUndo(new AttrAdded(doc, (Element)change.node, change.attribute));
+                    break;
+                case ATTRIBUTE_REMOVED:
+                    registerUndo(new AttrRemoved(doc, (Element)change.node, change.attribute, change.index));
+                    break;
+                case ATTRIBUTE_CHANGED:
+                    registerUndo(new AttrChange(doc, change.attribute, (String)change.oldValue));
+                    break;
+                case TEXT_CHANGED:
+                    registerUndo(new TextChanged(doc, (Text)change.node, (String)change.oldValue));
+                    break;
+                case NAME_CHANGED:
+                    registerUndo(new ElementNameChanged(doc, (Element)change.node, 0, change.oldValue));
+                    break;
+                case NAMESPACE_CHANGED:
+                    registerUndo(new ElementNameChanged(doc, (Element)change.node, 1, change.oldValue));
+                    break;
             }
-            addListeners(child, this);
         }
+    }
+    
+    static final int TYPE_TEXT_CHANGED = 1;
+    static final int TYPE_ATTR_CHANGE = 2;
+    static final int TYPE_ATTR_REMOVED = 3;
+    static final int TYPE_ATTR_ADDED = 4;
+    static final int TYPE_CONTENT_ADDED = 5;
+    static final int TYPE_CONTENT_MOVED = 6;
+    static final int TYPE_TEXT_REMOVED = 7;
+    static final int TYPE_ELEMENT_REMOVED = 8;
+    static final int TYPE_COMMENT_REMOVED = 9;
+    static final int TYPE_ELEMENT_NAME_CHANGED = 10;
+    
+    static final class EntryWriter {
+        final ByteArrayOutputStream baos;
+        final DataOutputStream out;
+        final ArrayList<Document> documents;
 
-        public void contentRemoved(Parent parent, Content child, int index) {
-            if(!undoActive) {
-                registerUndo(makeContentRemoved(doc, parent, child, index));
+        EntryWriter() {
+            this.baos = new ByteArrayOutputStream();
+            this.out = new DataOutputStream(baos);
+            this.documents = new ArrayList<Document>();
+        }
+        
+        void writeEntry(Entry entry) throws IOException {
+            out.writeByte(entry.getType());
+            int docIdx = documents.indexOf(entry.doc);
+            if(docIdx < 0) {
+                docIdx = documents.size();
+                documents.add(entry.doc);
             }
-            removeListeners(child, this);
+            out.writeShort(docIdx);
+            entry.write(this);
         }
-
-        public void contentMoved(Parent parent, Content child, int oldIndex, int newIndex) {
-            if(!undoActive) {
-                registerUndo(new ContentMoved(doc, child, oldIndex));
+        
+        void writeString(String str) throws IOException {
+            if(str == null) {
+                out.writeInt(-1);
+            } else {
+                byte[] b = str.getBytes("UTF-8");
+                out.writeInt(b.length);
+                out.write(b);
             }
         }
-
-        public void attributeAdded(Element element, Attribute attribute, int index) {
-            if(!undoActive) {
-                registerUndo(new AttrAdded(doc, element, attribute));
+        
+        void writePath(int[] path) throws IOException {
+            if(path == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(path.length);
+                for(int idx : path) {
+                    out.writeInt(idx);
+                }
             }
-            attribute.addPropertyChangeListener(this);
         }
+        
+        void writeNamespace(Namespace ns) throws IOException {
+            writeString(ns.prefix);
+            writeString(ns.uri);
+        }
+        
+        byte[] toByteArray() throws IOException {
+            out.flush();
+            return baos.toByteArray();
+        }
+        
+        Document[] getDocuments() {
+            return documents.toArray(new Document[documents.size()]);
+        }
+    }
+    
+    static final class EntryReader {
+        final DataInputStream in;
+        final Document[] documents;
 
-        public void attributeRemoved(Element element, Attribute attribute, int index) {
-            if(!undoActive) {
-                registerUndo(new AttrRemoved(doc, element, attribute, index));
+        EntryReader(byte[] data, Document[] documents) {
+            this.in = new DataInputStream(new ByteArrayInputStream(data));
+            this.documents = documents;
+        }
+        
+        Entry readEntry() throws IOException {
+            int type = in.readByte();
+            Document doc = documents[in.readUnsignedShort()];
+            switch(type) {
+                case TYPE_TEXT_CHANGED: return new TextChanged(doc, this);
+                case TYPE_ATTR_CHANGE: return new AttrChange(doc, this);
+                case TYPE_ATTR_REMOVED: return new AttrRemoved(doc, this);
+                case TYPE_ATTR_ADDED: return new AttrAdded(doc, this);
+                case TYPE_CONTENT_ADDED: return new ContentAdded(doc, this);
+                case TYPE_CONTENT_MOVED: return new ContentMoved(doc, this);
+                case TYPE_TEXT_REMOVED: return new TextRemoved(doc, this);
+                case TYPE_ELEMENT_REMOVED: return new ElementRemoved(doc, this);
+                case TYPE_COMMENT_REMOVED: return new CommentRemoved(doc, this);
+                case TYPE_ELEMENT_NAME_CHANGED: return new ElementNameChanged(doc, this);
+                default:
+                    throw new IOException("Unknown undo entry type: " + type);
             }
-            attribute.removePropertyChangeListener(this);
         }
-
-        public void attributeChanged(Element element, Attribute attribute, String oldValue, String newValue) {
-            if(!undoActive) {
-                AttrChange attrChange = checkLastUndoTime(AttrChange.class);
-                if(attrChange != null && attrChange.same(attribute)) {
-                    return;
-                }
-                registerUndo(new AttrChange(doc, attribute, oldValue));
+        
+        String readString() throws IOException {
+            int length = in.readInt();
+            if(length < 0) {
+                return null;
             }
+            byte[] b = new byte[length];
+            in.readFully(b);
+            return new String(b, "UTF-8");
         }
-
-        public void propertyChange(PropertyChangeEvent evt) {
-            if(!undoActive) {
-                Object source = evt.getSource();
-                String propertyName = evt.getPropertyName();
-                if("value".equals(propertyName) && (source instanceof Text)) {
-                    Text text = (Text)source;
-                    TextChanged textChanged = checkLastUndoTime(TextChanged.class);
-                    if(textChanged != null && textChanged.same(text)) {
-                        return;
-                    }
-                    registerUndo(new TextChanged(doc, text, (String)evt.getOldValue()));
-                    return;
-                }
-                if(source instanceof Element) {
-                    Element element = (Element)source;
-                    int propertyIdx = ElementNameChanged.getPropertyIndex(propertyName);
-                    if(propertyIdx >= 0) {
-                        registerUndo(new ElementNameChanged(doc, element, propertyIdx, evt.getOldValue()));
-                    }
-                }
+        
+        int[] readPath() throws IOException {
+            int length = in.readInt();
+            if(length < 0) {
+                return null;
             }
+            int[] path = new int[length];
+            for(int i=0 ; i<length ; i++) {
+                path[i] = in.readInt();
+            }
+            return path;
+        }
+        
+        Namespace readNamespace(Document doc) throws IOException {
+            String prefix = readString();
+            String uri = readString();
+            if(prefix.length() == 0 && uri.length() == 0) {
+                return Namespace.NO_NAMESPACE;
+            }
+            return doc.getNamespace(prefix, uri);
         }
     }
     
     static abstract class Entry {
+        static final int ENTRY_SIZE = 32;
+        
         final Document doc;
 
         Entry(Document doc) {
@@ -357,55 +690,140 @@ public final class Undo extends HasCallback {
         }
         
         abstract void undo();
+        
+        abstract int getType();
+        
+        /**
+         * Returns an estimate of the memory used by this entry in bytes.
+         */
+        abstract int estimateSize();
+        
+        abstract void write(EntryWriter w) throws IOException;
+        
+        /**
+         * Returns true if this change can be merged into a single entry step
+         * which already restores the old value.
+         */
+        boolean coalescesWith(Entry entry) {
+            return false;
+        }
+        
+        static int estimateSize(String str) {
+            return (str != null) ? 40 + 2*str.length() : 0;
+        }
+        
+        static int estimateSize(int[] path) {
+            return (path != null) ? 16 + 4*path.length : 0;
+        }
     }
     
     static class TextChanged extends Entry {
         final long textID;
+        final int[] path;
         final String oldValue;
 
         TextChanged(Document doc, Text text, String oldValue) {
             super(doc);
             this.textID = text.id;
+            this.path = Document.getPath(text);
             this.oldValue = oldValue;
         }
 
+        TextChanged(Document doc, EntryReader r) throws IOException {
+            super(doc);
+            this.textID = r.in.readLong();
+            this.path = r.readPath();
+            this.oldValue = r.readString();
+        }
+
         @Override
         void undo() {
-            Text text = (Text)doc.findNode(textID);
+            Text text = (Text)doc.findNode(textID, path);
             text.setValue(oldValue);
         }
 
-        boolean same(Text text) {
-            return textID == text.id;
+        @Override
+        boolean coalescesWith(Entry entry) {
+            return (entry instanceof TextChanged) &&
+                    ((TextChanged)entry).textID == textID;
+        }
+
+        @Override
+        int getType() {
+            return TYPE_TEXT_CHANGED;
+        }
+
+        @Override
+        int estimateSize() {
+            return ENTRY_SIZE + estimateSize(path) + estimateSize(oldValue);
+        }
+
+        @Override
+        void write(EntryWriter w) throws IOException {
+            w.out.writeLong(textID);
+            w.writePath(path);
+            w.writeString(oldValue);
         }
     }
     
     static class AttrChange extends Entry {
         final long elementID;
+        final int[] path;
         final long attrID;
         final String oldValue;
 
         AttrChange(Document doc, Attribute attribute, String oldValue) {
             super(doc);
             this.elementID = attribute.element.id;
+            this.path = Document.getPath(attribute.element);
             this.attrID = attribute.id;
             this.oldValue = oldValue;
         }
 
+        AttrChange(Document doc, EntryReader r) throws IOException {
+            super(doc);
+            this.elementID = r.in.readLong();
+            this.path = r.readPath();
+            this.attrID = r.in.readLong();
+            this.oldValue = r.readString();
+        }
+
         @Override
         void undo() {
-            Element e = (Element)doc.findNode(elementID);
+            Element e = (Element)doc.findNode(elementID, path);
             Attribute a = e.getAttributes().findAttribute(attrID);
             a.setValue(oldValue);
         }
 
-        boolean same(Attribute attribute) {
-            return attrID == attribute.id && elementID == attribute.element.id;
+        @Override
+        boolean coalescesWith(Entry entry) {
+            return (entry instanceof AttrChange) &&
+                    ((AttrChange)entry).attrID == attrID &&
+                    ((AttrChange)entry).elementID == elementID;
+        }
+
+        @Override
+        int getType() {
+            return TYPE_ATTR_CHANGE;
+        }
+
+        @Override
+        int estimateSize() {
+            return ENTRY_SIZE + estimateSize(path) + estimateSize(oldValue);
+        }
+
+        @Override
+        void write(EntryWriter w) throws IOException {
+            w.out.writeLong(elementID);
+            w.writePath(path);
+            w.out.writeLong(attrID);
+            w.writeString(oldValue);
         }
     }
     
     static class AttrRemoved extends Entry {
         final long elementID;
+        final int[] path;
         final long attrID;
         final String name;
         final Namespace ns;
@@ -415,6 +833,7 @@ public final class Undo extends HasCallback {
         AttrRemoved(Document doc, Element element, Attribute attribute, int index) {
             super(doc);
             this.elementID = element.id;
+            this.path = Document.getPath(element);
             this.attrID = attribute.id;
             this.name = attribute.name;
             this.ns = attribute.namespace;
@@ -422,66 +841,175 @@ public final class Undo extends HasCallback {
             this.index = index;
         }
 
+        AttrRemoved(Document doc, EntryReader r) throws IOException {
+            super(doc);
+            this.elementID = r.in.readLong();
+            this.path = r.readPath();
+            this.attrID = r.in.readLong();
+            this.name = r.readString();
+            this.ns = r.readNamespace(doc);
+            this.value = r.readString();
+            this.index = r.in.readInt();
+        }
+
         @Override
         void undo() {
-            Element e = (Element)doc.findNode(elementID);
+            Element e = (Element)doc.findNode(elementID, path);
             Attribute a = new Attribute(attrID, name, ns, value);
             e.getAttributes().add(index, a);
         }
+
+        @Override
+        int getType() {
+            return TYPE_ATTR_REMOVED;
+        }
+
+        @Override
+        int estimateSize() {
+            return ENTRY_SIZE + estimateSize(path) + 16 + estimateSize(name) + estimateSize(value);
+        }
+
+        @Override
+        void write(EntryWriter w) throws IOException {
+            w.out.writeLong(elementID);
+            w.writePath(path);
+            w.out.writeLong(attrID);
+            w.writeString(name);
+            w.writeNamespace(ns);
+            w.writeString(value);
+            w.out.writeInt(index);
+        }
     }
     
     static class AttrAdded extends Entry {
         final long elementID;
+        final int[] path;
         final long attrID;
 
         AttrAdded(Document doc, Element element, Attribute attribute) {
             super(doc);
             this.elementID = element.id;
+            this.path = Document.getPath(element);
             this.attrID = attribute.id;
         }
 
+        AttrAdded(Document doc, EntryReader r) throws IOException {
+            super(doc);
+            this.elementID = r.in.readLong();
+            this.path = r.readPath();
+            this.attrID = r.in.readLong();
+        }
+
         @Override
         void undo() {
-            Element e = (Element)doc.findNode(elementID);
+            Element e = (Element)doc.findNode(elementID, path);
             Attribute a = e.getAttributes().findAttribute(attrID);
             e.getAttributes().remove(a);
         }
+
+        @Override
+        int getType() {
+            return TYPE_ATTR_ADDED;
+        }
+
+        @Override
+        int estimateSize() {
+            return ENTRY_SIZE + estimateSize(path);
+        }
+
+        @Override
+        void write(EntryWriter w) throws IOException {
+            w.out.writeLong(elementID);
+            w.writePath(path);
+            w.out.writeLong(attrID);
+        }
     }
     
     static class ContentAdded extends Entry {
         final long contentID;
+        final int[] path;
 
         ContentAdded(Document doc, Content content) {
             super(doc);
             this.contentID = content.id;
+            this.path = Document.getPath(content);
+        }
+
+        ContentAdded(Document doc, EntryReader r) throws IOException {
+            super(doc);
+            this.contentID = r.in.readLong();
+            this.path = r.readPath();
         }
 
         @Override
         void undo() {
-            Content content = (Content)doc.findNode(contentID);
+            Content content = (Content)doc.findNode(contentID, path);
             content.getParent().removeContent(content);
         }
+
+        @Override
+        int getType() {
+            return TYPE_CONTENT_ADDED;
+        }
+
+        @Override
+        int estimateSize() {
+            return ENTRY_SIZE + estimateSize(path);
+        }
+
+        @Override
+        void write(EntryWriter w) throws IOException {
+            w.out.writeLong(contentID);
+            w.writePath(path);
+        }
     }
     
     static class ContentMoved extends Entry {
         final long contentID;
+        final int[] path;
         final int oldIndex;
 
         ContentMoved(Document doc, Content content, int oldIndex) {
             super(doc);
             this.contentID = content.id;
+            this.path = Document.getPath(content);
             this.oldIndex = oldIndex;
         }
 
+        ContentMoved(Document doc, EntryReader r) throws IOException {
+            super(doc);
+            this.contentID = r.in.readLong();
+            this.path = r.readPath();
+            this.oldIndex = r.in.readInt();
+        }
+
         @Override
         void undo() {
-            Content content = (Content)doc.findNode(contentID);
-            content.getParent().moveContent(content.index, oldIndex);
+            Content content = (Content)doc.findNode(contentID, path);
+            content.getParent().moveContent(content.getIndex(), oldIndex);
+        }
+
+        @Override
+        int getType() {
+            return TYPE_CONTENT_MOVED;
+        }
+
+        @Override
+        int estimateSize() {
+            return ENTRY_SIZE + estimateSize(path);
+        }
+
+        @Override
+        void write(EntryWriter w) throws IOException {
+            w.out.writeLong(contentID);
+            w.writePath(path);
+            w.out.writeInt(oldIndex);
         }
     }
     
     static class TextRemoved extends Entry {
         final long parentID;
+        final int[] path;
         final long textID;
         final boolean cdata;
         final String value;
@@ -490,22 +1018,54 @@ public final class Undo extends HasCallback {
         TextRemoved(Document doc, Parent parent, Text text, int index) {
             super(doc);
             this.parentID = parent.getID();
+            this.path = Document.getPath(parent);
             this.textID = text.id;
             this.cdata = text.cdata;
             this.value = text.value;
             this.index = index;
         }
 
+        TextRemoved(Document doc, EntryReader r) throws IOException {
+            super(doc);
+            this.parentID = r.in.readLong();
+            this.path = r.readPath();
+            this.textID = r.in.readLong();
+            this.cdata = r.in.readBoolean();
+            this.value = r.readString();
+            this.index = r.in.readInt();
+        }
+
         @Override
         void undo() {
-            Parent parent = (Parent)doc.findNode(parentID);
+            Parent parent = (Parent)doc.findNode(parentID, path);
             Text text = new Text(textID, value, cdata);
             parent.addContent(index, text);
         }
+
+        @Override
+        int getType() {
+            return TYPE_TEXT_REMOVED;
+        }
+
+        @Override
+        int estimateSize() {
+            return ENTRY_SIZE + estimateSize(path) + 16 + estimateSize(value);
+        }
+
+        @Override
+        void write(EntryWriter w) throws IOException {
+            w.out.writeLong(parentID);
+            w.writePath(path);
+            w.out.writeLong(textID);
+            w.out.writeBoolean(cdata);
+            w.writeString(value);
+            w.out.writeInt(index);
+        }
     }
     
     static class ElementRemoved extends Entry {
         final long parentID;
+        final int[] path;
         final long elementID;
         final String name;
         final Namespace ns;
@@ -518,6 +1078,7 @@ public final class Undo extends HasCallback {
         ElementRemoved(Document doc, Parent parent, Element element, int index) {
             super(doc);
             this.parentID = parent.getID();
+            this.path = Document.getPath(parent);
             this.elementID = element.id;
             this.name = element.name;
             this.ns = element.namespace;
@@ -553,17 +1114,56 @@ public final class Undo extends HasCallback {
             }
         }
 
+        ElementRemoved(Document doc, EntryReader r) throws IOException {
+            super(doc);
+            this.parentID = r.in.readLong();
+            this.path = r.readPath();
+            this.elementID = r.in.readLong();
+            this.name = r.readString();
+            this.ns = r.readNamespace(doc);
+            this.index = r.in.readInt();
+            
+            int attributeSize = r.in.readInt();
+            if(attributeSize > 0) {
+                this.attrIDs = new long[attributeSize];
+                this.attrNameValues = new String[attributeSize*2];
+                this.attrNamespaces = new Namespace[attributeSize];
+                
+                for(int i=0 ; i<attributeSize ; i++) {
+                    attrIDs[i] = r.in.readLong();
+                    attrNameValues[i*2+0] = r.readString();
+                    attrNameValues[i*2+1] = r.readString();
+                    attrNamespaces[i] = r.readNamespace(doc);
+                }
+            } else {
+                this.attrIDs = null;
+                this.attrNameValues = null;
+                this.attrNamespaces = null;
+            }
+            
+            int contentSize = r.in.readInt();
+            if(contentSize > 0) {
+                this.children = new Entry[contentSize];
+                for(int i=0 ; i<contentSize ; i++) {
+                    children[i] = r.readEntry();
+                }
+            } else {
+                this.children = null;
+            }
+        }
+
         @Override
         void undo() {
-            Parent parent = (Parent)doc.findNode(parentID);
+            Parent parent = (Parent)doc.findNode(parentID, path);
             Element element = new Element(elementID, name, ns);
             if(attrIDs != null) {
                 int n = attrIDs.length;
-                element.attributes.data = new Attribute[n];
+                Attribute[] attributes = new Attribute[n];
                 for(int i=0 ; i<n ; i++) {
-                    element.attributes.data[i] = new Attribute(
+                    attributes[i] = new Attribute(
                             attrIDs[i], attrNameValues[i*2], attrNamespaces[i], attrNameValues[i*2+1]);
                 }
+                element.attributes.init(attributes);
             }
             if(children != null) {
                 Element oldUndoElement = doc.undoElement;
@@ -576,10 +1176,65 @@ public final class Undo extends HasCallback {
             }
             parent.addContent(index, element);
         }
+
+        @Override
+        int getType() {
+            return TYPE_ELEMENT_REMOVED;
+        }
+
+        @Override
+        int estimateSize() {
+            int size = ENTRY_SIZE + estimateSize(path) + 32 + estimateSize(name);
+            if(attrIDs != null) {
+                size += 48 + attrIDs.length * 20;
+                for(String str : attrNameValues) {
+                    size += estimateSize(str);
+                }
+            }
+            if(children != null) {
+                size += 16 + children.length * 4;
+                for(Entry child : children) {
+                    size += child.estimateSize();
+                }
+            }
+            return size;
+        }
+
+        @Override
+        void write(EntryWriter w) throws IOException {
+            w.out.writeLong(parentID);
+            w.writePath(path);
+            w.out.writeLong(elementID);
+            w.writeString(name);
+            w.writeNamespace(ns);
+            w.out.writeInt(index);
+            
+            if(attrIDs != null) {
+                w.out.writeInt(attrIDs.length);
+                for(int i=0 ; i<attrIDs.length ; i++) {
+                    w.out.writeLong(attrIDs[i]);
+                    w.writeString(attrNameValues[i*2+0]);
+                    w.writeString(attrNameValues[i*2+1]);
+                    w.writeNamespace(attrNamespaces[i]);
+                }
+            } else {
+                w.out.writeInt(0);
+            }
+            
+            if(children != null) {
+                w.out.writeInt(children.length);
+                for(Entry child : children) {
+                    w.writeEntry(child);
+                }
+            } else {
+                w.out.writeInt(0);
+            }
+        }
     }
     
     static class CommentRemoved extends Entry {
         final long parentID;
+        final int[] path;
         final long commentID;
         final String value;
         final int index;
@@ -587,44 +1242,82 @@ public final class Undo extends HasCallback {
         CommentRemoved(Document doc, Parent parent, Comment comment, int index) {
             super(doc);
             this.parentID = parent.getID();
+            this.path = Document.getPath(parent);
             this.commentID = comment.id;
             this.value = comment.value;
             this.index = index;
         }
 
+        CommentRemoved(Document doc, EntryReader r) throws IOException {
+            super(doc);
+            this.parentID = r.in.readLong();
+            this.path = r.readPath();
+            this.commentID = r.in.readLong();
+            this.value = r.readString();
+            this.index = r.in.readInt();
+        }
+
         @Override
         void undo() {
-            Parent parent = (Parent)doc.findNode(parentID);
+            Parent parent = (Parent)doc.findNode(parentID, path);
             Comment comment = new Comment(commentID, value);
             parent.addContent(index, comment);
         }
+
+        @Override
+        int getType() {
+            return TYPE_COMMENT_REMOVED;
+        }
+
+        @Override
+        int estimateSize() {
+            return ENTRY_SIZE + estimateSize(path) + 16 + estimateSize(value);
+        }
+
+        @Override
+        void write(EntryWriter w) throws IOException {
+            w.out.writeLong(parentID);
+            w.writePath(path);
+            w.out.writeLong(commentID);
+            w.writeString(value);
+            w.out.writeInt(index);
+        }
     }
     
     static class ElementNameChanged extends Entry {
         final long elementID;
+        final int[] path;
         final int propertyIdx;
         final Object oldValue;
 
-        static int getPropertyIndex(String propertyName) {
-            if("name".equals(propertyName)) {
-                return 0;
-            }
-            if("namespace".equals(propertyName)) {
-                return 1;
-            }
-            return -1;
-        }
-        
         ElementNameChanged(Document doc, Element element, int propertyIdx, Object oldValue) {
             super(doc);
             this.elementID = element.id;
+            this.path = Document.getPath(element);
             this.propertyIdx = propertyIdx;
             this.oldValue = oldValue;
         }
 
+        ElementNameChanged(Document doc, EntryReader r) throws IOException {
+            super(doc);
+            this.elementID = r.in.readLong();
+            this.path = r.readPath();
+            this.propertyIdx = r.in.readByte();
+            switch(propertyIdx) {
+                case 0:
+                    this.oldValue = r.readString();
+                    break;
+                case 1:
+                    this.oldValue = r.readNamespace(doc);
+                    break;
+                default:
+                    throw new IOException("Unknown property index: " + propertyIdx);
+            }
+        }
+
         @Override
         void undo() {
-            Element e = (Element)doc.findNode(elementID);
+            Element e = (Element)doc.findNode(elementID, path);
             switch(propertyIdx) {
                 case 0:
                     e.setName((String)oldValue);
@@ -636,5 +1329,27 @@ public final class Undo extends HasCallback {
                     throw new AssertionError();
             }
         }
+
+        @Override
+        int getType() {
+            return TYPE_ELEMENT_NAME_CHANGED;
+        }
+
+        @Override
+        int estimateSize() {
+            return ENTRY_SIZE + estimateSize(path) + ((propertyIdx == 0) ? estimateSize((String)oldValue) : 0);
+        }
+
+        @Override
+        void write(EntryWriter w) throws IOException {
+            w.out.writeLong(elementID);
+            w.writePath(path);
+            w.out.writeByte(propertyIdx);
+            if(propertyIdx == 0) {
+                w.writeString((String)oldValue);
+            } else {
+                w.writeNamespace((Namespace)oldValue);
+            }
+        }
     }
 }
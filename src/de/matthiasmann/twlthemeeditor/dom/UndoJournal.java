@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.dom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * A temp file which stores the oldest undo steps.
+ *
+ * <p>Records are appended for newer steps and removed either from the end
+ * (when the step is undone) or from the start (when the step is dropped).
+ * Positions are logical - they stay valid when the unused space at the
+ * start of the file is reclaimed.</p>
+ *
+ * @author Matthias Mann
+ */
+final class UndoJournal {
+    
+    private static final int COMPACT_THRESHOLD = 1024*1024;
+    
+    private File file;
+    private RandomAccessFile raf;
+    private long start;
+    private long end;
+    private long shift;
+
+    long append(byte[] data) throws IOException {
+        if(raf == null) {
+            file = File.createTempFile("twlthemeeditor-undo", ".journal");
+            file.deleteOnExit();
+            raf = new RandomAccessFile(file, "rw");
+        }
+        long pos = end;
+        raf.seek(pos - shift);
+        raf.write(data);
+        end += data.length;
+        return pos;
+    }
+    
+    byte[] read(long pos, int length) throws IOException {
+        byte[] data = new byte[length];
+        raf.seek(pos - shift);
+        raf.readFully(data);
+        return data;
+    }
+    
+    /**
+     * Removes the newest record which starts at pos.
+     */
+    void removeLast(long pos) throws IOException {
+        end = pos;
+        if(end <= start) {
+            clear();
+        }
+    }
+    
+    /**
+     * Removes the oldest record which ends at pos.
+     */
+    void removeFirst(long pos) throws IOException {
+        start = pos;
+        if(start >= end) {
+            clear();
+        } else {
+            long unused = start - shift;
+            if(unused > COMPACT_THRESHOLD && unused > end - start) {
+                compact();
+            }
+        }
+    }
+    
+    /**
+     * Returns the size of the temp file which includes unused space at the start.
+     */
+    long getFileLength() throws IOException {
+        return (raf != null) ? raf.length() : 0;
+    }
+    
+    void close() {
+        if(raf != null) {
+            try {
+                raf.close();
+            } catch(IOException ignore) {
+            }
+            file.delete();
+            raf = null;
+            file = null;
+        }
+        start = end = shift = 0;
+    }
+    
+    private void clear() throws IOException {
+        start = end;
+        shift = end;
+        if(raf != null) {
+            raf.setLength(0);
+        }
+    }
+    
+    private void compact() throws IOException {
+        byte[] buf = new byte[65536];
+        long src = start - shift;
+        long length = end - start;
+        for(long done=0 ; done<length ;) {
+            int n = (int)Math.min(buf.length, length - done);
+            raf.seek(src + done);
+            raf.readFully(buf, 0, n);
+            raf.seek(done);
+            raf.write(buf, 0, n);
+            done += n;
+        }
+        raf.setLength(length);
+        shift = start;
+    }
+}
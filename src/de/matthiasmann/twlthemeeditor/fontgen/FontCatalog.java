@@ -0,0 +1,402 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.fontgen;
+
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A persistent index of TrueType fonts. Each entry stores the name, family
+ * and subfamily name, glyph
+ * count, defined unicode blocks and a small preview image of a font file.
+ * Entries are keyed by the file path and are only valid as long as the
+ * file size and modification time did not change.
+ *
+ * @author Matthias Mann
+ */
+public class FontCatalog {
+
+    private static final int MAGIC = 0x54464332;    // "TFC2"
+    private static final int THUMBNAIL_WIDTH = 384;
+    private static final int THUMBNAIL_HEIGHT = 40;
+    private static final float THUMBNAIL_FONT_SIZE = 24;
+    private static final String THUMBNAIL_TEXT = "AaBbCcDdEe 0123";
+
+    private final File cacheFile;
+    private final HashMap<File, Entry> entries;
+    private boolean loaded;
+    private boolean dirty;
+
+    public FontCatalog(File cacheFile) {
+        this.cacheFile = cacheFile;
+        this.entries = new HashMap<File, Entry>();
+    }
+
+    public static File getDefaultCacheFile() {
+        File dir = new File(System.getProperty("user.home"), ".twlthemeeditor");
+        return new File(dir, "fontcatalog.bin");
+    }
+
+    /**
+     * Returns the entry for the given font file if it is indexed and still
+     * up to date.
+     *
+     * @param file the font file
+     * @return the entry or null
+     */
+    public synchronized Entry get(File file) {
+        Entry entry = entries.get(file);
+        if(entry != null && entry.isUpToDate(file)) {
+            return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Adds an entry for an already parsed font.
+     *
+     * @param file the font file
+     * @param fontData the parsed font
+     * @return the new entry
+     */
+    public Entry add(File file, FontData fontData) {
+        Entry entry = createEntry(file, fontData);
+        synchronized(this) {
+            entries.put(file, entry);
+            dirty = true;
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the entry for the given font file. Parses the font if it is
+     * not indexed or the indexed entry is outdated.
+     *
+     * @param file the font file
+     * @return the entry
+     * @throws IOException if the font could not be parsed
+     */
+    public Entry index(File file) throws IOException {
+        Entry entry = get(file);
+        if(entry == null) {
+            entry = add(file, new FontData(file, THUMBNAIL_FONT_SIZE));
+        }
+        return entry;
+    }
+
+    /**
+     * Indexes all TrueType fonts in the specified folder and removes entries
+     * of fonts which no longer exist in that folder. Only fonts which are new
+     * or have been modified are parsed.
+     *
+     * @param folder the folder to scan
+     * @return the number of fonts which had to be parsed
+     */
+    public int scanFolder(File folder) {
+        load();
+        
+        synchronized(this) {
+            for(Iterator<File> iter=entries.keySet().iterator() ; iter.hasNext() ;) {
+                File file = iter.next();
+                if(folder.equals(file.getParentFile()) && !file.isFile()) {
+                    iter.remove();
+                    dirty = true;
+                }
+            }
+        }
+
+        int numParsed = 0;
+        File[] files = folder.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                if(file.isFile() && file.getName().toLowerCase(Locale.ENGLISH).endsWith(".ttf") && get(file) == null) {
+                    try {
+                        index(file);
+                        numParsed++;
+                    } catch (Throwable ex) {
+                        Logger.getLogger(FontCatalog.class.getName()).log(Level.WARNING, "Can't index font: " + file, ex);
+                    }
+                }
+            }
+        }
+        return numParsed;
+    }
+
+    /**
+     * Loads the catalog from the cache file. Subsequent calls do nothing.
+     */
+    public synchronized void load() {
+        if(loaded) {
+            return;
+        }
+        loaded = true;
+        if(!cacheFile.isFile()) {
+            return;
+        }
+        try {
+            DataInputStream dis = new DataInputStream(new InflaterInputStream(
+                    new BufferedInputStream(new FileInputStream(cacheFile))));
+            try {
+                if(dis.readInt() != MAGIC) {
+                    return;
+                }
+                int count = dis.readInt();
+                for(int i=0 ; i<count ; i++) {
+                    Entry entry = Entry.read(dis);
+                    if(!entries.containsKey(entry.file)) {
+                        entries.put(entry.file, entry);
+                    }
+                }
+            } finally {
+                dis.close();
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(FontCatalog.class.getName()).log(Level.WARNING, "Can't read font catalog", ex);
+        }
+    }
+
+    /**
+     * Writes the catalog to the cache file if it has been modified.
+     */
+    public synchronized void save() {
+        if(!dirty) {
+            return;
+        }
+        try {
+            File dir = cacheFile.getParentFile();
+            if(dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Can't create directory: " + dir);
+            }
+            DataOutputStream dos = new DataOutputStream(new DeflaterOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(cacheFile))));
+            try {
+                dos.writeInt(MAGIC);
+                dos.writeInt(entries.size());
+                for(Entry entry : entries.values()) {
+                    entry.write(dos);
+                }
+            } finally {
+                dos.close();
+            }
+            dirty = false;
+        } catch (IOException ex) {
+            Logger.getLogger(FontCatalog.class.getName()).log(Level.WARNING, "Can't write font catalog", ex);
+        }
+    }
+
+    private static Entry createEntry(File file, FontData fontData) {
+        HashSet<Character.UnicodeBlock> definedBlocks = fontData.getDefinedBlocks();
+        String[] blocks = new String[definedBlocks.size()];
+        int idx = 0;
+        for(Character.UnicodeBlock block : definedBlocks) {
+            blocks[idx++] = block.toString();
+        }
+
+        return new Entry(file, file.length(), file.lastModified(),
+                fontData.getName(), fontData.getFamilyName(), fontData.getSubFamilyName(),
+                fontData.getNumGlyphs(), blocks, renderThumbnail(fontData));
+    }
+
+    private static byte[] renderThumbnail(FontData fontData) {
+        BufferedImage img = new BufferedImage(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = img.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setColor(Color.WHITE);
+            g.setFont(fontData.getJavaFont().deriveFont(THUMBNAIL_FONT_SIZE));
+            FontMetrics fm = g.getFontMetrics();
+            g.drawString(THUMBNAIL_TEXT, 0, (THUMBNAIL_HEIGHT - fm.getHeight()) / 2 + fm.getAscent());
+        } finally {
+            g.dispose();
+        }
+        byte[] alpha = new byte[THUMBNAIL_WIDTH * THUMBNAIL_HEIGHT];
+        img.getRaster().getDataElements(0, 0, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, alpha);
+        return alpha;
+    }
+
+    public static final class Entry {
+        final File file;
+        final long fileSize;
+        final long lastModified;
+        final String name;
+        final String familyName;
+        final String subFamilyName;
+        final int numGlyphs;
+        final String[] blocks;
+        final byte[] thumbnail;
+
+        Entry(File file, long fileSize, long lastModified, String name, String familyName,
+                String subFamilyName, int numGlyphs, String[] blocks, byte[] thumbnail) {
+            this.file = file;
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+            this.name = name;
+            this.familyName = familyName;
+            this.subFamilyName = subFamilyName;
+            this.numGlyphs = numGlyphs;
+            this.blocks = blocks;
+            this.thumbnail = thumbnail;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getFamilyName() {
+            return familyName;
+        }
+
+        public String getSubFamilyName() {
+            return subFamilyName;
+        }
+
+        /**
+         * Returns the family and subfamily name, eg "DejaVu Sans Bold".
+         * @return the display name
+         */
+        public String getDisplayName() {
+            if(subFamilyName.length() == 0) {
+                return familyName;
+            }
+            return familyName + " " + subFamilyName;
+        }
+
+        /**
+         * Checks if this entry matches the filter. The filter is split into
+         * words and every word must be contained (ignoring case) either in
+         * the font name, the family or subfamily name, the file name or the
+         * name of a defined unicode block.
+         * 
+         * @param filter the filter string
+         * @return true if all words of the filter match
+         */
+        public boolean matches(String filter) {
+            for(String word : filter.toLowerCase(Locale.ENGLISH).split("\\s+")) {
+                if(word.length() > 0 && !matchesWord(word)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean matchesWord(String word) {
+            if(name.toLowerCase(Locale.ENGLISH).contains(word) ||
+                    familyName.toLowerCase(Locale.ENGLISH).contains(word) ||
+                    subFamilyName.toLowerCase(Locale.ENGLISH).contains(word) ||
+                    file.getName().toLowerCase(Locale.ENGLISH).contains(word)) {
+                return true;
+            }
+            for(String block : blocks) {
+                if(block.toLowerCase(Locale.ENGLISH).contains(word)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Creates a preview image with black text on a transparent background.
+         * @return a new TYPE_INT_ARGB image
+         */
+        public BufferedImage createThumbnail() {
+            BufferedImage img = new BufferedImage(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+            int[] argb = new int[thumbnail.length];
+            for(int i=0 ; i<argb.length ; i++) {
+                argb[i] = (thumbnail[i] & 255) << 24;
+            }
+            img.setRGB(0, 0, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, argb, 0, THUMBNAIL_WIDTH);
+            return img;
+        }
+
+        public String getDescription() {
+            return getDisplayName() + "\n" + name + "\n" + numGlyphs + " glyphs, " + blocks.length + " unicode blocks";
+        }
+
+        boolean isUpToDate(File f) {
+            return f.length() == fileSize && f.lastModified() == lastModified;
+        }
+
+        void write(DataOutputStream dos) throws IOException {
+            dos.writeUTF(file.getPath());
+            dos.writeLong(fileSize);
+            dos.writeLong(lastModified);
+            dos.writeUTF(name);
+            dos.writeUTF(familyName);
+            dos.writeUTF(subFamilyName);
+            dos.writeInt(numGlyphs);
+            dos.writeShort(blocks.length);
+            for(String block : blocks) {
+                dos.writeUTF(block);
+            }
+            dos.writeInt(thumbnail.length);
+            dos.write(thumbnail);
+        }
+
+        static Entry read(DataInputStream dis) throws IOException {
+            File file = new File(dis.readUTF());
+            long fileSize = dis.readLong();
+            long lastModified = dis.readLong();
+            String name = dis.readUTF();
+            String familyName = dis.readUTF();
+            String subFamilyName = dis.readUTF();
+            int numGlyphs = dis.readInt();
+            String[] blocks = new String[dis.readUnsignedShort()];
+            for(int i=0 ; i<blocks.length ; i++) {
+                blocks[i] = dis.readUTF();
+            }
+            byte[] thumbnail = new byte[dis.readInt()];
+            if(thumbnail.length != THUMBNAIL_WIDTH * THUMBNAIL_HEIGHT) {
+                throw new IOException("Invalid thumbnail size");
+            }
+            dis.readFully(thumbnail);
+            return new Entry(file, fileSize, lastModified, name, familyName, subFamilyName, numGlyphs, blocks, thumbnail);
+        }
+    }
+}
@@ -48,6 +48,11 @@ import java.util.logging.Logger;
  */
 public final class FontData {
 
+    private static final int GPOS_LOOKUP_PAIR = 2;
+    private static final int GPOS_LOOKUP_EXTENSION = 9;
+    private static final int GPOS_VALUE_X_PLACEMENT = 0x0001;
+    private static final int GPOS_VALUE_X_ADVANCE = 0x0004;
+
     private final File fontFile;
     private final Font javaFont;
     private final float size;
@@ -56,13 +61,33 @@ public final class FontData {
     private final IntMap<int[]> glyphToUnicode;
     private final BitSet defined;
     private final String postScriptName;
+    private final String familyName;
+    private final String subFamilyName;
+    private final byte[] gposSection;
+    private final int[][] gposPairSubTables;
+    private final int numGlyphs;
+    private final long parseTime;
 
     public String getName() {
         return postScriptName;
     }
 
+    /**
+     * Returns the typographic family name (name ID 16) or when the font
+     * does not define it the family name (name ID 1).
+     * @return the family name
+     */
     public String getFamilyName() {
-        return javaFont.getFamily();
+        return familyName;
+    }
+
+    /**
+     * Returns the typographic subfamily name (name ID 17) or when the font
+     * does not define it the subfamily name (name ID 2), eg "Bold Italic".
+     * @return the subfamily name
+     */
+    public String getSubFamilyName() {
+        return subFamilyName;
     }
 
     public float getSize() {
@@ -77,26 +102,98 @@ public final class FontData {
         return fontFile;
     }
 
+    public int getNumGlyphs() {
+        return numGlyphs;
+    }
+
+    /**
+     * Returns the time it took to parse the font file. Derived fonts
+     * return the parse time of the font they were derived from.
+     * @return the parse time in nano seconds
+     */
+    public long getParseTime() {
+        return parseTime;
+    }
+
     public IntMap<IntMap<Integer>> getRawKerning() {
         return kerning;
     }
 
-    public int[][] getKernings(CharSet charSet) {
-        ArrayList<int[]> kernings = new ArrayList<int[]>();
+    /**
+     * Returns the kerning pairs (in font units) between the specified glyphs.
+     * The pairs are collected from the pair adjustment lookups of the 'kern'
+     * feature in the GPOS table and from the legacy 'kern' table. Within one
+     * GPOS lookup the first sub table which defines a pair is used, the values
+     * of different lookups are added. When GPOS and the 'kern' table define
+     * the same pair then the GPOS value is used.
+     *
+     * @param usedGlyphs the glyph indices which should be considered
+     * @return the kerning map: left glyph index -> right glyph index -> value
+     */
+    public IntMap<IntMap<Integer>> getRawKerning(BitSet usedGlyphs) {
+        IntMap<IntMap<Integer>> result = new IntMap<IntMap<Integer>>();
+        if(gposSection != null) {
+            try {
+                readGPOS(gposSection, gposPairSubTables, result, usedGlyphs);
+            } catch (IndexOutOfBoundsException ex) {
+                Logger.getLogger(FontData.class.getName()).log(Level.WARNING,
+                        "Corrupt GPOS table", ex);
+            }
+        }
         for(IntMap.Entry<IntMap<Integer>> from : kerning) {
-            int[] fromUnicode = glyphToUnicode.get(from.key);
-            if(fromUnicode != null && charSet.isIncluded(fromUnicode)) {
+            if(usedGlyphs.get(from.key)) {
                 for(IntMap.Entry<Integer> to : from.value) {
-                    int[] toUnicode = glyphToUnicode.get(to.key);
-                    if(toUnicode != null && charSet.isIncluded(toUnicode)) {
-                        int value = convertUnitToEm(to.value);
-                        if(value != 0) {
-                            expandKerning(kernings, fromUnicode, toUnicode, value, charSet);
-                        }
+                    if(usedGlyphs.get(to.key)) {
+                        addKerningIfAbsent(result, from.key, to.key, to.value);
                     }
                 }
             }
         }
+        return result;
+    }
+
+    /**
+     * Checks if this font contains kerning information which can be read
+     * by {@link #getRawKerning(java.util.BitSet) }.
+     *
+     * @return true if a 'kern' table with supported sub tables or pair
+     *         adjustments for the GPOS 'kern' feature exist
+     */
+    public boolean hasKerning() {
+        return gposSection != null || kerning.iterator().hasNext();
+    }
+
+    /**
+     * Returns the set of glyph indices which are mapped to at least one
+     * code point included in the char set.
+     *
+     * @param charSet the char set
+     * @return the set of used glyph indices
+     */
+    public BitSet getUsedGlyphs(CharSet charSet) {
+        BitSet usedGlyphs = new BitSet();
+        for(IntMap.Entry<int[]> entry : glyphToUnicode) {
+            if(charSet.isIncluded(entry.value)) {
+                usedGlyphs.set(entry.key);
+            }
+        }
+        return usedGlyphs;
+    }
+
+    public int[][] getKernings(CharSet charSet) {
+        return getKernings(getUsedGlyphs(charSet), charSet);
+    }
+
+    public int[][] getKernings(BitSet usedGlyphs, CharSet charSet) {
+        ArrayList<int[]> kernings = new ArrayList<int[]>();
+        for(IntMap.Entry<IntMap<Integer>> from : getRawKerning(usedGlyphs)) {
+            for(IntMap.Entry<Integer> to : from.value) {
+                int value = convertUnitToEm(to.value);
+                if(value != 0) {
+                    expandKerning(kernings, from.key, to.key, value, charSet);
+                }
+            }
+        }
         return kernings.toArray(new int[kernings.size()][]);
     }
     
@@ -137,6 +234,7 @@ public final class FontData {
     }
     
     public FontData(File file, float size) throws IOException {
+        long startTime = System.nanoTime();
         this.fontFile = file;
         this.size = size;
         this.defined = new BitSet();
@@ -150,15 +248,25 @@ public final class FontData {
                 byte[] headSection = readSection(raf, dirTable, "head");
                 byte[] cmapSection = readSection(raf, dirTable, "cmap");
                 byte[] nameSection = readSection(raf, dirTable, "name");
+                byte[] maxpSection = readSectionOptional(raf, dirTable, "maxp");
                 byte[] kernSection = readSectionOptional(raf, dirTable, "kern");
+                byte[] gpos = readSectionOptional(raf, dirTable, "GPOS");
 
                 upem = readUPEM(headSection);
-                postScriptName = readNAME(nameSection);
+                String[] names = readNAME(nameSection);
+                postScriptName = getStyledName(names[1], names[2]);
+                familyName = (names[16].length() > 0) ? names[16] : names[1];
+                subFamilyName = (names[17].length() > 0) ? names[17] : names[2];
+                numGlyphs = (maxpSection != null) ? readUShort(maxpSection, 4) : 0;
                 readCMAP(cmapSection);
 
                 if(kernSection != null) {
                     readKERN(kernSection);
                 }
+                
+                // only keep the GPOS table when it contains pair kerning
+                gposPairSubTables = (gpos != null) ? findKernPairSubTables(gpos) : null;
+                gposSection = (gposPairSubTables != null) ? gpos : null;
             } finally {
                 raf.close();
             }
@@ -181,6 +289,7 @@ public final class FontData {
             }
 
             javaFont = font.deriveFont(style, size);
+            parseTime = System.nanoTime() - startTime;
         } catch (FontFormatException e) {
             throw (IOException)(new IOException("Failed to read font").initCause(e));
         }
@@ -194,7 +303,13 @@ public final class FontData {
         this.kerning = src.kerning;
         this.defined = src.defined;
         this.postScriptName = src.postScriptName;
+        this.familyName = src.familyName;
+        this.subFamilyName = src.subFamilyName;
         this.glyphToUnicode = src.glyphToUnicode;
+        this.gposSection = src.gposSection;
+        this.gposPairSubTables = src.gposPairSubTables;
+        this.numGlyphs = src.numGlyphs;
+        this.parseTime = src.parseTime;
     }
 
     public FontData deriveFont(float size) {
@@ -349,6 +464,302 @@ public final class FontData {
         adjTab.put(toGlyph, kpx);
     }
 
+    private static void addKerningSum(IntMap<IntMap<Integer>> map, int fromGlyph, int toGlyph, int value) {
+        IntMap<Integer> adjTab = map.get(fromGlyph);
+        if (adjTab == null) {
+            adjTab = new IntMap<Integer>();
+            map.put(fromGlyph, adjTab);
+        }
+        Integer oldValue = adjTab.get(toGlyph);
+        adjTab.put(toGlyph, (oldValue != null) ? oldValue + value : value);
+    }
+
+    private static void addKerningIfAbsent(IntMap<IntMap<Integer>> map, int fromGlyph, int toGlyph, int value) {
+        IntMap<Integer> adjTab = map.get(fromGlyph);
+        if (adjTab == null) {
+            adjTab = new IntMap<Integer>();
+            map.put(fromGlyph, adjTab);
+        }
+        if (adjTab.get(toGlyph) == null) {
+            adjTab.put(toGlyph, value);
+        }
+    }
+
+    /**
+     * Finds the pair adjustment sub tables of the lookups used by the 'kern' feature.
+     *
+     * @param gpos the GPOS table
+     * @return the offsets of the sub tables grouped by lookup or null if there are none
+     */
+    static int[][] findKernPairSubTables(byte[] gpos) {
+        try {
+            return findKernPairSubTablesUnchecked(gpos);
+        } catch (IndexOutOfBoundsException ex) {
+            Logger.getLogger(FontData.class.getName()).log(Level.WARNING,
+                    "Corrupt GPOS table", ex);
+            return null;
+        }
+    }
+    
+    private static int[][] findKernPairSubTablesUnchecked(byte[] gpos) {
+        int featureList = readUShort(gpos, 6);
+        int lookupList = readUShort(gpos, 8);
+
+        BitSet kernLookups = new BitSet();
+        int featureCount = readUShort(gpos, featureList);
+        for(int i=0 ; i<featureCount ; i++) {
+            int record = featureList + 2 + i*6;
+            if(gpos[record] == 'k' && gpos[record+1] == 'e' && gpos[record+2] == 'r' && gpos[record+3] == 'n') {
+                int feature = featureList + readUShort(gpos, record + 4);
+                int lookupIndexCount = readUShort(gpos, feature + 2);
+                for(int j=0 ; j<lookupIndexCount ; j++) {
+                    kernLookups.set(readUShort(gpos, feature + 4 + j*2));
+                }
+            }
+        }
+
+        ArrayList<int[]> lookups = new ArrayList<int[]>();
+        int lookupCount = readUShort(gpos, lookupList);
+        for(int lookupIdx=kernLookups.nextSetBit(0) ; lookupIdx>=0 && lookupIdx<lookupCount ; lookupIdx=kernLookups.nextSetBit(lookupIdx+1)) {
+            int lookup = lookupList + readUShort(gpos, lookupList + 2 + lookupIdx*2);
+            int lookupType = readUShort(gpos, lookup);
+            int subTableCount = readUShort(gpos, lookup + 4);
+
+            int[] subTables = new int[subTableCount];
+            int numSubTables = 0;
+            for(int i=0 ; i<subTableCount ; i++) {
+                int subTable = lookup + readUShort(gpos, lookup + 6 + i*2);
+                int subTableType = lookupType;
+                if(subTableType == GPOS_LOOKUP_EXTENSION) {
+                    subTableType = readUShort(gpos, subTable + 2);
+                    subTable += readInt(gpos, subTable + 4);
+                }
+                if(subTableType == GPOS_LOOKUP_PAIR) {
+                    subTables[numSubTables++] = subTable;
+                }
+            }
+            if(numSubTables > 0) {
+                lookups.add(Arrays.copyOf(subTables, numSubTables));
+            }
+        }
+        return lookups.isEmpty() ? null : lookups.toArray(new int[lookups.size()][]);
+    }
+    
+    static void readGPOS(byte[] gpos, int[][] lookups, IntMap<IntMap<Integer>> result, BitSet usedGlyphs) {
+        for(int[] subTables : lookups) {
+            // inside a lookup the first sub table which applies to a pair wins
+            IntMap<IntMap<Integer>> lookupResult = new IntMap<IntMap<Integer>>();
+            BitSet classCovered = new BitSet();
+            for(int subTable : subTables) {
+                readGPOSPairPos(gpos, subTable, lookupResult, classCovered, usedGlyphs);
+            }
+            // different lookups are applied one after the other
+            for(IntMap.Entry<IntMap<Integer>> from : lookupResult) {
+                for(IntMap.Entry<Integer> to : from.value) {
+                    if(to.value != 0) {
+                        addKerningSum(result, from.key, to.key, to.value);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the pairs of one pair adjustment sub table which are not yet
+     * defined by a previous sub table of the same lookup.
+     *
+     * @param gpos the GPOS table
+     * @param subTable the offset of the sub table
+     * @param result receives the pairs, pairs which are already present are skipped
+     * @param classCovered the first glyphs of previous class pair sub tables,
+     *        these sub tables apply to all pairs of their covered glyphs
+     * @param usedGlyphs the glyph indices which should be considered
+     */
+    private static void readGPOSPairPos(byte[] gpos, int subTable, IntMap<IntMap<Integer>> result, BitSet classCovered, BitSet usedGlyphs) {
+        int format = readUShort(gpos, subTable);
+        int coverage = subTable + readUShort(gpos, subTable + 2);
+        int valueFormat1 = readUShort(gpos, subTable + 4);
+        int valueFormat2 = readUShort(gpos, subTable + 6);
+
+        // the kerning amount is the advance of the first glyph plus the
+        // placement of the second glyph
+        int xAdvance1 = getValueRecordOffset(valueFormat1, GPOS_VALUE_X_ADVANCE);
+        int xPlacement2 = getValueRecordOffset(valueFormat2, GPOS_VALUE_X_PLACEMENT);
+        if(xAdvance1 < 0 && xPlacement2 < 0) {
+            return;
+        }
+
+        int valueSize1 = getValueRecordSize(valueFormat1);
+        int valueSize2 = getValueRecordSize(valueFormat2);
+
+        switch(format) {
+            case 1: {
+                int pairSetCount = readUShort(gpos, subTable + 8);
+                int recordSize = 2 + valueSize1 + valueSize2;
+
+                for(int glyph=usedGlyphs.nextSetBit(0) ; glyph>=0 ; glyph=usedGlyphs.nextSetBit(glyph+1)) {
+                    int coverageIdx = readCoverageIndex(gpos, coverage, glyph);
+                    if(coverageIdx >= 0 && coverageIdx < pairSetCount && !classCovered.get(glyph)) {
+                        int pairSet = subTable + readUShort(gpos, subTable + 10 + coverageIdx*2);
+                        int pairValueCount = readUShort(gpos, pairSet);
+                        for(int pair=0,offset=pairSet+2 ; pair<pairValueCount ; pair++,offset+=recordSize) {
+                            int secondGlyph = readUShort(gpos, offset);
+                            if(usedGlyphs.get(secondGlyph)) {
+                                // a pair with value 0 still hides the pair in later sub tables
+                                int value = readPairValue(gpos, offset + 2, xAdvance1, valueSize1, xPlacement2);
+                                addKerningIfAbsent(result, glyph, secondGlyph, value);
+                            }
+                        }
+                    }
+                }
+                break;
+            }
+            case 2: {
+                int classDef1 = subTable + readUShort(gpos, subTable + 8);
+                int classDef2 = subTable + readUShort(gpos, subTable + 10);
+                int class1Count = readUShort(gpos, subTable + 12);
+                int class2Count = readUShort(gpos, subTable + 14);
+                int recordSize = valueSize1 + valueSize2;
+
+                // group the used glyphs by their second class
+                int[] class2Size = new int[class2Count];
+                for(int glyph=usedGlyphs.nextSetBit(0) ; glyph>=0 ; glyph=usedGlyphs.nextSetBit(glyph+1)) {
+                    int glyphClass = readClass(gpos, classDef2, glyph);
+                    if(glyphClass < class2Count) {
+                        class2Size[glyphClass]++;
+                    }
+                }
+                int[][] class2Glyphs = new int[class2Count][];
+                for(int i=0 ; i<class2Count ; i++) {
+                    class2Glyphs[i] = new int[class2Size[i]];
+                    class2Size[i] = 0;
+                }
+                for(int glyph=usedGlyphs.nextSetBit(0) ; glyph>=0 ; glyph=usedGlyphs.nextSetBit(glyph+1)) {
+                    int glyphClass = readClass(gpos, classDef2, glyph);
+                    if(glyphClass < class2Count) {
+                        class2Glyphs[glyphClass][class2Size[glyphClass]++] = glyph;
+                    }
+                }
+
+                for(int glyph=usedGlyphs.nextSetBit(0) ; glyph>=0 ; glyph=usedGlyphs.nextSetBit(glyph+1)) {
+                    if(readCoverageIndex(gpos, coverage, glyph) < 0 || classCovered.get(glyph)) {
+                        continue;
+                    }
+                    // this sub table applies to every pair starting with glyph
+                    classCovered.set(glyph);
+                    int class1 = readClass(gpos, classDef1, glyph);
+                    if(class1 >= class1Count) {
+                        continue;
+                    }
+                    int offset = subTable + 16 + class1*class2Count*recordSize;
+                    for(int class2=0 ; class2<class2Count ; class2++,offset+=recordSize) {
+                        int value = readPairValue(gpos, offset, xAdvance1, valueSize1, xPlacement2);
+                        if(value != 0) {
+                            for(int secondGlyph : class2Glyphs[class2]) {
+                                addKerningIfAbsent(result, glyph, secondGlyph, value);
+                            }
+                        }
+                    }
+                }
+                break;
+            }
+            default:
+                Logger.getLogger(FontData.class.getName()).log(Level.WARNING,
+                        "Unsupported GPOS pair adjustment format: {0}", format);
+        }
+    }
+
+    private static int getValueRecordOffset(int valueFormat, int field) {
+        if((valueFormat & field) == 0) {
+            return -1;
+        }
+        return 2 * Integer.bitCount(valueFormat & (field - 1));
+    }
+
+    private static int getValueRecordSize(int valueFormat) {
+        return 2 * Integer.bitCount(valueFormat & 0xFF);
+    }
+
+    private static int readPairValue(byte[] gpos, int offset, int xAdvance1, int valueSize1, int xPlacement2) {
+        int value = 0;
+        if(xAdvance1 >= 0) {
+            value += readShort(gpos, offset + xAdvance1);
+        }
+        if(xPlacement2 >= 0) {
+            value += readShort(gpos, offset + valueSize1 + xPlacement2);
+        }
+        return value;
+    }
+
+    private static int readCoverageIndex(byte[] gpos, int coverage, int glyph) {
+        int format = readUShort(gpos, coverage);
+        int count = readUShort(gpos, coverage + 2);
+        int lo = 0;
+        int hi = count - 1;
+        switch(format) {
+            case 1:
+                while(lo <= hi) {
+                    int mid = (lo + hi) >>> 1;
+                    int midGlyph = readUShort(gpos, coverage + 4 + mid*2);
+                    if(midGlyph < glyph) {
+                        lo = mid + 1;
+                    } else if(midGlyph > glyph) {
+                        hi = mid - 1;
+                    } else {
+                        return mid;
+                    }
+                }
+                return -1;
+            case 2:
+                while(lo <= hi) {
+                    int mid = (lo + hi) >>> 1;
+                    int range = coverage + 4 + mid*6;
+                    if(readUShort(gpos, range + 2) < glyph) {
+                        lo = mid + 1;
+                    } else if(readUShort(gpos, range) > glyph) {
+                        hi = mid - 1;
+                    } else {
+                        return readUShort(gpos, range + 4) + glyph - readUShort(gpos, range);
+                    }
+                }
+                return -1;
+            default:
+                return -1;
+        }
+    }
+
+    private static int readClass(byte[] gpos, int classDef, int glyph) {
+        int format = readUShort(gpos, classDef);
+        switch(format) {
+            case 1: {
+                int startGlyph = readUShort(gpos, classDef + 2);
+                int glyphCount = readUShort(gpos, classDef + 4);
+                if(glyph >= startGlyph && glyph < startGlyph + glyphCount) {
+                    return readUShort(gpos, classDef + 6 + (glyph - startGlyph)*2);
+                }
+                return 0;
+            }
+            case 2: {
+                int lo = 0;
+                int hi = readUShort(gpos, classDef + 2) - 1;
+                while(lo <= hi) {
+                    int mid = (lo + hi) >>> 1;
+                    int range = classDef + 4 + mid*6;
+                    if(readUShort(gpos, range + 2) < glyph) {
+                        lo = mid + 1;
+                    } else if(readUShort(gpos, range) > glyph) {
+                        hi = mid - 1;
+                    } else {
+                        return readUShort(gpos, range + 4);
+                    }
+                }
+                return 0;
+            }
+            default:
+                return 0;
+        }
+    }
+
     private static byte[] readDirTable(RandomAccessFile raf) throws IOException {
         raf.seek(4);
         int ntabs = raf.readUnsignedShort();
@@ -398,12 +809,17 @@ public final class FontData {
         return readUShort(headSection, 18);
     }
 
-    private static String readNAME(byte[] nameSection) {
+    /**
+     * Reads the family and subfamily names (name IDs 1, 2, 16 and 17).
+     * @param nameSection the 'name' table
+     * @return the names indexed by name ID, missing names are ""
+     */
+    private static String[] readNAME(byte[] nameSection) {
         int numStrings = readUShort(nameSection, 2);
         int strOffset = readUShort(nameSection, 4);
 
-        String familyName = "";
-        String subFamilyName = "";
+        String[] names = new String[18];
+        Arrays.fill(names, "");
 
         for(int i=0 ; i<numStrings ; i++) {
             int platformID = readUShort(nameSection, i*12 + 6);
@@ -416,15 +832,18 @@ public final class FontData {
 
                 switch (nameID) {
                     case 1:
-                        familyName = readString(nameSection, strOffset + offset, length);
-                        break;
                     case 2:
-                        subFamilyName = readString(nameSection, strOffset + offset, length);
+                    case 16:
+                    case 17:
+                        names[nameID] = readString(nameSection, strOffset + offset, length);
                         break;
                 }
             }
         }
+        return names;
+    }
 
+    private static String getStyledName(String familyName, String subFamilyName) {
         if (subFamilyName.length() == 0 || "Regular".equals(subFamilyName) || "Roman".equals(subFamilyName)) {
             return familyName;
         } else {
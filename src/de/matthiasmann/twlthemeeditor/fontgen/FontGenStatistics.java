@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.fontgen;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects the time spent in each phase of the font generation together
+ * with a few counters. Timing is done with {@link System#nanoTime()} and
+ * is cheap enough to stay enabled all the time.
+ *
+ * <p>A phase is timed by passing the start time to
+ * {@link #addTime(Phase, long) } which returns the current time, so that
+ * consecutive phases can be chained without additional calls.</p>
+ *
+ * @author Matthias Mann
+ */
+public final class FontGenStatistics {
+
+    public enum Phase {
+        PARSE("TTF parsing"),
+        CHARSET("charset evaluation"),
+        RASTERIZE("rasterization"),
+        EFFECTS("effects"),
+        PACKING("packing"),
+        KERNING("kerning"),
+        MIPMAPS("mipmaps"),
+        PNG_ENCODE("PNG encoding");
+
+        final String description;
+
+        private Phase(String description) {
+            this.description = description;
+        }
+    }
+
+    public enum Counter {
+        CODEPOINTS,
+        GLYPHS,
+        PIXELS,
+        PNG_BYTES,
+        ATLAS_BYTES,
+        ALLOCATED_BYTES
+    }
+
+    private static final Method GET_ALLOCATED_BYTES = findGetAllocatedBytes();
+
+    private final long[] times;
+    private final long[] counts;
+
+    public FontGenStatistics() {
+        this.times = new long[Phase.values().length];
+        this.counts = new long[Counter.values().length];
+    }
+
+    public void reset() {
+        Arrays.fill(times, 0);
+        Arrays.fill(counts, 0);
+    }
+
+    public void reset(Phase phase) {
+        times[phase.ordinal()] = 0;
+    }
+
+    public void reset(Counter counter) {
+        counts[counter.ordinal()] = 0;
+    }
+
+    /**
+     * Returns the current time stamp which can be passed to {@link #addTime(Phase, long) }
+     * @return the current time stamp
+     */
+    public long mark() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Adds the time elapsed since {@code startTime} to the given phase.
+     *
+     * @param phase the phase
+     * @param startTime the start time as returned by {@link #mark() }
+     * @return the current time stamp - can be used as start of the next phase
+     */
+    public long addTime(Phase phase, long startTime) {
+        long now = System.nanoTime();
+        times[phase.ordinal()] += now - startTime;
+        return now;
+    }
+
+    public void addNanos(Phase phase, long nanos) {
+        times[phase.ordinal()] += nanos;
+    }
+
+    public void add(Counter counter, long amount) {
+        counts[counter.ordinal()] += amount;
+    }
+
+    public long getNanos(Phase phase) {
+        return times[phase.ordinal()];
+    }
+
+    public long getCount(Counter counter) {
+        return counts[counter.ordinal()];
+    }
+
+    public long getTotalNanos() {
+        long total = 0;
+        for(long time : times) {
+            total += time;
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread, or -1
+     * if the VM does not provide this information.
+     * @return the number of bytes allocated or -1
+     */
+    public static long getThreadAllocatedBytes() {
+        if(GET_ALLOCATED_BYTES != null) {
+            try {
+                Object result = GET_ALLOCATED_BYTES.invoke(
+                        ManagementFactory.getThreadMXBean(), Thread.currentThread().getId());
+                return ((Number)result).longValue();
+            } catch(Exception ex) {
+                Logger.getLogger(FontGenStatistics.class.getName()).log(Level.FINE,
+                        "Can't query allocated bytes", ex);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds the bytes allocated by the current thread since {@code startBytes}
+     * to {@link Counter#ALLOCATED_BYTES}.
+     *
+     * @param startBytes the value returned by {@link #getThreadAllocatedBytes() }
+     */
+    public void addAllocatedBytes(long startBytes) {
+        if(startBytes >= 0) {
+            long endBytes = getThreadAllocatedBytes();
+            if(endBytes >= startBytes) {
+                add(Counter.ALLOCATED_BYTES, endBytes - startBytes);
+            }
+        }
+    }
+
+    /**
+     * Returns the statistics as properties. Times are in nano seconds
+     * and use the key {@code phase.<name>}, counters use {@code count.<name>}.
+     *
+     * @return the statistics as properties
+     */
+    public Properties toProperties() {
+        Properties p = new Properties();
+        for(Phase phase : Phase.values()) {
+            p.setProperty("phase." + toKey(phase), Long.toString(getNanos(phase)));
+        }
+        for(Counter counter : Counter.values()) {
+            p.setProperty("count." + toKey(counter), Long.toString(getCount(counter)));
+        }
+        p.setProperty("phase.total", Long.toString(getTotalNanos()));
+        return p;
+    }
+
+    /**
+     * Writes the statistics as tab separated lines: {@code phase|count, name, value}.
+     * Times are in nano seconds.
+     *
+     * @param pw the destination
+     */
+    public void write(PrintWriter pw) {
+        for(Phase phase : Phase.values()) {
+            pw.print("phase\t");
+            pw.print(toKey(phase));
+            pw.print('\t');
+            pw.println(getNanos(phase));
+        }
+        for(Counter counter : Counter.values()) {
+            pw.print("count\t");
+            pw.print(toKey(counter));
+            pw.print('\t');
+            pw.println(getCount(counter));
+        }
+        pw.flush();
+    }
+
+    /**
+     * Returns a human readable multi line summary
+     * @return the summary
+     */
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        for(Phase phase : Phase.values()) {
+            long nanos = getNanos(phase);
+            if(nanos > 0) {
+                sb.append(phase.description).append(": ").append(formatMillis(nanos)).append('\n');
+            }
+        }
+        sb.append("total: ").append(formatMillis(getTotalNanos())).append('\n');
+        sb.append(getCount(Counter.GLYPHS)).append(" glyphs for ")
+                .append(getCount(Counter.CODEPOINTS)).append(" code points, ")
+                .append(getCount(Counter.PIXELS)).append(" glyph pixels");
+        if(getCount(Counter.PNG_BYTES) > 0) {
+            sb.append('\n').append(getCount(Counter.PNG_BYTES)).append(" bytes PNG written");
+        }
+        if(getCount(Counter.ATLAS_BYTES) > 0) {
+            sb.append('\n').append(getCount(Counter.ATLAS_BYTES) / 1024).append(" KB texture memory");
+        }
+        if(getCount(Counter.ALLOCATED_BYTES) > 0) {
+            sb.append('\n').append(getCount(Counter.ALLOCATED_BYTES) / 1024).append(" KB allocated");
+        }
+        return sb.toString();
+    }
+
+    public static String formatMillis(long nanos) {
+        return String.format(Locale.ENGLISH, "%.1f ms", nanos / 1e6);
+    }
+
+    @Override
+    public String toString() {
+        return getSummary();
+    }
+
+    private static String toKey(Enum<?> e) {
+        return e.name().toLowerCase(Locale.ENGLISH);
+    }
+
+    private static Method findGetAllocatedBytes() {
+        try {
+            // only available on some VMs
+            Class<?> clazz = Class.forName("com.sun.management.ThreadMXBean");
+            if(clazz.isInstance(ManagementFactory.getThreadMXBean())) {
+                return clazz.getMethod("getThreadAllocatedBytes", long.class);
+            }
+        } catch(Exception ex) {
+            // ignore
+        } catch(LinkageError ex) {
+            // ignore
+        }
+        return null;
+    }
+}
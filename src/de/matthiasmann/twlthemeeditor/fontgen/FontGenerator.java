@@ -47,7 +47,6 @@ import java.awt.font.GlyphMetrics;
 import java.awt.font.GlyphVector;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
-import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -60,6 +59,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
@@ -77,12 +77,22 @@ public class FontGenerator {
     };
 
     public static final int BIT_AA = 0;
+    public static final int BIT_TRIM = 1;
     
     public static final int FLAG_AA = 1 << BIT_AA;
+    public static final int FLAG_TRIM = 1 << BIT_TRIM;
+
+    public static final int BIT_EXPORT_PREMULTIPLIED = 0;
+    public static final int BIT_EXPORT_MIPMAPS = 1;
+    public static final int BIT_EXPORT_KERNING_CLASSES = 2;
+
+    public static final int FLAG_EXPORT_PREMULTIPLIED = 1 << BIT_EXPORT_PREMULTIPLIED;
+    public static final int FLAG_EXPORT_MIPMAPS = 1 << BIT_EXPORT_MIPMAPS;
+    public static final int FLAG_EXPORT_KERNING_CLASSES = 1 << BIT_EXPORT_KERNING_CLASSES;
     
     public enum GeneratorMethod {
-        AWT_VECTOR(true, FLAG_AA),
-        AWT_DRAWSTRING(true, FLAG_AA),
+        AWT_VECTOR(true, FLAG_AA | FLAG_TRIM),
+        AWT_DRAWSTRING(true, FLAG_AA | FLAG_TRIM),
         FREETYPE2(isFreeTypeAvailable(), FLAG_AA);
 
         public final boolean isAvailable;
@@ -98,25 +108,53 @@ public class FontGenerator {
     private final GeneratorMethod generatorMethod;
 
     private Padding padding;
-    private BufferedImage image;
+    private TextureAtlas atlas;
     private GlyphRect[] rects;
     private int[][] kernings;
     private int ascent;
     private int descent;
     private int lineHeight;
     private int usedTextureHeight;
+    private int trimmedPixels;
+    private final FontGenStatistics statistics;
+    private boolean parseTimeReported;
 
     public FontGenerator(FontData fontData, GeneratorMethod generatorMethod) {
         this.fontData = fontData;
         this.generatorMethod = generatorMethod;
+        this.statistics = new FontGenStatistics();
     }
     
     public void generate(int width, int height, CharSet set, Padding padding, Effect.Renderer[] effects, int flags) throws IOException {
-        if(generatorMethod == GeneratorMethod.FREETYPE2) {
-            generateFT2(width, height, set, padding, (Effect.FT2Renderer[])effects, flags);
-        } else {
-            generateAWT(width, height, set, padding, (Effect.AWTRenderer[])effects, flags, generatorMethod == GeneratorMethod.AWT_DRAWSTRING);
+        statistics.reset();
+        if(!parseTimeReported) {
+            // the font is parsed only once - don't count it for every generate
+            statistics.addNanos(FontGenStatistics.Phase.PARSE, fontData.getParseTime());
+            parseTimeReported = true;
         }
+        long allocatedBytes = FontGenStatistics.getThreadAllocatedBytes();
+        try {
+            if(generatorMethod == GeneratorMethod.FREETYPE2) {
+                generateFT2(width, height, set, padding, (Effect.FT2Renderer[])effects, flags);
+            } else {
+                generateAWT(width, height, set, padding, (Effect.AWTRenderer[])effects, flags, generatorMethod == GeneratorMethod.AWT_DRAWSTRING);
+            }
+        } finally {
+            statistics.addAllocatedBytes(allocatedBytes);
+        }
+        statistics.add(FontGenStatistics.Counter.ATLAS_BYTES, atlas.getMemoryUsage());
+    }
+
+    /**
+     * Returns the statistics of the last {@link #generate } and
+     * {@link #write(java.io.File, ExportFormat, boolean, int) } calls.
+     * The PNG encoding phase is updated by every write. The parse time of
+     * the font is only included after the first generate call.
+     *
+     * @return the statistics - the object is owned by this generator
+     */
+    public FontGenStatistics getStatistics() {
+        return statistics;
     }
 
     static class FT2Glyph implements Comparable<FT2Glyph> {
@@ -146,14 +184,19 @@ public class FontGenerator {
                    : FreeTypeFont.LoadTarget.MONO;
         
         this.padding = padding;
-        this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        this.atlas = (effects.length > 0)
+                ? TextureAtlas.createARGB(width, height)
+                : TextureAtlas.createAlpha(width, height);
+        final BufferedImage image = atlas.getImage();
         
         int paddingHorz = padding.left + padding.right;
         int paddingVert = padding.top + padding.bottom;
         
+        long time = statistics.mark();
         FreeTypeFont font = FreeTypeFont.create(fontData.getFontFile());
         try {
             font.setCharSize(0, fontData.getSize(), 72, 72);
+            time = statistics.addTime(FontGenStatistics.Phase.PARSE, time);
             
             ascent = font.getAscent();
             descent = font.getDescent();
@@ -198,6 +241,10 @@ public class FontGenerator {
                 }
             }
 
+            statistics.add(FontGenStatistics.Counter.CODEPOINTS, numCodePoints);
+            statistics.add(FontGenStatistics.Counter.GLYPHS, numGlyphs);
+            time = statistics.addTime(FontGenStatistics.Phase.CHARSET, time);
+
             FT2Glyph[] glyphs = new FT2Glyph[numGlyphs];
             Iterator<IntMap.Entry<FT2Glyph>> glyphIter = glyphMap.iterator();
             for(int idx=0 ; glyphIter.hasNext() ; idx++) {
@@ -212,9 +259,12 @@ public class FontGenerator {
             usedTextureHeight = 0;
 
             FontInfo fontInfo = new FontInfo(maxHeight, descent, ascent);
+            ScratchBuffer scratch = ScratchBuffer.get();
+            time = statistics.addTime(FontGenStatistics.Phase.PACKING, time);
             for(Effect.FT2Renderer effect : effects) {
                 effect.prePageRender(image, fontInfo);
             }
+            time = statistics.addTime(FontGenStatistics.Phase.EFFECTS, time);
             
             for (int glyphNr=0 ; glyphNr<numGlyphs ; glyphNr++) {
                 final FT2Glyph glyph = glyphs[glyphNr];
@@ -245,19 +295,29 @@ public class FontGenerator {
                 //System.out.println("xp="+xp+" yp="+yp+" w="+rect.width+" h="+rect.height+" adv="+rect.advance);
 
                 if(glyphWidth > 0) {
+                    time = statistics.addTime(FontGenStatistics.Phase.PACKING, time);
                     font.loadGlyph(glyph.glyphIndex, loadTarget);
                     if(effects.length > 0) {
                         int w = glyphWidth + 2;
                         int h = glyphHeight + 2;
-                        byte[] tmp = new byte[w*h];
+                        byte[] tmp = scratch.getBytes(w*h);
                         font.copyGlyphToByteArray(tmp, w*2+2, w);
+                        time = statistics.addTime(FontGenStatistics.Phase.RASTERIZE, time);
                         
                         for(Effect.FT2Renderer renderer : effects) {
                             renderer.render(image, fontInfo, xp, yp, w, h, tmp, glyph.info);
                         }
+                        atlas.markDirty(xp, yp, glyphWidth, glyphHeight);
+                        time = statistics.addTime(FontGenStatistics.Phase.EFFECTS, time);
                     } else {
-                        font.copyGlpyhToBufferedImage(image, xp, yp, Color.WHITE);
+                        if(yp + glyph.info.getHeight() <= height) {
+                            // render directly into the alpha atlas
+                            font.copyGlyphToByteArray(atlas.getAlphaData(), yp*width + xp, width);
+                            atlas.markDirty(xp, yp, glyphWidth, glyphHeight);
+                        }
+                        time = statistics.addTime(FontGenStatistics.Phase.RASTERIZE, time);
                     }
+                    statistics.add(FontGenStatistics.Counter.PIXELS, glyphWidth * glyphHeight);
                 }
 
                 yp += glyphHeight + 1;
@@ -276,9 +336,11 @@ public class FontGenerator {
                 }
             }
             
+            time = statistics.addTime(FontGenStatistics.Phase.PACKING, time);
             for(Effect.FT2Renderer effect : effects) {
                 effect.postPageRender(image, fontInfo);
             }
+            time = statistics.addTime(FontGenStatistics.Phase.EFFECTS, time);
             
             rects = new GlyphRect[numCodePoints];
             iter = font.iterateCodePoints();
@@ -303,25 +365,13 @@ public class FontGenerator {
                     rects[rectNr++] = rect;
                 }
             }
+            time = statistics.addTime(FontGenStatistics.Phase.PACKING, time);
 
-            if(font.hasKerning()) {
-                ArrayList<int[]> kerns = new ArrayList<int[]>();
-                for(IntMap.Entry<IntMap<Integer>> from : fontData.getRawKerning()) {
-                    if(usedGlyphCodes.get(from.key)) {
-                        for(IntMap.Entry<Integer> to : from.value) {
-                            if(usedGlyphCodes.get(to.key)) {
-                                int value = font.getKerning(from.key, to.key).x;
-                                if(value != 0) {
-                                    fontData.expandKerning(kerns, from.key, to.key, value, set);
-                                }
-                            }
-                        }
-                    }
-                }
-                this.kernings = kerns.toArray(new int[kerns.size()][]);
-            } else {
-                this.kernings = new int[0][];
-            }
+            // FreeType only reads format 0 'kern' sub tables which FontData parses too
+            this.kernings = fontData.hasKerning()
+                    ? fontData.getKernings(usedGlyphCodes, set)
+                    : new int[0][];
+            statistics.addTime(FontGenStatistics.Phase.KERNING, time);
         } finally {
             font.close();
         }
@@ -329,10 +379,16 @@ public class FontGenerator {
         
     private void generateAWT(int width, int height, CharSet set, Padding padding, Effect.AWTRenderer[] effects, int flags, boolean useDrawString) {
         boolean useAA = (flags & FLAG_AA) == FLAG_AA;
+        boolean useTrim = (flags & FLAG_TRIM) == FLAG_TRIM;
         this.padding = padding;
+        this.trimmedPixels = 0;
         
-        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = image.createGraphics();
+        long time = statistics.mark();
+        // without effects all glyphs are white and the alpha atlas can be used
+        atlas = (effects.length > 0)
+                ? TextureAtlas.createARGB(width, height)
+                : TextureAtlas.createAlpha(width, height);
+        Graphics2D g = atlas.getImage().createGraphics();
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, useAA ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
         g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, useAA ? RenderingHints.VALUE_TEXT_ANTIALIAS_ON : RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
         g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_OFF);
@@ -346,7 +402,9 @@ public class FontGenerator {
 
         FontRenderContext fontRenderContext = g.getFontRenderContext();
 
+        time = statistics.addTime(FontGenStatistics.Phase.PACKING, time);
         kernings = fontData.getKernings(set);
+        time = statistics.addTime(FontGenStatistics.Phase.KERNING, time);
         ascent = g.getFontMetrics().getMaxAscent();
         descent = g.getFontMetrics().getMaxDescent();
         lineHeight = g.getFontMetrics().getLeading() + ascent + descent;
@@ -386,12 +444,33 @@ public class FontGenerator {
             rectList.add(rect);
         }
 
+        statistics.add(FontGenStatistics.Counter.CODEPOINTS, rectList.size());
+        statistics.add(FontGenStatistics.Counter.GLYPHS, rectList.size());
+        time = statistics.addTime(FontGenStatistics.Phase.CHARSET, time);
+
         FontInfo fontInfo = new FontInfo(maxHeight, descent, ascent);
         
+        for(Effect.AWTRenderer effect : effects) {
+            effect.prePageRender(g, fontInfo);
+        }
+        time = statistics.addTime(FontGenStatistics.Phase.EFFECTS, time);
+
+        g.setColor(Color.white);
+
         // sorting of arrays is more efficient then sorting of collections
         final int numGlyphs = rectList.size();
 
         rects = rectList.toArray(new GlyphRect[numGlyphs]);
+
+        IdentityHashMap<GlyphRect, int[]> trimmedGlyphs = null;
+        if(useTrim) {
+            trimmedGlyphs = new IdentityHashMap<GlyphRect, int[]>();
+            for(int i=0 ; i<numGlyphs ; i++) {
+                rects[i] = renderTrimmed(g, rects[i], fontInfo, effects, useDrawString, trimmedGlyphs);
+            }
+            time = statistics.mark();
+        }
+
         Arrays.sort(rects, new Comparator<GlyphRect>() {
             public int compare(GlyphRect a, GlyphRect b) {
                 int diff = b.height - a.height;
@@ -402,12 +481,6 @@ public class FontGenerator {
             }
         });
 
-        for(Effect.AWTRenderer effect : effects) {
-            effect.prePageRender(g, fontInfo);
-        }
-
-        g.setColor(Color.white);
-
         int xp = 0;
         int dir = 1;
         int[] usedY = new int[width];
@@ -439,17 +512,21 @@ public class FontGenerator {
 
             //System.out.println("xp="+xp+" yp="+yp+" w="+rect.width+" h="+rect.height+" adv="+rect.advance);
             
-            Graphics2D gGlyph = (Graphics2D) g.create(xp, yp, rect.width, rect.height);
-            try {
-                for(Effect.AWTRenderer effect : effects) {
-                    effect.preGlyphRender(gGlyph, fontInfo, rect);
+            if(trimmedGlyphs != null) {
+                int[] pixels = trimmedGlyphs.get(rect);
+                if(pixels != null && yp + rect.height <= height) {
+                    atlas.setARGB(xp, yp, rect.width, rect.height, pixels, 0, rect.width);
                 }
-                rect.drawGlyph(gGlyph, useDrawString);
-                for(Effect.AWTRenderer effect : effects) {
-                    effect.postGlyphRender(gGlyph, fontInfo, rect);
+            } else {
+                time = statistics.addTime(FontGenStatistics.Phase.PACKING, time);
+                Graphics2D gGlyph = (Graphics2D) g.create(xp, yp, rect.width, rect.height);
+                try {
+                    renderGlyph(gGlyph, rect, fontInfo, effects, useDrawString);
+                } finally {
+                    gGlyph.dispose();
                 }
-            } finally {
-                gGlyph.dispose();
+                atlas.markDirty(xp, yp, rect.width, rect.height);
+                time = statistics.mark();
             }
 
             yp += rect.height + 1;
@@ -468,25 +545,125 @@ public class FontGenerator {
             }
         }
 
+        time = statistics.addTime(FontGenStatistics.Phase.PACKING, time);
         for(Effect.AWTRenderer effect : effects) {
             effect.postPageRender(g, fontInfo);
         }
+        time = statistics.addTime(FontGenStatistics.Phase.EFFECTS, time);
 
         Arrays.sort(rects, new Comparator<GlyphRect>() {
             public int compare(GlyphRect a, GlyphRect b) {
                 return a.ch - b.ch;
             }
         });
+        statistics.addTime(FontGenStatistics.Phase.PACKING, time);
+    }
+
+    private void renderGlyph(Graphics2D g, GlyphRect rect, FontInfo fontInfo, Effect.AWTRenderer[] effects, boolean useDrawString) {
+        long time = statistics.mark();
+        for(Effect.AWTRenderer effect : effects) {
+            effect.preGlyphRender(g, fontInfo, rect);
+        }
+        time = statistics.addTime(FontGenStatistics.Phase.EFFECTS, time);
+        rect.drawGlyph(g, useDrawString);
+        time = statistics.addTime(FontGenStatistics.Phase.RASTERIZE, time);
+        for(Effect.AWTRenderer effect : effects) {
+            effect.postGlyphRender(g, fontInfo, rect);
+        }
+        statistics.addTime(FontGenStatistics.Phase.EFFECTS, time);
+        statistics.add(FontGenStatistics.Counter.PIXELS, rect.width * rect.height);
+    }
+
+    /**
+     * Renders the glyph into a scratch image and trims it to the bounds of
+     * the pixels with non zero alpha. The draw offsets of the returned rect
+     * are adjusted so that the trimmed glyph is positioned exactly like the
+     * untrimmed one.
+     */
+    private GlyphRect renderTrimmed(Graphics2D pageG, GlyphRect rect, FontInfo fontInfo,
+            Effect.AWTRenderer[] effects, boolean useDrawString, IdentityHashMap<GlyphRect, int[]> trimmedGlyphs) {
+        final int w = rect.width;
+        final int h = rect.height;
+        if(w <= 0 || h <= 0) {
+            return rect;
+        }
+
+        BufferedImage scratch = ScratchBuffer.get().getImage(2, w, h);
+        Graphics2D g = scratch.createGraphics();
+        try {
+            g.setRenderingHints(pageG.getRenderingHints());
+            g.setFont(pageG.getFont());
+            g.setColor(pageG.getColor());
+            renderGlyph(g, rect, fontInfo, effects, useDrawString);
+        } finally {
+            g.dispose();
+        }
+
+        long time = statistics.mark();
+        int[] pixels = scratch.getRGB(0, 0, w, h, null, 0, w);
+        int left = w;
+        int right = -1;
+        int top = h;
+        int bottom = -1;
+        for(int y=0,off=0 ; y<h ; y++) {
+            for(int x=0 ; x<w ; x++,off++) {
+                if((pixels[off] >>> 24) != 0) {
+                    if(x < left) left = x;
+                    if(x > right) right = x;
+                    if(y < top) top = y;
+                    bottom = y;
+                }
+            }
+        }
+
+        if(right < 0) {
+            // completely transparent glyph - eg space
+            trimmedPixels += w * h;
+            return new GlyphRect(rect.ch, 0, 0, rect.advance, rect.yoffset,
+                    rect.xDrawOffset, rect.yDrawOffset, rect.glyphShape);
+        }
+
+        int trimmedWidth = right - left + 1;
+        int trimmedHeight = bottom - top + 1;
+        int[] trimmed = new int[trimmedWidth * trimmedHeight];
+        for(int y=0 ; y<trimmedHeight ; y++) {
+            System.arraycopy(pixels, (top + y) * w + left, trimmed, y * trimmedWidth, trimmedWidth);
+        }
+
+        trimmedPixels += w * h - trimmedWidth * trimmedHeight;
+        statistics.addTime(FontGenStatistics.Phase.RASTERIZE, time);
+        GlyphRect trimmedRect = new GlyphRect(rect.ch, trimmedWidth, trimmedHeight,
+                rect.advance, rect.yoffset + top, rect.xDrawOffset - left,
+                rect.yDrawOffset, rect.glyphShape);
+        trimmedGlyphs.put(trimmedRect, trimmed);
+        return trimmedRect;
+    }
+
+    /**
+     * Returns the texture of the last {@link #generate } call.
+     * @return the texture or null
+     */
+    public TextureAtlas getAtlas() {
+        return atlas;
     }
 
     public int getImageWidth() {
-        return image.getWidth();
+        return atlas.getWidth();
     }
 
     public int getUsedTextureHeight() {
         return usedTextureHeight;
     }
 
+    /**
+     * Returns the number of transparent glyph pixels which have been removed
+     * by {@link #FLAG_TRIM}.
+     * @return the number of pixels saved in the texture
+     */
+    public int getTrimmedPixels() {
+        return trimmedPixels;
+    }
+
     public int getAscent() {
         return ascent;
     }
@@ -500,46 +677,86 @@ public class FontGenerator {
     }
 
     public int getImageType() {
-        if(image != null) {
-            return image.getType();
+        if(atlas != null) {
+            return atlas.getImage().getType();
         }
         return -1;
     }
 
     public boolean getTextureData(IntBuffer ib) {
-        if(image != null) {
-            ib.put(((DataBufferInt)image.getRaster().getDataBuffer()).getData());
+        if(atlas != null) {
+            atlas.getARGB(ib, atlas.getHeight());
             return true;
         }
         return false;
     }
 
     public boolean getTextureData(ByteBuffer bb) {
-        if(image != null) {
-            bb.put(((DataBufferByte)image.getRaster().getDataBuffer()).getData());
+        if(atlas != null) {
+            bb.put(((DataBufferByte)atlas.getImage().getRaster().getDataBuffer()).getData());
             return true;
         }
         return false;
     }
 
     public void write(File file, ExportFormat format, boolean fullImageSize) throws IOException {
+        write(file, format, fullImageSize, 0);
+    }
+
+    /**
+     * Writes the font definition and the texture.
+     *
+     * <p>With {@link #FLAG_EXPORT_PREMULTIPLIED} the texture is written with
+     * premultiplied alpha. With {@link #FLAG_EXPORT_MIPMAPS} the smaller
+     * mipmap levels are written as additional files named
+     * {@code <basename>_00_mip<level>.png} and the number of levels is
+     * stored in the {@code mipmaps} attribute of the page.
+     * With {@link #FLAG_EXPORT_KERNING_CLASSES} the kerning pairs are written
+     * as kerning classes instead of individual pairs.</p>
+     *
+     * @param file the font definition file
+     * @param format the format of the font definition
+     * @param fullImageSize if true the unused lower part of the texture is also written
+     * @param exportFlags a combination of the FLAG_EXPORT_* flags
+     * @throws IOException if an IO error occurred
+     */
+    public void write(File file, ExportFormat format, boolean fullImageSize, int exportFlags) throws IOException {
         File dir = file.getParentFile();
         String baseName = getBaseName(file);
+        boolean premultiplied = (exportFlags & FLAG_EXPORT_PREMULTIPLIED) != 0;
         
-        int height = image.getHeight();
+        int height = atlas.getHeight();
         if(!fullImageSize && usedTextureHeight < height) {
             height = usedTextureHeight;
         }
         
-        PNGWriter.write(new File(dir, baseName.concat("_00.png")), image, height);
+        statistics.reset(FontGenStatistics.Phase.PNG_ENCODE);
+        statistics.reset(FontGenStatistics.Phase.MIPMAPS);
+        statistics.reset(FontGenStatistics.Counter.PNG_BYTES);
+
+        long time = statistics.mark();
+        long pngBytes = PNGWriter.write(new File(dir, baseName.concat("_00.png")), atlas, height, premultiplied);
+        time = statistics.addTime(FontGenStatistics.Phase.PNG_ENCODE, time);
+        if((exportFlags & FLAG_EXPORT_MIPMAPS) != 0) {
+            BufferedImage[] levels = MipMapGenerator.generate(atlas, height, rects, premultiplied);
+            time = statistics.addTime(FontGenStatistics.Phase.MIPMAPS, time);
+            for(int i=0 ; i<levels.length ; i++) {
+                // the levels are already in the target color space
+                pngBytes += PNGWriter.write(new File(dir, getMipMapFileName(baseName, i+1)),
+                        levels[i], levels[i].getHeight(), false);
+            }
+            statistics.addTime(FontGenStatistics.Phase.PNG_ENCODE, time);
+        }
+        statistics.add(FontGenStatistics.Counter.PNG_BYTES, pngBytes);
+        int numMipLevels = getNumMipLevels(height, exportFlags);
         OutputStream os = new FileOutputStream(file);
         try {
             switch(format) {
                 case XML:
-                    writeXML(os, baseName);
+                    writeXML(os, baseName, exportFlags, numMipLevels);
                     break;
                 case TEXT:
-                    writeText(os, baseName);
+                    writeText(os, baseName, exportFlags, numMipLevels);
                     break;
                 default:
                     throw new AssertionError();
@@ -560,7 +777,7 @@ public class FontGenerator {
             }
             public InputStream openStream() throws IOException {
                 BufferedPipe pipe = new BufferedPipe();
-                writeXML(pipe.getOutputStream(), "test");
+                writeXML(pipe.getOutputStream(), "test", 0, 0);
                 return pipe.getInputStream();
             }
         });
@@ -573,7 +790,7 @@ public class FontGenerator {
             }
             public InputStream openStream() throws IOException {
                 BufferedPipe pipe = new BufferedPipe();
-                PNGWriter.write(pipe.getOutputStream(), image, Math.min(image.getHeight(), usedTextureHeight));
+                PNGWriter.write(pipe.getOutputStream(), atlas, Math.min(atlas.getHeight(), usedTextureHeight), false);
                 return pipe.getInputStream();
             }
         });
@@ -581,16 +798,42 @@ public class FontGenerator {
     }
 
     public File[] getFilesCreatedForName(File file) {
+        return getFilesCreatedForName(file, false, 0);
+    }
+
+    public File[] getFilesCreatedForName(File file, boolean fullImageSize, int exportFlags) {
         File dir = file.getParentFile();
         String baseName = getBaseName(file);
 
-        return new File[] {
-            file,
-            new File(dir, baseName.concat("_00.png"))
-        };
+        ArrayList<File> files = new ArrayList<File>();
+        files.add(file);
+        files.add(new File(dir, baseName.concat("_00.png")));
+        int height = fullImageSize ? atlas.getHeight() : Math.min(atlas.getHeight(), usedTextureHeight);
+        int numLevels = getNumMipLevels(height, exportFlags);
+        for(int level=1 ; level<=numLevels ; level++) {
+            files.add(new File(dir, getMipMapFileName(baseName, level)));
+        }
+        return files.toArray(new File[files.size()]);
     }
 
-    private void writeXML(OutputStream os, String basename) throws IOException {
+    private int getNumMipLevels(int height, int exportFlags) {
+        if((exportFlags & FLAG_EXPORT_MIPMAPS) == 0) {
+            return 0;
+        }
+        return MipMapGenerator.getNumLevels(atlas.getWidth(), height);
+    }
+
+    private static String getMipMapFileName(String baseName, int level) {
+        return baseName + "_00_mip" + level + ".png";
+    }
+
+    private KerningClasses createKerningClasses() {
+        KerningClasses kerningClasses = KerningClasses.create(kernings);
+        assert kerningClasses.isEquivalent(kernings) : "kerning classes differ from kerning pairs";
+        return kerningClasses;
+    }
+
+    private void writeXML(OutputStream os, String basename, int exportFlags, int numMipLevels) throws IOException {
         try {
             XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
             factory.setNamespaceAware(false);
@@ -619,8 +862,8 @@ public class FontGenerator {
             xs.startTag(null, "common");
             xs.attribute(null, "lineHeight", Integer.toString(lineHeight + padding.top + padding.bottom));
             xs.attribute(null, "base", Integer.toString(ascent));
-            xs.attribute(null, "scaleW", Integer.toString(image.getWidth()));
-            xs.attribute(null, "scaleH", Integer.toString(image.getHeight()));
+            xs.attribute(null, "scaleW", Integer.toString(atlas.getWidth()));
+            xs.attribute(null, "scaleH", Integer.toString(atlas.getHeight()));
             xs.attribute(null, "pages", "1");
             xs.attribute(null, "packed", "0");
             xs.endTag(null, "common");
@@ -630,6 +873,9 @@ public class FontGenerator {
             xs.startTag(null, "page");
             xs.attribute(null, "id", "0");
             xs.attribute(null, "file", basename.concat("_00.png"));
+            if(numMipLevels > 0) {
+                xs.attribute(null, "mipmaps", Integer.toString(numMipLevels));
+            }
             xs.endTag(null, "page");
             xs.text("\n  ");
             xs.endTag(null, "pages");
@@ -653,20 +899,24 @@ public class FontGenerator {
             }
             xs.text("\n  ");
             xs.endTag(null, "chars");
-            xs.text("\n  ");
-            xs.startTag(null, "kernings");
-            xs.attribute(null, "count", Integer.toString(kernings.length));
-            for(int[] kerning : kernings) {
-                xs.text("\n    ");
-                xs.startTag(null, "kerning");
-                xs.attribute(null, "first", Integer.toString(kerning[0]));
-                xs.attribute(null, "second", Integer.toString(kerning[1]));
-                xs.attribute(null, "amount", Integer.toString(kerning[2]));
-                xs.endTag(null, "kerning");
-                xs.comment(" '" + ch2str(kerning[0]) + "' to '" + ch2str(kerning[1]) + "' ");
+            if((exportFlags & FLAG_EXPORT_KERNING_CLASSES) != 0) {
+                writeKerningClassesXML(xs, createKerningClasses());
+            } else {
+                xs.text("\n  ");
+                xs.startTag(null, "kernings");
+                xs.attribute(null, "count", Integer.toString(kernings.length));
+                for(int[] kerning : kernings) {
+                    xs.text("\n    ");
+                    xs.startTag(null, "kerning");
+                    xs.attribute(null, "first", Integer.toString(kerning[0]));
+                    xs.attribute(null, "second", Integer.toString(kerning[1]));
+                    xs.attribute(null, "amount", Integer.toString(kerning[2]));
+                    xs.endTag(null, "kerning");
+                    xs.comment(" '" + ch2str(kerning[0]) + "' to '" + ch2str(kerning[1]) + "' ");
+                }
+                xs.text("\n  ");
+                xs.endTag(null, "kernings");
             }
-            xs.text("\n  ");
-            xs.endTag(null, "kernings");
             xs.text("\n");
             xs.endTag(null, "font");
             xs.endDocument();
@@ -675,7 +925,51 @@ public class FontGenerator {
         }
     }
 
+    private void writeKerningClassesXML(XmlSerializer xs, KerningClasses kerningClasses) throws IOException {
+        int[][] leftClasses = kerningClasses.getLeftClasses();
+        int[][] rightClasses = kerningClasses.getRightClasses();
+        int[][] classPairs = kerningClasses.getClassPairs();
+        xs.text("\n  ");
+        xs.startTag(null, "kerningClasses");
+        xs.attribute(null, "leftCount", Integer.toString(leftClasses.length));
+        xs.attribute(null, "rightCount", Integer.toString(rightClasses.length));
+        xs.attribute(null, "count", Integer.toString(classPairs.length));
+        for(int i=0 ; i<leftClasses.length ; i++) {
+            xs.text("\n    ");
+            xs.startTag(null, "leftClass");
+            xs.attribute(null, "id", Integer.toString(i));
+            xs.attribute(null, "chars", toList(leftClasses[i]));
+            xs.endTag(null, "leftClass");
+        }
+        for(int i=0 ; i<rightClasses.length ; i++) {
+            xs.text("\n    ");
+            xs.startTag(null, "rightClass");
+            xs.attribute(null, "id", Integer.toString(i));
+            xs.attribute(null, "chars", toList(rightClasses[i]));
+            xs.endTag(null, "rightClass");
+        }
+        for(int[] classPair : classPairs) {
+            xs.text("\n    ");
+            xs.startTag(null, "classKerning");
+            xs.attribute(null, "first", Integer.toString(classPair[0]));
+            xs.attribute(null, "second", Integer.toString(classPair[1]));
+            xs.attribute(null, "amount", Integer.toString(classPair[2]));
+            xs.endTag(null, "classKerning");
+        }
+        xs.text("\n  ");
+        xs.endTag(null, "kerningClasses");
+    }
+
     public void writeText(OutputStream os, String basename) {
+        writeText(os, basename, 0);
+    }
+
+    public void writeText(OutputStream os, String basename, int exportFlags) {
+        writeText(os, basename, exportFlags, getNumMipLevels(
+                Math.min(atlas.getHeight(), usedTextureHeight), exportFlags));
+    }
+
+    private void writeText(OutputStream os, String basename, int exportFlags, int numMipLevels) {
         PrintWriter pw = new PrintWriter(os);
         
         pw.printf("info face=%s size=%d bold=%d italic=%d charset=\"\" unicode=1 stretchH=100 smooth=0 aa=1 padding=%d,%d,%d,%d spacing=1,1\n",
@@ -685,9 +979,13 @@ public class FontGenerator {
                 padding.top, padding.left, padding.bottom, padding.right);
 
         pw.printf("common lineHeight=%d base=%s scaleW=%s scaleH=%d pages=1 packed=0\n",
-                lineHeight + padding.bottom + padding.top, ascent, image.getWidth(), image.getHeight());
+                lineHeight + padding.bottom + padding.top, ascent, atlas.getWidth(), atlas.getHeight());
 
-        pw.printf("page id=0 file=%s_00.png\n", basename);
+        if(numMipLevels > 0) {
+            pw.printf("page id=0 file=%s_00.png mipmaps=%d\n", basename, numMipLevels);
+        } else {
+            pw.printf("page id=0 file=%s_00.png\n", basename);
+        }
         pw.printf("chars count=%d\n", rects.length);
 
         for(GlyphRect rect : rects) {
@@ -696,15 +994,45 @@ public class FontGenerator {
                     -rect.xDrawOffset, ascent+rect.yoffset, rect.advance);
         }
         
-        pw.printf("kernings count=%d\n", kernings.length);
-        for(int[] kerning : kernings){
-            pw.printf("kerning first=%d second=%d amount=%d\n",
-                    kerning[0], kerning[1], kerning[2]);
+        if((exportFlags & FLAG_EXPORT_KERNING_CLASSES) != 0) {
+            KerningClasses kerningClasses = createKerningClasses();
+            int[][] leftClasses = kerningClasses.getLeftClasses();
+            int[][] rightClasses = kerningClasses.getRightClasses();
+            int[][] classPairs = kerningClasses.getClassPairs();
+            pw.printf("kerningclasses left=%d right=%d count=%d\n",
+                    leftClasses.length, rightClasses.length, classPairs.length);
+            for(int i=0 ; i<leftClasses.length ; i++) {
+                pw.printf("leftclass id=%d chars=%s\n", i, toList(leftClasses[i]));
+            }
+            for(int i=0 ; i<rightClasses.length ; i++) {
+                pw.printf("rightclass id=%d chars=%s\n", i, toList(rightClasses[i]));
+            }
+            for(int[] classPair : classPairs) {
+                pw.printf("classkerning first=%d second=%d amount=%d\n",
+                        classPair[0], classPair[1], classPair[2]);
+            }
+        } else {
+            pw.printf("kernings count=%d\n", kernings.length);
+            for(int[] kerning : kernings){
+                pw.printf("kerning first=%d second=%d amount=%d\n",
+                        kerning[0], kerning[1], kerning[2]);
+            }
         }
 
         pw.close();
     }
 
+    private static String toList(int[] chars) {
+        StringBuilder sb = new StringBuilder();
+        for(int ch : chars) {
+            if(sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(ch);
+        }
+        return sb.toString();
+    }
+
     private String ch2str(int ch) {
         if(Character.isISOControl(ch)) {
             return String.format("\\u%04X", ch);
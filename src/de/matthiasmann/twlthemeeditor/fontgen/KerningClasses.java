@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.fontgen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A compact representation of a kerning pair list. Characters with identical
+ * kerning rows (as first character) are grouped into left classes and
+ * characters with identical kerning columns (as second character) into right
+ * classes. The kerning amount of a pair is then the amount of its class pair.
+ *
+ * @author Matthias Mann
+ */
+public class KerningClasses {
+
+    private final int[][] leftClasses;
+    private final int[][] rightClasses;
+    private final int[][] classPairs;
+    private final HashMap<Integer, Integer> leftClassOf;
+    private final HashMap<Integer, Integer> rightClassOf;
+    private final HashMap<Long, Integer> classPairAmount;
+
+    private KerningClasses(int[][] leftClasses, int[][] rightClasses, int[][] classPairs) {
+        this.leftClasses = leftClasses;
+        this.rightClasses = rightClasses;
+        this.classPairs = classPairs;
+        this.leftClassOf = buildClassMap(leftClasses);
+        this.rightClassOf = buildClassMap(rightClasses);
+        this.classPairAmount = new HashMap<Long, Integer>();
+        for(int[] pair : classPairs) {
+            classPairAmount.put(makeKey(pair[0], pair[1]), pair[2]);
+        }
+    }
+
+    /**
+     * Builds the kerning classes for the given kerning pairs.
+     *
+     * @param kernings the kerning pairs: { first, second, amount }
+     * @return the kerning classes
+     */
+    public static KerningClasses create(int[][] kernings) {
+        // kerning rows: first -> (second -> amount)
+        TreeMap<Integer, TreeMap<Integer, Integer>> rows = new TreeMap<Integer, TreeMap<Integer, Integer>>();
+        for(int[] kerning : kernings) {
+            if(kerning[2] != 0) {
+                TreeMap<Integer, Integer> row = rows.get(kerning[0]);
+                if(row == null) {
+                    row = new TreeMap<Integer, Integer>();
+                    rows.put(kerning[0], row);
+                }
+                row.put(kerning[1], kerning[2]);
+            }
+        }
+
+        // group first characters with identical rows
+        HashMap<TreeMap<Integer, Integer>, ArrayList<Integer>> leftGroups =
+                new HashMap<TreeMap<Integer, Integer>, ArrayList<Integer>>();
+        ArrayList<TreeMap<Integer, Integer>> leftRows = new ArrayList<TreeMap<Integer, Integer>>();
+        for(Map.Entry<Integer, TreeMap<Integer, Integer>> e : rows.entrySet()) {
+            ArrayList<Integer> group = leftGroups.get(e.getValue());
+            if(group == null) {
+                group = new ArrayList<Integer>();
+                leftGroups.put(e.getValue(), group);
+                leftRows.add(e.getValue());
+            }
+            group.add(e.getKey());
+        }
+
+        // columns over left classes: second -> (leftClass -> amount)
+        TreeMap<Integer, TreeMap<Integer, Integer>> columns = new TreeMap<Integer, TreeMap<Integer, Integer>>();
+        for(int leftClass=0 ; leftClass<leftRows.size() ; leftClass++) {
+            for(Map.Entry<Integer, Integer> e : leftRows.get(leftClass).entrySet()) {
+                TreeMap<Integer, Integer> column = columns.get(e.getKey());
+                if(column == null) {
+                    column = new TreeMap<Integer, Integer>();
+                    columns.put(e.getKey(), column);
+                }
+                column.put(leftClass, e.getValue());
+            }
+        }
+
+        // group second characters with identical columns
+        HashMap<TreeMap<Integer, Integer>, ArrayList<Integer>> rightGroups =
+                new HashMap<TreeMap<Integer, Integer>, ArrayList<Integer>>();
+        ArrayList<TreeMap<Integer, Integer>> rightColumns = new ArrayList<TreeMap<Integer, Integer>>();
+        for(Map.Entry<Integer, TreeMap<Integer, Integer>> e : columns.entrySet()) {
+            ArrayList<Integer> group = rightGroups.get(e.getValue());
+            if(group == null) {
+                group = new ArrayList<Integer>();
+                rightGroups.put(e.getValue(), group);
+                rightColumns.add(e.getValue());
+            }
+            group.add(e.getKey());
+        }
+
+        int[][] leftClasses = new int[leftRows.size()][];
+        for(int i=0 ; i<leftClasses.length ; i++) {
+            leftClasses[i] = toArray(leftGroups.get(leftRows.get(i)));
+        }
+
+        int[][] rightClasses = new int[rightColumns.size()][];
+        ArrayList<int[]> classPairs = new ArrayList<int[]>();
+        for(int rightClass=0 ; rightClass<rightClasses.length ; rightClass++) {
+            TreeMap<Integer, Integer> column = rightColumns.get(rightClass);
+            rightClasses[rightClass] = toArray(rightGroups.get(column));
+            for(Map.Entry<Integer, Integer> e : column.entrySet()) {
+                classPairs.add(new int[] { e.getKey(), rightClass, e.getValue() });
+            }
+        }
+
+        int[][] pairs = classPairs.toArray(new int[classPairs.size()][]);
+        Arrays.sort(pairs, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                int diff = a[0] - b[0];
+                if(diff == 0) {
+                    diff = a[1] - b[1];
+                }
+                return diff;
+            }
+        });
+
+        return new KerningClasses(leftClasses, rightClasses, pairs);
+    }
+
+    /**
+     * Returns the characters of each left class. The class id is the index.
+     * @return the left classes
+     */
+    public int[][] getLeftClasses() {
+        return leftClasses;
+    }
+
+    /**
+     * Returns the characters of each right class. The class id is the index.
+     * @return the right classes
+     */
+    public int[][] getRightClasses() {
+        return rightClasses;
+    }
+
+    /**
+     * Returns the kerning amounts between classes.
+     * @return the class pairs: { leftClass, rightClass, amount }
+     */
+    public int[][] getClassPairs() {
+        return classPairs;
+    }
+
+    /**
+     * Returns the kerning amount for the character pair.
+     *
+     * @param first the first character
+     * @param second the second character
+     * @return the kerning amount or 0
+     */
+    public int getAmount(int first, int second) {
+        Integer leftClass = leftClassOf.get(first);
+        Integer rightClass = rightClassOf.get(second);
+        if(leftClass != null && rightClass != null) {
+            Integer amount = classPairAmount.get(makeKey(leftClass, rightClass));
+            if(amount != null) {
+                return amount;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Checks that all kerning pairs resolve to the same amount. Used in
+     * assert statements.
+     *
+     * @param kernings the kerning pairs: { first, second, amount }
+     * @return true if this object produces the same amounts for all pairs
+     */
+    public boolean isEquivalent(int[][] kernings) {
+        int numNonZero = 0;
+        for(int[] kerning : kernings) {
+            if(getAmount(kerning[0], kerning[1]) != kerning[2]) {
+                return false;
+            }
+            if(kerning[2] != 0) {
+                numNonZero++;
+            }
+        }
+        int numExpanded = 0;
+        for(int[] pair : classPairs) {
+            numExpanded += leftClasses[pair[0]].length * rightClasses[pair[1]].length;
+        }
+        return numExpanded == numNonZero;
+    }
+
+    private static HashMap<Integer, Integer> buildClassMap(int[][] classes) {
+        HashMap<Integer, Integer> map = new HashMap<Integer, Integer>();
+        for(int i=0 ; i<classes.length ; i++) {
+            for(int ch : classes[i]) {
+                map.put(ch, i);
+            }
+        }
+        return map;
+    }
+
+    private static long makeKey(int leftClass, int rightClass) {
+        return ((long)leftClass << 32) | (rightClass & 0xFFFFFFFFL);
+    }
+
+    private static int[] toArray(ArrayList<Integer> list) {
+        int[] result = new int[list.size()];
+        for(int i=0 ; i<result.length ; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+}
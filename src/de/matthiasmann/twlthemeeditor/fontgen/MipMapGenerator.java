@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.fontgen;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Creates a mipmap chain for a font texture. Each pixel is owned by the
+ * glyph rectangle which contains it. When downsampling only pixels of the
+ * same glyph (and unowned transparent pixels) are averaged, so glyphs never
+ * bleed into their neighbours at smaller levels. Averaging is done with
+ * premultiplied alpha to avoid dark fringes and the levels are returned in
+ * the color space in which they will be written, so the PNG writer does not
+ * need to convert them again.
+ *
+ * @author Matthias Mann
+ */
+public class MipMapGenerator {
+
+    private MipMapGenerator() {
+    }
+
+    /**
+     * Computes the number of mipmap levels below the base level.
+     *
+     * @param width the width of the base level
+     * @param height the height of the base level
+     * @return the number of additional levels until the size is 1x1
+     */
+    public static int getNumLevels(int width, int height) {
+        int levels = 0;
+        while(width > 1 || height > 1) {
+            width = Math.max(1, width >> 1);
+            height = Math.max(1, height >> 1);
+            levels++;
+        }
+        return levels;
+    }
+
+    /**
+     * Generates all mipmap levels below the base level.
+     *
+     * @param image the base level
+     * @param height the number of lines of the base level to use
+     * @param rects the glyph rectangles in the base level
+     * @param premultiplied if true the levels contain premultiplied alpha colors
+     * @return the images for level 1 to n
+     */
+    public static BufferedImage[] generate(BufferedImage image, int height, GlyphRect[] rects, boolean premultiplied) {
+        return generate(TextureAtlas.wrap(image), height, rects, premultiplied);
+    }
+
+    /**
+     * Generates all mipmap levels below the base level.
+     *
+     * @param atlas the base level
+     * @param height the number of lines of the base level to use
+     * @param rects the glyph rectangles in the base level
+     * @param premultiplied if true the levels contain premultiplied alpha colors
+     *  and must be written without further conversion
+     * @return the images for level 1 to n
+     */
+    public static BufferedImage[] generate(TextureAtlas atlas, int height, GlyphRect[] rects, boolean premultiplied) {
+        int width = atlas.getWidth();
+        int[] pixels = new int[width * height];
+        int[] row = new int[width];
+        for(int y=0,off=0 ; y<height ; y++,off+=width) {
+            atlas.getRow(y, row);
+            for(int x=0 ; x<width ; x++) {
+                pixels[off + x] = premultiply(row[x]);
+            }
+        }
+
+        int[] owner = new int[width * height];
+        for(int i=0 ; i<rects.length ; i++) {
+            GlyphRect rect = rects[i];
+            int x1 = Math.max(0, rect.x);
+            int y1 = Math.max(0, rect.y);
+            int x2 = Math.min(width, rect.x + rect.width);
+            int y2 = Math.min(height, rect.y + rect.height);
+            for(int y=y1 ; y<y2 ; y++) {
+                for(int x=x1,off=y*width+x1 ; x<x2 ; x++,off++) {
+                    owner[off] = i + 1;
+                }
+            }
+        }
+
+        BufferedImage[] result = new BufferedImage[getNumLevels(width, height)];
+        int[] tmp = premultiplied ? null : new int[Math.max(1, width >> 1) * Math.max(1, height >> 1)];
+        for(int level=0 ; level<result.length ; level++) {
+            int dstWidth = Math.max(1, width >> 1);
+            int dstHeight = Math.max(1, height >> 1);
+            int[] dstPixels = new int[dstWidth * dstHeight];
+            int[] dstOwner = new int[dstWidth * dstHeight];
+
+            int[] offsets = new int[4];
+            for(int dy=0 ; dy<dstHeight ; dy++) {
+                int sy1 = Math.min(height - 1, dy*2);
+                int sy2 = Math.min(height - 1, dy*2 + 1);
+                for(int dx=0 ; dx<dstWidth ; dx++) {
+                    int sx1 = Math.min(width - 1, dx*2);
+                    int sx2 = Math.min(width - 1, dx*2 + 1);
+                    offsets[0] = sy1*width + sx1;
+                    offsets[1] = sy1*width + sx2;
+                    offsets[2] = sy2*width + sx1;
+                    offsets[3] = sy2*width + sx2;
+                    int dOwner = selectOwner(owner, offsets);
+
+                    int a = 0, r = 0, g = 0, b = 0, n = 0;
+                    for(int off : offsets) {
+                        int o = owner[off];
+                        if(o == 0 || o == dOwner) {
+                            int c = pixels[off];
+                            a += c >>> 24;
+                            r += (c >> 16) & 255;
+                            g += (c >>  8) & 255;
+                            b +=  c        & 255;
+                            n++;
+                        }
+                    }
+                    int half = n >> 1;
+                    int dOff = dy*dstWidth + dx;
+                    dstPixels[dOff] = ((a + half) / n << 24) | ((r + half) / n << 16) |
+                            ((g + half) / n << 8) | ((b + half) / n);
+                    dstOwner[dOff] = dOwner;
+                }
+            }
+
+            BufferedImage levelImage = new BufferedImage(dstWidth, dstHeight, BufferedImage.TYPE_INT_ARGB);
+            if(premultiplied) {
+                levelImage.setRGB(0, 0, dstWidth, dstHeight, dstPixels, 0, dstWidth);
+            } else {
+                for(int i=0 ; i<dstPixels.length ; i++) {
+                    tmp[i] = unpremultiply(dstPixels[i]);
+                }
+                levelImage.setRGB(0, 0, dstWidth, dstHeight, tmp, 0, dstWidth);
+            }
+            result[level] = levelImage;
+
+            width = dstWidth;
+            height = dstHeight;
+            pixels = dstPixels;
+            owner = dstOwner;
+        }
+        return result;
+    }
+
+    /**
+     * Converts a straight alpha ARGB value into premultiplied alpha.
+     *
+     * @param argb the straight alpha color
+     * @return the premultiplied color
+     */
+    public static int premultiply(int argb) {
+        int a = argb >>> 24;
+        if(a == 255) {
+            return argb;
+        }
+        if(a == 0) {
+            return 0;
+        }
+        int r = ((argb >> 16) & 255) * a + 127;
+        int g = ((argb >>  8) & 255) * a + 127;
+        int b = ( argb        & 255) * a + 127;
+        return (a << 24) | ((r + (r >> 8)) >> 8 << 16) | ((g + (g >> 8)) >> 8 << 8) | ((b + (b >> 8)) >> 8);
+    }
+
+    static int unpremultiply(int argb) {
+        int a = argb >>> 24;
+        if(a == 255 || a == 0) {
+            return argb;
+        }
+        int half = a >> 1;
+        int r = Math.min(255, (((argb >> 16) & 255) * 255 + half) / a);
+        int g = Math.min(255, (((argb >>  8) & 255) * 255 + half) / a);
+        int b = Math.min(255, (( argb        & 255) * 255 + half) / a);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    private static int selectOwner(int[] owner, int[] offsets) {
+        int best = 0;
+        int bestCount = 0;
+        for(int i=0 ; i<offsets.length ; i++) {
+            int o = owner[offsets[i]];
+            if(o != 0 && o != best) {
+                int count = 0;
+                for(int off : offsets) {
+                    if(owner[off] == o) {
+                        count++;
+                    }
+                }
+                if(count > bestCount) {
+                    best = o;
+                    bestCount = count;
+                }
+            }
+        }
+        return best;
+    }
+}
@@ -36,6 +36,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.zip.CRC32;
 import java.util.zip.CheckedOutputStream;
 import java.util.zip.Deflater;
@@ -51,63 +52,188 @@ public class PNGWriter {
     private static final int IHDR = (int)0x49484452;
     private static final int IDAT = (int)0x49444154;
     private static final int IEND = (int)0x49454E44;
-    private static final byte COLOR_TRUEALPHA = 6;
+    private static final int PLTE = (int)0x504C5445;
+    private static final int TRNS = (int)0x74524E53;
     private static final byte COMPRESSION_DEFLATE = 0;
     private static final byte FILTER_NONE = 0;
     private static final byte INTERLACE_NONE = 0;
     private static final byte PAETH = 4;
 
-    public static void write(OutputStream os, BufferedImage image, int height) throws IOException {
+    /**
+     * The PNG color types which can be written
+     */
+    public enum ColorType {
+        GRAY(0, 1),
+        RGB(2, 3),
+        PALETTE(3, 1),
+        GRAY_ALPHA(4, 2),
+        RGBA(6, 4);
+
+        final byte pngColorType;
+        final int bytesPerPixel;
+
+        private ColorType(int pngColorType, int bytesPerPixel) {
+            this.pngColorType = (byte)pngColorType;
+            this.bytesPerPixel = bytesPerPixel;
+        }
+    }
+
+    public static int write(OutputStream os, BufferedImage image, int height) throws IOException {
+        return write(os, image, height, false);
+    }
+
+    /**
+     * Writes the image as RGBA PNG.
+     *
+     * @param os the output stream
+     * @param image the image to write
+     * @param height the number of lines to write
+     * @param premultiplied if true then the color components are multiplied with the alpha value
+     * @return the number of bytes written
+     * @throws IOException if an IO error occurred
+     */
+    public static int write(OutputStream os, BufferedImage image, int height, boolean premultiplied) throws IOException {
+        return write(os, TextureAtlas.wrap(image), height, premultiplied);
+    }
+
+    /**
+     * Writes the atlas as RGBA PNG. The atlas is read row by row.
+     *
+     * @param os the output stream
+     * @param atlas the atlas to write
+     * @param height the number of lines to write
+     * @param premultiplied if true then the color components are multiplied with the alpha value
+     * @return the number of bytes written
+     * @throws IOException if an IO error occurred
+     */
+    public static int write(OutputStream os, TextureAtlas atlas, int height, boolean premultiplied) throws IOException {
+        return write(os, atlas, height, premultiplied, ColorType.RGBA, null);
+    }
+
+    /**
+     * Writes the atlas as PNG with the specified color type. For gray scale
+     * types the blue component is used.
+     *
+     * @param os the output stream
+     * @param atlas the atlas to write
+     * @param height the number of lines to write
+     * @param premultiplied if true then the color components are multiplied with the alpha value
+     * @param colorType the PNG color type
+     * @param palette the ARGB colors for {@link ColorType#PALETTE} - must contain every color of the atlas
+     * @return the number of bytes written
+     * @throws IOException if an IO error occurred
+     * @throws IllegalArgumentException if a color is not in the palette
+     */
+    public static int write(OutputStream os, TextureAtlas atlas, int height, boolean premultiplied,
+            ColorType colorType, int[] palette) throws IOException {
+        if(colorType == ColorType.PALETTE && (palette == null || palette.length > 256)) {
+            throw new IllegalArgumentException("palette must have 1 to 256 entries");
+        }
+        
         DataOutputStream dos = new DataOutputStream(os);
         dos.write(SIGNATURE);
 
         Chunk cIHDR = new Chunk(IHDR);
-        cIHDR.writeInt(image.getWidth());
+        cIHDR.writeInt(atlas.getWidth());
         cIHDR.writeInt(height);
         cIHDR.writeByte(8); // 8 bit per component
-        cIHDR.writeByte(COLOR_TRUEALPHA);
+        cIHDR.writeByte(colorType.pngColorType);
         cIHDR.writeByte(COMPRESSION_DEFLATE);
         cIHDR.writeByte(FILTER_NONE);
         cIHDR.writeByte(INTERLACE_NONE);
         cIHDR.writeTo(dos);
 
+        int[] paletteKeys = null;
+        byte[] paletteIndices = null;
+        if(colorType == ColorType.PALETTE) {
+            writePalette(dos, palette);
+
+            paletteKeys = palette.clone();
+            Arrays.sort(paletteKeys);
+            paletteIndices = new byte[palette.length];
+            for(int i=0 ; i<palette.length ; i++) {
+                paletteIndices[Arrays.binarySearch(paletteKeys, palette[i])] = (byte)i;
+            }
+        }
+
         Chunk cIDAT = new Chunk(IDAT);
         DeflaterOutputStream dfos = new DeflaterOutputStream(
             cIDAT, new Deflater(Deflater.BEST_COMPRESSION));
 
-        int lineLen = image.getWidth() * 4;
+        int width = atlas.getWidth();
+        int bpp = colorType.bytesPerPixel;
+        int lineLen = width * bpp;
         byte[] lineOut = new byte[lineLen+1];
         byte[] curLine = new byte[lineLen];
         byte[] prevLine = new byte[lineLen];
+        int[] row = new int[width];
+        int lastColor = 0;
+        int lastIndex = -1;
 
         for(int line=0 ; line<height ; line++) {
-            for(int x=0,width=image.getWidth() ; x<width ; x++) {
-                int rgb = image.getRGB(x, line);
-                curLine[x*4+0] = (byte)(rgb >>> 16);
-                curLine[x*4+1] = (byte)(rgb >>>  8);
-                curLine[x*4+2] = (byte)(rgb       );
-                curLine[x*4+3] = (byte)(rgb >>> 24);
+            atlas.getRow(line, row);
+            for(int x=0,o=0 ; x<width ; x++,o+=bpp) {
+                int rgb = row[x];
+                if(premultiplied) {
+                    rgb = MipMapGenerator.premultiply(rgb);
+                }
+                switch(colorType) {
+                    case GRAY:
+                        curLine[o] = (byte)rgb;
+                        break;
+                    case GRAY_ALPHA:
+                        curLine[o  ] = (byte)rgb;
+                        curLine[o+1] = (byte)(rgb >>> 24);
+                        break;
+                    case RGB:
+                        curLine[o  ] = (byte)(rgb >>> 16);
+                        curLine[o+1] = (byte)(rgb >>>  8);
+                        curLine[o+2] = (byte)(rgb       );
+                        break;
+                    case PALETTE:
+                        if(rgb != lastColor || lastIndex < 0) {
+                            int idx = Arrays.binarySearch(paletteKeys, rgb);
+                            if(idx < 0) {
+                                throw new IllegalArgumentException("Color not in palette: " + Integer.toHexString(rgb));
+                            }
+                            lastColor = rgb;
+                            lastIndex = paletteIndices[idx] & 255;
+                        }
+                        curLine[o] = (byte)lastIndex;
+                        break;
+                    default:
+                        curLine[o  ] = (byte)(rgb >>> 16);
+                        curLine[o+1] = (byte)(rgb >>>  8);
+                        curLine[o+2] = (byte)(rgb       );
+                        curLine[o+3] = (byte)(rgb >>> 24);
+                        break;
+                }
             }
 
-            lineOut[0] = PAETH;
-            lineOut[1] = (byte)(curLine[0] - prevLine[0]);
-            lineOut[2] = (byte)(curLine[1] - prevLine[1]);
-            lineOut[3] = (byte)(curLine[2] - prevLine[2]);
-            lineOut[4] = (byte)(curLine[3] - prevLine[3]);
-
-            for(int x=4 ; x<lineLen ; x++) {
-                int a = curLine[x-4] & 255;
-                int b = prevLine[x] & 255;
-                int c = prevLine[x-4] & 255;
-                int p = a + b - c;
-                int pa = p - a; if(pa < 0) pa = -pa;
-                int pb = p - b; if(pb < 0) pb = -pb;
-                int pc = p - c; if(pc < 0) pc = -pc;
-                if(pa<=pb && pa<=pc)
-                    c = a;
-                else if(pb<=pc)
-                    c = b;
-                lineOut[x+1] = (byte)(curLine[x] - c);
+            if(colorType == ColorType.PALETTE) {
+                // filtering indices doesn't help the compression
+                lineOut[0] = FILTER_NONE;
+                System.arraycopy(curLine, 0, lineOut, 1, lineLen);
+            } else {
+                lineOut[0] = PAETH;
+                for(int x=0 ; x<bpp ; x++) {
+                    lineOut[x+1] = (byte)(curLine[x] - prevLine[x]);
+                }
+
+                for(int x=bpp ; x<lineLen ; x++) {
+                    int a = curLine[x-bpp] & 255;
+                    int b = prevLine[x] & 255;
+                    int c = prevLine[x-bpp] & 255;
+                    int p = a + b - c;
+                    int pa = p - a; if(pa < 0) pa = -pa;
+                    int pb = p - b; if(pb < 0) pb = -pb;
+                    int pc = p - c; if(pc < 0) pc = -pc;
+                    if(pa<=pb && pa<=pc)
+                        c = a;
+                    else if(pb<=pc)
+                        c = b;
+                    lineOut[x+1] = (byte)(curLine[x] - c);
+                }
             }
 
             dfos.write(lineOut);
@@ -124,12 +250,53 @@ public class PNGWriter {
         cIEND.writeTo(dos);
 
         dos.flush();
+        return dos.size();
+    }
+
+    private static void writePalette(DataOutputStream dos, int[] palette) throws IOException {
+        Chunk cPLTE = new Chunk(PLTE);
+        int numAlpha = 0;
+        for(int i=0 ; i<palette.length ; i++) {
+            int argb = palette[i];
+            cPLTE.writeByte(argb >>> 16);
+            cPLTE.writeByte(argb >>> 8);
+            cPLTE.writeByte(argb);
+            if((argb >>> 24) != 255) {
+                numAlpha = i + 1;
+            }
+        }
+        cPLTE.writeTo(dos);
+
+        if(numAlpha > 0) {
+            Chunk cTRNS = new Chunk(TRNS);
+            for(int i=0 ; i<numAlpha ; i++) {
+                cTRNS.writeByte(palette[i] >>> 24);
+            }
+            cTRNS.writeTo(dos);
+        }
+    }
+
+    public static int write(File file, BufferedImage image, int height) throws IOException {
+        return write(file, image, height, false);
+    }
+
+    public static int write(File file, BufferedImage image, int height, boolean premultiplied) throws IOException {
+        return write(file, TextureAtlas.wrap(image), height, premultiplied);
+    }
+
+    public static int write(File file, TextureAtlas atlas, int height, boolean premultiplied) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            return write(fos, atlas, height, premultiplied);
+        } finally {
+            fos.close();
+        }
     }
 
-    public static void write(File file, BufferedImage image, int height) throws IOException {
+    public static int write(File file, BufferedImage image, int height, ColorType colorType, int[] palette) throws IOException {
         FileOutputStream fos = new FileOutputStream(file);
         try {
-            write(fos, image, height);
+            return write(fos, TextureAtlas.wrap(image), height, false, colorType, palette);
         } finally {
             fos.close();
         }
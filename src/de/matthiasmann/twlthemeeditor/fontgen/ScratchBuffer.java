@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.fontgen;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Per thread scratch buffers for rendering single glyphs. The buffers grow
+ * geometrically and are reused across glyphs, effects and font generations
+ * to avoid allocating temporary arrays and images for every glyph.
+ *
+ * <p>The returned buffers are only valid until the next request for the
+ * same buffer from the same thread.</p>
+ *
+ * @author Matthias Mann
+ */
+public final class ScratchBuffer {
+
+    public static final int NUM_IMAGE_SLOTS = 4;
+    
+    private static final int SUB_IMAGE_CACHE_SIZE = 64;
+
+    private static final ThreadLocal<ScratchBuffer> INSTANCE = new ThreadLocal<ScratchBuffer>() {
+        @Override
+        protected ScratchBuffer initialValue() {
+            return new ScratchBuffer();
+        }
+    };
+
+    private byte[] bytes;
+    private final BufferedImage[] images;
+    private final BufferedImage[][] subImages;
+
+    private ScratchBuffer() {
+        this.bytes = new byte[1024];
+        this.images = new BufferedImage[NUM_IMAGE_SLOTS];
+        this.subImages = new BufferedImage[NUM_IMAGE_SLOTS][SUB_IMAGE_CACHE_SIZE];
+    }
+
+    /**
+     * Returns the scratch buffer of the calling thread.
+     * @return the scratch buffer
+     */
+    public static ScratchBuffer get() {
+        return INSTANCE.get();
+    }
+
+    /**
+     * Returns a byte array with at least the requested size. The first
+     * {@code size} bytes are cleared.
+     *
+     * @param size the required size
+     * @return a byte array with {@code length >= size}
+     */
+    public byte[] getBytes(int size) {
+        if(bytes.length < size) {
+            bytes = new byte[Math.max(size, bytes.length * 2)];
+        } else {
+            Arrays.fill(bytes, 0, size, (byte)0);
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns a cleared TYPE_INT_ARGB image of exactly the requested size.
+     * The image is a sub image of a larger backing image which is shared
+     * by all requests with the same slot number. Recently used sub images
+     * are cached so that glyphs with the same size don't allocate.
+     *
+     * @param slot the slot number - must be less then {@link #NUM_IMAGE_SLOTS}
+     * @param width the required width
+     * @param height the required height
+     * @return the image
+     */
+    public BufferedImage getImage(int slot, int width, int height) {
+        BufferedImage img = images[slot];
+        if(img == null || img.getWidth() < width || img.getHeight() < height) {
+            int newWidth = width;
+            int newHeight = height;
+            if(img != null) {
+                newWidth = Math.max(width, img.getWidth() * 3 / 2);
+                newHeight = Math.max(height, img.getHeight() * 3 / 2);
+            }
+            img = new BufferedImage(newWidth, newHeight, BufferedImage.TYPE_INT_ARGB);
+            images[slot] = img;
+            Arrays.fill(subImages[slot], null);
+        } else {
+            int[] data = ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
+            int stride = img.getWidth();
+            for(int y=0,off=0 ; y<height ; y++,off+=stride) {
+                Arrays.fill(data, off, off + width, 0);
+            }
+        }
+        if(img.getWidth() == width && img.getHeight() == height) {
+            return img;
+        }
+        BufferedImage[] cache = subImages[slot];
+        int hash = (width * 31 + height) & (SUB_IMAGE_CACHE_SIZE - 1);
+        BufferedImage subImage = cache[hash];
+        if(subImage == null || subImage.getWidth() != width || subImage.getHeight() != height) {
+            subImage = img.getSubimage(0, 0, width, height);
+            cache[hash] = subImage;
+        }
+        return subImage;
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.fontgen;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The backing store of a font texture.
+ *
+ * <p>When no effects are used the glyphs are always white and only the
+ * alpha channel carries information. In this case the atlas is stored as a
+ * single channel {@code TYPE_BYTE_GRAY} image where the gray value is the
+ * alpha value. This needs a quarter of the memory of an ARGB image.</p>
+ *
+ * <p>Consumers read the atlas row by row with {@link #getRow(int, int[]) }
+ * so that no full ARGB copy is needed for exporting or uploading.</p>
+ *
+ * <p>The areas which are drawn into are recorded per band of rows, so that
+ * a preview only needs to upload these instead of comparing atlases.</p>
+ *
+ * @author Matthias Mann
+ */
+public final class TextureAtlas {
+
+    private static final int WHITE = 0xFFFFFF;
+
+    /**
+     * The number of rows which are combined into one dirty band
+     */
+    public static final int DIRTY_BAND_HEIGHT = 32;
+
+    private final BufferedImage image;
+    private final boolean alphaOnly;
+    private final int[] dirtyLeft;
+    private final int[] dirtyRight;
+
+    private TextureAtlas(BufferedImage image, boolean alphaOnly) {
+        this.image = image;
+        this.alphaOnly = alphaOnly;
+
+        int numBands = (image.getHeight() + DIRTY_BAND_HEIGHT - 1) / DIRTY_BAND_HEIGHT;
+        this.dirtyLeft = new int[numBands];
+        this.dirtyRight = new int[numBands];
+        Arrays.fill(dirtyLeft, image.getWidth());
+        Arrays.fill(dirtyRight, -1);
+    }
+
+    /**
+     * Creates an atlas with full ARGB storage.
+     *
+     * @param width the width of the atlas
+     * @param height the height of the atlas
+     * @return a new atlas
+     */
+    public static TextureAtlas createARGB(int width, int height) {
+        return new TextureAtlas(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB), false);
+    }
+
+    /**
+     * Creates an alpha only atlas with one byte per pixel. All pixels have
+     * the color white. Drawing white onto the image sets the alpha value.
+     *
+     * @param width the width of the atlas
+     * @param height the height of the atlas
+     * @return a new atlas
+     */
+    public static TextureAtlas createAlpha(int width, int height) {
+        return new TextureAtlas(new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY), true);
+    }
+
+    /**
+     * Wraps an existing ARGB image.
+     *
+     * @param image the image
+     * @return an atlas which reads from the image
+     */
+    public static TextureAtlas wrap(BufferedImage image) {
+        return new TextureAtlas(image, false);
+    }
+
+    public int getWidth() {
+        return image.getWidth();
+    }
+
+    public int getHeight() {
+        return image.getHeight();
+    }
+
+    public boolean isAlphaOnly() {
+        return alphaOnly;
+    }
+
+    /**
+     * Returns the image used for rendering. For an alpha only atlas this
+     * is a gray scale image.
+     *
+     * @return the image
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * Returns the alpha values of an alpha only atlas.
+     * @return the alpha values, one byte per pixel, row after row
+     * @throws IllegalStateException if the atlas is not alpha only
+     */
+    public byte[] getAlphaData() {
+        if(!alphaOnly) {
+            throw new IllegalStateException("not an alpha atlas");
+        }
+        return ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * Returns the number of bytes used by the pixel data.
+     * @return the number of bytes
+     */
+    public long getMemoryUsage() {
+        long pixels = (long)image.getWidth() * image.getHeight();
+        return alphaOnly ? pixels : pixels * 4;
+    }
+
+    /**
+     * Stores the pixels of an ARGB array in the atlas.
+     * For an alpha only atlas only the alpha values are used.
+     *
+     * @param x the left edge of the destination area
+     * @param y the top edge of the destination area
+     * @param width the width of the area
+     * @param height the height of the area
+     * @param argb the source pixels
+     * @param offset the offset of the first source pixel
+     * @param scanSize the distance between rows in the source array
+     */
+    public void setARGB(int x, int y, int width, int height, int[] argb, int offset, int scanSize) {
+        if(alphaOnly) {
+            byte[] data = getAlphaData();
+            int atlasWidth = image.getWidth();
+            for(int row=0 ; row<height ; row++) {
+                int src = offset + row * scanSize;
+                int dst = (y + row) * atlasWidth + x;
+                for(int col=0 ; col<width ; col++) {
+                    data[dst + col] = (byte)(argb[src + col] >>> 24);
+                }
+            }
+        } else {
+            image.setRGB(x, y, width, height, argb, offset, scanSize);
+        }
+        markDirty(x, y, width, height);
+    }
+
+    /**
+     * Reads one row of the atlas as non premultiplied ARGB.
+     *
+     * @param y the row
+     * @param argb the destination, must have at least {@link #getWidth() } entries
+     */
+    public void getRow(int y, int[] argb) {
+        int width = image.getWidth();
+        if(alphaOnly) {
+            byte[] data = getAlphaData();
+            for(int x=0,off=y*width ; x<width ; x++,off++) {
+                argb[x] = (data[off] << 24) | WHITE;
+            }
+        } else if(image.getType() == BufferedImage.TYPE_INT_ARGB) {
+            int[] data = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+            System.arraycopy(data, y*width, argb, 0, width);
+        } else {
+            image.getRGB(0, y, width, 1, argb, 0, width);
+        }
+    }
+
+    /**
+     * Copies the specified number of rows into the buffer as ARGB.
+     *
+     * @param ib the destination buffer
+     * @param height the number of rows to copy starting at row 0
+     */
+    public void getARGB(IntBuffer ib, int height) {
+        if(!alphaOnly && image.getType() == BufferedImage.TYPE_INT_ARGB) {
+            int[] data = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+            ib.put(data, 0, image.getWidth() * height);
+        } else {
+            int[] row = new int[image.getWidth()];
+            for(int y=0 ; y<height ; y++) {
+                getRow(y, row);
+                ib.put(row);
+            }
+        }
+    }
+
+    /**
+     * Converts an area of the atlas to BGRA bytes as used for texture
+     * uploads. The conversion works directly on the data buffer of the
+     * image.
+     *
+     * @param x the left edge of the area
+     * @param y the top edge of the area
+     * @param width the width of the area
+     * @param height the height of the area
+     * @param dst the destination buffer, receives {@code width*height*4} bytes
+     */
+    public void getBGRA(int x, int y, int width, int height, ByteBuffer dst) {
+        byte[] line = new byte[width * 4];
+        int atlasWidth = image.getWidth();
+        if(alphaOnly) {
+            byte[] data = getAlphaData();
+            Arrays.fill(line, (byte)255);
+            for(int row=0 ; row<height ; row++) {
+                int src = (y + row) * atlasWidth + x;
+                for(int col=0 ; col<width ; col++) {
+                    line[col*4+3] = data[src + col];
+                }
+                dst.put(line);
+            }
+        } else {
+            int[] data;
+            int stride;
+            int base;
+            if(image.getType() == BufferedImage.TYPE_INT_ARGB) {
+                data = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+                stride = atlasWidth;
+                base = y * atlasWidth + x;
+            } else {
+                data = image.getRGB(x, y, width, height, null, 0, width);
+                stride = width;
+                base = 0;
+            }
+            for(int row=0 ; row<height ; row++) {
+                int src = base + row * stride;
+                for(int col=0,off=0 ; col<width ; col++,off+=4) {
+                    int argb = data[src + col];
+                    line[off+0] = (byte)(argb       );
+                    line[off+1] = (byte)(argb >>>  8);
+                    line[off+2] = (byte)(argb >>> 16);
+                    line[off+3] = (byte)(argb >>> 24);
+                }
+                dst.put(line);
+            }
+        }
+    }
+
+    /**
+     * Records that an area of the atlas has been drawn. {@link #setARGB }
+     * does this itself, code which draws directly into the image or the
+     * alpha data must call this method.
+     *
+     * @param x the left edge of the area
+     * @param y the top edge of the area
+     * @param width the width of the area
+     * @param height the height of the area
+     */
+    public void markDirty(int x, int y, int width, int height) {
+        markBands(dirtyLeft, dirtyRight, x, y, width, height);
+    }
+
+    /**
+     * Returns the areas which have been drawn since the atlas was created.
+     * Each band of {@link #DIRTY_BAND_HEIGHT} rows which was drawn into
+     * produces one rectangle covering the drawn columns. Adjacent bands with
+     * the same columns are merged.
+     *
+     * <p>The areas of the previously displayed atlas can be included so
+     * that its glyphs get cleared by the same upload.</p>
+     *
+     * @param previous the dirty areas of the previously displayed atlas or null
+     * @return the list of dirty areas, can be empty
+     */
+    public List<Rectangle> getDirtyRegions(List<Rectangle> previous) {
+        int[] left = dirtyLeft.clone();
+        int[] right = dirtyRight.clone();
+        if(previous != null) {
+            for(Rectangle r : previous) {
+                markBands(left, right, r.x, r.y, r.width, r.height);
+            }
+        }
+
+        int height = image.getHeight();
+        ArrayList<Rectangle> result = new ArrayList<Rectangle>();
+        Rectangle last = null;
+        for(int band=0 ; band<left.length ; band++) {
+            if(right[band] >= left[band]) {
+                int bandY = band * DIRTY_BAND_HEIGHT;
+                int bandEnd = Math.min(height, bandY + DIRTY_BAND_HEIGHT);
+                int width = right[band] - left[band] + 1;
+                if(last != null && last.y + last.height == bandY && last.x == left[band] && last.width == width) {
+                    last.height = bandEnd - last.y;
+                } else {
+                    last = new Rectangle(left[band], bandY, width, bandEnd - bandY);
+                    result.add(last);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void markBands(int[] left, int[] right, int x, int y, int width, int height) {
+        int x1 = Math.max(0, x);
+        int y1 = Math.max(0, y);
+        int x2 = Math.min(image.getWidth(), x + width);
+        int y2 = Math.min(image.getHeight(), y + height);
+        if(x1 >= x2 || y1 >= y2) {
+            return;
+        }
+        for(int band=y1/DIRTY_BAND_HEIGHT,end=(y2-1)/DIRTY_BAND_HEIGHT ; band<=end ; band++) {
+            left[band] = Math.min(left[band], x1);
+            right[band] = Math.max(right[band], x2 - 1);
+        }
+    }
+}
@@ -36,6 +36,7 @@ import de.matthiasmann.twlthemeeditor.fontgen.FontGenerator.GeneratorMethod;
 import de.matthiasmann.twlthemeeditor.fontgen.FontInfo;
 import de.matthiasmann.twlthemeeditor.fontgen.GlyphRect;
 import de.matthiasmann.twlthemeeditor.fontgen.Padding;
+import de.matthiasmann.twlthemeeditor.fontgen.ScratchBuffer;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
@@ -124,7 +125,8 @@ public class BlurShadowEffect extends Effect {
 
         @Override
         public void preGlyphRender(Graphics2D g, FontInfo context, GlyphRect glyph) {
-            BufferedImage image1 = new BufferedImage(glyph.width, glyph.height, BufferedImage.TYPE_INT_ARGB);
+            ScratchBuffer scratch = ScratchBuffer.get();
+            BufferedImage image1 = scratch.getImage(0, glyph.width, glyph.height);
             Graphics2D g1 = image1.createGraphics();
             g1.setColor(color);
             g1.translate(glyph.xDrawOffset + dist, glyph.yDrawOffset - glyph.yoffset + dist);
@@ -132,7 +134,7 @@ public class BlurShadowEffect extends Effect {
             g1.fill(glyph.glyphShape);
             g1.dispose();
             if(filterH != null && filterV != null) {
-                BufferedImage image2 = new BufferedImage(glyph.width, glyph.height, BufferedImage.TYPE_INT_ARGB);
+                BufferedImage image2 = scratch.getImage(1, glyph.width, glyph.height);
                 for(int i = 0; i < numPasses; i++) {
                     filterH.filter(image1, image2);
                     filterV.filter(image2, image1);
@@ -39,10 +39,12 @@ import de.matthiasmann.twlthemeeditor.fontgen.FontData;
 import de.matthiasmann.twlthemeeditor.fontgen.FontGenerator;
 import de.matthiasmann.twlthemeeditor.fontgen.FontGenerator.GeneratorMethod;
 import de.matthiasmann.twlthemeeditor.fontgen.Padding;
+import de.matthiasmann.twlthemeeditor.fontgen.TextureAtlas;
+import java.awt.Rectangle;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -70,6 +72,7 @@ public class FontDisplay extends Widget {
     private boolean updateRunning;
     private ByteBuffer buffer;
     private DynamicImage image;
+    private List<Rectangle> uploadedRegions;
     private FontGenerator lastFontGen;
 
     public FontDisplay(Runnable callback) {
@@ -239,6 +242,7 @@ public class FontDisplay extends Widget {
             image.destroy();
             image = null;
         }
+        uploadedRegions = null;
     }
 
     private ByteBuffer getBuffer(int size) {
@@ -261,11 +265,21 @@ public class FontDisplay extends Widget {
             }
         }
         if(image != null) {
+            TextureAtlas atlas = fontGen.getAtlas();
+            List<Rectangle> prevRegions = uploadedRegions;
+            uploadedRegions = null;
             try {
-                ByteBuffer bb = getBuffer(textureSize * textureSize * 4);
-                IntBuffer ib = bb.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
-                fontGen.getTextureData(ib);
-                image.update(bb, DynamicImage.Format.BGRA);
+                // the new glyphs and the areas of the old glyphs which must be cleared
+                List<Rectangle> regions = (prevRegions != null)
+                        ? atlas.getDirtyRegions(prevRegions)
+                        : Collections.singletonList(new Rectangle(0, 0, atlas.getWidth(), atlas.getHeight()));
+                for(Rectangle r : regions) {
+                    ByteBuffer bb = getBuffer(r.width * r.height * 4);
+                    atlas.getBGRA(r.x, r.y, r.width, r.height, bb);
+                    bb.flip();
+                    image.update(r.x, r.y, r.width, r.height, bb, DynamicImage.Format.BGRA);
+                }
+                uploadedRegions = atlas.getDirtyRegions(null);
             } catch (Throwable ex) {
                 Logger.getLogger(FontDisplay.class.getName()).log(Level.SEVERE, "Unable to update image", ex);
             }
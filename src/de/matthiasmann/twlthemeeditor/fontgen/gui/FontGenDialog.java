@@ -55,6 +55,7 @@ import de.matthiasmann.twlthemeeditor.TestEnv;
 import de.matthiasmann.twlthemeeditor.datamodel.DecoratedText;
 import de.matthiasmann.twlthemeeditor.fontgen.CharSet;
 import de.matthiasmann.twlthemeeditor.fontgen.FontData;
+import de.matthiasmann.twlthemeeditor.fontgen.FontGenStatistics;
 import de.matthiasmann.twlthemeeditor.fontgen.FontGenerator;
 import de.matthiasmann.twlthemeeditor.fontgen.FontGenerator.GeneratorMethod;
 import de.matthiasmann.twlthemeeditor.fontgen.Padding;
@@ -112,6 +113,7 @@ public final class FontGenDialog {
     private final Label fontMetricInfoLabel;
     private final SimpleIntegerModel flagsModel;
     private final ToggleButton useAACheckbox;
+    private final ToggleButton trimCheckbox;
     private final EffectsPanel effectsPanel;
     private final ScrollPane effectsPanelSP;
     private final FontDisplay fontDisplay;
@@ -121,6 +123,9 @@ public final class FontGenDialog {
     private final SimpleListSelectionModel<FontGenerator.ExportFormat> exportFormatModel;
     private final ComboBox<FontGenerator.ExportFormat> exportFormatCB;
     private final ToggleButton saveFullImageSizeCheckbox;
+    private final ToggleButton exportPremultipliedCheckbox;
+    private final ToggleButton exportMipMapsCheckbox;
+    private final ToggleButton exportKerningClassesCheckbox;
     private final Button loadSettingsButton;
     private final Button saveSettingsButton;
     private final Button saveFontButton;
@@ -222,6 +227,11 @@ public final class FontGenDialog {
         useAACheckbox.setText("Use Antialiasing rendering");
         useAACheckbox.setTheme("useAACheckbox");
 
+        trimCheckbox = new ToggleButton(new BitfieldBooleanModel(flagsModel, FontGenerator.BIT_TRIM));
+        trimCheckbox.setText("Trim transparent borders");
+        trimCheckbox.setTheme("trimCheckbox");
+        trimCheckbox.setTooltipContent("Removes fully transparent rows and columns from each glyph before packing");
+
         fontDisplayBgCB = new ComboBox<FontDisplayBG>(new SimpleChangableListModel<FontDisplayBG>(FontDisplayBG.values()));
         fontDisplayBgCB.setSelected(0);
         fontDisplayBgCB.addCallback(new Runnable() {
@@ -275,6 +285,7 @@ public final class FontGenDialog {
         effectsPanel.addControl("Font metric", fontMetricInfoLabel);
         effectsPanel.addControl("Preview BG", fontDisplayBgCB);
         effectsPanel.addControl(useAACheckbox);
+        effectsPanel.addControl(trimCheckbox);
         effectsPanel.addCollapsible("Unicode blocks", unicodeBlocksSP, null).setExpanded(true);
         effectsPanel.addCollapsible("Manual characters", manualCharactersEditfield, null);
         effectsPanel.addCollapsible("Manual padding", paddingAdjuster, manualPaddingModel);
@@ -327,6 +338,18 @@ public final class FontGenDialog {
         saveFullImageSizeCheckbox = new ToggleButton("save full image");
         saveFullImageSizeCheckbox.setTheme("checkbox");
         saveFullImageSizeCheckbox.setTooltipContent("When selected it will save a square image where including unused lower parts");
+
+        exportPremultipliedCheckbox = new ToggleButton("premultiplied alpha");
+        exportPremultipliedCheckbox.setTheme("checkbox");
+        exportPremultipliedCheckbox.setTooltipContent("When selected the color values in the image are multiplied with the alpha value");
+
+        exportMipMapsCheckbox = new ToggleButton("mipmaps");
+        exportMipMapsCheckbox.setTheme("checkbox");
+        exportMipMapsCheckbox.setTooltipContent("When selected all mipmap levels are saved as additional images");
+
+        exportKerningClassesCheckbox = new ToggleButton("kerning classes");
+        exportKerningClassesCheckbox.setTheme("checkbox");
+        exportKerningClassesCheckbox.setTooltipContent("When selected the kerning is saved as a compact class table instead of individual pairs");
         
         loadSettingsButton = new Button("Load Settings");
         loadSettingsButton.addCallback(new Runnable() {
@@ -382,6 +405,9 @@ public final class FontGenDialog {
                 .addWidget(saveSettingsButton)
                 .addWidget(statusBar)
                 .addWidget(saveFullImageSizeCheckbox)
+                .addWidget(exportPremultipliedCheckbox)
+                .addWidget(exportMipMapsCheckbox)
+                .addWidget(exportKerningClassesCheckbox)
                 .addWidget(exportFormatCB)
                 .addWidget(saveFontButton)
                 .addWidget(closeButton);
@@ -390,6 +416,9 @@ public final class FontGenDialog {
                 .addWidget(saveSettingsButton)
                 .addWidget(statusBar)
                 .addWidget(saveFullImageSizeCheckbox)
+                .addWidget(exportPremultipliedCheckbox)
+                .addWidget(exportMipMapsCheckbox)
+                .addWidget(exportKerningClassesCheckbox)
                 .addWidget(exportFormatCB)
                 .addWidget(saveFontButton)
                 .addWidget(closeButton);
@@ -460,8 +489,12 @@ public final class FontGenDialog {
     private static final String KEY_TEXTURESIZE = "textureSize";
     private static final String KEY_FONTSIZE = "fontSize";
     private static final String KEY_EXPORTFORMAT = "exportFormat";
+    private static final String KEY_EXPORT_PREMULTIPLIED = "export.premultiplied";
+    private static final String KEY_EXPORT_MIPMAPS = "export.mipmaps";
+    private static final String KEY_EXPORT_KERNING_CLASSES = "export.kerningClasses";
     private static final String KEY_PADDING_AUTOMATIC = "padding.automatic";
     private static final String KEY_USEAA = "useAA";
+    private static final String KEY_TRIM = "trim";
     private static final String KEY_GENERATOR_METHOD = "generatorMethod";
     private static final String[] KEY_PADDING = {
         "padding.top",
@@ -518,7 +551,12 @@ public final class FontGenDialog {
             exportFormatModel.setSelectedEntry(format);
         }
 
+        exportPremultipliedCheckbox.setActive(Boolean.parseBoolean(properties.getProperty(KEY_EXPORT_PREMULTIPLIED, "false")));
+        exportMipMapsCheckbox.setActive(Boolean.parseBoolean(properties.getProperty(KEY_EXPORT_MIPMAPS, "false")));
+        exportKerningClassesCheckbox.setActive(Boolean.parseBoolean(properties.getProperty(KEY_EXPORT_KERNING_CLASSES, "false")));
+
         useAACheckbox.setActive(Boolean.parseBoolean(properties.getProperty(KEY_USEAA, "true")));
+        trimCheckbox.setActive(Boolean.parseBoolean(properties.getProperty(KEY_TRIM, "false")));
 
         {
             FontGenerator.GeneratorMethod generatorMethod = GeneratorMethod.AWT_VECTOR;
@@ -571,7 +609,11 @@ public final class FontGenDialog {
         properties.setProperty(KEY_TEXTURESIZE, Integer.toString(textureSizesModel.getSelectedEntry()));
         properties.setProperty(KEY_FONTSIZE, Integer.toString(fontSizeModel.getValue()));
         properties.setProperty(KEY_EXPORTFORMAT, exportFormatModel.getSelectedEntry().name());
+        properties.setProperty(KEY_EXPORT_PREMULTIPLIED, Boolean.toString(exportPremultipliedCheckbox.isActive()));
+        properties.setProperty(KEY_EXPORT_MIPMAPS, Boolean.toString(exportMipMapsCheckbox.isActive()));
+        properties.setProperty(KEY_EXPORT_KERNING_CLASSES, Boolean.toString(exportKerningClassesCheckbox.isActive()));
         properties.setProperty(KEY_USEAA, Boolean.toString(useAACheckbox.isActive()));
+        properties.setProperty(KEY_TRIM, Boolean.toString(trimCheckbox.isActive()));
         properties.setProperty(KEY_GENERATOR_METHOD, generatorModesModel.getSelectedEntry().name());
         charSet.save(properties);
         properties.setProperty(KEY_PADDING_AUTOMATIC, Boolean.toString(!manualPaddingModel.getValue()));
@@ -604,12 +646,14 @@ public final class FontGenDialog {
                 Preferences.userNodeForPackage(FontGenDialog.class), FONTGEN_OUTPUTFILE_SELECTOR_KEY,
                 "BMFont files", ".fnt", new SaveFileSelector.Callback() {
             public File[] getFilesCreatedForFileName(File file) {
-                return fontGen.getFilesCreatedForName(file);
+                return fontGen.getFilesCreatedForName(file,
+                        saveFullImageSizeCheckbox.isActive(), getExportFlags());
             }
             public void fileNameSelected(File file) {
                 try {
                     fontGen.write(file, exportFormatModel.getSelectedEntry(),
-                            saveFullImageSizeCheckbox.isActive());
+                            saveFullImageSizeCheckbox.isActive(), getExportFlags());
+                    updateStatusBar();
                 } catch(IOException ex) {
                     Logger.getLogger(FontGenDialog.class.getName()).log(Level.SEVERE, "Cound not save font", ex);
                 }
@@ -620,6 +664,20 @@ public final class FontGenDialog {
         sfs.openPopup();
     }
 
+    int getExportFlags() {
+        int exportFlags = 0;
+        if(exportPremultipliedCheckbox.isActive()) {
+            exportFlags |= FontGenerator.FLAG_EXPORT_PREMULTIPLIED;
+        }
+        if(exportMipMapsCheckbox.isActive()) {
+            exportFlags |= FontGenerator.FLAG_EXPORT_MIPMAPS;
+        }
+        if(exportKerningClassesCheckbox.isActive()) {
+            exportFlags |= FontGenerator.FLAG_EXPORT_KERNING_CLASSES;
+        }
+        return exportFlags;
+    }
+
     void close() {
         popupWindow.closePopup();
     }
@@ -652,9 +710,11 @@ public final class FontGenDialog {
             fontTestEditfield.setEnabled(false);
             
             setStatusBar("Select a font", DecoratedText.ERROR);
+            statusBar.setTooltipContent(null);
             return;
         }
         fontTestEditfield.setEnabled(true);
+        statusBar.setTooltipContent(fontGen.getStatistics().getSummary());
         fontMetricInfoLabel.setText("height: " + fontGen.getLineHeight() +
                 " ascent: " + fontGen.getAscent() + " descent: " + fontGen.getDescent());
         int usedTextureHeight = fontGen.getUsedTextureHeight();
@@ -670,7 +730,13 @@ public final class FontGenDialog {
                     + (usedTextureHeight - textureSize) + " lines more)", DecoratedText.ERROR);
             return;
         }
-        setStatusBar("Used " + usedTextureHeight + " of " + textureSize + " lines", 0);
+        String status = "Used " + usedTextureHeight + " of " + textureSize + " lines";
+        if(fontGen.getTrimmedPixels() > 0) {
+            status += " (trimming saved " + fontGen.getTrimmedPixels() + " pixels)";
+        }
+        status += " - generated in " + FontGenStatistics.formatMillis(
+                fontGen.getStatistics().getTotalNanos());
+        setStatusBar(status, 0);
     }
 
     void setFontDisplayTheme() {
@@ -744,6 +810,7 @@ public final class FontGenDialog {
         fontDisplay.setGeneratorMethod(generatorMethod);
         effectsPanel.enableEffectsPanels(generatorMethod);
         enableFlagWidget(useAACheckbox, FontGenerator.FLAG_AA);
+        enableFlagWidget(trimCheckbox, FontGenerator.FLAG_TRIM);
     }
     
     private void enableFlagWidget(Widget w, int mask) {
@@ -58,6 +58,7 @@ public class FontPreview extends Widget {
 
     private String text;
     private Font font;
+    private BufferedImage thumbnail;
     private DynamicImage image;
     private boolean imageDirty;
 
@@ -81,6 +82,19 @@ public class FontPreview extends Widget {
         this.imageDirty = true;
     }
 
+    public BufferedImage getThumbnail() {
+        return thumbnail;
+    }
+
+    /**
+     * Sets an image which is displayed when no font is set.
+     * @param thumbnail the image or null
+     */
+    public void setThumbnail(BufferedImage thumbnail) {
+        this.thumbnail = thumbnail;
+        this.imageDirty = true;
+    }
+
     public String getText() {
         return text;
     }
@@ -140,6 +154,8 @@ public class FontPreview extends Widget {
                     g.setFont(font);
                     FontMetrics fm = g.getFontMetrics();
                     g.drawString(text, 10, fm.getAscent() + fm.getLeading());
+                } else if(thumbnail != null) {
+                    g.drawImage(thumbnail, 10, (HEIGHT - thumbnail.getHeight()) / 2, null);
                 }
             } finally {
                 g.dispose();
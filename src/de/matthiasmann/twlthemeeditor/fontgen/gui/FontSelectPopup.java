@@ -29,15 +29,23 @@
  */
 package de.matthiasmann.twlthemeeditor.fontgen.gui;
 
+import de.matthiasmann.twl.DialogLayout;
+import de.matthiasmann.twl.EditField;
 import de.matthiasmann.twl.FileSelector;
 import de.matthiasmann.twl.FileTable;
+import de.matthiasmann.twl.GUI;
+import de.matthiasmann.twl.Label;
 import de.matthiasmann.twl.PopupWindow;
 import de.matthiasmann.twl.Widget;
+import de.matthiasmann.twl.model.FileSystemModel;
+import de.matthiasmann.twl.model.FileSystemModel.FileFilter;
 import de.matthiasmann.twl.model.JavaFileSystemModel;
 import de.matthiasmann.twl.utils.CallbackSupport;
+import de.matthiasmann.twlthemeeditor.fontgen.FontCatalog;
 import de.matthiasmann.twlthemeeditor.fontgen.FontData;
 import de.matthiasmann.twlthemeeditor.gui.MainUI.ExtFilter;
 import java.io.File;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
@@ -53,24 +61,58 @@ public class FontSelectPopup extends PopupWindow {
     }
 
     private static final String PREF_FS = "fontSelector";
+
+    private static FontCatalog catalog;
     
     private final FileSelector fileSelector;
+    private final EditField filterEF;
+    private final Label fontNameLabel;
     private final FontPreview preview;
+    private final ExtFilter ttfFilter;
+    private final GUI.AsyncCompletionListener<Integer> indexCompletionHandler;
 
     private String fontPath;
+    private File fontFile;
     private FontData fontData;
     private Callback[] callbacks;
+    private boolean indexRunning;
+    private File pendingIndexFolder;
 
     public FontSelectPopup(Widget owner) {
         super(owner);
         
         this.fileSelector = new FileSelector(Preferences.userNodeForPackage(FontSelectPopup.class), PREF_FS);
+        this.filterEF = new EditField();
+        this.fontNameLabel = new Label();
         this.preview = new FontPreview();
+        this.ttfFilter = new ExtFilter(".ttf");
+        this.indexCompletionHandler = new GUI.AsyncCompletionListener<Integer>() {
+            public void completed(Integer numParsed) {
+                indexDone(numParsed.intValue() > 0);
+            }
+            public void failed(Exception ex) {
+                Logger.getLogger(FontSelectPopup.class.getName()).log(Level.SEVERE, "Can't index fonts", ex);
+                indexDone(false);
+            }
+        };
+
+        filterEF.setTheme("fontfilter");
+        fontNameLabel.setTheme("fontname");
+        filterEF.addCallback(new EditField.Callback() {
+            public void callback(int key) {
+                fileSelector.getFileTable().refreshFileTable();
+            }
+        });
+
+        DialogLayout bottom = new DialogLayout();
+        bottom.setTheme("fontselectbottom");
+        bottom.setHorizontalGroup(bottom.createParallelGroup(filterEF, fontNameLabel, preview));
+        bottom.setVerticalGroup(bottom.createSequentialGroup(filterEF, fontNameLabel, preview));
 
         fileSelector.setFileSystemModel(JavaFileSystemModel.getInstance());
-        fileSelector.addFileFilter(new FileSelector.NamedFileFilter("TrueType fonts", new ExtFilter(".ttf")));
+        fileSelector.addFileFilter(new FileSelector.NamedFileFilter("TrueType fonts", new FontFilter()));
         fileSelector.setAllowMultiSelection(false);
-        fileSelector.setUserWidgetBottom(preview);
+        fileSelector.setUserWidgetBottom(bottom);
         fileSelector.getFileTable().addCallback(new FileTable.Callback() {
             public void selectionChanged() {
                 updatePreview();
@@ -78,19 +120,31 @@ public class FontSelectPopup extends PopupWindow {
             public void sortingChanged() {
             }
         });
-        fileSelector.addCallback(new FileSelector.Callback() {
+        fileSelector.addCallback(new FileSelector.Callback2() {
             public void filesSelected(Object[] files) {
                 fireAcceptFont();
             }
             public void canceled() {
                 closePopup();
             }
+            public void folderChanged(Object folder) {
+                indexFolder(folder);
+            }
+            public void selectionChanged(FileTable.Entry[] selection) {
+            }
         });
 
         add(fileSelector);
         setCloseOnClickedOutside(false);
     }
 
+    static synchronized FontCatalog getCatalog() {
+        if(catalog == null) {
+            catalog = new FontCatalog(FontCatalog.getDefaultCacheFile());
+        }
+        return catalog;
+    }
+
     public void addCallback(Callback cb) {
         callbacks = CallbackSupport.addCallbackToList(callbacks, cb, Callback.class);
     }
@@ -113,39 +167,105 @@ public class FontSelectPopup extends PopupWindow {
                     width/2 - getWidth()/2,
                     height/2 - getHeight()/2);
             validateLayout();
+            indexFolder(fileSelector.getCurrentFolder());
             return true;
         }
         return false;
     }
 
+    void indexFolder(Object folder) {
+        if(!(folder instanceof File)) {
+            return;
+        }
+        GUI gui = getGUI();
+        if(gui == null) {
+            return;
+        }
+        if(indexRunning) {
+            pendingIndexFolder = (File)folder;
+        } else {
+            final File dir = (File)folder;
+            final FontCatalog fc = getCatalog();
+            gui.invokeAsync(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    int numParsed = fc.scanFolder(dir);
+                    fc.save();
+                    return numParsed;
+                }
+            }, indexCompletionHandler);
+            indexRunning = true;
+        }
+    }
+
+    void indexDone(boolean changed) {
+        indexRunning = false;
+        if(changed) {
+            fileSelector.getFileTable().refreshFileTable();
+            if(fontData == null) {
+                updatePreview();
+            }
+        }
+        if(pendingIndexFolder != null) {
+            File folder = pendingIndexFolder;
+            pendingIndexFolder = null;
+            indexFolder(folder);
+        }
+    }
+
     void updatePreview() {
         fontPath = null;
+        fontFile = null;
         fontData = null;
+        FontCatalog.Entry catalogEntry = null;
         FileTable.Entry[] selection = fileSelector.getFileTable().getSelection();
         if(selection.length > 0) {
             FileTable.Entry entry = selection[0];
             if(!entry.isFolder && (entry.obj instanceof File)) {
-                try {
-                    fontData = new FontData((File)entry.obj, 32);
+                File file = (File)entry.obj;
+                catalogEntry = getCatalog().get(file);
+                if(catalogEntry == null) {
+                    try {
+                        fontData = new FontData(file, 32);
+                        catalogEntry = getCatalog().add(file, fontData);
+                    } catch (Throwable ex) {
+                        Logger.getLogger(FontSelectPopup.class.getName()).log(Level.SEVERE, "Can't open font: " + entry.getPath(), ex);
+                    }
+                }
+                if(catalogEntry != null) {
+                    fontFile = file;
                     fontPath = entry.getPath();
-                } catch (Throwable ex) {
-                    Logger.getLogger(FontSelectPopup.class.getName()).log(Level.SEVERE, "Can't open font: " + entry.getPath(), ex);
                 }
             }
         }
         
-        if(fontData != null) {
+        if(catalogEntry != null) {
             fileSelector.setOkButtonEnabled(true);
-            preview.setFont(fontData.getJavaFont());
-            preview.setTooltipContent(fontData.getName());
+            if(fontData != null) {
+                preview.setFont(fontData.getJavaFont());
+                preview.setThumbnail(null);
+            } else {
+                preview.setFont(null);
+                preview.setThumbnail(catalogEntry.createThumbnail());
+            }
+            preview.setTooltipContent(catalogEntry.getDescription());
+            fontNameLabel.setText(catalogEntry.getDisplayName());
         } else {
             fileSelector.setOkButtonEnabled(false);
             preview.setFont(null);
+            preview.setThumbnail(null);
             preview.setTooltipContent(null);
+            fontNameLabel.setText("");
         }
     }
 
     void fireAcceptFont() {
+        if(fontData == null && fontFile != null) {
+            try {
+                fontData = new FontData(fontFile, 32);
+            } catch (Throwable ex) {
+                Logger.getLogger(FontSelectPopup.class.getName()).log(Level.SEVERE, "Can't open font: " + fontPath, ex);
+            }
+        }
         if(fontData != null) {
             if(callbacks != null) {
                 for(Callback cb : callbacks) {
@@ -155,4 +275,19 @@ public class FontSelectPopup extends PopupWindow {
             closePopup();
         }
     }
+
+    class FontFilter implements FileFilter {
+        public boolean accept(FileSystemModel fsm, Object file) {
+            if(!ttfFilter.accept(fsm, file)) {
+                return false;
+            }
+            String filter = filterEF.getText();
+            if(filter.length() == 0 || !(file instanceof File)) {
+                return true;
+            }
+            // fonts which are not yet indexed are always shown
+            FontCatalog.Entry entry = getCatalog().get((File)file);
+            return entry == null || entry.matches(filter);
+        }
+    }
 }
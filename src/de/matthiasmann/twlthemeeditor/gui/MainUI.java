@@ -86,6 +86,7 @@ public final class MainUI extends DialogLayout {
     private final StatusBar statusBar;
     private final MenuAction btnSaveProject;
     private final MenuAction btnUndo;
+    private final MenuAction btnRedo;
     private final Menu recentProjectsMenu;
     private final MRUListModel<String> recentProjectsModel;
     private final Runnable undoChangedCB;
@@ -137,6 +138,11 @@ public final class MainUI extends DialogLayout {
                 undo();
             }
         }));
+        menuEdit.add(btnRedo = new MenuAction("Redo", new Runnable() {
+            public void run() {
+                redo();
+            }
+        }));
         
         Menu menuView = new Menu("View");
         menuView.add(new MenuCheckbox("Layout 1", editorArea.getLayoutBooleanModel(EditorArea.Layout.SPLIT_HV)).setTheme("radiobtn"));
@@ -201,6 +207,7 @@ public final class MainUI extends DialogLayout {
         
         btnSaveProject.setEnabled(false);
         btnUndo.setEnabled(false);
+        btnRedo.setEnabled(false);
         
         setHorizontalGroup(createParallelGroup()
                 .addWidget(menuBar)
@@ -217,6 +224,7 @@ public final class MainUI extends DialogLayout {
 
         addActionMapping("reloadTestWidget", "reloadTestWidget");
         addActionMapping("undo", "undo");
+        addActionMapping("redo", "redo");
     }
 
     @Override
@@ -298,6 +306,7 @@ public final class MainUI extends DialogLayout {
     
     void updateUndoButton() {
         btnUndo.setEnabled(model != null && model.getUndo().hasUndo());
+        btnRedo.setEnabled(model != null && model.getUndo().hasRedo());
     }
     
     public void undo() {
@@ -305,6 +314,12 @@ public final class MainUI extends DialogLayout {
             editorArea.undoGotoLastSelected();
         }
     }
+    
+    public void redo() {
+        if(model != null && model.getUndo().redo()) {
+            editorArea.undoGotoLastSelected();
+        }
+    }
 
     public boolean isCloseApplication() {
         return closeApplication;
@@ -313,6 +328,7 @@ public final class MainUI extends DialogLayout {
     public void closeProject() {
         if(model != null) {
             model.getUndo().removeCallback(undoChangedCB);
+            model.getUndo().dispose();
         }
         model = null;
         projectDir = null;
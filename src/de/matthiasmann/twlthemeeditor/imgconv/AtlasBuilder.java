@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.imgconv;
+
+import de.matthiasmann.twlthemeeditor.fontgen.PNGWriter;
+import de.matthiasmann.twlthemeeditor.imgconv.ImageGenerator.Area;
+import de.matthiasmann.twlthemeeditor.imgconv.ImageGenerator.FramePixels;
+import de.matthiasmann.twlthemeeditor.imgconv.ImageGenerator.FrameRef;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import org.xmlpull.v1.XmlSerializer;
+
+/**
+ * Packs the frames of several images into a set of textures.
+ *
+ * <p>Identical frames are stored only once - even when they belong to
+ * different images. The frames are trimmed and packed like in
+ * {@link ImageGenerator} and a new texture is started when a frame doesn't
+ * fit into one of the existing textures.</p>
+ *
+ * <p>All textures of an atlas use the smallest lossless format for the
+ * combined frames.</p>
+ *
+ * @author Matthias Mann
+ */
+public class AtlasBuilder {
+
+    private final int maxTextureSize;
+    private final ArrayList<Sprite> sprites;
+    private final HashMap<FramePixels, Area> uniqueFrames;
+    private final ArrayList<Area> areas;
+    private final ArrayList<String> oversized;
+    private final TextureFormatAnalyzer formatAnalyzer;
+    private BufferedImage[] textures;
+    private TextureFormat textureFormat;
+    private int[] palette;
+
+    public AtlasBuilder(int maxTextureSize) {
+        this.maxTextureSize = maxTextureSize;
+        this.sprites = new ArrayList<Sprite>();
+        this.uniqueFrames = new HashMap<FramePixels, Area>();
+        this.areas = new ArrayList<Area>();
+        this.oversized = new ArrayList<String>();
+        this.formatAnalyzer = new TextureFormatAnalyzer();
+    }
+
+    /**
+     * Adds all frames of an image. Consecutive identical frames are merged.
+     *
+     * @param name the name of the image in the theme
+     * @param imageData the image
+     * @param skipZeroDelayFrames if true frames with a delay of 0 are ignored
+     */
+    public void add(String name, ImageData imageData, boolean skipZeroDelayFrames) {
+        add(name, decode(imageData, skipZeroDelayFrames));
+    }
+
+    /**
+     * Adds already decoded frames. This method is not thread safe, but the
+     * frames can be decoded in parallel with {@link #decode(ImageData, boolean) }.
+     *
+     * @param name the name of the image in the theme
+     * @param frames the decoded frames
+     */
+    public void add(String name, DecodedImage frames) {
+        add(name, frames.width, frames.height, frames.pixels, frames.delays);
+    }
+
+    /**
+     * Decodes all frames of an image. Can be called from any thread.
+     * Identical frames of the image share one {@link FramePixels} and
+     * consecutive identical frames are merged.
+     *
+     * @param imageData the image
+     * @param skipZeroDelayFrames if true frames with a delay of 0 are ignored
+     * @return the decoded frames
+     */
+    public static DecodedImage decode(ImageData imageData, boolean skipZeroDelayFrames) {
+        BufferedImage image0 = imageData.getImage(0);
+        DecodedImage result = new DecodedImage(image0.getWidth(), image0.getHeight());
+        int[] frameBuffer = new int[result.width * result.height];
+        HashMap<FramePixels, FramePixels> uniquePixels = new HashMap<FramePixels, FramePixels>();
+        for(int imgNr=0 ; imgNr<imageData.getNumImages() ; imgNr++) {
+            int delayMS = imageData.getDelayMS(imgNr);
+            if(skipZeroDelayFrames && delayMS == 0) {
+                continue;
+            }
+            FramePixels fp = new FramePixels(imageData.getImage(imgNr), result.width, result.height, frameBuffer);
+            FramePixels prev = uniquePixels.get(fp);
+            if(prev == null) {
+                uniquePixels.put(fp, fp);
+            } else {
+                fp = prev;
+            }
+            int last = result.pixels.size() - 1;
+            if(last >= 0 && result.pixels.get(last) == fp) {
+                result.delays.set(last, result.delays.get(last) + delayMS);
+            } else {
+                result.pixels.add(fp);
+                result.delays.add(delayMS);
+            }
+        }
+        return result;
+    }
+
+    private void add(String name, int frameWidth, int frameHeight, List<FramePixels> pixels, List<Integer> delays) {
+        if(frameWidth > maxTextureSize || frameHeight > maxTextureSize) {
+            oversized.add(name);
+            return;
+        }
+        
+        Sprite sprite = new Sprite(name);
+        for(int i=0 ; i<pixels.size() ; i++) {
+            FramePixels fp = pixels.get(i);
+            Area area = uniqueFrames.get(fp);
+            if(area == null) {
+                area = new Area(areas.size(), fp);
+                uniqueFrames.put(fp, area);
+                areas.add(area);
+                area.analyzeFormat(formatAnalyzer);
+            }
+            
+            int delayMS = delays.get(i);
+            FrameRef prev = sprite.frames.isEmpty() ? null : sprite.frames.get(sprite.frames.size() - 1);
+            if(prev != null && prev.area == area) {
+                prev.delayMS += delayMS;
+            } else {
+                sprite.frames.add(new FrameRef(area, delayMS));
+            }
+        }
+        if(!sprite.frames.isEmpty()) {
+            sprites.add(sprite);
+        }
+    }
+
+    /**
+     * Returns the names of all images which were not added because they
+     * are larger than the maximum texture size.
+     * @return the list of names
+     */
+    public List<String> getOversized() {
+        return Collections.unmodifiableList(oversized);
+    }
+
+    public int getNumSprites() {
+        return sprites.size();
+    }
+
+    public int getNumAreas() {
+        return areas.size();
+    }
+
+    /**
+     * Packs all frames into textures.
+     */
+    public void pack() {
+        textureFormat = formatAnalyzer.getFormat();
+        palette = formatAnalyzer.getPalette();
+        textures = ImageGenerator.packAreas(areas, maxTextureSize);
+        uniqueFrames.clear();
+    }
+
+    /**
+     * Returns the smallest lossless format for all frames. Only valid after {@link #pack() }.
+     * @return the texture format
+     */
+    public TextureFormat getTextureFormat() {
+        return textureFormat;
+    }
+
+    public int getNumTextures() {
+        return textures.length;
+    }
+
+    public BufferedImage getTexture(int textureNr) {
+        return textures[textureNr];
+    }
+
+    /**
+     * Returns the file name of a texture.
+     *
+     * @param baseName the base name of the atlas
+     * @param textureNr the texture number
+     * @return {@code <baseName>.png} for the first texture and {@code <baseName>_<textureNr>.png} for the others
+     */
+    public static String getTextureFileName(String baseName, int textureNr) {
+        if(textureNr == 0) {
+            return baseName.concat(".png");
+        }
+        return baseName + "_" + textureNr + ".png";
+    }
+
+    public void writeTexture(File dir, String baseName, int textureNr) throws IOException {
+        BufferedImage texture = textures[textureNr];
+        PNGWriter.write(new File(dir, getTextureFileName(baseName, textureNr)), texture, texture.getHeight(),
+                textureFormat.pngColorType, palette);
+    }
+
+    /**
+     * Writes one {@code <images>} element for each texture. Animations are
+     * written into the last element after all areas.
+     *
+     * @param xs the serializer
+     * @param baseName the base name of the atlas
+     * @throws IOException if an IO error occurred
+     */
+    public void writeImages(XmlSerializer xs, String baseName) throws IOException {
+        for(int textureNr=0 ; textureNr<textures.length ; textureNr++) {
+            xs.text("\n  ");
+            xs.startTag(null, "images");
+            xs.attribute(null, "file", getTextureFileName(baseName, textureNr));
+            xs.attribute(null, "format", textureFormat.xmlFormat);
+
+            for(Sprite sprite : sprites) {
+                if(sprite.frames.size() == 1) {
+                    Area area = sprite.frames.get(0).area;
+                    if(area.texture == textureNr) {
+                        writeArea(xs, sprite.name, area);
+                    }
+                } else {
+                    List<Area> spriteAreas = sprite.getAreas();
+                    for(int i=0 ; i<spriteAreas.size() ; i++) {
+                        Area area = spriteAreas.get(i);
+                        if(area.texture == textureNr) {
+                            writeArea(xs, sprite.name+"-"+i, area);
+                        }
+                    }
+                }
+            }
+
+            if(textureNr == textures.length-1) {
+                for(Sprite sprite : sprites) {
+                    if(sprite.frames.size() > 1) {
+                        writeAnimation(xs, sprite);
+                    }
+                }
+            }
+
+            xs.text("\n  ");
+            xs.endTag(null, "images");
+        }
+    }
+
+    private static void writeArea(XmlSerializer xs, String name, Area area) throws IOException {
+        xs.text("\n    ");
+        xs.startTag(null, "area");
+        xs.attribute(null, "name", name);
+        xs.attribute(null, "xywh", area.getXYWH());
+        ImageGenerator.writeInset(xs, area);
+        xs.endTag(null, "area");
+    }
+
+    private static void writeAnimation(XmlSerializer xs, Sprite sprite) throws IOException {
+        List<Area> spriteAreas = sprite.getAreas();
+        xs.text("\n    ");
+        xs.startTag(null, "animation");
+        xs.attribute(null, "name", sprite.name);
+        xs.attribute(null, "timeSource", "hover");
+        for(FrameRef frame : sprite.frames) {
+            xs.text("\n      ");
+            xs.startTag(null, "frame");
+            xs.attribute(null, "duration", Integer.toString(frame.delayMS));
+            xs.attribute(null, "ref", sprite.name+"-"+spriteAreas.indexOf(frame.area));
+            xs.endTag(null, "frame");
+        }
+        xs.text("\n    ");
+        xs.endTag(null, "animation");
+    }
+
+    /**
+     * The frames of one image decoded by {@link AtlasBuilder#decode(ImageData, boolean) }
+     */
+    public static final class DecodedImage {
+        final int width;
+        final int height;
+        final ArrayList<FramePixels> pixels;
+        final ArrayList<Integer> delays;
+
+        DecodedImage(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.pixels = new ArrayList<FramePixels>();
+            this.delays = new ArrayList<Integer>();
+        }
+
+        public int getNumFrames() {
+            return pixels.size();
+        }
+    }
+
+    static final class Sprite {
+        final String name;
+        final ArrayList<FrameRef> frames;
+
+        Sprite(String name) {
+            this.name = name;
+            this.frames = new ArrayList<FrameRef>();
+        }
+
+        List<Area> getAreas() {
+            LinkedHashSet<Area> result = new LinkedHashSet<Area>();
+            for(FrameRef frame : frames) {
+                result.add(frame.area);
+            }
+            return new ArrayList<Area>(result);
+        }
+    }
+}
@@ -0,0 +1,546 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.imgconv;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+import org.xmlpull.v1.XmlSerializer;
+
+/**
+ * Command line tool which converts a directory tree of images and
+ * animations into texture atlases.
+ *
+ * <p>Each directory which contains images becomes one atlas named after
+ * its relative path with {@code '/'} replaced by {@code '_'}. Directories
+ * whose atlas names would collide are rejected. For every atlas a PNG per
+ * texture and an XML file with the {@code <images>} elements are written.
+ * A root XML file includes all atlas XML files.</p>
+ *
+ * <p>A manifest in the output directory stores a SHA-1 hash over the
+ * contents of each directory and the number of textures of its atlas.
+ * Directories which did not change since the last run are skipped. Textures
+ * which are no longer used and the atlases of removed directories are
+ * deleted.</p>
+ *
+ * <p>Only a few images per thread are decoded ahead of the atlas builder,
+ * so the memory usage does not depend on the number of images in a
+ * directory.</p>
+ *
+ * @author Matthias Mann
+ */
+public class BatchAtlasBuilder {
+
+    public static final String MANIFEST_FILE = "atlas.manifest";
+    
+    private static final String[] EXTENSIONS = { ".png", ".gif", ".jpg", ".jpeg", ".bmp" };
+
+    private final File inputDir;
+    private final File outputDir;
+    private final String rootName;
+    private final int maxTextureSize;
+    private final boolean skipZeroDelayFrames;
+    private final boolean force;
+    private final int numThreads;
+
+    private int numBuilt;
+    private int numUpToDate;
+
+    public BatchAtlasBuilder(File inputDir, File outputDir, String rootName,
+            int maxTextureSize, boolean skipZeroDelayFrames, boolean force, int numThreads) {
+        this.inputDir = inputDir;
+        this.outputDir = outputDir;
+        this.rootName = rootName;
+        this.maxTextureSize = maxTextureSize;
+        this.skipZeroDelayFrames = skipZeroDelayFrames;
+        this.force = force;
+        this.numThreads = numThreads;
+    }
+
+    public static void main(String[] args) {
+        String rootName = "images";
+        int maxTextureSize = ImageGenerator.MAX_TEXTURE_SIZE;
+        boolean skipZeroDelayFrames = false;
+        boolean force = false;
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        ArrayList<String> dirs = new ArrayList<String>();
+
+        try {
+            for(int i=0 ; i<args.length ; i++) {
+                String arg = args[i];
+                if("-name".equals(arg)) {
+                    rootName = args[++i];
+                } else if("-maxsize".equals(arg)) {
+                    maxTextureSize = Integer.parseInt(args[++i]);
+                } else if("-threads".equals(arg)) {
+                    numThreads = Math.max(1, Integer.parseInt(args[++i]));
+                } else if("-skipzerodelay".equals(arg)) {
+                    skipZeroDelayFrames = true;
+                } else if("-force".equals(arg)) {
+                    force = true;
+                } else if(arg.startsWith("-")) {
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+                } else {
+                    dirs.add(arg);
+                }
+            }
+            if(dirs.size() != 2) {
+                throw new IllegalArgumentException("Input and output directory required");
+            }
+        } catch(RuntimeException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("Usage: BatchAtlasBuilder [-name <root xml name>] [-maxsize <pixels>]"
+                    + " [-threads <count>] [-skipzerodelay] [-force] <input dir> <output dir>");
+            System.exit(1);
+        }
+
+        BatchAtlasBuilder builder = new BatchAtlasBuilder(new File(dirs.get(0)), new File(dirs.get(1)),
+                rootName, maxTextureSize, skipZeroDelayFrames, force, numThreads);
+        try {
+            builder.run();
+            System.out.println(builder.getNumBuilt() + " atlases built, "
+                    + builder.getNumUpToDate() + " up to date");
+        } catch(Exception ex) {
+            ex.printStackTrace();
+            System.exit(2);
+        }
+    }
+
+    public int getNumBuilt() {
+        return numBuilt;
+    }
+
+    public int getNumUpToDate() {
+        return numUpToDate;
+    }
+
+    /**
+     * Converts all directories.
+     *
+     * @throws IOException if an IO error occurred
+     * @throws InterruptedException if the calling thread was interrupted
+     */
+    public void run() throws IOException, InterruptedException {
+        if(!inputDir.isDirectory()) {
+            throw new IOException("Not a directory: " + inputDir);
+        }
+        if(!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Can't create directory: " + outputDir);
+        }
+
+        TreeMap<String, List<File>> dirs = new TreeMap<String, List<File>>();
+        collectImages(inputDir, "", outputDir.getCanonicalFile(), dirs);
+        HashMap<String, String> atlasNames = createAtlasNames(dirs.keySet());
+
+        Properties manifest = loadManifest();
+        Properties newManifest = new Properties();
+        ArrayList<String> includes = new ArrayList<String>();
+        
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            for(Map.Entry<String, List<File>> e : dirs.entrySet()) {
+                String dirPath = e.getKey();
+                List<File> files = e.getValue();
+                String atlasName = atlasNames.get(dirPath);
+                String hash = computeHash(executor, dirPath, files);
+                String oldEntry = manifest.getProperty(atlasName);
+
+                includes.add(atlasName.concat(".xml"));
+                
+                if(!force && hash.equals(getManifestHash(oldEntry)) &&
+                        new File(outputDir, atlasName.concat(".xml")).exists()) {
+                    newManifest.setProperty(atlasName, oldEntry);
+                    numUpToDate++;
+                    continue;
+                }
+
+                int numTextures = buildAtlas(executor, dirPath, files, atlasName);
+                newManifest.setProperty(atlasName, hash + "," + numTextures);
+                deleteTextures(atlasName, numTextures, getManifestNumTextures(oldEntry));
+                numBuilt++;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for(String atlasName : manifest.stringPropertyNames()) {
+            if(!newManifest.containsKey(atlasName)) {
+                System.out.println(atlasName + ": removed");
+                deleteFile(new File(outputDir, atlasName.concat(".xml")));
+                deleteTextures(atlasName, 0, getManifestNumTextures(manifest.getProperty(atlasName)));
+            }
+        }
+
+        writeRootXML(includes);
+        saveManifest(newManifest);
+    }
+
+    /**
+     * Maps each directory path to the name of its atlas. The names must be
+     * unique even on case insensitive file systems and must not clash with
+     * the root XML file.
+     *
+     * @param dirPaths the relative directory paths
+     * @return the atlas name for each directory path
+     * @throws IOException if two directories map to the same atlas name
+     */
+    private HashMap<String, String> createAtlasNames(Set<String> dirPaths) throws IOException {
+        HashMap<String, String> result = new HashMap<String, String>();
+        HashMap<String, String> usedNames = new HashMap<String, String>();
+        usedNames.put(rootName.toLowerCase(Locale.ENGLISH), null);
+        for(String dirPath : dirPaths) {
+            String atlasName = dirPath.isEmpty() ? rootName + "_atlas" : dirPath.replace('/', '_');
+            String key = atlasName.toLowerCase(Locale.ENGLISH);
+            if(usedNames.containsKey(key)) {
+                String other = usedNames.get(key);
+                throw new IOException("Atlas name '" + atlasName + "' of directory '" + dirPath +
+                        "' collides with " + ((other == null) ? "the root XML file" : "directory '" + other + "'"));
+            }
+            usedNames.put(key, dirPath);
+            result.put(dirPath, atlasName);
+        }
+        return result;
+    }
+
+    private static String getManifestHash(String entry) {
+        if(entry == null) {
+            return null;
+        }
+        int idx = entry.indexOf(',');
+        return (idx < 0) ? entry : entry.substring(0, idx);
+    }
+
+    /**
+     * Returns the number of textures stored in a manifest entry.
+     * @param entry the manifest entry
+     * @return the number of textures or -1 if it is unknown
+     */
+    private static int getManifestNumTextures(String entry) {
+        int idx = (entry != null) ? entry.indexOf(',') : -1;
+        if(idx >= 0) {
+            try {
+                return Integer.parseInt(entry.substring(idx + 1));
+            } catch(NumberFormatException ex) {
+                // unknown
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Deletes the textures {@code first} to {@code end-1} of an atlas. When
+     * the number of textures is unknown ({@code end < 0}) all existing
+     * textures starting at {@code first} are deleted.
+     */
+    private void deleteTextures(String atlasName, int first, int end) {
+        for(int i=first ; end < 0 || i < end ; i++) {
+            File file = new File(outputDir, AtlasBuilder.getTextureFileName(atlasName, i));
+            if(file.exists()) {
+                deleteFile(file);
+            } else if(end < 0) {
+                break;
+            }
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if(file.exists() && !file.delete()) {
+            System.err.println("Can't delete file: " + file);
+        }
+    }
+
+    private void collectImages(File dir, String path, File skipDir, Map<String, List<File>> result) throws IOException {
+        File[] files = dir.listFiles();
+        if(files == null) {
+            return;
+        }
+        Arrays.sort(files);
+
+        ArrayList<File> images = new ArrayList<File>();
+        for(File file : files) {
+            if(file.isDirectory()) {
+                if(!file.getCanonicalFile().equals(skipDir)) {
+                    collectImages(file, path.isEmpty() ? file.getName() : path + "/" + file.getName(), skipDir, result);
+                }
+            } else if(isImage(file)) {
+                images.add(file);
+            }
+        }
+        if(!images.isEmpty()) {
+            result.put(path, images);
+        }
+    }
+
+    private static boolean isImage(File file) {
+        String name = file.getName().toLowerCase(Locale.ENGLISH);
+        for(String ext : EXTENSIONS) {
+            if(name.endsWith(ext)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String computeHash(ExecutorService executor, String dirPath, List<File> files) throws IOException, InterruptedException {
+        ArrayList<Future<byte[]>> fileHashes = new ArrayList<Future<byte[]>>();
+        for(final File file : files) {
+            fileHashes.add(executor.submit(new Callable<byte[]>() {
+                public byte[] call() throws Exception {
+                    return hashFile(file);
+                }
+            }));
+        }
+
+        MessageDigest md = createDigest();
+        md.update(("maxsize=" + maxTextureSize + " skipzerodelay=" + skipZeroDelayFrames +
+                " dir=" + dirPath).getBytes("UTF8"));
+        for(int i=0 ; i<files.size() ; i++) {
+            md.update(files.get(i).getName().getBytes("UTF8"));
+            md.update(get(fileHashes.get(i)));
+        }
+        return toHex(md.digest());
+    }
+
+    private Future<AtlasBuilder.DecodedImage> submitDecode(ExecutorService executor, final File file) {
+        return executor.submit(new Callable<AtlasBuilder.DecodedImage>() {
+            public AtlasBuilder.DecodedImage call() throws Exception {
+                ImageData imageData = ImageData.create(file);
+                if(imageData == null) {
+                    return null;
+                }
+                try {
+                    return AtlasBuilder.decode(imageData, skipZeroDelayFrames);
+                } finally {
+                    imageData.dispose();
+                }
+            }
+        });
+    }
+
+    /**
+     * Builds and writes one atlas.
+     *
+     * @return the number of textures written
+     */
+    private int buildAtlas(ExecutorService executor, String dirPath, List<File> files, final String atlasName) throws IOException, InterruptedException {
+        // decode ahead only a bounded window of images - the builder consumes them in order
+        int window = numThreads * 2;
+        ArrayList<Future<AtlasBuilder.DecodedImage>> decoded = new ArrayList<Future<AtlasBuilder.DecodedImage>>();
+
+        final AtlasBuilder builder = new AtlasBuilder(maxTextureSize);
+        String prefix = dirPath.isEmpty() ? "" : dirPath.replace('/', '.') + ".";
+        for(int i=0 ; i<files.size() ; i++) {
+            while(decoded.size() < files.size() && decoded.size() < i + window) {
+                decoded.add(submitDecode(executor, files.get(decoded.size())));
+            }
+            AtlasBuilder.DecodedImage image = get(decoded.get(i));
+            if(image == null) {
+                System.err.println("Can't read image: " + files.get(i));
+                continue;
+            }
+            builder.add(prefix + getBaseName(files.get(i)), image);
+            decoded.set(i, null);
+        }
+        for(String name : builder.getOversized()) {
+            System.err.println("Image is larger than the maximum texture size: " + name);
+        }
+
+        builder.pack();
+
+        ArrayList<Future<Object>> writes = new ArrayList<Future<Object>>();
+        for(int i=0 ; i<builder.getNumTextures() ; i++) {
+            final int textureNr = i;
+            writes.add(executor.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    builder.writeTexture(outputDir, atlasName, textureNr);
+                    return null;
+                }
+            }));
+        }
+
+        OutputStream os = new FileOutputStream(new File(outputDir, atlasName.concat(".xml")));
+        try {
+            XmlSerializer xs = createSerializer(os);
+            xs.startTag(null, "themes");
+            builder.writeImages(xs, atlasName);
+            xs.text("\n");
+            xs.endTag(null, "themes");
+            xs.endDocument();
+        } finally {
+            os.close();
+        }
+
+        for(Future<Object> write : writes) {
+            get(write);
+        }
+        System.out.println(atlasName + ": " + builder.getNumSprites() + " images, "
+                + builder.getNumAreas() + " unique frames, " + builder.getNumTextures() + " textures, "
+                + builder.getTextureFormat());
+        return builder.getNumTextures();
+    }
+
+    private void writeRootXML(List<String> includes) throws IOException {
+        OutputStream os = new FileOutputStream(new File(outputDir, rootName.concat(".xml")));
+        try {
+            XmlSerializer xs = createSerializer(os);
+            xs.startTag(null, "themes");
+            for(String include : includes) {
+                xs.text("\n  ");
+                xs.startTag(null, "include");
+                xs.attribute(null, "filename", include);
+                xs.endTag(null, "include");
+            }
+            xs.text("\n");
+            xs.endTag(null, "themes");
+            xs.endDocument();
+        } finally {
+            os.close();
+        }
+    }
+
+    private static XmlSerializer createSerializer(OutputStream os) throws IOException {
+        try {
+            XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+            factory.setNamespaceAware(false);
+            XmlSerializer xs = factory.newSerializer();
+            xs.setOutput(os, "UTF8");
+            xs.startDocument("UTF8", true);
+            xs.text("\n");
+            return xs;
+        } catch (XmlPullParserException ex) {
+            throw (IOException)(new IOException().initCause(ex));
+        }
+    }
+
+    private Properties loadManifest() {
+        Properties p = new Properties();
+        File file = new File(outputDir, MANIFEST_FILE);
+        if(file.exists()) {
+            try {
+                InputStream is = new FileInputStream(file);
+                try {
+                    p.load(is);
+                } finally {
+                    is.close();
+                }
+            } catch(IOException ex) {
+                System.err.println("Can't read manifest - rebuilding all atlases");
+                p.clear();
+            }
+        }
+        return p;
+    }
+
+    private void saveManifest(Properties p) throws IOException {
+        OutputStream os = new FileOutputStream(new File(outputDir, MANIFEST_FILE));
+        try {
+            p.store(os, "TWL atlas builder content hashes");
+        } finally {
+            os.close();
+        }
+    }
+
+    static byte[] hashFile(File file) throws IOException {
+        MessageDigest md = createDigest();
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[65536];
+            int read;
+            while((read=is.read(buffer)) > 0) {
+                md.update(buffer, 0, read);
+            }
+        } finally {
+            is.close();
+        }
+        return md.digest();
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    private static <T> T get(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch(ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if(cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw (IOException)(new IOException().initCause(cause));
+        }
+    }
+
+    private static String toHex(byte[] data) {
+        StringBuilder sb = new StringBuilder(data.length * 2);
+        for(byte b : data) {
+            sb.append(Character.forDigit((b >> 4) & 15, 16));
+            sb.append(Character.forDigit(b & 15, 16));
+        }
+        return sb.toString();
+    }
+
+    private static String getBaseName(File file) {
+        String baseName = file.getName();
+        int idx = baseName.lastIndexOf('.');
+        if(idx > 0) {
+            baseName = baseName.substring(0, idx);
+        }
+        return baseName;
+    }
+}
@@ -33,6 +33,7 @@ import de.matthiasmann.twl.Button;
 import de.matthiasmann.twl.ComboBox;
 import de.matthiasmann.twl.DialogLayout;
 import de.matthiasmann.twl.EditField;
+import de.matthiasmann.twl.GUI;
 import de.matthiasmann.twl.Label;
 import de.matthiasmann.twl.PopupWindow;
 import de.matthiasmann.twl.ScrollPane;
@@ -41,13 +42,13 @@ import de.matthiasmann.twl.ToggleButton;
 import de.matthiasmann.twl.Widget;
 import de.matthiasmann.twl.model.SimpleBooleanModel;
 import de.matthiasmann.twl.model.SimpleChangableListModel;
+import de.matthiasmann.twl.model.SimpleListSelectionModel;
 import de.matthiasmann.twlthemeeditor.datamodel.DecoratedText;
 import de.matthiasmann.twlthemeeditor.fontgen.gui.EffectsPanel;
-import de.matthiasmann.twlthemeeditor.fontgen.gui.FontGenDialog;
 import de.matthiasmann.twlthemeeditor.gui.DecoratedTextRenderer;
 import de.matthiasmann.twlthemeeditor.gui.SaveFileSelector;
 import java.io.File;
-import java.io.IOException;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
@@ -64,14 +65,18 @@ public final class ConvertImageDialog extends PopupWindow {
     private final Button selectImageBtn;
     private final SimpleBooleanModel excludeZeroDelayFramesModel;
     private final ToggleButton excludeZeroDelayFramesBtn;
+    private final SimpleListSelectionModel<Integer> maxTextureSizeModel;
+    private final ComboBox<Integer> maxTextureSizeCB;
     private final ComboBox<ImageDisplayBG> imageDisplayBgCB;
     private final ImageDisplay imageDisplay;
     private final Label statusBar;
+    private final Button cancelButton;
     private final Button saveImageButton;
     private final Button closeButton;
 
     private String imagePath;
     private ImageData imageData;
+    private boolean saveRunning;
     
     public ConvertImageDialog(Widget owner) {
         super(owner);
@@ -98,6 +103,18 @@ public final class ConvertImageDialog extends PopupWindow {
         excludeZeroDelayFramesBtn.setTheme("checkbox");
         excludeZeroDelayFramesBtn.setText("Exclude frames with 0 delay");
 
+        maxTextureSizeModel = new SimpleListSelectionModel<Integer>(
+                new SimpleChangableListModel<Integer>(512, 1024, 2048, 4096));
+        maxTextureSizeModel.setSelectedEntry(ImageGenerator.MAX_TEXTURE_SIZE, 3);
+        maxTextureSizeModel.addCallback(new Runnable() {
+            public void run() {
+                updateMaxTextureSize();
+            }
+        });
+
+        maxTextureSizeCB = new ComboBox<Integer>(maxTextureSizeModel);
+        maxTextureSizeCB.setTooltipContent("Frames which don't fit are placed on additional textures");
+
         imageDisplayBgCB = new ComboBox<ImageDisplayBG>(new SimpleChangableListModel<ImageDisplayBG>(ImageDisplayBG.values()));
         imageDisplayBgCB.setSelected(0);
         imageDisplayBgCB.addCallback(new Runnable() {
@@ -114,6 +131,7 @@ public final class ConvertImageDialog extends PopupWindow {
         
         effectsPanel.addControl("Image", imagePathEF, selectImageBtn);
         effectsPanel.addControl(excludeZeroDelayFramesBtn);
+        effectsPanel.addControl("Max texture size", maxTextureSizeCB);
 
         imageDisplay = new ImageDisplay(new Runnable() {
             public void run() {
@@ -124,6 +142,14 @@ public final class ConvertImageDialog extends PopupWindow {
         ScrollPane imageDisplaySP = new ScrollPane(imageDisplay);
         imageDisplaySP.setTheme("imageDisplay");
 
+        cancelButton = new Button("Cancel");
+        cancelButton.setTooltipContent("Stop converting the selected image");
+        cancelButton.addCallback(new Runnable() {
+            public void run() {
+                imageDisplay.cancelUpdate();
+            }
+        });
+
         saveImageButton = new Button("Save Image");
         saveImageButton.addCallback(new Runnable() {
             public void run() {
@@ -152,10 +178,12 @@ public final class ConvertImageDialog extends PopupWindow {
 
         DialogLayout.Group hButtons = layout.createSequentialGroup()
                 .addWidget(statusBar)
+                .addWidget(cancelButton)
                 .addWidget(saveImageButton)
                 .addWidget(closeButton);
         DialogLayout.Group vButtons = layout.createParallelGroup()
                 .addWidget(statusBar)
+                .addWidget(cancelButton)
                 .addWidget(saveImageButton)
                 .addWidget(closeButton);
 
@@ -171,6 +199,7 @@ public final class ConvertImageDialog extends PopupWindow {
 
         setImageDisplayTheme();
         updateExcludeZeroDelayFrames();
+        updateMaxTextureSize();
         updateStatusBar();
     }
     
@@ -216,6 +245,10 @@ public final class ConvertImageDialog extends PopupWindow {
         imageDisplay.setSkipZeroDelayFrames(excludeZeroDelayFramesModel.getValue());
     }
 
+    void updateMaxTextureSize() {
+        imageDisplay.setMaxTextureSize(maxTextureSizeModel.getSelectedEntry());
+    }
+
     void saveImage() {
         final ImageGenerator imageGen = imageDisplay.getLastImageGen();
         if(imageGen == null) {
@@ -229,11 +262,7 @@ public final class ConvertImageDialog extends PopupWindow {
                 return imageGen.getFilesCreatedForName(file);
             }
             public void fileNameSelected(File file) {
-                try {
-                    imageGen.write(file);
-                } catch(IOException ex) {
-                    Logger.getLogger(FontGenDialog.class.getName()).log(Level.SEVERE, "Cound not save image", ex);
-                }
+                writeImage(imageGen, file);
             }
             public void canceled() {
             }
@@ -241,27 +270,75 @@ public final class ConvertImageDialog extends PopupWindow {
         sfs.openPopup();
     }
 
+    void writeImage(final ImageGenerator imageGen, final File file) {
+        GUI gui = getGUI();
+        if(gui == null) {
+            return;
+        }
+        saveRunning = true;
+        updateStatusBar();
+        gui.invokeAsync(new Callable<File>() {
+            public File call() throws Exception {
+                imageGen.write(file);
+                return file;
+            }
+        }, new GUI.AsyncCompletionListener<File>() {
+            public void completed(File result) {
+                saveRunning = false;
+                updateStatusBar();
+            }
+            public void failed(Exception ex) {
+                saveRunning = false;
+                Logger.getLogger(ConvertImageDialog.class.getName()).log(Level.SEVERE, "Could not save image", ex);
+                setStatusBar("Could not save image: " + ex.getMessage(), DecoratedText.ERROR);
+            }
+        });
+    }
+
     void updateStatusBar() {
+        cancelButton.setEnabled(imageDisplay.isUpdateRunning());
+        if(imageDisplay.isUpdateRunning()) {
+            setStatusBar("Converting frame " + imageDisplay.getProgressImageNr() + " of "
+                    + imageDisplay.getProgressNumImages(), DecoratedText.WARNING);
+            return;
+        }
+        if(saveRunning) {
+            setStatusBar("Saving image", DecoratedText.WARNING);
+            return;
+        }
         ImageGenerator imageGen = imageDisplay.getLastImageGen();
         if(imageGen == null) {
-            setStatusBar("Select an image", DecoratedText.ERROR);
+            if(imageDisplay.isCanceled()) {
+                setStatusBar("Conversion canceled", DecoratedText.ERROR);
+            } else {
+                setStatusBar("Select an image", DecoratedText.ERROR);
+            }
+            return;
+        }
+        if(imageGen.isCutoff()) {
+            setStatusBar("The frames are larger than the maximum texture size of "
+                    + maxTextureSizeModel.getSelectedEntry(), DecoratedText.ERROR);
             return;
         }
         if(imageGen.getNumFrames() == 0) {
             setStatusBar("No frames found in selected image", DecoratedText.ERROR);
             return;
         }
-        if(imageGen.isCutoff()) {
-            setStatusBar("Not all frames could fit onto the maximum texture size of "
-                    + ImageGenerator.MAX_TEXTURE_SIZE, DecoratedText.WARNING);
+        String status = "Used texture size is " + imageGen.getWidth() + "x" + imageGen.getHeight()
+                + " " + imageGen.getTextureFormat();
+        if(imageGen.getNumTextures() > 1) {
+            status += " in " + imageGen.getNumTextures() + " textures (preview shows the first)";
+        }
+        if(imageGen.getNumAreas() < imageGen.getNumSourceFrames()) {
+            status += " (" + imageGen.getNumAreas() + " unique of " + imageGen.getNumSourceFrames() + " frames)";
         }
-        setStatusBar("Used texture size is " + imageGen.getWidth() + "x" + imageGen.getHeight(), 0);
+        setStatusBar(status, 0);
     }
 
     private void setStatusBar(String text, int flags) {
         statusBar.setText(text);
         DecoratedTextRenderer.setAnimationState(statusBar.getAnimationState(), flags);
-        saveImageButton.setEnabled((flags & DecoratedText.ERROR) == 0);
+        saveImageButton.setEnabled((flags & (DecoratedText.ERROR|DecoratedText.WARNING)) == 0);
     }
 
     static enum ImageDisplayBG {
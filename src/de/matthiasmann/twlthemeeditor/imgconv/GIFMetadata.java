@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.imgconv;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * Reads the frame metadata of a GIF file in a single pass over the blocks
+ * of the file. The image data is skipped and no DOM is created.
+ *
+ * <p>A truncated or corrupted file results in the frames which could be
+ * read up to that point.</p>
+ *
+ * @author Matthias Mann
+ */
+public final class GIFMetadata {
+
+    public static final int DISPOSAL_NONE = 0;
+    public static final int DISPOSAL_DO_NOT_DISPOSE = 1;
+    public static final int DISPOSAL_RESTORE_TO_BACKGROUND = 2;
+    public static final int DISPOSAL_RESTORE_TO_PREVIOUS = 3;
+
+    /**
+     * The frame used for indices without metadata
+     */
+    public static final Frame DEFAULT_FRAME = new Frame(0, 0, 1, 1, 100, DISPOSAL_NONE, 255, false, false, null);
+
+    private final int logicalScreenWidth;
+    private final int logicalScreenHeight;
+    private final int backgroundColorIndex;
+    private final int[] globalColorTable;
+    private final int loopCount;
+    private final Frame[] frames;
+
+    private GIFMetadata(int logicalScreenWidth, int logicalScreenHeight, int backgroundColorIndex,
+            int[] globalColorTable, int loopCount, Frame[] frames) {
+        this.logicalScreenWidth = logicalScreenWidth;
+        this.logicalScreenHeight = logicalScreenHeight;
+        this.backgroundColorIndex = backgroundColorIndex;
+        this.globalColorTable = globalColorTable;
+        this.loopCount = loopCount;
+        this.frames = frames;
+    }
+
+    /**
+     * Reads the metadata of a GIF file.
+     *
+     * @param file the file
+     * @return the metadata or null if the file is not a GIF file
+     * @throws IOException if an IO error occurred
+     */
+    public static GIFMetadata read(File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            return read(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Reads the metadata of a GIF stream. The stream is not closed.
+     *
+     * @param is the stream positioned at the GIF header
+     * @return the metadata or null if the stream does not contain a GIF
+     * @throws IOException if an IO error occurred
+     */
+    public static GIFMetadata read(InputStream is) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(is, 8192));
+        byte[] buffer = new byte[256];
+
+        try {
+            dis.readFully(buffer, 0, 6);
+        } catch(EOFException ex) {
+            return null;
+        }
+        if(buffer[0] != 'G' || buffer[1] != 'I' || buffer[2] != 'F' || buffer[3] != '8' ||
+                (buffer[4] != '7' && buffer[4] != '9') || buffer[5] != 'a') {
+            return null;
+        }
+
+        int logicalScreenWidth = 0;
+        int logicalScreenHeight = 0;
+        int backgroundColorIndex = -1;
+        int[] globalColorTable = null;
+        int loopCount = -1;
+        ArrayList<Frame> frames = new ArrayList<Frame>();
+
+        try {
+            // logical screen descriptor
+            logicalScreenWidth = readShort(dis);
+            logicalScreenHeight = readShort(dis);
+            int flags = dis.readUnsignedByte();
+            int bgIndex = dis.readUnsignedByte();
+            dis.readUnsignedByte(); // pixel aspect ratio
+            if((flags & 0x80) != 0) {
+                globalColorTable = readColorTable(dis, flags);
+                backgroundColorIndex = bgIndex;
+            }
+
+            // an image without graphic control extension gets the same
+            // values as the image IO GIF reader reports for it
+            int delayMS = 0;
+            int disposalMethod = DISPOSAL_NONE;
+            int transparentColorIndex = 0;
+            boolean transparentColorFlag = false;
+
+            for(;;) {
+                int blockType = dis.readUnsignedByte();
+                if(blockType == 0x21) {
+                    int label = dis.readUnsignedByte();
+                    if(label == 0xF9) {
+                        // graphic control extension - applies to the next image
+                        int size = dis.readUnsignedByte();
+                        dis.readFully(buffer, 0, size);
+                        if(size >= 4) {
+                            int gceFlags = buffer[0] & 255;
+                            disposalMethod = (gceFlags >> 2) & 7;
+                            transparentColorFlag = (gceFlags & 1) != 0;
+                            delayMS = ((buffer[1] & 255) | ((buffer[2] & 255) << 8)) * 10;  // in 10 ms steps
+                            transparentColorIndex = buffer[3] & 255;
+                        }
+                        skipSubBlocks(dis, buffer);
+                    } else if(label == 0xFF) {
+                        int size = dis.readUnsignedByte();
+                        dis.readFully(buffer, 0, size);
+                        boolean isLoopExtension = size == 11 &&
+                                ("NETSCAPE2.0".equals(new String(buffer, 0, 11, "ISO-8859-1")) ||
+                                 "ANIMEXTS1.0".equals(new String(buffer, 0, 11, "ISO-8859-1")));
+                        while((size = dis.readUnsignedByte()) > 0) {
+                            dis.readFully(buffer, 0, size);
+                            if(isLoopExtension && size >= 3 && buffer[0] == 1) {
+                                loopCount = (buffer[1] & 255) | ((buffer[2] & 255) << 8);
+                            }
+                        }
+                    } else {
+                        skipSubBlocks(dis, buffer);
+                    }
+                } else if(blockType == 0x2C) {
+                    int left = readShort(dis);
+                    int top = readShort(dis);
+                    int width = readShort(dis);
+                    int height = readShort(dis);
+                    int imageFlags = dis.readUnsignedByte();
+                    int[] localColorTable = null;
+                    if((imageFlags & 0x80) != 0) {
+                        localColorTable = readColorTable(dis, imageFlags);
+                    }
+                    dis.readUnsignedByte();  // LZW minimum code size
+                    skipSubBlocks(dis, buffer);
+
+                    frames.add(new Frame(left, top, width, height, delayMS, disposalMethod,
+                            transparentColorIndex, transparentColorFlag,
+                            (imageFlags & 0x40) != 0, localColorTable));
+
+                    delayMS = 0;
+                    disposalMethod = DISPOSAL_NONE;
+                    transparentColorIndex = 0;
+                    transparentColorFlag = false;
+                } else {
+                    // trailer or corrupted data
+                    break;
+                }
+            }
+        } catch(EOFException ex) {
+            // truncated file - use what has been read
+        }
+
+        return new GIFMetadata(logicalScreenWidth, logicalScreenHeight, backgroundColorIndex,
+                globalColorTable, loopCount, frames.toArray(new Frame[frames.size()]));
+    }
+
+    public int getLogicalScreenWidth() {
+        return logicalScreenWidth;
+    }
+
+    public int getLogicalScreenHeight() {
+        return logicalScreenHeight;
+    }
+
+    /**
+     * Returns the background color index
+     * @return the background color index or -1 if there is no global color table
+     */
+    public int getBackgroundColorIndex() {
+        return backgroundColorIndex;
+    }
+
+    /**
+     * Returns the global color table
+     * @return the RGB colors or null
+     */
+    public int[] getGlobalColorTable() {
+        return globalColorTable;
+    }
+
+    /**
+     * Returns the loop count of the NETSCAPE2.0 application extension
+     * @return the loop count, 0 for endless looping, or -1 if not specified
+     */
+    public int getLoopCount() {
+        return loopCount;
+    }
+
+    public int getNumFrames() {
+        return frames.length;
+    }
+
+    /**
+     * Returns the metadata of a frame.
+     *
+     * @param index the frame index
+     * @return the frame metadata or {@link #DEFAULT_FRAME} when the index is past the last frame
+     */
+    public Frame getFrame(int index) {
+        return (index < frames.length) ? frames[index] : DEFAULT_FRAME;
+    }
+
+    /**
+     * Looks up the background color for a frame in its local color table
+     * and then in the global color table.
+     *
+     * @param frame the frame
+     * @return the RGB color or black if the color index is not in any table
+     */
+    public int getBackgroundColor(Frame frame) {
+        int idx = backgroundColorIndex;
+        if(idx >= 0) {
+            if(frame.localColorTable != null && idx < frame.localColorTable.length) {
+                return frame.localColorTable[idx];
+            }
+            if(globalColorTable != null && idx < globalColorTable.length) {
+                return globalColorTable[idx];
+            }
+        }
+        return 0;
+    }
+
+    private static int readShort(DataInputStream dis) throws IOException {
+        int lo = dis.readUnsignedByte();
+        int hi = dis.readUnsignedByte();
+        return lo | (hi << 8);
+    }
+
+    private static int[] readColorTable(DataInputStream dis, int flags) throws IOException {
+        int numColors = 2 << (flags & 7);
+        byte[] rgb = new byte[numColors * 3];
+        dis.readFully(rgb);
+        int[] table = new int[numColors];
+        for(int i=0,j=0 ; i<numColors ; i++,j+=3) {
+            table[i] = ((rgb[j] & 255) << 16) | ((rgb[j+1] & 255) << 8) | (rgb[j+2] & 255);
+        }
+        return table;
+    }
+
+    private static void skipSubBlocks(DataInputStream dis, byte[] buffer) throws IOException {
+        int size;
+        while((size = dis.readUnsignedByte()) > 0) {
+            dis.readFully(buffer, 0, size);
+        }
+    }
+
+    /**
+     * The metadata of one image in the GIF
+     */
+    public static final class Frame {
+        public final int imageLeftPosition;
+        public final int imageTopPosition;
+        public final int imageWidth;
+        public final int imageHeight;
+        public final int delayMS;
+        public final int disposalMethod;
+        public final int transparentColorIndex;
+        public final boolean transparentColorFlag;
+        public final boolean interlaced;
+        final int[] localColorTable;
+
+        Frame(int imageLeftPosition, int imageTopPosition, int imageWidth, int imageHeight,
+                int delayMS, int disposalMethod, int transparentColorIndex,
+                boolean transparentColorFlag, boolean interlaced, int[] localColorTable) {
+            this.imageLeftPosition = imageLeftPosition;
+            this.imageTopPosition = imageTopPosition;
+            this.imageWidth = imageWidth;
+            this.imageHeight = imageHeight;
+            this.delayMS = delayMS;
+            this.disposalMethod = disposalMethod;
+            this.transparentColorIndex = transparentColorIndex;
+            this.transparentColorFlag = transparentColorFlag;
+            this.interlaced = interlaced;
+            this.localColorTable = localColorTable;
+        }
+    }
+}
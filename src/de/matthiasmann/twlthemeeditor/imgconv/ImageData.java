@@ -37,62 +37,73 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
-import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.stream.ImageInputStream;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 /**
+ * Decodes the frames of an image on demand.
+ *
+ * <p>Animated GIFs are decoded in a forward pass, compositing each frame
+ * onto the previous one according to the disposal method. Only a bounded
+ * number of decoded frames is kept in a LRU cache. Requesting a frame
+ * before the last decoded one which is no longer cached restarts decoding
+ * at the first frame.</p>
+ *
+ * <p>The GIF frame metadata is read with {@link GIFMetadata} instead of
+ * the DOM trees of the image reader.</p>
+ *
+ * <p>All methods are synchronized as the preview and the converter may
+ * access the same instance from different threads.</p>
  *
  * @author Matthias Mann
  */
 public class ImageData {
 
+    /**
+     * The default maximum number of bytes used by cached frames
+     */
+    public static final long DEFAULT_CACHE_LIMIT = 32 << 20;
+
     private static final Color TRANSPARENT = new Color(0, 0, 0, 0);
     
     private final ImageReader imageReader;
     private final int numImages;
-    private final BufferedImage[] images;
-    private final GIFImageMetadata[] gifImagesMetadata;
+    private final LinkedHashMap<Integer, BufferedImage> frameCache;
+    private final GIFMetadata gifMetadata;
 
-    private int backgroundColorIndex;
-    private Node globalColorTable;
+    private long cacheLimit;
+    private long cachedBytes;
+    private int numDecodedFrames;
+    
+    private int logicalScreenWidth;
+    private int logicalScreenHeight;
     private BufferedImage backgroundForNext;
     private Rectangle eraseForNext;
     private int lastImgNr;
 
-    private ImageData(ImageReader imageReader, int numImages) throws IOException {
+    private ImageData(ImageReader imageReader, int numImages, GIFMetadata gifMetadata) {
         this.imageReader = imageReader;
         this.numImages = numImages;
+        this.gifMetadata = gifMetadata;
+        this.frameCache = new LinkedHashMap<Integer, BufferedImage>(16, 0.75f, true);
+        this.cacheLimit = DEFAULT_CACHE_LIMIT;
 
-        this.images = new BufferedImage[numImages];
-
-        IIOMetadata iiom = imageReader.getStreamMetadata();
-        Node gifMetadata = getMetaDataTree(iiom, "javax_imageio_gif_stream_1.0");
         if(gifMetadata != null) {
-            this.gifImagesMetadata = new GIFImageMetadata[numImages];
-
-            Node logicalScreenDescriptor = getChildNode(gifMetadata, "LogicalScreenDescriptor");
-            int logicalScreenWidth = getInt(logicalScreenDescriptor, "logicalScreenWidth", 0);
-            int logicalScreenHeight = getInt(logicalScreenDescriptor, "logicalScreenHeight", 0);
+            logicalScreenWidth = gifMetadata.getLogicalScreenWidth();
+            logicalScreenHeight = gifMetadata.getLogicalScreenHeight();
 
             if(logicalScreenWidth <= 0 || logicalScreenHeight <= 0) {
                 for(int i=0 ; i<numImages ; i++) {
-                    GIFImageMetadata gifim = getGIFImageMetadata(i);
-                    logicalScreenWidth  = Math.max(logicalScreenWidth,  gifim.imageLeftPosition + gifim.imageWidth);
-                    logicalScreenHeight = Math.max(logicalScreenHeight, gifim.imageTopPosition + gifim.imageHeight);
+                    GIFMetadata.Frame frame = gifMetadata.getFrame(i);
+                    logicalScreenWidth  = Math.max(logicalScreenWidth,  frame.imageLeftPosition + frame.imageWidth);
+                    logicalScreenHeight = Math.max(logicalScreenHeight, frame.imageTopPosition + frame.imageHeight);
                 }
             }
 
-            backgroundForNext = new BufferedImage(logicalScreenWidth, logicalScreenHeight, BufferedImage.TYPE_INT_ARGB);
-
-            globalColorTable = getChildNode(gifMetadata, "GlobalColorTable");
-            backgroundColorIndex  = getInt(globalColorTable, "backgroundColorIndex", -1);
-            eraseForNext = new Rectangle(0, 0, logicalScreenWidth, logicalScreenHeight);
-        } else {
-            gifImagesMetadata = null;
+            resetDecoder();
         }
     }
 
@@ -100,15 +111,102 @@ public class ImageData {
         return numImages;
     }
 
-    public BufferedImage getImage(int imageIndex) {
-        decodeTo(imageIndex);
-        return images[imageIndex];
+    /**
+     * Returns the fully composited frame. The returned image must not be modified.
+     *
+     * @param imageIndex the frame index
+     * @return the frame
+     */
+    public synchronized BufferedImage getImage(int imageIndex) {
+        BufferedImage img = frameCache.get(imageIndex);
+        if(img == null) {
+            if(gifMetadata == null) {
+                // no compositing - frames can be read in any order
+                img = readImage(imageIndex);
+                addToCache(imageIndex, img);
+            } else {
+                if(imageIndex < lastImgNr) {
+                    resetDecoder();
+                }
+                while(lastImgNr <= imageIndex) {
+                    img = decodeNextImage();
+                }
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Sets the maximum number of bytes used by cached frames. At least the
+     * most recently used frame is always kept.
+     *
+     * @param cacheLimit the limit in bytes
+     */
+    public synchronized void setCacheLimit(long cacheLimit) {
+        this.cacheLimit = cacheLimit;
+        trimCache();
+    }
+
+    public synchronized long getCacheLimit() {
+        return cacheLimit;
     }
 
-    public int getDelayMS(int imageIndex) {
-        if(gifImagesMetadata != null) {
-            GIFImageMetadata gifim = getGIFImageMetadata(imageIndex);
-            return gifim.delayTimeMS;
+    /**
+     * Returns the number of bytes used by cached frames.
+     * @return the number of bytes
+     */
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    public synchronized int getNumCachedFrames() {
+        return frameCache.size();
+    }
+
+    /**
+     * Returns the number of bytes used by cached frames and the compositing state.
+     * @return the number of bytes
+     */
+    public synchronized long getMemoryUsage() {
+        long bytes = cachedBytes;
+        if(backgroundForNext != null && !frameCache.containsValue(backgroundForNext)) {
+            bytes += getByteSize(backgroundForNext);
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns how many frames have been decoded since this object was
+     * created. This includes frames which had to be decoded again after
+     * they have been evicted from the cache.
+     *
+     * @return the number of decoded frames
+     */
+    public synchronized int getNumDecodedFrames() {
+        return numDecodedFrames;
+    }
+
+    /**
+     * Releases the image reader and the cached frames. The object can't be
+     * used after this call.
+     */
+    public synchronized void dispose() {
+        Object input = imageReader.getInput();
+        imageReader.dispose();
+        if(input instanceof ImageInputStream) {
+            try {
+                ((ImageInputStream)input).close();
+            } catch (IOException ignore) {
+            }
+        }
+        frameCache.clear();
+        cachedBytes = 0;
+        backgroundForNext = null;
+    }
+
+    public synchronized int getDelayMS(int imageIndex) {
+        if(gifMetadata != null) {
+            return gifMetadata.getFrame(imageIndex).delayMS;
         } else {
             return 100; // assume 10 Hz
         }
@@ -116,6 +214,7 @@ public class ImageData {
     
     public static ImageData create(File file) {
         try {
+            GIFMetadata gifMetadata = GIFMetadata.read(file);
             ImageInputStream iis = ImageIO.createImageInputStream(file);
             if(iis != null) {
                 Iterator<ImageReader> iri = ImageIO.getImageReaders(iis);
@@ -126,7 +225,7 @@ public class ImageData {
                     try {
                         int num = ir.getNumImages(true);
                         if(num >= 1) {
-                            return new ImageData(ir, num);
+                            return new ImageData(ir, num, gifMetadata);
                         }
                     } catch (IOException ex) {
                     }
@@ -137,45 +236,58 @@ public class ImageData {
         return null;
     }
 
-    private GIFImageMetadata getGIFImageMetadata(int imageIndex) {
-        GIFImageMetadata gifim = gifImagesMetadata[imageIndex];
-        if(gifim == null) {
-            Node gifMetadata;
-            try {
-                IIOMetadata iiom = imageReader.getImageMetadata(imageIndex);
-                gifMetadata = getMetaDataTree(iiom, "javax_imageio_gif_image_1.0");
-            } catch (IOException ignore) {
-                gifMetadata = null;
-            }
-            
-            gifim = new GIFImageMetadata(gifMetadata);
-            gifImagesMetadata[imageIndex] = gifim;
+    private void resetDecoder() {
+        lastImgNr = 0;
+        backgroundForNext = new BufferedImage(logicalScreenWidth, logicalScreenHeight, BufferedImage.TYPE_INT_ARGB);
+        eraseForNext = new Rectangle(0, 0, logicalScreenWidth, logicalScreenHeight);
+    }
+
+    private BufferedImage readImage(int imageIndex) {
+        numDecodedFrames++;
+        try {
+            return imageReader.read(imageIndex);
+        } catch (IOException ex) {
+            return new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
         }
-        return gifim;
     }
-    
-    private void decodeTo(int imageIndex) {
-        while(lastImgNr <= imageIndex) {
-            decodeNextImage();
+
+    private BufferedImage decodeNextImage() {
+        BufferedImage img = frameCache.get(lastImgNr);
+        if(img != null) {
+            // still cached - only the compositing state needs to be updated
+            updateDisposal(lastImgNr, img);
+        } else {
+            img = readImage(lastImgNr);
+            img = postProcessGIF(lastImgNr, img);
+            addToCache(lastImgNr, img);
         }
+        lastImgNr++;
+        return img;
     }
 
-    private void decodeNextImage() {
-        BufferedImage img;
-        try {
-            img = imageReader.read(lastImgNr);
+    private void addToCache(int imageIndex, BufferedImage img) {
+        BufferedImage old = frameCache.put(imageIndex, img);
+        if(old != null) {
+            cachedBytes -= getByteSize(old);
+        }
+        cachedBytes += getByteSize(img);
+        trimCache();
+    }
 
-            if(gifImagesMetadata != null) {
-                img = postProcessGIF(lastImgNr, img);
-            }
-        } catch (IOException ex) {
-            img = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+    private void trimCache() {
+        Iterator<Map.Entry<Integer, BufferedImage>> iter = frameCache.entrySet().iterator();
+        while(cachedBytes > cacheLimit && frameCache.size() > 1 && iter.hasNext()) {
+            cachedBytes -= getByteSize(iter.next().getValue());
+            iter.remove();
         }
-        images[lastImgNr++] = img;
+    }
+
+    private static long getByteSize(BufferedImage img) {
+        return (long)img.getWidth() * img.getHeight() * 4;
     }
 
     private BufferedImage postProcessGIF(int imageIndex, BufferedImage img) {
-        GIFImageMetadata gifim = getGIFImageMetadata(imageIndex);
+        GIFMetadata.Frame frame = gifMetadata.getFrame(imageIndex);
 
         BufferedImage tmp = new BufferedImage(backgroundForNext.getWidth(), backgroundForNext.getHeight(), BufferedImage.TYPE_INT_ARGB);
         Graphics2D g = tmp.createGraphics();
@@ -184,127 +296,41 @@ public class ImageData {
             g.drawImage(backgroundForNext, 0, 0, null);
             if(eraseForNext != null) {
                 Color backgroundColor;
-                if(gifim.transparentColorFlag && gifim.transparentColorIndex == backgroundColorIndex) {
+                if(frame.transparentColorFlag && frame.transparentColorIndex == gifMetadata.getBackgroundColorIndex()) {
                     backgroundColor = TRANSPARENT;
                 } else {
-                    Node colorEntry = getChildNodeWithIndex(gifim.localColorTable, "ColorTableEntry", backgroundColorIndex);
-                    if(colorEntry == null) {
-                        colorEntry = getChildNodeWithIndex(globalColorTable, "ColorTableEntry", backgroundColorIndex);
-                    }
-                    int red   = getInt(colorEntry, "red", 0);
-                    int green = getInt(colorEntry, "green", 0);
-                    int blue  = getInt(colorEntry, "blue", 0);
-                    backgroundColor = new Color(red, green, blue);
+                    backgroundColor = new Color(gifMetadata.getBackgroundColor(frame));
                 }
 
                 g.setColor(backgroundColor);
                 g.fillRect(eraseForNext.x, eraseForNext.y, eraseForNext.width, eraseForNext.height);
             }
             g.setComposite(AlphaComposite.SrcOver);
-            g.drawImage(img, gifim.imageLeftPosition, gifim.imageTopPosition, null);
+            g.drawImage(img, frame.imageLeftPosition, frame.imageTopPosition, null);
         } finally {
             g.dispose();
         }
-        img = tmp;
-
-        eraseForNext = null;
-
-        if("doNotDispose".equals(gifim.disposalMethod) || "none".equals(gifim.disposalMethod)) {
-            backgroundForNext = img;
-        } else if("restoreToBackgroundColor".equals(gifim.disposalMethod)) {
-            eraseForNext = new Rectangle(gifim.imageLeftPosition, gifim.imageTopPosition, gifim.imageWidth, gifim.imageHeight);
-        } else {
-            // assume "restoreToPrevious" - so nothing to change
-        }
-
-        return img;
-    }
-
-    static Node getMetaDataTree(IIOMetadata iiom, String format) {
-        if(iiom != null) {
-            try {
-                return iiom.getAsTree(format);
-            } catch (IllegalArgumentException ignore) {
-            }
-        }
-        return null;
-    }
-    
-    static Node getChildNode(Node node, String name) {
-        if(node != null) {
-            NodeList children = node.getChildNodes();
-            for(int i=0 ; i<children.getLength() ; i++) {
-                Node child = children.item(i);
-                if(name.equals(child.getNodeName())) {
-                    return child;
-                }
-            }
-        }
-        return null;
-    }
-
-    static Node getChildNodeWithIndex(Node node, String name, int index) {
-        if(node != null) {
-            NodeList children = node.getChildNodes();
-            for(int i=0 ; i<children.getLength() ; i++) {
-                Node child = children.item(i);
-                if(name.equals(child.getNodeName())) {
-                    int childIndex = getInt(child, "index", -1);
-                    if(childIndex == index) {
-                        return child;
-                    }
-                }
-            }
-        }
-        return null;
-    }
-
-    static String getStr(Node node, String attribute, String defaultValue) {
-        if(node != null) {
-            Node attribNode = node.getAttributes().getNamedItem(attribute);
-            if(attribNode != null) {
-                return attribNode.getNodeValue();
-            }
-        }
-        return defaultValue;
+        updateDisposal(imageIndex, tmp);
+        return tmp;
     }
-    
-    static int getInt(Node node, String attribute, int defaultValue) {
-        String value = getStr(node, attribute, null);
-        if(value != null) {
-            try {
-                return Integer.parseInt(value);
-            } catch (IllegalArgumentException ignore) {
-            }
-        }
-        return defaultValue;
-    }
-
-    static class GIFImageMetadata {
-        final int imageLeftPosition;
-        final int imageTopPosition;
-        final int imageWidth;
-        final int imageHeight;
-        final int delayTimeMS;
-        final String disposalMethod;
-        final int transparentColorIndex;
-        final boolean transparentColorFlag;
-        final Node localColorTable;
-
-        public GIFImageMetadata(Node gifMetadata) {
-            Node imageDescriptor = getChildNode(gifMetadata, "ImageDescriptor");
-            imageLeftPosition = getInt(imageDescriptor, "imageLeftPosition", 0);
-            imageTopPosition  = getInt(imageDescriptor, "imageTopPosition", 0);
-            imageWidth        = getInt(imageDescriptor, "imageWidth", 1);
-            imageHeight       = getInt(imageDescriptor, "imageHeight", 1);
 
-            Node graphicControlExtension = getChildNode(gifMetadata, "GraphicControlExtension");
-            delayTimeMS           = getInt(graphicControlExtension, "delayTime", 10) * 10; // in 10 ms steps
-            disposalMethod        = getStr(graphicControlExtension, "disposalMethod", "none");
-            transparentColorIndex = getInt(graphicControlExtension, "transparentColorIndex", 255);
-            transparentColorFlag  = Boolean.parseBoolean(getStr(graphicControlExtension, "transparentColorFlag", "false"));
+    private void updateDisposal(int imageIndex, BufferedImage img) {
+        GIFMetadata.Frame frame = gifMetadata.getFrame(imageIndex);
 
-            localColorTable = getChildNode(gifMetadata, "LocalColorTable");
+        switch(frame.disposalMethod) {
+            case GIFMetadata.DISPOSAL_NONE:
+            case GIFMetadata.DISPOSAL_DO_NOT_DISPOSE:
+                backgroundForNext = img;
+                eraseForNext = null;
+                break;
+            case GIFMetadata.DISPOSAL_RESTORE_TO_BACKGROUND:
+                backgroundForNext = img;
+                eraseForNext = new Rectangle(frame.imageLeftPosition, frame.imageTopPosition, frame.imageWidth, frame.imageHeight);
+                break;
+            default:
+                // assume "restoreToPrevious" - keep the state of the previous frame
+                // including a pending erase
+                break;
         }
     }
 }
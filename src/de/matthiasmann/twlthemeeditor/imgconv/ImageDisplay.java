@@ -36,10 +36,16 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
+ * Converts the image on a background thread and displays the first texture.
+ *
+ * <p>The callback is also called on the GUI thread while a conversion is
+ * running to report progress. A new update cancels a running conversion.</p>
  *
  * @author Matthias Mann
  */
@@ -50,9 +56,13 @@ public class ImageDisplay extends Widget {
 
     private ImageData imageData;
     private boolean skipZeroDelayFrames;
+    private int maxTextureSize = ImageGenerator.MAX_TEXTURE_SIZE;
 
     private boolean pendingUpdate;
-    private boolean updateRunning;
+    private GenImage runningJob;
+    private boolean canceled;
+    private int progressImageNr;
+    private int progressNumImages;
     private ByteBuffer buffer;
     private DynamicImage image;
     private ImageGenerator lastImageGen;
@@ -65,7 +75,7 @@ public class ImageDisplay extends Widget {
             }
 
             public void failed(Exception ex) {
-                updateDone();
+                updateFailed(ex);
             }
         };
     }
@@ -80,19 +90,65 @@ public class ImageDisplay extends Widget {
         update();
     }
 
+    public void setMaxTextureSize(int maxTextureSize) {
+        this.maxTextureSize = maxTextureSize;
+        update();
+    }
+
 
     public ImageGenerator getLastImageGen() {
         return lastImageGen;
     }
 
+    public boolean isUpdateRunning() {
+        return runningJob != null;
+    }
+
+    /**
+     * Returns true when the last conversion was canceled by {@link #cancelUpdate() }
+     * @return true when the last conversion was canceled
+     */
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    /**
+     * Returns the number of images processed by the running conversion
+     * @return the number of processed images
+     */
+    public int getProgressImageNr() {
+        return progressImageNr;
+    }
+
+    public int getProgressNumImages() {
+        return progressNumImages;
+    }
+
+    /**
+     * Cancels the running conversion. The preview is cleared when the
+     * conversion stopped before it was completed.
+     */
+    public void cancelUpdate() {
+        if(runningJob != null) {
+            pendingUpdate = false;
+            runningJob.cancel();
+        }
+    }
+
     private void update() {
         GUI gui = getGUI();
         if(gui != null && imageData != null) {
-            if(updateRunning) {
+            if(runningJob != null) {
+                // restart as soon as the running job has stopped
                 pendingUpdate = true;
+                runningJob.cancel();
             } else {
-                gui.invokeAsync(new GenImage(imageData, skipZeroDelayFrames), completionHandler);
-                updateRunning = true;
+                canceled = false;
+                progressImageNr = 0;
+                progressNumImages = imageData.getNumImages();
+                runningJob = new GenImage(gui, imageData, skipZeroDelayFrames, maxTextureSize);
+                gui.invokeAsync(runningJob, completionHandler);
+                callback.run();
             }
         }
     }
@@ -100,6 +156,7 @@ public class ImageDisplay extends Widget {
     @Override
     public void destroy() {
         super.destroy();
+        cancelUpdate();
         destroyImage();
     }
 
@@ -137,6 +194,12 @@ public class ImageDisplay extends Widget {
 
     void updateImage(ImageGenerator imageGen) {
         this.lastImageGen = imageGen;
+        if(imageGen.getNumTextures() == 0) {
+            destroyImage();
+            invalidateLayout();
+            updateDone();
+            return;
+        }
         if(image == null || image.getWidth() != imageGen.getWidth() || image.getHeight() != imageGen.getHeight()) {
             destroyImage();
             GUI gui = getGUI();
@@ -158,8 +221,20 @@ public class ImageDisplay extends Widget {
         updateDone();
     }
 
+    void updateFailed(Exception ex) {
+        if(runningJob != null && runningJob.isCanceled()) {
+            canceled = !pendingUpdate;
+        } else {
+            Logger.getLogger(ImageDisplay.class.getName()).log(Level.SEVERE, "Unable to convert image", ex);
+        }
+        lastImageGen = null;
+        destroyImage();
+        invalidateLayout();
+        updateDone();
+    }
+
     void updateDone() {
-        updateRunning = false;
+        runningJob = null;
         if(pendingUpdate) {
             pendingUpdate = false;
             update();
@@ -167,17 +242,73 @@ public class ImageDisplay extends Widget {
         callback.run();
     }
 
-    final class GenImage implements Callable<ImageGenerator> {
+    final class GenImage implements Callable<ImageGenerator>, ImageGenerator.ProgressListener, Runnable {
+        private final GUI gui;
         private final ImageData imageData;
         private final boolean skipZeroDelayFrames;
+        private final int maxTextureSize;
+        private final AtomicBoolean progressPosted;
+        private volatile boolean canceled;
+        private volatile int imageNr;
+        private volatile int numImages;
+        private Thread thread;
 
-        public GenImage(ImageData imageData, boolean skipZeroDelayFrames) {
+        public GenImage(GUI gui, ImageData imageData, boolean skipZeroDelayFrames, int maxTextureSize) {
+            this.gui = gui;
             this.imageData = imageData;
             this.skipZeroDelayFrames = skipZeroDelayFrames;
+            this.maxTextureSize = maxTextureSize;
+            this.progressPosted = new AtomicBoolean();
         }
 
         public ImageGenerator call() throws Exception {
-            return new ImageGenerator(imageData, skipZeroDelayFrames);
+            synchronized(this) {
+                if(canceled) {
+                    throw new CancellationException("Image conversion was canceled");
+                }
+                thread = Thread.currentThread();
+            }
+            try {
+                return new ImageGenerator(imageData, skipZeroDelayFrames, maxTextureSize, this);
+            } finally {
+                synchronized(this) {
+                    thread = null;
+                    // don't leave the interrupt flag on the executor thread
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        synchronized void cancel() {
+            canceled = true;
+            if(thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        boolean isCanceled() {
+            return canceled;
+        }
+
+        public void frameProcessed(int imageNr, int numImages) {
+            if(canceled) {
+                throw new CancellationException("Image conversion was canceled");
+            }
+            this.imageNr = imageNr + 1;
+            this.numImages = numImages;
+            // at most one pending progress update
+            if(progressPosted.compareAndSet(false, true)) {
+                gui.invokeLater(this);
+            }
+        }
+
+        public void run() {
+            progressPosted.set(false);
+            if(runningJob == this) {
+                progressImageNr = imageNr;
+                progressNumImages = numImages;
+                callback.run();
+            }
         }
     }
 }
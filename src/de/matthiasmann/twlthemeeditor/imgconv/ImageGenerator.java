@@ -30,20 +30,55 @@
 package de.matthiasmann.twlthemeeditor.imgconv;
 
 import de.matthiasmann.twlthemeeditor.fontgen.PNGWriter;
-import java.awt.AlphaComposite;
-import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 import org.xmlpull.v1.XmlSerializer;
 
 /**
+ * Packs the frames of an image into a texture. Frames with identical
+ * pixels are stored only once. Consecutive identical frames are merged into
+ * one frame with the combined duration.
+ *
+ * <p>Each frame is trimmed to the bounds of its non transparent pixels and
+ * the trimmed frames are packed with a {@link RectPacker}. The removed
+ * border is written as {@code inset} of the area so that the area still
+ * has the size of the full frame.</p>
+ *
+ * <p>The pixels of the unique frames are analyzed while they are collected
+ * to select the smallest lossless texture format.</p>
+ *
+ * <p>When the frames don't fit into one texture of the maximum texture size
+ * additional textures are created. The first texture uses the selected file
+ * name, the others get a suffix {@code _<number>}.</p>
+ *
+ * <p>The frames are decoded and composited by {@link ImageData} on a
+ * separate thread while the calling thread trims, hashes and deduplicates
+ * them. Copying the unique frames into the textures is not overlapped with
+ * decoding: the position of an area is only known after all unique frames
+ * have been packed, and the copy is a single {@code setRGB} per area. The
+ * PNG rows are deflated while they are read from the texture in
+ * {@link #write(File)}, several textures are encoded in parallel.</p>
  *
  * @author Matthias Mann
  */
@@ -51,75 +86,196 @@ public class ImageGenerator {
 
     public static final int MAX_TEXTURE_SIZE = 4096;
     
-    private final BufferedImage texture;
+    private final BufferedImage[] textures;
+    private final Area[] areas;
     private final Frame[] frames;
+    private final int numSourceFrames;
     private final boolean cutoff;
+    private final TextureFormat textureFormat;
+    private final int[] palette;
 
     public ImageGenerator(ImageData imageData, boolean skipZeroDelayFrames) {
-        int numFrames = imageData.getNumImages();
+        this(imageData, skipZeroDelayFrames, MAX_TEXTURE_SIZE);
+    }
 
-        if(skipZeroDelayFrames) {
-            for(int i=numFrames ; i-->0 ;) {
-                if(imageData.getDelayMS(i) == 0) {
-                    numFrames--;
-                }
-            }
-        }
+    /**
+     * Creates the textures for the given image.
+     *
+     * @param imageData the source image
+     * @param skipZeroDelayFrames if true frames with a delay of 0 are ignored
+     * @param maxTextureSize the maximum width and height of each texture - should be a power of 2
+     */
+    public ImageGenerator(ImageData imageData, boolean skipZeroDelayFrames, int maxTextureSize) {
+        this(imageData, skipZeroDelayFrames, maxTextureSize, null);
+    }
 
+    /**
+     * Creates the textures for the given image.
+     *
+     * @param imageData the source image
+     * @param skipZeroDelayFrames if true frames with a delay of 0 are ignored
+     * @param maxTextureSize the maximum width and height of each texture - should be a power of 2
+     * @param progressListener receives progress after each frame, can be null
+     * @throws CancellationException when the calling thread was interrupted or the listener canceled the conversion
+     */
+    public ImageGenerator(ImageData imageData, boolean skipZeroDelayFrames, int maxTextureSize, ProgressListener progressListener) {
         BufferedImage image0 = imageData.getImage(0);
 
-        // 1 pixel padding
-        int imgWidth = image0.getWidth() + 1;
-        int imgHeight = image0.getHeight() + 1;
+        int frameWidth = image0.getWidth();
+        int frameHeight = image0.getHeight();
+        
+        // find the unique frames in a single pass over the image data
+        // while the next frames are decoded on another thread
+        HashMap<FramePixels, Area> uniqueFrames = new HashMap<FramePixels, Area>();
+        TextureFormatAnalyzer formatAnalyzer = new TextureFormatAnalyzer();
+        ArrayList<Area> areaList = new ArrayList<Area>();
+        ArrayList<FrameRef> frameList = new ArrayList<FrameRef>();
+        int[] frameBuffer = new int[frameWidth * frameHeight];
+        int numFrames = 0;
+        
+        FrameDecoder decoder = new FrameDecoder(imageData, skipZeroDelayFrames);
+        decoder.start();
+        try {
+            DecodedFrame decodedFrame;
+            while((decodedFrame = decoder.queue.take()) != FrameDecoder.END) {
+                numFrames++;
+                FramePixels pixels = new FramePixels(decodedFrame.image, frameWidth, frameHeight, frameBuffer);
+                Area area = uniqueFrames.get(pixels);
+                if(area == null) {
+                    area = new Area(areaList.size(), pixels);
+                    uniqueFrames.put(pixels, area);
+                    areaList.add(area);
+                    area.analyzeFormat(formatAnalyzer);
+                }
 
-        int textureSize = nextPOT(imgWidth);
-        int numFramesX;
-        int numFramesY;
+                FrameRef prev = frameList.isEmpty() ? null : frameList.get(frameList.size() - 1);
+                if(prev != null && prev.area == area) {
+                    prev.delayMS += decodedFrame.delayMS;
+                } else {
+                    frameList.add(new FrameRef(area, decodedFrame.delayMS));
+                }
 
-        for(;;) {
-            numFramesX = (textureSize + 1) / imgWidth;
-            numFramesY = (textureSize + 1) / imgHeight;
-            if(numFramesX * numFramesY >= numFrames) {
-                break;
+                if(progressListener != null) {
+                    progressListener.frameProcessed(decodedFrame.imageNr, imageData.getNumImages());
+                }
             }
-            if(textureSize == MAX_TEXTURE_SIZE) {
-                break;
+            Throwable error = decoder.error;
+            if(error != null) {
+                // wrap it so that the stack trace of this thread is included
+                throw new RuntimeException("Could not decode image", error);
             }
-            textureSize <<= 1;
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Image conversion was interrupted");
+        } finally {
+            decoder.interrupt();
+        }
+        
+        this.numSourceFrames = numFrames;
+        this.textureFormat = formatAnalyzer.getFormat();
+        this.palette = formatAnalyzer.getPalette();
+
+        cutoff = !fitsInto(areaList, maxTextureSize);
+        if(cutoff) {
+            areas = new Area[0];
+            textures = new BufferedImage[0];
+            frames = new Frame[0];
+            return;
         }
 
-        numFramesY = Math.min(numFramesY, (numFrames + numFramesX - 1) / numFramesX);
-
-        int textureWidth  = numFramesX * imgWidth - 1;   // no padding on the right
-        int textureHeight = numFramesY * imgHeight - 1;   // no padding on the bottom
+        areas = areaList.toArray(new Area[areaList.size()]);
+        textures = packAreas(areaList, maxTextureSize);
 
-        frames = new Frame[Math.min(numFrames, numFramesX * numFramesY)];
-        cutoff = frames.length < numFrames;
+        frames = new Frame[frameList.size()];
+        for(int i=0 ; i<frames.length ; i++) {
+            FrameRef ref = frameList.get(i);
+            frames[i] = new Frame(ref.area, ref.delayMS);
+        }
+    }
 
-        texture = new BufferedImage(textureWidth, textureHeight, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = texture.createGraphics();
-        try {
-            g.setComposite(AlphaComposite.Src);
+    private static boolean fitsInto(List<Area> areas, int maxTextureSize) {
+        for(Area area : areas) {
+            if(area.width > maxTextureSize || area.height > maxTextureSize) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-            for(int imgNr=0,frameNr=0,ix=0,iy=0 ; imgNr<imageData.getNumImages() && iy < numFramesY ; imgNr++) {
-                int delayMS = imageData.getDelayMS(imgNr);
-                if(skipZeroDelayFrames && delayMS == 0) {
-                    continue;
+    /**
+     * Packs the trimmed areas into textures and copies their pixels. A single
+     * texture is used as long as it fits into the maximum texture size,
+     * otherwise additional textures are created.
+     *
+     * @param areas the areas - must all fit into the maximum texture size
+     * @param maxTextureSize the maximum width and height of each texture
+     * @return the textures
+     */
+    static BufferedImage[] packAreas(List<Area> areas, int maxTextureSize) {
+        Area[] sorted = areas.toArray(new Area[areas.size()]);
+        Arrays.sort(sorted, new Comparator<Area>() {
+            public int compare(Area a, Area b) {
+                int diff = b.height - a.height;
+                if(diff == 0) {
+                    diff = b.width - a.width;
                 }
+                return diff;
+            }
+        });
+
+        // start with a square texture which could hold all areas and grow it
+        long totalArea = 0;
+        int minSize = 1;
+        for(Area area : sorted) {
+            totalArea += (long)(area.width + 1) * (area.height + 1);
+            minSize = Math.max(minSize, Math.max(area.width, area.height));
+        }
+        int textureSize = Math.min(maxTextureSize, Math.max(nextPOT(minSize),
+                nextPOT((int)Math.ceil(Math.sqrt(totalArea)))));
 
-                Frame frame = new Frame(ix*imgWidth, iy*imgHeight, imgWidth-1, imgHeight-1, delayMS);   // exclude padding
-                frames[frameNr++] = frame;
-                
-                g.drawImage(imageData.getImage(imgNr), frame.x, frame.y, null);
+        ArrayList<RectPacker> packers;
+        while((packers = pack(sorted, textureSize, (textureSize < maxTextureSize) ? 1 : Integer.MAX_VALUE)) == null) {
+            textureSize = Math.min(textureSize << 1, maxTextureSize);
+        }
 
-                if(++ix == numFramesX) {
-                    ix = 0;
-                    ++iy;
+        BufferedImage[] result = new BufferedImage[packers.size()];
+        for(int i=0 ; i<result.length ; i++) {
+            RectPacker packer = packers.get(i);
+            // no padding on the right and bottom
+            result[i] = new BufferedImage(
+                    Math.max(1, packer.getUsedWidth() - 1),
+                    Math.max(1, packer.getUsedHeight() - 1),
+                    BufferedImage.TYPE_INT_ARGB);
+        }
+        for(Area area : areas) {
+            result[area.texture].setRGB(area.x, area.y, area.width, area.height, area.pixels, 0, area.width);
+            area.pixels = null;
+        }
+        return result;
+    }
+
+    private static ArrayList<RectPacker> pack(Area[] sorted, int textureSize, int maxTextures) {
+        // 1 pixel padding on the right and bottom of each area
+        ArrayList<RectPacker> packers = new ArrayList<RectPacker>();
+        for(Area area : sorted) {
+            Rectangle rect = null;
+            for(int i=0 ; i<packers.size() && rect == null ; i++) {
+                rect = packers.get(i).insert(area.width + 1, area.height + 1);
+                area.texture = i;
+            }
+            if(rect == null) {
+                if(packers.size() == maxTextures) {
+                    return null;
                 }
+                RectPacker packer = new RectPacker(textureSize + 1, textureSize + 1);
+                rect = packer.insert(area.width + 1, area.height + 1);
+                area.texture = packers.size();
+                packers.add(packer);
             }
-        } finally {
-            g.dispose();
+            area.x = rect.x;
+            area.y = rect.y;
         }
+        return packers;
     }
 
     public boolean isCutoff() {
@@ -130,17 +286,70 @@ public class ImageGenerator {
         return frames.length;
     }
 
+    public Frame getFrame(int frameNr) {
+        return frames[frameNr];
+    }
+
+    /**
+     * Returns the number of frames in the source image before duplicates
+     * have been merged.
+     * @return the number of source frames
+     */
+    public int getNumSourceFrames() {
+        return numSourceFrames;
+    }
+
+    /**
+     * Returns the number of unique frames stored in the texture
+     * @return the number of unique frames
+     */
+    public int getNumAreas() {
+        return areas.length;
+    }
+
+    public int getNumTextures() {
+        return textures.length;
+    }
+
+    /**
+     * Returns the format used for the PNG files and the texture
+     * @return the texture format
+     */
+    public TextureFormat getTextureFormat() {
+        return textureFormat;
+    }
+
+    /**
+     * Returns the width of the first texture
+     * @return the width of the first texture or 0 if no texture was created
+     */
     public int getWidth() {
-        return texture.getWidth();
+        return (textures.length > 0) ? textures[0].getWidth() : 0;
     }
 
+    /**
+     * Returns the height of the first texture
+     * @return the height of the first texture or 0 if no texture was created
+     */
     public int getHeight() {
-        return texture.getHeight();
+        return (textures.length > 0) ? textures[0].getHeight() : 0;
+    }
+
+    public int getWidth(int textureNr) {
+        return textures[textureNr].getWidth();
+    }
+
+    public int getHeight(int textureNr) {
+        return textures[textureNr].getHeight();
     }
 
     public boolean getTextureData(IntBuffer ib) {
-        if(texture != null) {
-            ib.put(((DataBufferInt)texture.getRaster().getDataBuffer()).getData());
+        return getTextureData(0, ib);
+    }
+
+    public boolean getTextureData(int textureNr, IntBuffer ib) {
+        if(textureNr < textures.length) {
+            ib.put(((DataBufferInt)textures[textureNr].getRaster().getDataBuffer()).getData());
             return true;
         }
         return false;
@@ -150,10 +359,12 @@ public class ImageGenerator {
         File dir = file.getParentFile();
         String baseName = getBaseName(file);
 
-        return new File[] {
-            file,
-            new File(dir, baseName.concat(".xml"))
-        };
+        File[] files = new File[Math.max(1, textures.length) + 1];
+        for(int i=0 ; i<files.length-1 ; i++) {
+            files[i] = getTextureFile(file, i);
+        }
+        files[files.length-1] = new File(dir, baseName.concat(".xml"));
+        return files;
     }
 
     public void write(File file) throws IOException {
@@ -161,8 +372,55 @@ public class ImageGenerator {
         writeXML(file);
     }
     
-    private void writePNG(File pngFile) throws IOException {
-        PNGWriter.write(pngFile, texture, texture.getHeight());
+    private void writePNG(final File pngFile) throws IOException {
+        if(textures.length <= 1) {
+            for(int i=0 ; i<textures.length ; i++) {
+                PNGWriter.write(getTextureFile(pngFile, i), textures[i], textures[i].getHeight(),
+                        textureFormat.pngColorType, palette);
+            }
+            return;
+        }
+
+        // encode the textures in parallel
+        int numThreads = Math.min(textures.length, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            ArrayList<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for(int i=0 ; i<textures.length ; i++) {
+                final File file = getTextureFile(pngFile, i);
+                final BufferedImage texture = textures[i];
+                results.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        return PNGWriter.write(file, texture, texture.getHeight(),
+                                textureFormat.pngColorType, palette);
+                    }
+                }));
+            }
+            for(Future<Integer> result : results) {
+                result.get();
+            }
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw (IOException)(new InterruptedIOException().initCause(ex));
+        } catch(ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if(cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            throw (IOException)(new IOException("Can't write texture").initCause(cause));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static File getTextureFile(File pngFile, int textureNr) {
+        if(textureNr == 0) {
+            return pngFile;
+        }
+        String name = pngFile.getName();
+        String baseName = getBaseName(pngFile);
+        String ext = name.substring(baseName.length());
+        return new File(pngFile.getParentFile(), baseName + "_" + textureNr + ext);
     }
 
     private void writeXML(File pngFile) throws IOException {
@@ -179,42 +437,52 @@ public class ImageGenerator {
             xs.startDocument("UTF8", true);
             xs.text("\n");
             xs.startTag(null, "themes");
-            xs.text("\n  ");
-            xs.startTag(null, "images");
-            xs.attribute(null, "file", pngFile.getName());
-            xs.attribute(null, "format", "COLOR");
-
-            if(frames.length > 1) {
-                for(int frameNr=0 ; frameNr<frames.length ; frameNr++) {
+            int numImages = Math.max(1, textures.length);
+            for(int textureNr=0 ; textureNr<numImages ; textureNr++) {
+                xs.text("\n  ");
+                xs.startTag(null, "images");
+                xs.attribute(null, "file", getTextureFile(pngFile, textureNr).getName());
+                xs.attribute(null, "format", textureFormat.xmlFormat);
+
+                if(frames.length > 1) {
+                    for(int areaNr=0 ; areaNr<areas.length ; areaNr++) {
+                        if(areas[areaNr].texture == textureNr) {
+                            xs.text("\n    ");
+                            xs.startTag(null, "area");
+                            xs.attribute(null, "name", baseName+"-"+areaNr);
+                            xs.attribute(null, "xywh", areas[areaNr].getXYWH());
+                            writeInset(xs, areas[areaNr]);
+                            xs.endTag(null, "area");
+                        }
+                    }
+                    // the animation must follow all areas it references
+                    if(textureNr == numImages-1) {
+                        xs.text("\n    \n    ");
+                        xs.startTag(null, "animation");
+                        xs.attribute(null, "name", baseName);
+                        xs.attribute(null, "timeSource", "hover");
+                        for(int frameNr=0 ; frameNr<frames.length ; frameNr++) {
+                            xs.text("\n      ");
+                            xs.startTag(null, "frame");
+                            xs.attribute(null, "duration", Integer.toString(frames[frameNr].delayMS));
+                            xs.attribute(null, "ref", baseName+"-"+frames[frameNr].area.index);
+                            xs.endTag(null, "frame");
+                        }
+                        xs.text("\n    ");
+                        xs.endTag(null, "animation");
+                    }
+                } else if(frames.length == 1 && textureNr == 0) {
                     xs.text("\n    ");
                     xs.startTag(null, "area");
-                    xs.attribute(null, "name", baseName+"-"+frameNr);
-                    xs.attribute(null, "xywh", frames[frameNr].getXYWH());
+                    xs.attribute(null, "name", baseName);
+                    xs.attribute(null, "xywh", frames[0].area.getXYWH());
+                    writeInset(xs, frames[0].area);
                     xs.endTag(null, "area");
                 }
-                xs.text("\n    \n    ");
-                xs.startTag(null, "animation");
-                xs.attribute(null, "name", baseName);
-                xs.attribute(null, "timeSource", "hover");
-                for(int frameNr=0 ; frameNr<frames.length ; frameNr++) {
-                    xs.text("\n      ");
-                    xs.startTag(null, "frame");
-                    xs.attribute(null, "duration", Integer.toString(frames[frameNr].delayMS));
-                    xs.attribute(null, "ref", baseName+"-"+frameNr);
-                    xs.endTag(null, "frame");
-                }
-                xs.text("\n    ");
-                xs.endTag(null, "animation");
-            } else if(frames.length == 1) {
-                xs.text("\n    ");
-                xs.startTag(null, "area");
-                xs.attribute(null, "name", baseName);
-                xs.attribute(null, "xywh", frames[0].getXYWH());
-                xs.endTag(null, "area");
+
+                xs.text("\n  ");
+                xs.endTag(null, "images");
             }
-            
-            xs.text("\n  ");
-            xs.endTag(null, "images");
             xs.text("\n");
             xs.endTag(null, "themes");
             xs.endDocument();
@@ -225,6 +493,12 @@ public class ImageGenerator {
         }
     }
 
+    static void writeInset(XmlSerializer xs, Area area) throws IOException {
+        if(area.isTrimmed()) {
+            xs.attribute(null, "inset", area.getInset());
+        }
+    }
+
     private static String getBaseName(File file) {
         String baseName = file.getName();
         int idx = baseName.lastIndexOf('.');
@@ -238,23 +512,252 @@ public class ImageGenerator {
         return 1 << (32 - Integer.numberOfLeadingZeros(value - 1));
     }
 
+    /**
+     * A unique frame image in the texture. Only the part inside the bounds
+     * of the non transparent pixels is stored, it starts at
+     * {@code offsetX, offsetY} inside the frame.
+     */
+    public static class Area {
+        public final int index;
+        public final int frameWidth;
+        public final int frameHeight;
+        public int offsetX;
+        public int offsetY;
+        public int texture;
+        public int x;
+        public int y;
+        public int width;
+        public int height;
+        int[] pixels;
+
+        Area(int index, FramePixels pixels) {
+            this.index = index;
+            this.frameWidth = pixels.frameWidth;
+            this.frameHeight = pixels.frameHeight;
+            this.offsetX = pixels.offsetX;
+            this.offsetY = pixels.offsetY;
+            this.width = pixels.width;
+            this.height = pixels.height;
+            this.pixels = pixels.pixels;
+        }
+
+        void analyzeFormat(TextureFormatAnalyzer formatAnalyzer) {
+            formatAnalyzer.add(pixels, 0, width, height, width);
+        }
+
+        public boolean isTrimmed() {
+            return width != frameWidth || height != frameHeight;
+        }
+
+        public String getXYWH() {
+            return x+","+y+","+width+","+height;
+        }
+
+        /**
+         * Returns the removed transparent border as TWL inset (top, left, bottom, right)
+         * @return the inset string
+         */
+        public String getInset() {
+            return offsetY+","+offsetX+","+
+                    (frameHeight-offsetY-height)+","+(frameWidth-offsetX-width);
+        }
+    }
+
     public static class Frame {
-        public final int x;
-        public final int y;
-        public final int width;
-        public final int height;
+        public final Area area;
         public final int delayMS;
 
-        public Frame(int x, int y, int width, int height, int delayMS) {
-            this.x = x;
-            this.y = y;
-            this.width = width;
-            this.height = height;
+        public Frame(Area area, int delayMS) {
+            this.area = area;
             this.delayMS = delayMS;
         }
+    }
 
-        public String getXYWH() {
-            return x+","+y+","+width+","+height;
+    /**
+     * Receives the progress of the conversion
+     */
+    public interface ProgressListener {
+        /**
+         * Called on the converting thread after a frame has been processed.
+         * The conversion can be aborted by throwing a {@link CancellationException}.
+         *
+         * @param imageNr the index of the processed image
+         * @param numImages the number of images in the source
+         */
+        public void frameProcessed(int imageNr, int numImages);
+    }
+
+    static final class DecodedFrame {
+        final BufferedImage image;
+        final int imageNr;
+        final int delayMS;
+
+        DecodedFrame(BufferedImage image, int imageNr, int delayMS) {
+            this.image = image;
+            this.imageNr = imageNr;
+            this.delayMS = delayMS;
+        }
+    }
+
+    /**
+     * Decodes the frames in order and hands them over through a bounded queue.
+     * {@link #END} is always queued unless the consumer has stopped, any
+     * error is stored in {@link #error} before that.
+     */
+    static final class FrameDecoder extends Thread {
+        static final DecodedFrame END = new DecodedFrame(null, -1, 0);
+        static final int QUEUE_SIZE = 8;
+
+        final ImageData imageData;
+        final boolean skipZeroDelayFrames;
+        final ArrayBlockingQueue<DecodedFrame> queue;
+        volatile Throwable error;
+
+        FrameDecoder(ImageData imageData, boolean skipZeroDelayFrames) {
+            super("ImageGenerator frame decoder");
+            this.imageData = imageData;
+            this.skipZeroDelayFrames = skipZeroDelayFrames;
+            this.queue = new ArrayBlockingQueue<DecodedFrame>(QUEUE_SIZE);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            boolean consumerStopped = false;
+            try {
+                for(int imgNr=0 ; imgNr<imageData.getNumImages() && !isInterrupted() ; imgNr++) {
+                    int delayMS = imageData.getDelayMS(imgNr);
+                    if(skipZeroDelayFrames && delayMS == 0) {
+                        continue;
+                    }
+                    queue.put(new DecodedFrame(imageData.getImage(imgNr), imgNr, delayMS));
+                }
+            } catch(InterruptedException ex) {
+                consumerStopped = true;
+            } catch(Throwable ex) {
+                error = ex;
+            } finally {
+                if(!consumerStopped) {
+                    try {
+                        queue.put(END);
+                    } catch(InterruptedException ex) {
+                        // the consumer has stopped
+                    }
+                }
+            }
+        }
+    }
+
+    static class FrameRef {
+        final Area area;
+        int delayMS;
+
+        FrameRef(Area area, int delayMS) {
+            this.area = area;
+            this.delayMS = delayMS;
+        }
+    }
+
+    /**
+     * The trimmed pixels of a frame with a precomputed hash code. Only the
+     * bounds of the non transparent pixels are stored, so keeping the unique
+     * frames costs memory in proportion to their trimmed area.
+     */
+    static final class FramePixels {
+        final int frameWidth;
+        final int frameHeight;
+        int offsetX;
+        int offsetY;
+        int width;
+        int height;
+        int[] pixels;
+        final int hashCode;
+
+        /**
+         * Trims the frame.
+         *
+         * @param img the frame image
+         * @param frameWidth the width of the frame
+         * @param frameHeight the height of the frame
+         * @param buffer receives the full frame - must hold frameWidth * frameHeight pixels and can be reused for the next frame
+         */
+        FramePixels(BufferedImage img, int frameWidth, int frameHeight, int[] buffer) {
+            this.frameWidth = frameWidth;
+            this.frameHeight = frameHeight;
+            int imgWidth = Math.min(frameWidth, img.getWidth());
+            int imgHeight = Math.min(frameHeight, img.getHeight());
+            if(imgWidth < frameWidth || imgHeight < frameHeight) {
+                Arrays.fill(buffer, 0, frameWidth * frameHeight, 0);
+            }
+            img.getRGB(0, 0, imgWidth, imgHeight, buffer, 0, frameWidth);
+            trim(buffer);
+            int hash = Arrays.hashCode(pixels);
+            hash = hash * 31 + (offsetY * frameWidth + offsetX);
+            hash = hash * 31 + (height * frameWidth + width);
+            this.hashCode = hash * 31 + frameHeight;
+        }
+
+        private void trim(int[] p) {
+            int minX = frameWidth;
+            int maxX = -1;
+            int minY = -1;
+            int maxY = -1;
+            for(int y=0,idx=0 ; y<frameHeight ; y++,idx+=frameWidth) {
+                int left = 0;
+                while(left < frameWidth && (p[idx+left] >>> 24) == 0) {
+                    left++;
+                }
+                if(left == frameWidth) {
+                    continue;
+                }
+                int right = frameWidth - 1;
+                while(right > maxX && (p[idx+right] >>> 24) == 0) {
+                    right--;
+                }
+                minX = Math.min(minX, left);
+                maxX = Math.max(maxX, right);
+                if(minY < 0) {
+                    minY = y;
+                }
+                maxY = y;
+            }
+            if(minY < 0) {
+                // completely transparent - keep one pixel
+                offsetX = 0;
+                offsetY = 0;
+                width = 1;
+                height = 1;
+            } else {
+                offsetX = minX;
+                offsetY = minY;
+                width = maxX - minX + 1;
+                height = maxY - minY + 1;
+            }
+            pixels = new int[width * height];
+            for(int y=0 ; y<height ; y++) {
+                System.arraycopy(p, (offsetY + y) * frameWidth + offsetX, pixels, y * width, width);
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(this == obj) {
+                return true;
+            }
+            if(!(obj instanceof FramePixels)) {
+                return false;
+            }
+            FramePixels other = (FramePixels)obj;
+            return hashCode == other.hashCode &&
+                    frameWidth == other.frameWidth && frameHeight == other.frameHeight &&
+                    offsetX == other.offsetX && offsetY == other.offsetY &&
+                    width == other.width && height == other.height &&
+                    Arrays.equals(pixels, other.pixels);
         }
     }
 }
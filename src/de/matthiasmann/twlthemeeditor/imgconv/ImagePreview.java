@@ -41,8 +41,17 @@ import java.awt.image.DataBufferInt;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
+ * Plays an image in a fixed size preview.
+ *
+ * <p>The frames are decoded and scaled on a background thread and handed
+ * over through a small queue, so the first frame is shown as soon as it is
+ * decoded and the GUI thread never waits for the decoder.</p>
  *
  * @author Matthias Mann
  */
@@ -50,8 +59,8 @@ public class ImagePreview extends Widget {
 
     private static final int WIDTH = 256;
     private static final int HEIGHT = 256;
+    private static final int POLL_DELAY = 20;
 
-    private final BufferedImage bi;
     private final ByteBuffer bb;
     private final IntBuffer ib;
 
@@ -59,10 +68,10 @@ public class ImagePreview extends Widget {
     private ImageData imgData;
     private DynamicImage image;
     private Timer timer;
-    private int curFrame;
+    private FrameLoader loader;
+    private PreviewFrame curFrame;
 
     public ImagePreview() {
-        this.bi = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
         this.bb = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4);
         this.ib = bb.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
 
@@ -70,12 +79,11 @@ public class ImagePreview extends Widget {
     }
 
     public void setImageData(ImageData imgData) {
+        stopLoader();
         this.imgData = imgData;
-        this.curFrame = 0;
+        this.curFrame = null;
         this.imageDirty = true;
-        if(timer != null) {
-            timer.stop();
-        }
+        startLoader();
     }
 
     
@@ -105,7 +113,7 @@ public class ImagePreview extends Widget {
             updateImage(gui);
         }
         
-        if(image != null){
+        if(image != null && curFrame != null) {
             image.draw(getAnimationState(), getInnerX(), getInnerY());
         }
     }
@@ -114,17 +122,17 @@ public class ImagePreview extends Widget {
     protected void afterAddToGUI(GUI gui) {
         super.afterAddToGUI(gui);
         timer = gui.createTimer();
-        timer.setDelay(100);
         timer.setCallback(new Runnable() {
             public void run() {
                 nextFrame();
             }
         });
-        startTimer();
+        startLoader();
     }
 
     @Override
     protected void beforeRemoveFromGUI(GUI gui) {
+        stopLoader();
         if(timer != null) {
             timer.stop();
             timer = null;
@@ -133,9 +141,22 @@ public class ImagePreview extends Widget {
     }
 
     void nextFrame() {
-        if(imgData != null) {
-            curFrame = (curFrame + 1) % imgData.getNumImages();
+        if(loader == null) {
+            return;
+        }
+        // check before polling so that a last frame isn't missed
+        boolean loaderRunning = loader.isAlive();
+        PreviewFrame frame = loader.queue.poll();
+        if(frame != null) {
+            if(curFrame != null) {
+                loader.free.offer(curFrame.pixels);
+            }
+            curFrame = frame;
             imageDirty = true;
+            startTimer(Math.max(10, frame.delayMS));
+        } else if(loaderRunning) {
+            // the next frame is still being decoded
+            startTimer(POLL_DELAY);
         }
     }
 
@@ -144,49 +165,120 @@ public class ImagePreview extends Widget {
             image = gui.getRenderer().createDynamicImage(WIDTH, HEIGHT);
         }
 
-        if(image != null) {
+        if(image != null && curFrame != null) {
+            ib.clear();
+            ib.put(curFrame.pixels);
+            image.update(bb, DynamicImage.Format.BGRA);
+        }
+    }
+
+    private void startLoader() {
+        if(loader == null && imgData != null && timer != null) {
+            loader = new FrameLoader(imgData);
+            loader.start();
+            startTimer(POLL_DELAY);
+        }
+    }
+
+    private void stopLoader() {
+        if(loader != null) {
+            loader.interrupt();
+            loader = null;
+        }
+        if(timer != null) {
+            timer.stop();
+        }
+    }
+
+    private void startTimer(int delay) {
+        if(timer != null) {
+            timer.stop();
+            timer.setDelay(delay);
+            timer.start();
+        }
+    }
+
+    static final class PreviewFrame {
+        final int[] pixels;
+        final int delayMS;
+
+        PreviewFrame(int[] pixels, int delayMS) {
+            this.pixels = pixels;
+            this.delayMS = delayMS;
+        }
+    }
+
+    /**
+     * Decodes and scales the frames in an endless loop. Stops after the
+     * first frame for still images.
+     */
+    static final class FrameLoader extends Thread {
+        final ImageData imgData;
+        final ArrayBlockingQueue<PreviewFrame> queue;
+        final ConcurrentLinkedQueue<int[]> free;
+
+        FrameLoader(ImageData imgData) {
+            super("ImagePreview frame loader");
+            this.imgData = imgData;
+            this.queue = new ArrayBlockingQueue<PreviewFrame>(2);
+            this.free = new ConcurrentLinkedQueue<int[]>();
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            BufferedImage bi = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+            int[] biData = ((DataBufferInt)bi.getRaster().getDataBuffer()).getData();
+            try {
+                int numImages = imgData.getNumImages();
+                for(int imgNr=0 ; !isInterrupted() ; imgNr=(imgNr+1)%numImages) {
+                    BufferedImage img = imgData.getImage(imgNr);
+                    renderScaled(bi, img);
+
+                    int[] pixels = free.poll();
+                    if(pixels == null) {
+                        pixels = new int[WIDTH * HEIGHT];
+                    }
+                    System.arraycopy(biData, 0, pixels, 0, pixels.length);
+                    queue.put(new PreviewFrame(pixels, imgData.getDelayMS(imgNr)));
+
+                    if(numImages == 1) {
+                        break;
+                    }
+                }
+            } catch(InterruptedException ex) {
+                // another image was selected or the preview was closed
+            } catch(RuntimeException ex) {
+                Logger.getLogger(ImagePreview.class.getName()).log(Level.SEVERE, "Unable to decode preview", ex);
+            }
+        }
+
+        private static void renderScaled(BufferedImage bi, BufferedImage img) {
             Graphics2D g = bi.createGraphics();
             try {
                 g.setComposite(AlphaComposite.Src);
                 g.setColor(new Color(0,0,0,0));
                 g.fillRect(0, 0, WIDTH, HEIGHT);
 
-                if(imgData != null) {
-                    BufferedImage img = imgData.getImage(curFrame);
-                    int width = img.getWidth();
-                    int height = img.getHeight();
-
-                    if(width > WIDTH || height > HEIGHT) {
-                        int w = width * HEIGHT / height;
-                        int h = height * WIDTH / width;
-                        if(w > WIDTH) {
-                            width = WIDTH;
-                            height = h;
-                        } else {
-                            width = w;
-                            height = HEIGHT;
-                        }
-                    }
+                int width = img.getWidth();
+                int height = img.getHeight();
 
-                    g.drawImage(img, 0, 0, width, height, null);
+                if(width > WIDTH || height > HEIGHT) {
+                    int w = width * HEIGHT / height;
+                    int h = height * WIDTH / width;
+                    if(w > WIDTH) {
+                        width = WIDTH;
+                        height = h;
+                    } else {
+                        width = w;
+                        height = HEIGHT;
+                    }
                 }
+
+                g.drawImage(img, 0, 0, width, height, null);
             } finally {
                 g.dispose();
             }
-
-            ib.clear();
-            ib.put(((DataBufferInt)bi.getRaster().getDataBuffer()).getData());
-            image.update(bb, DynamicImage.Format.BGRA);
-        }
-
-        startTimer();
-    }
-
-    private void startTimer() {
-        if(imgData != null && imgData.getNumImages() > 1 && timer != null) {
-            int delay = Math.max(10, imgData.getDelayMS(curFrame));
-            timer.setDelay(delay);
-            timer.start();
         }
     }
 }
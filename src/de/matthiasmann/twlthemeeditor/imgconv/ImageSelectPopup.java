@@ -31,6 +31,7 @@ package de.matthiasmann.twlthemeeditor.imgconv;
 
 import de.matthiasmann.twl.FileSelector;
 import de.matthiasmann.twl.FileTable;
+import de.matthiasmann.twl.GUI;
 import de.matthiasmann.twl.PopupWindow;
 import de.matthiasmann.twl.Widget;
 import de.matthiasmann.twl.model.FileSystemModel;
@@ -41,6 +42,7 @@ import java.io.File;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Locale;
+import java.util.concurrent.Callable;
 import java.util.prefs.Preferences;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
@@ -64,6 +66,7 @@ public class ImageSelectPopup extends PopupWindow {
     private String imagePath;
     private ImageData imageData;
     private Callback[] callbacks;
+    private int loadSerial;
 
     public ImageSelectPopup(Widget owner) {
         super(owner);
@@ -143,23 +146,49 @@ public class ImageSelectPopup extends PopupWindow {
     void updatePreview() {
         imagePath = null;
         imageData = null;
+        fileSelector.setOkButtonEnabled(false);
+        preview.setImageData(null);
+        preview.setTooltipContent(null);
+
+        // results of older selections are ignored
+        final int serial = ++loadSerial;
+        
         FileTable.Entry[] selection = fileSelector.getFileTable().getSelection();
-        if(selection.length > 0) {
+        GUI gui = getGUI();
+        if(selection.length > 0 && gui != null) {
             FileTable.Entry entry = selection[0];
             if(!entry.isFolder && (entry.obj instanceof File)) {
-                imageData = ImageData.create((File)entry.obj);
-                imagePath = entry.getPath();
+                final File file = (File)entry.obj;
+                final String path = entry.getPath();
+                gui.invokeAsync(new Callable<ImageData>() {
+                    public ImageData call() throws Exception {
+                        return ImageData.create(file);
+                    }
+                }, new GUI.AsyncCompletionListener<ImageData>() {
+                    public void completed(ImageData result) {
+                        imageLoaded(serial, path, result);
+                    }
+                    public void failed(Exception ex) {
+                        imageLoaded(serial, path, null);
+                    }
+                });
             }
         }
+    }
 
-        if(imageData != null) {
+    void imageLoaded(int serial, String path, ImageData result) {
+        if(serial != loadSerial) {
+            if(result != null) {
+                result.dispose();
+            }
+            return;
+        }
+        if(result != null) {
+            imagePath = path;
+            imageData = result;
             fileSelector.setOkButtonEnabled(true);
-            preview.setImageData(imageData);
-            preview.setTooltipContent(imagePath);
-        } else {
-            fileSelector.setOkButtonEnabled(false);
-            preview.setImageData(null);
-            preview.setTooltipContent(null);
+            preview.setImageData(result);
+            preview.setTooltipContent(path);
         }
     }
 
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.imgconv;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+
+/**
+ * Packs rectangles into a fixed size area using the skyline bottom left
+ * heuristic. Rectangles should be inserted sorted by decreasing height for
+ * best results.
+ *
+ * @author Matthias Mann
+ */
+public class RectPacker {
+
+    private final int width;
+    private final int height;
+    private final ArrayList<Node> skyline;
+    private int usedWidth;
+    private int usedHeight;
+
+    public RectPacker(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.skyline = new ArrayList<Node>();
+        skyline.add(new Node(0, 0, width));
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the width of the area which is covered by inserted rectangles
+     * @return the used width
+     */
+    public int getUsedWidth() {
+        return usedWidth;
+    }
+
+    /**
+     * Returns the height of the area which is covered by inserted rectangles
+     * @return the used height
+     */
+    public int getUsedHeight() {
+        return usedHeight;
+    }
+
+    /**
+     * Finds a place for a rectangle of the given size.
+     *
+     * @param w the width of the rectangle
+     * @param h the height of the rectangle
+     * @return the placed rectangle or null if it doesn't fit
+     */
+    public Rectangle insert(int w, int h) {
+        int bestIdx = -1;
+        int bestY = Integer.MAX_VALUE;
+        int bestWidth = Integer.MAX_VALUE;
+
+        for(int i=0,n=skyline.size() ; i<n ; i++) {
+            int y = fit(i, w, h);
+            if(y >= 0) {
+                int nodeWidth = skyline.get(i).width;
+                if(y < bestY || (y == bestY && nodeWidth < bestWidth)) {
+                    bestIdx = i;
+                    bestY = y;
+                    bestWidth = nodeWidth;
+                }
+            }
+        }
+
+        if(bestIdx < 0) {
+            return null;
+        }
+
+        Rectangle rect = new Rectangle(skyline.get(bestIdx).x, bestY, w, h);
+        addLevel(bestIdx, rect);
+        usedWidth = Math.max(usedWidth, rect.x + w);
+        usedHeight = Math.max(usedHeight, rect.y + h);
+        return rect;
+    }
+
+    private int fit(int idx, int w, int h) {
+        int x = skyline.get(idx).x;
+        if(x + w > width) {
+            return -1;
+        }
+        int y = 0;
+        for(int remaining=w ; remaining>0 ; idx++) {
+            Node node = skyline.get(idx);
+            y = Math.max(y, node.y);
+            if(y + h > height) {
+                return -1;
+            }
+            remaining -= node.width;
+        }
+        return y;
+    }
+
+    private void addLevel(int idx, Rectangle rect) {
+        skyline.add(idx, new Node(rect.x, rect.y + rect.height, rect.width));
+
+        int right = rect.x + rect.width;
+        for(int i=idx+1 ; i<skyline.size() ;) {
+            Node node = skyline.get(i);
+            if(node.x >= right) {
+                break;
+            }
+            int shrink = right - node.x;
+            if(node.width <= shrink) {
+                skyline.remove(i);
+            } else {
+                node.x += shrink;
+                node.width -= shrink;
+                break;
+            }
+        }
+
+        for(int i=0 ; i<skyline.size()-1 ;) {
+            Node node = skyline.get(i);
+            Node next = skyline.get(i+1);
+            if(node.y == next.y) {
+                node.width += next.width;
+                skyline.remove(i+1);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    static final class Node {
+        int x;
+        int y;
+        int width;
+
+        Node(int x, int y, int width) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+        }
+    }
+}
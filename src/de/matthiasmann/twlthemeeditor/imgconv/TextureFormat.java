@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.imgconv;
+
+import de.matthiasmann.twlthemeeditor.fontgen.PNGWriter;
+
+/**
+ * The texture formats which can be selected for converted images.
+ *
+ * @author Matthias Mann
+ */
+public enum TextureFormat {
+    LUMINANCE("LUMINANCE", PNGWriter.ColorType.GRAY, 1),
+    LUMINANCE_ALPHA("LUMINANCE_ALPHA", PNGWriter.ColorType.GRAY_ALPHA, 2),
+    RGB("RGB", PNGWriter.ColorType.RGB, 3),
+    /** a palette PNG - the renderer expands it to RGBA */
+    PALETTE("COLOR", PNGWriter.ColorType.PALETTE, 4),
+    RGBA("COLOR", PNGWriter.ColorType.RGBA, 4);
+
+    /** the value of the format attribute in the theme XML */
+    public final String xmlFormat;
+    public final PNGWriter.ColorType pngColorType;
+    /** the number of bytes per texel after uploading */
+    public final int bytesPerTexel;
+
+    private TextureFormat(String xmlFormat, PNGWriter.ColorType pngColorType, int bytesPerTexel) {
+        this.xmlFormat = xmlFormat;
+        this.pngColorType = pngColorType;
+        this.bytesPerTexel = bytesPerTexel;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.imgconv;
+
+import java.util.Arrays;
+
+/**
+ * Selects the smallest lossless texture format for a set of ARGB pixels.
+ *
+ * <p>The pixels are added in blocks and examined in one pass. The analysis
+ * stops early once it is known that only RGBA can be used.</p>
+ *
+ * <p>The palette always contains transparent black as it is used for the
+ * padding between the areas.</p>
+ *
+ * @author Matthias Mann
+ */
+public final class TextureFormatAnalyzer {
+
+    private static final int MAX_PALETTE_SIZE = 256;
+    private static final int TABLE_SIZE = 1024;  // power of 2, at least 2 * MAX_PALETTE_SIZE
+
+    private final int[] colorTable;
+    private int numColors;
+    private boolean gray;
+    private boolean opaque;
+    private boolean tooManyColors;
+
+    public TextureFormatAnalyzer() {
+        this.colorTable = new int[TABLE_SIZE];
+        this.numColors = 1;   // transparent black is not stored in the table
+        this.gray = true;
+        this.opaque = true;
+    }
+
+    /**
+     * Adds a block of pixels.
+     *
+     * @param pixels the ARGB pixels
+     * @param offset the index of the first pixel
+     * @param width the width of the block
+     * @param height the height of the block
+     * @param scan the distance between rows
+     */
+    public void add(int[] pixels, int offset, int width, int height, int scan) {
+        for(int y=0 ; y<height && !isRGBA() ; y++,offset+=scan) {
+            for(int x=0 ; x<width ; x++) {
+                int argb = pixels[offset + x];
+                if(opaque && (argb >>> 24) != 255) {
+                    opaque = false;
+                }
+                if(gray && !isGray(argb)) {
+                    gray = false;
+                }
+                if(!tooManyColors) {
+                    addColor(argb);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the selected format for all pixels added so far.
+     * @return the texture format
+     */
+    public TextureFormat getFormat() {
+        if(gray) {
+            return opaque ? TextureFormat.LUMINANCE : TextureFormat.LUMINANCE_ALPHA;
+        }
+        if(opaque) {
+            return TextureFormat.RGB;
+        }
+        if(!tooManyColors) {
+            return TextureFormat.PALETTE;
+        }
+        return TextureFormat.RGBA;
+    }
+
+    /**
+     * Returns the palette ordered by ascending alpha so that the PNG
+     * transparency chunk is as short as possible.
+     * 
+     * @return the ARGB colors or null if there are more than 256 colors
+     */
+    public int[] getPalette() {
+        if(tooManyColors) {
+            return null;
+        }
+        // flipping the sign bit sorts by the unsigned value, ie alpha first
+        int[] palette = new int[numColors];
+        int count = 0;
+        palette[count++] = 0x80000000;
+        for(int color : colorTable) {
+            if(color != 0) {
+                palette[count++] = color ^ 0x80000000;
+            }
+        }
+        Arrays.sort(palette);
+        for(int i=0 ; i<count ; i++) {
+            palette[i] ^= 0x80000000;
+        }
+        return palette;
+    }
+
+    private boolean isRGBA() {
+        return !gray && !opaque && tooManyColors;
+    }
+
+    private static boolean isGray(int argb) {
+        int b = argb & 255;
+        return ((argb >> 8) & 255) == b && ((argb >> 16) & 255) == b;
+    }
+
+    private void addColor(int argb) {
+        if(argb == 0) {
+            return;
+        }
+        int mask = TABLE_SIZE - 1;
+        int idx = (argb * 0x9E3779B9) >>> 22;
+        for(;;) {
+            int entry = colorTable[idx];
+            if(entry == argb) {
+                return;
+            }
+            if(entry == 0) {
+                if(numColors == MAX_PALETTE_SIZE) {
+                    tooManyColors = true;
+                } else {
+                    colorTable[idx] = argb;
+                    numColors++;
+                }
+                return;
+            }
+            idx = (idx + 1) & mask;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.dom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Compares the lazily renumbered content indices and the range operations
+ * of {@link Element} with a plain list.
+ *
+ * @author Matthias Mann
+ */
+public class ContentListTest {
+
+    @Test
+    public void testRandomOperations() {
+        for(int seed=0 ; seed<200 ; seed++) {
+            Random r = new Random(seed);
+            Element parent = new Element("root");
+            ArrayList<Content> model = new ArrayList<Content>();
+            EventRecorder recorder = new EventRecorder();
+            parent.addContentListener(recorder);
+            ArrayList<String> expectedEvents = new ArrayList<String>();
+            int nextID = 0;
+
+            for(int step=0 ; step<300 ; step++) {
+                int size = model.size();
+                switch(r.nextInt(9)) {
+                    case 0: {
+                        int idx = r.nextInt(size + 1);
+                        Content child = createChild(r, nextID++);
+                        parent.addContent(idx, child);
+                        model.add(idx, child);
+                        expectedEvents.add("add " + child + " " + idx);
+                        break;
+                    }
+                    case 1: {
+                        Content child = createChild(r, nextID++);
+                        parent.addContent(child);
+                        model.add(child);
+                        expectedEvents.add("add " + child + " " + size);
+                        break;
+                    }
+                    case 2:
+                        if(size > 0) {
+                            int idx = r.nextInt(size);
+                            Content child = model.remove(idx);
+                            assertSame(child, parent.removeContent(idx));
+                            expectedEvents.add("remove " + child + " " + idx);
+                            assertRemoved(child);
+                        }
+                        break;
+                    case 3:
+                        if(size > 0) {
+                            int idx = r.nextInt(size);
+                            Content child = model.remove(idx);
+                            parent.removeContent(child);
+                            expectedEvents.add("remove " + child + " " + idx);
+                            assertRemoved(child);
+                        }
+                        break;
+                    case 4:
+                        if(size > 0) {
+                            int from = r.nextInt(size);
+                            int to = r.nextInt(size);
+                            Content child = model.get(from);
+                            parent.moveContent(from, to);
+                            model.add(to, model.remove(from));
+                            if(from != to) {
+                                expectedEvents.add("move " + child + " " + from + " " + to);
+                            }
+                        }
+                        break;
+                    case 5: {
+                        int idx = r.nextInt(size + 1);
+                        ArrayList<Content> children = new ArrayList<Content>();
+                        for(int i=r.nextInt(6) ; i-->0 ;) {
+                            children.add(createChild(r, nextID++));
+                        }
+                        parent.addContent(idx, children);
+                        model.addAll(idx, children);
+                        for(int i=0 ; i<children.size() ; i++) {
+                            expectedEvents.add("add " + children.get(i) + " " + (idx + i));
+                        }
+                        break;
+                    }
+                    case 6: {
+                        int from = r.nextInt(size + 1);
+                        int to = from + r.nextInt(size - from + 1);
+                        List<Content> sublist = model.subList(from, to);
+                        ArrayList<Content> expected = new ArrayList<Content>(sublist);
+                        sublist.clear();
+                        assertEquals(expected, parent.removeContent(from, to));
+                        for(int i=expected.size() ; i-->0 ;) {
+                            expectedEvents.add("remove " + expected.get(i) + " " + (from + i));
+                            assertRemoved(expected.get(i));
+                        }
+                        break;
+                    }
+                    case 7:
+                        // query a single index to renumber only partially
+                        if(size > 0) {
+                            int idx = r.nextInt(size);
+                            Content child = model.get(idx);
+                            assertEquals(idx, child.getIndex());
+                            assertSame((idx > 0) ? model.get(idx-1) : null, child.getPrevSibling());
+                            assertSame((idx+1 < size) ? model.get(idx+1) : null, child.getNextSibling());
+                        }
+                        break;
+                    case 8:
+                        assertSameContent(model, parent);
+                        break;
+                }
+                assertEquals(expectedEvents, recorder.events);
+            }
+            assertSameContent(model, parent);
+        }
+    }
+
+    @Test
+    public void testEmptyRanges() {
+        Element parent = new Element("root");
+        EventRecorder recorder = new EventRecorder();
+        parent.addContentListener(recorder);
+        parent.addContent(0, Collections.<Content>emptyList());
+        assertTrue(parent.removeContent(0, 0).isEmpty());
+        assertEquals(0, parent.getContentSize());
+        assertTrue(recorder.events.isEmpty());
+    }
+
+    @Test
+    public void testRangeErrorsLeaveListUnchanged() {
+        Element parent = new Element("root");
+        Element a = new Element("a");
+        Element b = new Element("b");
+        parent.addContent(a);
+        parent.addContent(b);
+        EventRecorder recorder = new EventRecorder();
+        parent.addContentListener(recorder);
+
+        Element c = new Element("c");
+        Element d = new Element("d");
+        try {
+            parent.addContent(1, Arrays.<Content>asList(c, d, a));
+            fail("child with parent accepted");
+        } catch(IllegalStateException expected) {
+        }
+        try {
+            parent.addContent(1, Arrays.<Content>asList(c, null));
+            fail("null child accepted");
+        } catch(NullPointerException expected) {
+        }
+        try {
+            parent.addContent(1, Arrays.<Content>asList(c, c));
+            fail("duplicate child accepted");
+        } catch(IllegalStateException expected) {
+        }
+        try {
+            parent.addContent(3, Arrays.<Content>asList(c));
+            fail("invalid index accepted");
+        } catch(IndexOutOfBoundsException expected) {
+        }
+        try {
+            parent.removeContent(2, 1);
+            fail("invalid range accepted");
+        } catch(IndexOutOfBoundsException expected) {
+        }
+        try {
+            parent.removeContent(1, 3);
+            fail("invalid range accepted");
+        } catch(IndexOutOfBoundsException expected) {
+        }
+
+        assertSameContent(Arrays.<Content>asList(a, b), parent);
+        assertTrue(recorder.events.isEmpty());
+        assertNull(c.getParent());
+        assertNull(d.getParent());
+
+        // the rejected children can still be added
+        parent.addContent(1, Arrays.<Content>asList(c, d));
+        assertSameContent(Arrays.<Content>asList(a, c, d, b), parent);
+    }
+
+    @Test
+    public void testRangeUndoIsOneStep() {
+        Element root = new Element("root");
+        for(int i=0 ; i<6 ; i++) {
+            Element child = new Element("e" + i);
+            child.setAttribute("a", Integer.toString(i));
+            root.addContent(child);
+        }
+        Document doc = new Document(root);
+        Undo undo = new Undo();
+        undo.registerDocument(doc);
+        String original = dump(root);
+
+        assertEquals(3, root.removeContent(1, 4).size());
+        String removed = dump(root);
+        assertTrue(undo.undo());
+        assertEquals(original, dump(root));
+        assertFalse(undo.hasUndo());
+        assertTrue(undo.redo());
+        assertEquals(removed, dump(root));
+        assertTrue(undo.undo());
+        assertEquals(original, dump(root));
+
+        root.addContent(2, Arrays.<Content>asList(new Element("x"), new Text("y"), new Element("z")));
+        String added = dump(root);
+        assertEquals(9, root.getContentSize());
+        assertTrue(undo.undo());
+        assertEquals(original, dump(root));
+        assertFalse(undo.hasUndo());
+        assertTrue(undo.redo());
+        assertEquals(added, dump(root));
+
+        // ranges of the document itself
+        Comment comment = new Comment("c");
+        doc.addContent(0, Arrays.<Content>asList(comment, new Comment("d")));
+        assertEquals(3, doc.getContentSize());
+        assertTrue(undo.undo());
+        assertEquals(1, doc.getContentSize());
+        assertTrue(undo.redo());
+        assertEquals(3, doc.getContentSize());
+        doc.removeContent(0, 2);
+        assertTrue(undo.undo());
+        assertEquals(3, doc.getContentSize());
+        assertSame(root, doc.getRootElement());
+    }
+
+    private static Content createChild(Random r, int id) {
+        if(r.nextInt(4) == 0) {
+            return new Text("t" + id);
+        }
+        return new Element("e" + id);
+    }
+
+    private static String dump(Content node) {
+        StringBuilder sb = new StringBuilder();
+        dump(node, sb);
+        return sb.toString();
+    }
+
+    private static void dump(Content node, StringBuilder sb) {
+        if(node instanceof Element) {
+            Element e = (Element)node;
+            sb.append('<').append(e.getName());
+            String a = e.getAttributeValue("a");
+            if(a != null) {
+                sb.append(" a=").append(a);
+            }
+            sb.append('>');
+            for(Content child : e) {
+                dump(child, sb);
+            }
+            sb.append("</>");
+        } else {
+            sb.append('[').append(node).append(']');
+        }
+    }
+
+    private static void assertRemoved(Content child) {
+        assertNull(child.getParent());
+        assertEquals(-1, child.getIndex());
+    }
+
+    private static void assertSameContent(List<Content> model, Element parent) {
+        assertEquals(model.size(), parent.getContentSize());
+        for(int i=0 ; i<model.size() ; i++) {
+            Content child = model.get(i);
+            assertSame(child, parent.getContent(i));
+            assertSame(parent, child.getParent());
+            assertEquals(i, parent.indexOf(child));
+            assertEquals(i, child.getIndex());
+        }
+        int idx = 0;
+        for(Content child : parent) {
+            assertSame(model.get(idx++), child);
+        }
+        assertEquals(model.size(), idx);
+    }
+
+    static class EventRecorder implements Parent.ContentListener {
+        final ArrayList<String> events = new ArrayList<String>();
+
+        public void contentAdded(Parent parent, Content child, int index) {
+            events.add("add " + child + " " + index);
+        }
+
+        public void contentRemoved(Parent parent, Content child, int index) {
+            events.add("remove " + child + " " + index);
+        }
+
+        public void contentMoved(Parent parent, Content child, int oldIndex, int newIndex) {
+            events.add("move " + child + " " + oldIndex + " " + newIndex);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.dom;
+
+import java.io.IOException;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Matthias Mann
+ */
+public class UndoJournalTest {
+
+    private final Random random = new Random(42);
+    private final UndoJournal journal = new UndoJournal();
+
+    @After
+    public void tearDown() {
+        journal.close();
+    }
+
+    @Test
+    public void testAppendAndRead() throws IOException {
+        byte[] a = createRecord(10);
+        byte[] b = createRecord(1000);
+        byte[] c = createRecord(1);
+        long posA = journal.append(a);
+        long posB = journal.append(b);
+        long posC = journal.append(c);
+        assertEquals(0, posA);
+        assertEquals(posA + a.length, posB);
+        assertEquals(posB + b.length, posC);
+        assertArrayEquals(b, journal.read(posB, b.length));
+        assertArrayEquals(a, journal.read(posA, a.length));
+        assertArrayEquals(c, journal.read(posC, c.length));
+        assertEquals(a.length + b.length + c.length, journal.getFileLength());
+    }
+
+    @Test
+    public void testRemoveLast() throws IOException {
+        byte[] a = createRecord(100);
+        byte[] b = createRecord(200);
+        byte[] c = createRecord(300);
+        long posA = journal.append(a);
+        long posB = journal.append(b);
+        long posC = journal.append(c);
+
+        // the space of the removed record is reused
+        journal.removeLast(posC);
+        byte[] d = createRecord(50);
+        assertEquals(posC, journal.append(d));
+        assertArrayEquals(d, journal.read(posC, d.length));
+        assertArrayEquals(b, journal.read(posB, b.length));
+
+        journal.removeLast(posC);
+        journal.removeLast(posB);
+        assertArrayEquals(a, journal.read(posA, a.length));
+
+        // removing the only record empties the file
+        journal.removeLast(posA);
+        assertEquals(0, journal.getFileLength());
+        long posE = journal.append(c);
+        assertArrayEquals(c, journal.read(posE, c.length));
+    }
+
+    @Test
+    public void testRemoveFirstCompacts() throws IOException {
+        byte[] a = createRecord(600*1024);
+        byte[] b = createRecord(600*1024);
+        byte[] c = createRecord(600*1024);
+        long posA = journal.append(a);
+        long posB = journal.append(b);
+        long posC = journal.append(c);
+        long fileLength = journal.getFileLength();
+
+        // not enough unused space yet
+        journal.removeFirst(posA + a.length);
+        assertEquals(fileLength, journal.getFileLength());
+        assertArrayEquals(b, journal.read(posB, b.length));
+
+        // the unused space is larger than the threshold and the used space
+        journal.removeFirst(posB + b.length);
+        assertEquals(c.length, journal.getFileLength());
+
+        // positions stay valid after compacting
+        assertArrayEquals(c, journal.read(posC, c.length));
+        byte[] d = createRecord(1234);
+        long posD = journal.append(d);
+        assertEquals(posC + c.length, posD);
+        assertArrayEquals(d, journal.read(posD, d.length));
+        assertArrayEquals(c, journal.read(posC, c.length));
+
+        journal.removeLast(posD);
+        assertArrayEquals(c, journal.read(posC, c.length));
+    }
+
+    @Test
+    public void testRemoveAllFromStart() throws IOException {
+        byte[] a = createRecord(100);
+        byte[] b = createRecord(100);
+        long posA = journal.append(a);
+        long posB = journal.append(b);
+        journal.removeFirst(posA + a.length);
+        journal.removeFirst(posB + b.length);
+        assertEquals(0, journal.getFileLength());
+
+        byte[] c = createRecord(77);
+        long posC = journal.append(c);
+        assertTrue(posC >= posB + b.length);
+        assertArrayEquals(c, journal.read(posC, c.length));
+        assertEquals(c.length, journal.getFileLength());
+    }
+
+    @Test
+    public void testRandomStack() throws IOException {
+        // the journal is used as a stack which also shrinks from the bottom
+        long[] positions = new long[2000];
+        byte[][] records = new byte[2000][];
+        int first = 0;
+        int last = 0;
+        for(int step=0 ; step<4000 ; step++) {
+            int op = random.nextInt(3);
+            if(op == 0 || first == last) {
+                if(last < records.length) {
+                    records[last] = createRecord(1 + random.nextInt(20000));
+                    positions[last] = journal.append(records[last]);
+                    last++;
+                }
+            } else if(op == 1) {
+                last--;
+                assertArrayEquals(records[last], journal.read(positions[last], records[last].length));
+                journal.removeLast(positions[last]);
+            } else {
+                journal.removeFirst(positions[first] + records[first].length);
+                first++;
+            }
+            for(int i=first ; i<last ; i+=7) {
+                assertArrayEquals(records[i], journal.read(positions[i], records[i].length));
+            }
+        }
+    }
+
+    @Test
+    public void testClose() throws IOException {
+        journal.append(createRecord(100));
+        journal.close();
+        assertEquals(0, journal.getFileLength());
+        byte[] a = createRecord(10);
+        assertEquals(0, journal.append(a));
+        assertArrayEquals(a, journal.read(0, a.length));
+    }
+
+    private byte[] createRecord(int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+}
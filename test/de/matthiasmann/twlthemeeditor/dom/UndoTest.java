@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.dom;
+
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that undo restores the recorded document states - also when the
+ * steps have been moved into the temp journal.
+ *
+ * @author Matthias Mann
+ */
+public class UndoTest {
+
+    private final ArrayList<Undo> undos = new ArrayList<Undo>();
+
+    @After
+    public void tearDown() {
+        for(Undo undo : undos) {
+            undo.dispose();
+        }
+    }
+
+    @Test
+    public void testJournalRoundTrip() {
+        for(long budget : new long[] { 0, 3000 }) {
+            for(int seed=0 ; seed<20 ; seed++) {
+                Document doc = createDocument();
+                Undo undo = createUndo(doc, budget);
+                Editor editor = new Editor(doc, new Random(seed));
+                ArrayList<String> states = new ArrayList<String>();
+
+                for(int i=0 ; i<300 ; i++) {
+                    String before = dump(doc);
+                    int numSteps = undo.undoList.numSteps;
+                    editor.edit();
+                    if(undo.undoList.numSteps != numSteps) {
+                        states.add(before);
+                    }
+                    assertTrue(undo.getMemoryUsed() <= budget);
+                }
+                assertEquals(states.size(), undo.undoList.numSteps);
+                assertNotNull(undo.undoList.journal);
+
+                while(!states.isEmpty()) {
+                    assertTrue(undo.undo());
+                    assertEquals(states.remove(states.size()-1), dump(doc));
+                }
+                assertFalse(undo.hasUndo());
+                assertFalse(undo.undo());
+            }
+        }
+    }
+
+    @Test
+    public void testDropOldestStepsFromJournal() {
+        Document doc = createDocument();
+        Undo undo = createUndo(doc, 0);
+        undo.setMaxUndoSteps(10);
+        Element root = doc.getRootElement();
+        ArrayList<String> states = new ArrayList<String>();
+        for(int i=0 ; i<50 ; i++) {
+            states.add(dump(doc));
+            root.addContent(new Element("e" + i));
+        }
+        assertEquals(10, undo.undoList.numSteps);
+        for(int i=0 ; i<10 ; i++) {
+            assertTrue(undo.undo());
+            assertEquals(states.remove(states.size()-1), dump(doc));
+        }
+        // the dropped steps stay applied
+        assertFalse(undo.undo());
+        assertEquals(4 + 40, root.getContentSize());
+    }
+
+    @Test
+    public void testReadFailureDiscardsHistory() {
+        Document doc = createDocument();
+        Undo undo = createUndo(doc, 0);
+        Element root = doc.getRootElement();
+        for(int i=0 ; i<5 ; i++) {
+            root.addContent(new Element("e" + i));
+        }
+        assertTrue(undo.undo());
+        assertTrue(undo.hasRedo());
+
+        final int[] callbacks = new int[1];
+        undo.addCallback(new Runnable() {
+            public void run() {
+                callbacks[0]++;
+            }
+        });
+
+        // the newest step now points past the end of the journal
+        String state = dump(doc);
+        undo.undoList.head.next.journalLength += 100000;
+        assertFalse(undo.undo());
+        assertEquals(state, dump(doc));
+        assertFalse(undo.hasUndo());
+        assertFalse(undo.hasRedo());
+        assertNull(undo.undoList.journal);
+        assertNull(undo.redoList.journal);
+        assertEquals(0, undo.getMemoryUsed());
+        assertTrue(callbacks[0] > 0);
+
+        // new changes are recorded again
+        root.addContent(new Element("x"));
+        assertTrue(undo.undo());
+        assertEquals(state, dump(doc));
+    }
+
+    /**
+     * Random edits, complex operations, undos and redos are compared with
+     * the document states recorded before each step.
+     */
+    @Test
+    public void testUndoRedoSequences() {
+        for(long budget : new long[] { Long.MAX_VALUE, 0, 3000 }) {
+            for(int seed=0 ; seed<30 ; seed++) {
+                Random r = new Random(seed);
+                Document doc = createDocument();
+                Undo undo = createUndo(doc, budget);
+                Editor editor = new Editor(doc, r);
+                ArrayList<String> undoStates = new ArrayList<String>();
+                ArrayList<String> redoStates = new ArrayList<String>();
+
+                for(int i=0 ; i<400 ; i++) {
+                    String before = dump(doc);
+                    int numSteps = undo.undoList.numSteps;
+                    int action = r.nextInt(10);
+                    if(action < 6) {
+                        if(action == 5) {
+                            Undo.startComplexOperation();
+                            try {
+                                for(int j=2+r.nextInt(3) ; j-->0 ;) {
+                                    editor.edit();
+                                }
+                            } finally {
+                                Undo.endComplexOperation();
+                            }
+                        } else {
+                            editor.edit();
+                        }
+                        assertTrue(undo.undoList.numSteps - numSteps <= 1);
+                        if(undo.undoList.numSteps != numSteps) {
+                            // a new step makes the redo steps invalid
+                            undoStates.add(before);
+                            redoStates.clear();
+                        }
+                    } else if(action < 8) {
+                        assertEquals(!undoStates.isEmpty(), undo.undo());
+                        if(!undoStates.isEmpty()) {
+                            assertEquals(undoStates.remove(undoStates.size()-1), dump(doc));
+                            redoStates.add(before);
+                        }
+                    } else {
+                        assertEquals(!redoStates.isEmpty(), undo.redo());
+                        if(!redoStates.isEmpty()) {
+                            assertEquals(redoStates.remove(redoStates.size()-1), dump(doc));
+                            undoStates.add(before);
+                        }
+                    }
+                    assertEquals(undoStates.size(), undo.undoList.numSteps);
+                    assertEquals(redoStates.size(), undo.redoList.numSteps);
+                    assertTrue(undo.getMemoryUsed() <= budget);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCoalescing() {
+        Document doc = createDocument();
+        Element root = doc.getRootElement();
+        root.setAttribute("a", "0");
+        Undo undo = createUndo(doc, Long.MAX_VALUE);
+
+        // fast changes of the same attribute are merged
+        root.setAttribute("a", "1");
+        root.setAttribute("a", "2");
+        assertEquals(1, undo.undoList.numSteps);
+        assertTrue(undo.undo());
+        assertEquals("0", root.getAttributeValue("a"));
+        assertTrue(undo.redo());
+        assertEquals("2", root.getAttributeValue("a"));
+
+        // a replayed step is never merged with a new change
+        root.setAttribute("a", "3");
+        assertEquals(2, undo.undoList.numSteps);
+
+        // typing through setText is merged after the text node was added
+        Element text = new Element("text");
+        root.addContent(text);
+        text.setText("h");
+        text.setText("he");
+        text.setText("hel");
+        assertEquals(5, undo.undoList.numSteps);
+        assertTrue(undo.undo());
+        assertEquals("h", text.getElementText().getText());
+        assertTrue(undo.undo());
+        assertEquals("", text.getElementText().getText());
+    }
+
+    /**
+     * The first change of a complex operation must not be merged into the
+     * step before it - otherwise undoing the complex operation leaves it
+     * applied.
+     */
+    @Test
+    public void testNoCoalescingIntoComplexOperation() {
+        Document doc = createDocument();
+        Element root = doc.getRootElement();
+        root.setAttribute("a", "0");
+        Undo undo = createUndo(doc, Long.MAX_VALUE);
+
+        root.setAttribute("a", "1");
+        Undo.startComplexOperation();
+        try {
+            root.setAttribute("a", "2");
+            root.setAttribute("b", "x");
+        } finally {
+            Undo.endComplexOperation();
+        }
+        assertEquals(2, undo.undoList.numSteps);
+
+        assertTrue(undo.undo());
+        assertEquals("1", root.getAttributeValue("a"));
+        assertNull(root.getAttributeValue("b"));
+        assertTrue(undo.undo());
+        assertEquals("0", root.getAttributeValue("a"));
+
+        assertTrue(undo.redo());
+        assertTrue(undo.redo());
+        assertEquals("2", root.getAttributeValue("a"));
+        assertEquals("x", root.getAttributeValue("b"));
+        assertFalse(undo.redo());
+    }
+
+    private Undo createUndo(Document doc, long budget) {
+        Undo undo = new Undo();
+        undo.setMemoryBudget(budget);
+        undo.registerDocument(doc);
+        undos.add(undo);
+        return undo;
+    }
+
+    static Document createDocument() {
+        Element root = new Element("themes");
+        for(int i=0 ; i<4 ; i++) {
+            Element child = new Element("theme");
+            child.setAttribute("name", "t" + i);
+            child.addContent(new Element("param"));
+            root.addContent(child);
+        }
+        return new Document(root);
+    }
+
+    /**
+     * Returns a string which contains all names, namespaces, attributes,
+     * texts and comments of the document.
+     */
+    static String dump(Document doc) {
+        StringBuilder sb = new StringBuilder();
+        for(Content content : doc) {
+            dump(content, sb);
+        }
+        return sb.toString();
+    }
+
+    private static void dump(Content node, StringBuilder sb) {
+        if(node instanceof Element) {
+            Element e = (Element)node;
+            sb.append('<').append(e.getNamespace()).append(':').append(e.getName());
+            for(Attribute a : e.getAttributes()) {
+                sb.append(' ').append(a.getNamespace()).append(':').append(a.getName())
+                        .append("=\"").append(a.getValue()).append('"');
+            }
+            sb.append('>');
+            for(Content child : e) {
+                dump(child, sb);
+            }
+            sb.append("</>");
+        } else if(node instanceof Text) {
+            Text t = (Text)node;
+            sb.append(t.isCData() ? "[C:" : "[T:").append(t.getValue()).append(']');
+        } else {
+            sb.append(node);
+        }
+    }
+
+    /**
+     * Applies random changes to a document.
+     */
+    static class Editor {
+        final Document doc;
+        final Random r;
+        int counter;
+
+        Editor(Document doc, Random r) {
+            this.doc = doc;
+            this.r = r;
+        }
+
+        void edit() {
+            ArrayList<Element> elements = new ArrayList<Element>();
+            collectElements(doc.getRootElement(), elements);
+            Element e = elements.get(r.nextInt(elements.size()));
+            int size = e.getContentSize();
+            switch(r.nextInt(10)) {
+                case 0:
+                    e.setAttribute("a" + r.nextInt(3), "v" + (counter++));
+                    break;
+                case 1:
+                    e.setAttribute("b", getNamespace(), "v" + (counter++));
+                    break;
+                case 2:
+                    if(!e.getAttributes().isEmpty()) {
+                        e.getAttributes().remove(r.nextInt(e.getAttributes().size()));
+                    }
+                    break;
+                case 3: {
+                    Element child = new Element("e" + (counter++));
+                    child.setAttribute("x", "y");
+                    child.addContent(new Text("text" + counter));
+                    e.addContent(r.nextInt(size + 1), child);
+                    break;
+                }
+                case 4:
+                    if(size > 0 && r.nextBoolean()) {
+                        e.removeContent(r.nextInt(size));
+                    }
+                    break;
+                case 5:
+                    if(size > 1) {
+                        e.moveContent(r.nextInt(size), r.nextInt(size));
+                    }
+                    break;
+                case 6:
+                    for(Content child : e) {
+                        if(child instanceof Text) {
+                            ((Text)child).setValue("s" + (counter++));
+                            return;
+                        }
+                    }
+                    e.addContent(r.nextInt(size + 1), new Text("s" + (counter++), r.nextBoolean()));
+                    break;
+                case 7:
+                    e.setName("n" + r.nextInt(4));
+                    break;
+                case 8:
+                    e.setNamespace(getNamespace());
+                    break;
+                case 9:
+                    e.addContent(r.nextInt(size + 1), new Comment("c" + (counter++)));
+                    break;
+            }
+        }
+
+        private Namespace getNamespace() {
+            return r.nextBoolean() ? Namespace.NO_NAMESPACE : doc.getNamespace("p", "urn:p");
+        }
+
+        private static void collectElements(Element e, ArrayList<Element> elements) {
+            elements.add(e);
+            for(Content child : e) {
+                if(child instanceof Element) {
+                    collectElements((Element)child, elements);
+                }
+            }
+        }
+    }
+}
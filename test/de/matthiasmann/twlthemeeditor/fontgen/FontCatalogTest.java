@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.fontgen;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Matthias Mann
+ */
+public class FontCatalogTest {
+
+    @Test
+    public void testWriteRead() throws IOException {
+        FontCatalog.Entry entry = createEntry("DejaVuSansCondensed,Bold", "DejaVu Sans", "Condensed Bold");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        entry.write(dos);
+        dos.close();
+        FontCatalog.Entry read = FontCatalog.Entry.read(new DataInputStream(
+                new ByteArrayInputStream(baos.toByteArray())));
+
+        assertEquals(entry.file, read.file);
+        assertEquals(entry.fileSize, read.fileSize);
+        assertEquals(entry.lastModified, read.lastModified);
+        assertEquals("DejaVuSansCondensed,Bold", read.getName());
+        assertEquals("DejaVu Sans", read.getFamilyName());
+        assertEquals("Condensed Bold", read.getSubFamilyName());
+        assertEquals(entry.numGlyphs, read.numGlyphs);
+        assertArrayEquals(entry.blocks, read.blocks);
+        assertArrayEquals(entry.thumbnail, read.thumbnail);
+    }
+
+    @Test
+    public void testDisplayName() {
+        assertEquals("DejaVu Sans Condensed Bold", createEntry("x", "DejaVu Sans", "Condensed Bold").getDisplayName());
+        assertEquals("DejaVu Sans", createEntry("x", "DejaVu Sans", "").getDisplayName());
+    }
+
+    @Test
+    public void testMatches() {
+        FontCatalog.Entry entry = createEntry("LibSerif-BoldItalic", "Liberation Serif", "Bold Italic");
+        assertTrue(entry.matches(""));
+        assertTrue(entry.matches("liberation"));
+        assertTrue(entry.matches("  serif   italic "));
+        assertTrue(entry.matches("Bold cyrillic"));
+        assertTrue(entry.matches("libserif"));
+        assertTrue(entry.matches("testfont.ttf"));
+        assertFalse(entry.matches("sans"));
+        assertFalse(entry.matches("serif condensed"));
+        assertFalse(entry.matches("greek"));
+    }
+
+    private static FontCatalog.Entry createEntry(String name, String familyName, String subFamilyName) {
+        byte[] thumbnail = new byte[384 * 40];
+        for(int i=0 ; i<thumbnail.length ; i++) {
+            thumbnail[i] = (byte)(i * 7);
+        }
+        return new FontCatalog.Entry(new File("/fonts/testfont.ttf"), 12345, 67890,
+                name, familyName, subFamilyName, 256,
+                new String[] { "BASIC_LATIN", "CYRILLIC" }, thumbnail);
+    }
+}
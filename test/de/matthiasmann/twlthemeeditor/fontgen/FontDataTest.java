@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.fontgen;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Matthias Mann
+ */
+public class FontDataTest {
+
+    private static final int A = 1;
+    private static final int V = 2;
+    private static final int W = 3;
+    private static final int T = 4;
+    private static final int O = 5;
+
+    private static final int VALUE_X_ADVANCE = 0x0004;
+
+    @Test
+    public void testGPOSLookups() {
+        // lookup 0: the first sub table which defines a pair wins
+        byte[] lookup0 = lookup(2,
+                pairPos1(new int[] { A }, new int[][] {
+                    { V, -50, T, 0 } }),
+                pairPos1(new int[] { A, T }, new int[][] {
+                    { V, -80, W, -30, T, -20 },
+                    { O, -60 } }),
+                pairPos2(new int[] { A, T, O }, classDef(T, 1), classDef(O, 1), new int[][] {
+                    { 0, -5 },
+                    { 0, -99 } }));
+        // lookup 1: an extension sub table
+        byte[] lookup1 = lookup(9, extension(2,
+                pairPos1(new int[] { A }, new int[][] {
+                    { V, 10, T, -15 } })));
+        // lookup 2: class pairs of lookup 0 don't hide pairs of other lookups
+        byte[] lookup2 = lookup(2,
+                pairPos2(new int[] { T }, classDef(0, 0), classDef(O, 1), new int[][] {
+                    { 0, -7 } }));
+        // lookup 3: not used by the 'kern' feature
+        byte[] lookup3 = lookup(2,
+                pairPos1(new int[] { A }, new int[][] {
+                    { V, -1000 } }));
+
+        byte[] gpos = gpos(new int[] { 0, 1, 2 }, new int[] { 3 }, lookup0, lookup1, lookup2, lookup3);
+        int[][] lookups = FontData.findKernPairSubTables(gpos);
+        assertEquals(3, lookups.length);
+        assertEquals(3, lookups[0].length);
+        assertEquals(1, lookups[1].length);
+        assertEquals(1, lookups[2].length);
+
+        BitSet usedGlyphs = new BitSet();
+        usedGlyphs.set(A, O + 1);
+        IntMap<IntMap<Integer>> result = new IntMap<IntMap<Integer>>();
+        FontData.readGPOS(gpos, lookups, result, usedGlyphs);
+
+        HashMap<String, Integer> expected = new HashMap<String, Integer>();
+        expected.put(A + "," + V, -40);
+        expected.put(A + "," + W, -30);
+        expected.put(A + "," + T, -15);
+        expected.put(A + "," + O, -5);
+        expected.put(T + "," + O, -67);
+        expected.put(O + "," + O, -5);
+        assertEquals(expected, toMap(result));
+    }
+
+    @Test
+    public void testGPOSUsedGlyphs() {
+        byte[] gpos = gpos(new int[] { 0 }, new int[0], lookup(2,
+                pairPos1(new int[] { A, T }, new int[][] {
+                    { V, -50, O, -10 },
+                    { O, -60 } })));
+
+        BitSet usedGlyphs = new BitSet();
+        usedGlyphs.set(A);
+        usedGlyphs.set(O);
+        IntMap<IntMap<Integer>> result = new IntMap<IntMap<Integer>>();
+        FontData.readGPOS(gpos, FontData.findKernPairSubTables(gpos), result, usedGlyphs);
+
+        HashMap<String, Integer> expected = new HashMap<String, Integer>();
+        expected.put(A + "," + O, -10);
+        assertEquals(expected, toMap(result));
+    }
+
+    @Test
+    public void testGPOSWithoutKernFeature() {
+        byte[] gpos = gpos(new int[0], new int[] { 0 }, lookup(2,
+                pairPos1(new int[] { A }, new int[][] {
+                    { V, -50 } })));
+        assertNull(FontData.findKernPairSubTables(gpos));
+    }
+
+    private static Map<String, Integer> toMap(IntMap<IntMap<Integer>> kerning) {
+        HashMap<String, Integer> map = new HashMap<String, Integer>();
+        for(IntMap.Entry<IntMap<Integer>> from : kerning) {
+            for(IntMap.Entry<Integer> to : from.value) {
+                map.put(from.key + "," + to.key, to.value);
+            }
+        }
+        return map;
+    }
+
+    private static byte[] gpos(int[] kernLookups, int[] markLookups, byte[]... lookups) {
+        Table features = new Table().u16(2)
+                .tag("kern").offset(feature(kernLookups))
+                .tag("mark").offset(feature(markLookups));
+        Table lookupList = new Table().u16(lookups.length);
+        for(byte[] lookup : lookups) {
+            lookupList.offset(lookup);
+        }
+        return new Table().u16(1).u16(0).u16(0)
+                .offset(features.build()).offset(lookupList.build()).build();
+    }
+
+    private static byte[] feature(int[] lookupIndices) {
+        Table t = new Table().u16(0).u16(lookupIndices.length);
+        for(int idx : lookupIndices) {
+            t.u16(idx);
+        }
+        return t.build();
+    }
+
+    private static byte[] lookup(int type, byte[]... subTables) {
+        Table t = new Table().u16(type).u16(0).u16(subTables.length);
+        for(byte[] subTable : subTables) {
+            t.offset(subTable);
+        }
+        return t.build();
+    }
+
+    private static byte[] extension(int type, byte[] subTable) {
+        return new Table().u16(1).u16(type).offset32(subTable).build();
+    }
+
+    private static byte[] coverage(int[] glyphs) {
+        Table t = new Table().u16(1).u16(glyphs.length);
+        for(int glyph : glyphs) {
+            t.u16(glyph);
+        }
+        return t.build();
+    }
+
+    private static byte[] classDef(int glyph, int glyphClass) {
+        return new Table().u16(1).u16(glyph).u16(1).u16(glyphClass).build();
+    }
+
+    /**
+     * @param firstGlyphs the covered first glyphs
+     * @param pairs for each first glyph: second glyph, x advance, ...
+     */
+    private static byte[] pairPos1(int[] firstGlyphs, int[][] pairs) {
+        Table t = new Table().u16(1).offset(coverage(firstGlyphs))
+                .u16(VALUE_X_ADVANCE).u16(0).u16(pairs.length);
+        for(int[] pairSet : pairs) {
+            Table ps = new Table().u16(pairSet.length / 2);
+            for(int value : pairSet) {
+                ps.u16(value);
+            }
+            t.offset(ps.build());
+        }
+        return t.build();
+    }
+
+    /**
+     * @param values the x advance indexed by first class and second class
+     */
+    private static byte[] pairPos2(int[] firstGlyphs, byte[] classDef1, byte[] classDef2, int[][] values) {
+        Table t = new Table().u16(2).offset(coverage(firstGlyphs))
+                .u16(VALUE_X_ADVANCE).u16(0)
+                .offset(classDef1).offset(classDef2)
+                .u16(values.length).u16(values[0].length);
+        for(int[] row : values) {
+            for(int value : row) {
+                t.u16(value);
+            }
+        }
+        return t.build();
+    }
+
+    /**
+     * Builds an OpenType table. Offsets point to child tables which are
+     * stored after the table itself.
+     */
+    static final class Table {
+        private final ByteArrayOutputStream header = new ByteArrayOutputStream();
+        private final ArrayList<byte[]> children = new ArrayList<byte[]>();
+        private final ArrayList<int[]> offsets = new ArrayList<int[]>();
+
+        Table u16(int value) {
+            header.write(value >> 8);
+            header.write(value);
+            return this;
+        }
+
+        Table tag(String tag) {
+            for(int i=0 ; i<4 ; i++) {
+                header.write(tag.charAt(i));
+            }
+            return this;
+        }
+
+        Table offset(byte[] child) {
+            return addOffset(child, 2);
+        }
+
+        Table offset32(byte[] child) {
+            return addOffset(child, 4);
+        }
+
+        private Table addOffset(byte[] child, int size) {
+            offsets.add(new int[] { header.size(), size });
+            children.add(child);
+            for(int i=0 ; i<size ; i++) {
+                header.write(0);
+            }
+            return this;
+        }
+
+        byte[] build() {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] data = header.toByteArray();
+            int pos = data.length;
+            for(int i=0 ; i<children.size() ; i++) {
+                int[] offset = offsets.get(i);
+                for(int j=0 ; j<offset[1] ; j++) {
+                    data[offset[0] + j] = (byte)(pos >> (8 * (offset[1] - 1 - j)));
+                }
+                pos += children.get(i).length;
+            }
+            baos.write(data, 0, data.length);
+            for(byte[] child : children) {
+                baos.write(child, 0, child.length);
+            }
+            return baos.toByteArray();
+        }
+    }
+}
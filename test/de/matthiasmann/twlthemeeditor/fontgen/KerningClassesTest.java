@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.fontgen;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Matthias Mann
+ */
+public class KerningClassesTest {
+
+    @Test
+    public void testEmpty() {
+        KerningClasses kc = KerningClasses.create(new int[0][]);
+        assertEquals(0, kc.getLeftClasses().length);
+        assertEquals(0, kc.getRightClasses().length);
+        assertEquals(0, kc.getClassPairs().length);
+        assertEquals(0, kc.getAmount('A', 'V'));
+        assertTrue(kc.isEquivalent(new int[0][]));
+        assertTrue(expand(kc).isEmpty());
+    }
+
+    @Test
+    public void testOnlyZeroAmounts() {
+        int[][] kernings = {
+            { 'A', 'V', 0 },
+            { 'T', 'o', 0 },
+        };
+        KerningClasses kc = KerningClasses.create(kernings);
+        assertEquals(0, kc.getClassPairs().length);
+        assertTrue(kc.isEquivalent(kernings));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        int[][] kernings = {
+            { 'A', 'V', -3 }, { 'A', 'W', -3 }, { 'A', 'Y', -4 },
+            { 'L', 'V', -3 }, { 'L', 'W', -3 }, { 'L', 'Y', -4 },
+            { 'T', 'a', -2 }, { 'T', 'e', -2 }, { 'T', 'o', -2 },
+            { 'V', 'a', -1 }, { 'V', 'A', -3 },
+            { 'F', 'a', 0 },
+        };
+        KerningClasses kc = KerningClasses.create(kernings);
+        assertEquals(toMap(kernings), expand(kc));
+        assertTrue(kc.isEquivalent(kernings));
+
+        // A and L share a left class, V and W share a right class
+        assertEquals(3, kc.getLeftClasses().length);
+        assertTrue(kc.getClassPairs().length < 11);
+    }
+
+    /**
+     * Class 0 is a normal class - characters which are not in any class
+     * must not get the amounts of class 0.
+     */
+    @Test
+    public void testClassZeroIsExplicit() {
+        int[][] kernings = {
+            { 0, 'x', 5 },
+            { 'A', 'x', 5 },
+            { 'B', 'y', 7 },
+        };
+        KerningClasses kc = KerningClasses.create(kernings);
+        assertEquals(toMap(kernings), expand(kc));
+        assertTrue(kc.isEquivalent(kernings));
+
+        int[][] leftClasses = kc.getLeftClasses();
+        int[][] rightClasses = kc.getRightClasses();
+        assertEquals(0, leftClasses[0][0]);
+        assertEquals(5, kc.getAmount(0, 'x'));
+        assertEquals(0, kc.getAmount('C', 'x'));
+        assertEquals(0, kc.getAmount('A', 'z'));
+        assertEquals(0, kc.getAmount('B', 'x'));
+
+        boolean usesClassZero = false;
+        for(int[] pair : kc.getClassPairs()) {
+            usesClassZero |= pair[0] == 0 || pair[1] == 0;
+        }
+        assertTrue(usesClassZero);
+        assertEquals(2, leftClasses.length);
+        assertEquals(2, rightClasses.length);
+    }
+
+    @Test
+    public void testRandomClassMatrix() {
+        Random r = new Random(4711);
+        for(int iteration=0 ; iteration<50 ; iteration++) {
+            int numLeft = 1 + r.nextInt(8);
+            int numRight = 1 + r.nextInt(8);
+            int[][] classAmount = new int[numLeft][numRight];
+            for(int[] row : classAmount) {
+                for(int i=0 ; i<row.length ; i++) {
+                    row[i] = r.nextInt(3) == 0 ? 0 : r.nextInt(21) - 10;
+                }
+            }
+
+            ArrayList<int[]> pairs = new ArrayList<int[]>();
+            for(int first=0 ; first<60 ; first++) {
+                int leftClass = r.nextInt(numLeft);
+                for(int second=0 ; second<60 ; second++) {
+                    int amount = classAmount[leftClass][second % numRight];
+                    if(amount != 0 || r.nextInt(10) == 0) {
+                        pairs.add(new int[] { first, second, amount });
+                    }
+                }
+            }
+            int[][] kernings = pairs.toArray(new int[pairs.size()][]);
+
+            KerningClasses kc = KerningClasses.create(kernings);
+            assertEquals(toMap(kernings), expand(kc));
+            assertTrue(kc.isEquivalent(kernings));
+            assertTrue(kc.getLeftClasses().length <= numLeft);
+            assertTrue(kc.getRightClasses().length <= numRight);
+        }
+    }
+
+    @Test
+    public void testNotEquivalent() {
+        int[][] kernings = {
+            { 'A', 'V', -3 },
+            { 'T', 'o', -2 },
+        };
+        KerningClasses kc = KerningClasses.create(kernings);
+        assertFalse(kc.isEquivalent(new int[][] { { 'A', 'V', -3 } }));
+        assertFalse(kc.isEquivalent(new int[][] { { 'A', 'V', -3 }, { 'T', 'o', -1 } }));
+    }
+
+    private static Map<Long, Integer> toMap(int[][] kernings) {
+        HashMap<Long, Integer> result = new HashMap<Long, Integer>();
+        for(int[] kerning : kernings) {
+            if(kerning[2] != 0) {
+                result.put(key(kerning[0], kerning[1]), kerning[2]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Expands the class table back into character pairs
+     */
+    private static Map<Long, Integer> expand(KerningClasses kc) {
+        int[][] leftClasses = kc.getLeftClasses();
+        int[][] rightClasses = kc.getRightClasses();
+        HashMap<Long, Integer> result = new HashMap<Long, Integer>();
+        for(int[] pair : kc.getClassPairs()) {
+            for(int first : leftClasses[pair[0]]) {
+                for(int second : rightClasses[pair[1]]) {
+                    assertNull("pair expanded twice", result.put(key(first, second), pair[2]));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static long key(int first, int second) {
+        return ((long)first << 32) | (second & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.fontgen;
+
+import de.matthiasmann.twlthemeeditor.fontgen.effects.BlurShadowEffect;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.logging.Logger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+/**
+ *
+ * @author Matthias Mann
+ */
+public class ScratchBufferTest {
+
+    @Test
+    public void testBytesAreCleared() {
+        ScratchBuffer scratch = ScratchBuffer.get();
+        byte[] bytes = scratch.getBytes(100);
+        assertTrue(bytes.length >= 100);
+        bytes[99] = 42;
+        assertSame(bytes, scratch.getBytes(100));
+        assertEquals(0, bytes[99]);
+        assertTrue(scratch.getBytes(100000).length >= 100000);
+    }
+
+    @Test
+    public void testImageIsReusedAndCleared() {
+        ScratchBuffer scratch = ScratchBuffer.get();
+        BufferedImage img = scratch.getImage(0, 17, 23);
+        assertEquals(17, img.getWidth());
+        assertEquals(23, img.getHeight());
+        img.setRGB(16, 22, 0xFFFFFFFF);
+        BufferedImage img2 = scratch.getImage(0, 17, 23);
+        assertSame(img, img2);
+        assertEquals(0, img2.getRGB(16, 22));
+    }
+
+    @Test
+    public void testSlotsAreIndependent() {
+        ScratchBuffer scratch = ScratchBuffer.get();
+        BufferedImage img0 = scratch.getImage(0, 8, 8);
+        BufferedImage img1 = scratch.getImage(1, 8, 8);
+        img0.setRGB(0, 0, 0xFF00FF00);
+        assertEquals(0, img1.getRGB(0, 0));
+        assertEquals(0xFF00FF00, img0.getRGB(0, 0));
+    }
+
+    @Test
+    public void testGrowingReplacesCachedSubImages() {
+        ScratchBuffer scratch = ScratchBuffer.get();
+        BufferedImage small = scratch.getImage(2, 5, 5);
+        BufferedImage large = scratch.getImage(2, 4000, 300);
+        assertEquals(4000, large.getWidth());
+        BufferedImage small2 = scratch.getImage(2, 5, 5);
+        assertNotSame(small, small2);
+        small2.setRGB(4, 4, 0xFFFFFFFF);
+        assertEquals(0xFFFFFFFF, large.getRGB(4, 4));
+    }
+
+    /**
+     * Generates a font with a blur shadow effect and logs the statistics,
+     * including the bytes allocated per glyph. Needs a TrueType font in one
+     * of the usual system font folders.
+     */
+    @Test
+    public void allocationBenchmark() throws IOException {
+        File fontFile = findFontFile();
+        assumeTrue(fontFile != null);
+
+        FontData fontData = new FontData(fontFile, 32);
+        CharSet set = new CharSet();
+        set.setBlock(Character.UnicodeBlock.BASIC_LATIN, true);
+        set.setBlock(Character.UnicodeBlock.LATIN_1_SUPPLEMENT, true);
+        set.setBlock(Character.UnicodeBlock.LATIN_EXTENDED_A, true);
+        Effect.AWTRenderer[] effects = { new BlurShadowEffect().createAWTRenderer() };
+        FontGenerator gen = new FontGenerator(fontData, FontGenerator.GeneratorMethod.AWT_VECTOR);
+
+        // the first runs warm up, the statistics are those of the last run
+        for(int i=0 ; i<6 ; i++) {
+            gen.generate(512, 512, set, Padding.ZERO, effects, FontGenerator.FLAG_AA);
+        }
+
+        FontGenStatistics stats = gen.getStatistics();
+        long numGlyphs = stats.getCount(FontGenStatistics.Counter.GLYPHS);
+        assertTrue(numGlyphs > 0);
+        Logger.getLogger(ScratchBufferTest.class.getName()).info(fontFile.getName() + "\n" + stats.getSummary() +
+                "\n" + (stats.getCount(FontGenStatistics.Counter.ALLOCATED_BYTES) / numGlyphs) + " bytes allocated per glyph");
+    }
+
+    private static File findFontFile() {
+        String[] folders = {
+            System.getProperty("java.home") + "/lib/fonts",
+            "/usr/share/fonts",
+            "/Library/Fonts",
+            System.getenv("WINDIR") + "/Fonts"
+        };
+        for(String folder : folders) {
+            File file = findFontFile(new File(folder), 3);
+            if(file != null) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private static File findFontFile(File folder, int depth) {
+        File[] files = folder.listFiles();
+        if(files != null) {
+            Arrays.sort(files);
+            for(File file : files) {
+                if(file.isFile() && file.getName().toLowerCase(Locale.ENGLISH).endsWith(".ttf")) {
+                    return file;
+                }
+            }
+            if(depth > 0) {
+                for(File file : files) {
+                    File result = file.isDirectory() ? findFontFile(file, depth - 1) : null;
+                    if(result != null) {
+                        return result;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
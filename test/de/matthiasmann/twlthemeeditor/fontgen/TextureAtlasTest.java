@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.fontgen;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Matthias Mann
+ */
+public class TextureAtlasTest {
+
+    @Test
+    public void testAlphaBGRA() {
+        TextureAtlas atlas = TextureAtlas.createAlpha(10, 8);
+        atlas.setARGB(0, 0, 10, 8, createPixels(10, 8), 0, 10);
+
+        int[] row = new int[10];
+        atlas.getRow(5, row);
+        for(int x=0 ; x<10 ; x++) {
+            assertEquals(pixel(x, 5) | 0xFFFFFF, row[x]);
+        }
+
+        assertBGRA(atlas, 0, 0, 10, 8, true);
+        assertBGRA(atlas, 3, 2, 4, 5, true);
+        assertBGRA(atlas, 9, 7, 1, 1, true);
+    }
+
+    @Test
+    public void testARGBBGRA() {
+        TextureAtlas atlas = TextureAtlas.createARGB(10, 8);
+        atlas.setARGB(0, 0, 10, 8, createPixels(10, 8), 0, 10);
+        assertBGRA(atlas, 0, 0, 10, 8, false);
+        assertBGRA(atlas, 3, 2, 4, 5, false);
+        assertBGRA(atlas, 0, 7, 10, 1, false);
+    }
+
+    @Test
+    public void testWrappedBGRA() {
+        BufferedImage img = new BufferedImage(10, 8, BufferedImage.TYPE_4BYTE_ABGR);
+        img.setRGB(0, 0, 10, 8, createPixels(10, 8), 0, 10);
+        TextureAtlas atlas = TextureAtlas.wrap(img);
+        assertBGRA(atlas, 0, 0, 10, 8, false);
+        assertBGRA(atlas, 2, 3, 5, 4, false);
+    }
+
+    @Test
+    public void testSetARGBWithOffset() {
+        TextureAtlas atlas = TextureAtlas.createAlpha(8, 8);
+        int[] src = new int[20];
+        for(int i=0 ; i<src.length ; i++) {
+            src[i] = i << 24;
+        }
+        // a 3x2 area starting at src[6] with 5 pixels per source row
+        atlas.setARGB(4, 5, 3, 2, src, 6, 5);
+        byte[] alpha = atlas.getAlphaData();
+        assertEquals(6, alpha[5*8 + 4]);
+        assertEquals(8, alpha[5*8 + 6]);
+        assertEquals(11, alpha[6*8 + 4]);
+        assertEquals(13, alpha[6*8 + 6]);
+        assertEquals(0, alpha[5*8 + 7]);
+        assertEquals(0, alpha[4*8 + 4]);
+    }
+
+    @Test
+    public void testNothingDirty() {
+        TextureAtlas atlas = TextureAtlas.createAlpha(64, 100);
+        assertTrue(atlas.getDirtyRegions(null).isEmpty());
+        atlas.markDirty(10, 10, 0, 5);
+        atlas.markDirty(64, 10, 5, 5);
+        atlas.markDirty(-5, 10, 5, 5);
+        atlas.markDirty(10, 100, 5, 5);
+        assertTrue(atlas.getDirtyRegions(null).isEmpty());
+    }
+
+    @Test
+    public void testDirtyBands() {
+        TextureAtlas atlas = TextureAtlas.createAlpha(64, 100);
+        atlas.markDirty(5, 2, 3, 3);
+        atlas.markDirty(10, 20, 4, 4);
+        assertEquals(Arrays.asList(new Rectangle(5, 0, 9, 32)), atlas.getDirtyRegions(null));
+
+        // crosses into band 1 with the same columns - merged
+        atlas.markDirty(5, 30, 9, 10);
+        assertEquals(Arrays.asList(new Rectangle(5, 0, 9, 64)), atlas.getDirtyRegions(null));
+
+        // band 3 is shorter, band 2 is skipped - not merged
+        atlas.markDirty(60, 98, 10, 10);
+        assertEquals(Arrays.asList(
+                new Rectangle(5, 0, 9, 64),
+                new Rectangle(60, 96, 4, 4)), atlas.getDirtyRegions(null));
+
+        // band 2 has different columns - not merged
+        atlas.markDirty(0, 64, 1, 1);
+        assertEquals(Arrays.asList(
+                new Rectangle(5, 0, 9, 64),
+                new Rectangle(0, 64, 1, 32),
+                new Rectangle(60, 96, 4, 4)), atlas.getDirtyRegions(null));
+    }
+
+    @Test
+    public void testSetARGBMarksDirty() {
+        TextureAtlas atlas = TextureAtlas.createARGB(64, 64);
+        atlas.setARGB(3, 40, 8, 2, new int[16], 0, 8);
+        assertEquals(Arrays.asList(new Rectangle(3, 32, 8, 32)), atlas.getDirtyRegions(null));
+    }
+
+    @Test
+    public void testPreviousRegionsAreUnioned() {
+        TextureAtlas previous = TextureAtlas.createAlpha(64, 100);
+        previous.markDirty(0, 0, 15, 10);
+        previous.markDirty(50, 70, 10, 10);
+        List<Rectangle> previousRegions = previous.getDirtyRegions(null);
+
+        TextureAtlas atlas = TextureAtlas.createAlpha(64, 100);
+        assertEquals(previousRegions, atlas.getDirtyRegions(previousRegions));
+
+        atlas.markDirty(10, 5, 10, 5);
+        atlas.markDirty(0, 40, 20, 5);
+        assertEquals(Arrays.asList(
+                new Rectangle(0, 0, 20, 64),
+                new Rectangle(50, 64, 10, 32)), atlas.getDirtyRegions(previousRegions));
+
+        // the previous regions are not recorded in the atlas
+        assertEquals(Arrays.asList(
+                new Rectangle(10, 0, 10, 32),
+                new Rectangle(0, 32, 20, 32)), atlas.getDirtyRegions(null));
+    }
+
+    private static int pixel(int x, int y) {
+        return ((x * 25 + y * 3) << 24) | ((x * 7) << 16) | ((y * 11) << 8) | (x + y * 10);
+    }
+
+    private static int[] createPixels(int width, int height) {
+        int[] argb = new int[width * height];
+        for(int y=0 ; y<height ; y++) {
+            for(int x=0 ; x<width ; x++) {
+                argb[y*width + x] = pixel(x, y);
+            }
+        }
+        return argb;
+    }
+
+    private static void assertBGRA(TextureAtlas atlas, int x, int y, int width, int height, boolean alphaOnly) {
+        ByteBuffer bb = ByteBuffer.allocate(width * height * 4 + 4);
+        bb.put((byte)42);
+        atlas.getBGRA(x, y, width, height, bb);
+        assertEquals(1 + width * height * 4, bb.position());
+        bb.flip();
+        assertEquals(42, bb.get());
+        for(int row=0 ; row<height ; row++) {
+            for(int col=0 ; col<width ; col++) {
+                int argb = pixel(x + col, y + row);
+                if(alphaOnly) {
+                    argb |= 0xFFFFFF;
+                }
+                String msg = "pixel " + (x + col) + "," + (y + row);
+                assertEquals(msg, (byte)(argb       ), bb.get());
+                assertEquals(msg, (byte)(argb >>>  8), bb.get());
+                assertEquals(msg, (byte)(argb >>> 16), bb.get());
+                assertEquals(msg, (byte)(argb >>> 24), bb.get());
+            }
+        }
+    }
+}
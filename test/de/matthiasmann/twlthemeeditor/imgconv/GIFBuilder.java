@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.imgconv;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Writes GIF files block by block so that tests control exactly which
+ * color tables and extensions are present.
+ *
+ * @author Matthias Mann
+ */
+class GIFBuilder {
+
+    private final ByteArrayOutputStream out;
+
+    /**
+     * Writes the header and the logical screen descriptor.
+     *
+     * @param width the logical screen width
+     * @param height the logical screen height
+     * @param globalColorTable the RGB colors or null
+     * @param backgroundColorIndex the background color index
+     */
+    GIFBuilder(int width, int height, int[] globalColorTable, int backgroundColorIndex) {
+        out = new ByteArrayOutputStream();
+        out.write('G');
+        out.write('I');
+        out.write('F');
+        out.write('8');
+        out.write('9');
+        out.write('a');
+        writeShort(width);
+        writeShort(height);
+        out.write((globalColorTable != null) ? 0x80 | getTableBits(globalColorTable) : 0);
+        out.write(backgroundColorIndex);
+        out.write(0);
+        writeColorTable(globalColorTable);
+    }
+
+    GIFBuilder loopCount(int loopCount) {
+        out.write(0x21);
+        out.write(0xFF);
+        out.write(11);
+        for(int i=0 ; i<11 ; i++) {
+            out.write("NETSCAPE2.0".charAt(i));
+        }
+        out.write(3);
+        out.write(1);
+        writeShort(loopCount);
+        out.write(0);
+        return this;
+    }
+
+    /**
+     * Writes a graphic control extension for the next image.
+     *
+     * @param disposalMethod the disposal method
+     * @param delayMS the delay in ms - must be a multiple of 10
+     * @param transparentColorIndex the transparent color index or -1
+     * @return this
+     */
+    GIFBuilder graphicControl(int disposalMethod, int delayMS, int transparentColorIndex) {
+        out.write(0x21);
+        out.write(0xF9);
+        out.write(4);
+        out.write((disposalMethod << 2) | ((transparentColorIndex >= 0) ? 1 : 0));
+        writeShort(delayMS / 10);
+        out.write(Math.max(0, transparentColorIndex));
+        out.write(0);
+        return this;
+    }
+
+    /**
+     * Writes an image descriptor and the LZW compressed pixels.
+     *
+     * @param left the left position on the logical screen
+     * @param top the top position on the logical screen
+     * @param width the image width
+     * @param height the image height
+     * @param localColorTable the RGB colors or null
+     * @param pixels the color indices - width * height entries
+     * @return this
+     */
+    GIFBuilder image(int left, int top, int width, int height, int[] localColorTable, byte[] pixels) {
+        out.write(0x2C);
+        writeShort(left);
+        writeShort(top);
+        writeShort(width);
+        writeShort(height);
+        out.write((localColorTable != null) ? 0x80 | getTableBits(localColorTable) : 0);
+        writeColorTable(localColorTable);
+        writeImageData(pixels);
+        return this;
+    }
+
+    byte[] finish() {
+        out.write(0x3B);
+        return out.toByteArray();
+    }
+
+    private void writeShort(int value) {
+        out.write(value & 255);
+        out.write((value >> 8) & 255);
+    }
+
+    private static int getTableBits(int[] colors) {
+        int bits = 0;
+        while((2 << bits) < colors.length) {
+            bits++;
+        }
+        return bits;
+    }
+
+    private void writeColorTable(int[] colors) {
+        if(colors != null) {
+            int numColors = 2 << getTableBits(colors);
+            for(int i=0 ; i<numColors ; i++) {
+                int rgb = (i < colors.length) ? colors[i] : 0;
+                out.write((rgb >> 16) & 255);
+                out.write((rgb >> 8) & 255);
+                out.write(rgb & 255);
+            }
+        }
+    }
+
+    /**
+     * Encodes the pixels as literal codes only. A clear code is emitted
+     * before the code table grows, so the code size never changes.
+     */
+    private void writeImageData(byte[] pixels) {
+        final int minCodeSize = 8;
+        final int codeSize = minCodeSize + 1;
+        final int clearCode = 1 << minCodeSize;
+        final int codesPerClear = clearCode - 3;
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int bitBuffer = 0;
+        int numBits = 0;
+        for(int i=0 ; i<=pixels.length ; i++) {
+            int code;
+            if(i == pixels.length) {
+                code = clearCode + 1;
+            } else {
+                if(i % codesPerClear == 0) {
+                    bitBuffer |= clearCode << numBits;
+                    numBits += codeSize;
+                    while(numBits >= 8) {
+                        data.write(bitBuffer & 255);
+                        bitBuffer >>>= 8;
+                        numBits -= 8;
+                    }
+                }
+                code = pixels[i] & 255;
+            }
+            bitBuffer |= code << numBits;
+            numBits += codeSize;
+            while(numBits >= 8) {
+                data.write(bitBuffer & 255);
+                bitBuffer >>>= 8;
+                numBits -= 8;
+            }
+        }
+        if(numBits > 0) {
+            data.write(bitBuffer & 255);
+        }
+
+        out.write(minCodeSize);
+        byte[] bytes = data.toByteArray();
+        for(int pos=0 ; pos<bytes.length ; pos+=255) {
+            int size = Math.min(255, bytes.length - pos);
+            out.write(size);
+            out.write(bytes, pos, size);
+        }
+        out.write(0);
+    }
+}
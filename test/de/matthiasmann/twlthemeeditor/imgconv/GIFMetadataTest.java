@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.imgconv;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import org.junit.Test;
+import org.w3c.dom.Node;
+import static org.junit.Assert.*;
+
+/**
+ * Compares {@link GIFMetadata} with the values of the image IO metadata tree.
+ *
+ * @author Matthias Mann
+ */
+public class GIFMetadataTest {
+
+    private static final String[] DISPOSAL_METHODS = {
+        "none", "doNotDispose", "restoreToBackgroundColor", "restoreToPrevious"
+    };
+
+    @Test
+    public void testGlobalColorTable() throws IOException {
+        GIFBuilder b = new GIFBuilder(40, 30, createColors(new Random(1), 16), 3);
+        b.graphicControl(GIFMetadata.DISPOSAL_DO_NOT_DISPOSE, 70, 3);
+        b.image(0, 0, 40, 30, null, createPixels(new Random(2), 40*30, 16));
+        b.graphicControl(GIFMetadata.DISPOSAL_RESTORE_TO_BACKGROUND, 120, -1);
+        b.image(5, 7, 10, 12, null, createPixels(new Random(3), 10*12, 16));
+        GIFMetadata gm = compareWithMetadataTree(b.finish());
+
+        assertEquals(40, gm.getLogicalScreenWidth());
+        assertEquals(30, gm.getLogicalScreenHeight());
+        assertEquals(3, gm.getBackgroundColorIndex());
+        assertEquals(16, gm.getGlobalColorTable().length);
+        assertEquals(2, gm.getNumFrames());
+        assertEquals(-1, gm.getLoopCount());
+
+        GIFMetadata.Frame frame = gm.getFrame(1);
+        assertEquals(5, frame.imageLeftPosition);
+        assertEquals(7, frame.imageTopPosition);
+        assertEquals(120, frame.delayMS);
+        assertEquals(GIFMetadata.DISPOSAL_RESTORE_TO_BACKGROUND, frame.disposalMethod);
+        assertFalse(frame.transparentColorFlag);
+        assertNull(frame.localColorTable);
+    }
+
+    @Test
+    public void testLocalColorTables() throws IOException {
+        Random r = new Random(4);
+        GIFBuilder b = new GIFBuilder(20, 20, null, 0);
+        b.loopCount(0);
+        int[] colors0 = createColors(r, 4);
+        int[] colors1 = createColors(r, 256);
+        b.graphicControl(GIFMetadata.DISPOSAL_NONE, 50, 1);
+        b.image(0, 0, 20, 20, colors0, createPixels(r, 20*20, 4));
+        b.graphicControl(GIFMetadata.DISPOSAL_RESTORE_TO_PREVIOUS, 30, 200);
+        b.image(2, 3, 9, 4, colors1, createPixels(r, 9*4, 256));
+        GIFMetadata gm = compareWithMetadataTree(b.finish());
+
+        assertNull(gm.getGlobalColorTable());
+        assertEquals(-1, gm.getBackgroundColorIndex());
+        assertEquals(0, gm.getLoopCount());
+        assertArrayEquals(colors0, gm.getFrame(0).localColorTable);
+        assertArrayEquals(colors1, gm.getFrame(1).localColorTable);
+        assertEquals(0, gm.getBackgroundColor(gm.getFrame(1)));
+    }
+
+    @Test
+    public void testLocalAndGlobalColorTable() throws IOException {
+        Random r = new Random(5);
+        int[] globalColors = createColors(r, 8);
+        int[] localColors = createColors(r, 8);
+        GIFBuilder b = new GIFBuilder(16, 16, globalColors, 2);
+        b.loopCount(3);
+        b.image(0, 0, 16, 16, null, createPixels(r, 16*16, 8));
+        b.image(0, 0, 16, 16, localColors, createPixels(r, 16*16, 8));
+        GIFMetadata gm = compareWithMetadataTree(b.finish());
+
+        assertEquals(3, gm.getLoopCount());
+        assertEquals(globalColors[2], gm.getBackgroundColor(gm.getFrame(0)));
+        assertEquals(localColors[2], gm.getBackgroundColor(gm.getFrame(1)));
+    }
+
+    @Test
+    public void testMissingGraphicControlExtension() throws IOException {
+        Random r = new Random(6);
+        GIFBuilder b = new GIFBuilder(8, 8, createColors(r, 2), 0);
+        b.image(0, 0, 8, 8, null, createPixels(r, 8*8, 2));
+        b.graphicControl(GIFMetadata.DISPOSAL_RESTORE_TO_BACKGROUND, 40, 1);
+        b.image(0, 0, 8, 8, null, createPixels(r, 8*8, 2));
+        b.image(1, 1, 4, 4, null, createPixels(r, 4*4, 2));
+        GIFMetadata gm = compareWithMetadataTree(b.finish());
+
+        // a graphic control extension only applies to the next image
+        for(int i : new int[] { 0, 2 }) {
+            GIFMetadata.Frame frame = gm.getFrame(i);
+            assertEquals(0, frame.delayMS);
+            assertEquals(GIFMetadata.DISPOSAL_NONE, frame.disposalMethod);
+            assertEquals(0, frame.transparentColorIndex);
+            assertFalse(frame.transparentColorFlag);
+        }
+        assertEquals(40, gm.getFrame(1).delayMS);
+        assertSame(GIFMetadata.DEFAULT_FRAME, gm.getFrame(3));
+    }
+
+    @Test
+    public void testRandomFiles() throws IOException {
+        Random r = new Random(7);
+        for(int iteration=0 ; iteration<20 ; iteration++) {
+            int width = 1 + r.nextInt(64);
+            int height = 1 + r.nextInt(64);
+            int numGlobalColors = 2 << r.nextInt(8);
+            GIFBuilder b = new GIFBuilder(width, height,
+                    r.nextBoolean() ? createColors(r, numGlobalColors) : null,
+                    r.nextInt(numGlobalColors));
+            if(r.nextBoolean()) {
+                b.loopCount(r.nextInt(5));
+            }
+            int numFrames = 1 + r.nextInt(10);
+            for(int i=0 ; i<numFrames ; i++) {
+                if(r.nextInt(4) != 0) {
+                    b.graphicControl(r.nextInt(4), r.nextInt(100) * 10,
+                            r.nextBoolean() ? r.nextInt(numGlobalColors) : -1);
+                }
+                int frameWidth = 1 + r.nextInt(width);
+                int frameHeight = 1 + r.nextInt(height);
+                int left = r.nextInt(width - frameWidth + 1);
+                int top = r.nextInt(height - frameHeight + 1);
+                int[] localColors = r.nextBoolean() ? createColors(r, 2 << r.nextInt(8)) : null;
+                int numColors = (localColors != null) ? localColors.length : numGlobalColors;
+                b.image(left, top, frameWidth, frameHeight, localColors,
+                        createPixels(r, frameWidth*frameHeight, numColors));
+            }
+            GIFMetadata gm = compareWithMetadataTree(b.finish());
+            assertEquals(numFrames, gm.getNumFrames());
+        }
+    }
+
+    @Test
+    public void testNotAGIF() throws IOException {
+        assertNull(GIFMetadata.read(new ByteArrayInputStream(new byte[] { (byte)0x89, 'P', 'N', 'G' })));
+        assertNull(GIFMetadata.read(new ByteArrayInputStream(new byte[0])));
+    }
+
+    private static int[] createColors(Random r, int numColors) {
+        int[] colors = new int[numColors];
+        for(int i=0 ; i<numColors ; i++) {
+            colors[i] = r.nextInt() & 0xFFFFFF;
+        }
+        return colors;
+    }
+
+    private static byte[] createPixels(Random r, int numPixels, int numColors) {
+        byte[] pixels = new byte[numPixels];
+        for(int i=0 ; i<numPixels ; i++) {
+            pixels[i] = (byte)r.nextInt(numColors);
+        }
+        return pixels;
+    }
+
+    /**
+     * Reads the GIF with {@link GIFMetadata} and checks every value against
+     * the image IO metadata tree. Missing nodes use the same defaults as
+     * the old metadata tree based implementation.
+     */
+    private static GIFMetadata compareWithMetadataTree(byte[] gif) throws IOException {
+        GIFMetadata gm = GIFMetadata.read(new ByteArrayInputStream(gif));
+        assertNotNull(gm);
+
+        ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(gif));
+        ImageReader ir = ImageIO.getImageReadersByFormatName("gif").next();
+        try {
+            ir.setInput(iis);
+            int numImages = ir.getNumImages(true);
+            assertEquals(numImages, gm.getNumFrames());
+
+            Node streamMetadata = ir.getStreamMetadata().getAsTree("javax_imageio_gif_stream_1.0");
+            Node logicalScreenDescriptor = getChildNode(streamMetadata, "LogicalScreenDescriptor");
+            Node globalColorTable = getChildNode(streamMetadata, "GlobalColorTable");
+            assertEquals(getInt(logicalScreenDescriptor, "logicalScreenWidth", 0), gm.getLogicalScreenWidth());
+            assertEquals(getInt(logicalScreenDescriptor, "logicalScreenHeight", 0), gm.getLogicalScreenHeight());
+            assertEquals(getInt(globalColorTable, "backgroundColorIndex", -1), gm.getBackgroundColorIndex());
+            assertColorTable(globalColorTable, gm.getGlobalColorTable());
+
+            int loopCount = -1;
+            for(int i=0 ; i<numImages ; i++) {
+                Node imageMetadata = ir.getImageMetadata(i).getAsTree("javax_imageio_gif_image_1.0");
+                Node imageDescriptor = getChildNode(imageMetadata, "ImageDescriptor");
+                Node graphicControlExtension = getChildNode(imageMetadata, "GraphicControlExtension");
+                Node localColorTable = getChildNode(imageMetadata, "LocalColorTable");
+
+                GIFMetadata.Frame frame = gm.getFrame(i);
+                assertEquals(getInt(imageDescriptor, "imageLeftPosition", 0), frame.imageLeftPosition);
+                assertEquals(getInt(imageDescriptor, "imageTopPosition", 0), frame.imageTopPosition);
+                assertEquals(getInt(imageDescriptor, "imageWidth", 1), frame.imageWidth);
+                assertEquals(getInt(imageDescriptor, "imageHeight", 1), frame.imageHeight);
+                assertEquals(getInt(graphicControlExtension, "delayTime", 10) * 10, frame.delayMS);
+                assertEquals(getStr(graphicControlExtension, "disposalMethod", "none"),
+                        DISPOSAL_METHODS[frame.disposalMethod]);
+                assertEquals(getInt(graphicControlExtension, "transparentColorIndex", 255), frame.transparentColorIndex);
+                assertEquals(Boolean.parseBoolean(getStr(graphicControlExtension, "transparentColorFlag", "false")),
+                        frame.transparentColorFlag);
+                assertColorTable(localColorTable, frame.localColorTable);
+                assertEquals(getBackgroundColor(globalColorTable, localColorTable), gm.getBackgroundColor(frame));
+
+                Node applicationExtensions = getChildNode(imageMetadata, "ApplicationExtensions");
+                if(applicationExtensions != null) {
+                    for(Node n=applicationExtensions.getFirstChild() ; n!=null ; n=n.getNextSibling()) {
+                        byte[] data = (byte[])((IIOMetadataNode)n).getUserObject();
+                        if("NETSCAPE".equals(getStr(n, "applicationID", null)) &&
+                                "2.0".equals(getStr(n, "authenticationCode", null)) &&
+                                data != null && data.length >= 3 && data[0] == 1) {
+                            loopCount = (data[1] & 255) | ((data[2] & 255) << 8);
+                        }
+                    }
+                }
+            }
+            assertEquals(loopCount, gm.getLoopCount());
+        } finally {
+            ir.dispose();
+            iis.close();
+        }
+        return gm;
+    }
+
+    private static void assertColorTable(Node colorTable, int[] colors) {
+        if(colorTable == null) {
+            assertNull(colors);
+            return;
+        }
+        assertNotNull(colors);
+        int numEntries = 0;
+        for(Node n=colorTable.getFirstChild() ; n!=null ; n=n.getNextSibling()) {
+            numEntries++;
+            assertEquals(getColor(n), colors[getInt(n, "index", -1)]);
+        }
+        assertEquals(numEntries, colors.length);
+    }
+
+    private static int getBackgroundColor(Node globalColorTable, Node localColorTable) {
+        int index = getInt(globalColorTable, "backgroundColorIndex", -1);
+        Node colorEntry = getChildNodeWithIndex(localColorTable, index);
+        if(colorEntry == null) {
+            colorEntry = getChildNodeWithIndex(globalColorTable, index);
+        }
+        return getColor(colorEntry);
+    }
+
+    private static int getColor(Node colorEntry) {
+        return (getInt(colorEntry, "red", 0) << 16) |
+                (getInt(colorEntry, "green", 0) << 8) |
+                getInt(colorEntry, "blue", 0);
+    }
+
+    private static Node getChildNode(Node node, String name) {
+        if(node != null) {
+            for(Node n=node.getFirstChild() ; n!=null ; n=n.getNextSibling()) {
+                if(name.equals(n.getNodeName())) {
+                    return n;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Node getChildNodeWithIndex(Node node, int index) {
+        if(node != null) {
+            for(Node n=node.getFirstChild() ; n!=null ; n=n.getNextSibling()) {
+                if(getInt(n, "index", -1) == index) {
+                    return n;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String getStr(Node node, String attribute, String defaultValue) {
+        if(node != null) {
+            Node attribNode = node.getAttributes().getNamedItem(attribute);
+            if(attribNode != null) {
+                return attribNode.getNodeValue();
+            }
+        }
+        return defaultValue;
+    }
+
+    private static int getInt(Node node, String attribute, int defaultValue) {
+        String value = getStr(node, attribute, null);
+        return (value != null) ? Integer.parseInt(value) : defaultValue;
+    }
+}
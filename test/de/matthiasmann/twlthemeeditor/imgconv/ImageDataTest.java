@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.imgconv;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the frame cache and the GIF compositing of {@link ImageData}
+ * against a straightforward compositor on synthetic GIFs.
+ *
+ * @author Matthias Mann
+ */
+public class ImageDataTest {
+
+    private static final int WIDTH = 24;
+    private static final int HEIGHT = 16;
+    private static final int FRAME_BYTES = WIDTH * HEIGHT * 4;
+    private static final int[] COLORS = {
+        0x000000, 0xFF0000, 0x00FF00, 0x0000FF, 0xFFFF00, 0x00FFFF, 0xFF00FF, 0xFFFFFF
+    };
+    private static final int BACKGROUND_INDEX = 7;
+
+    private File file;
+    private ImageData imageData;
+
+    @After
+    public void tearDown() {
+        if(imageData != null) {
+            imageData.dispose();
+            imageData = null;
+        }
+        if(file != null) {
+            file.delete();
+            file = null;
+        }
+    }
+
+    @Test
+    public void testInOrder() throws IOException {
+        TestGIF gif = new TestGIF(new Random(1), 20, true);
+        imageData = gif.create();
+        assertEquals(20, imageData.getNumImages());
+        for(int i=0 ; i<20 ; i++) {
+            gif.assertFrame(i, imageData.getImage(i));
+            assertEquals(gif.delays[i], imageData.getDelayMS(i));
+        }
+        assertEquals(20, imageData.getNumDecodedFrames());
+        assertEquals(20, imageData.getNumCachedFrames());
+    }
+
+    @Test
+    public void testCacheLimit() throws IOException {
+        TestGIF gif = new TestGIF(new Random(2), 10, true);
+        imageData = gif.create();
+        assertEquals(ImageData.DEFAULT_CACHE_LIMIT, imageData.getCacheLimit());
+
+        imageData.setCacheLimit(3 * FRAME_BYTES);
+        for(int i=0 ; i<10 ; i++) {
+            imageData.getImage(i);
+            assertTrue(imageData.getCachedBytes() <= 3 * FRAME_BYTES);
+        }
+        assertEquals(3, imageData.getNumCachedFrames());
+        assertEquals(3 * FRAME_BYTES, imageData.getCachedBytes());
+        assertEquals(10, imageData.getNumDecodedFrames());
+
+        // the most recently used frames are still cached
+        for(int i=7 ; i<10 ; i++) {
+            gif.assertFrame(i, imageData.getImage(i));
+        }
+        assertEquals(10, imageData.getNumDecodedFrames());
+
+        // evicted frames are decoded again
+        gif.assertFrame(0, imageData.getImage(0));
+        assertEquals(11, imageData.getNumDecodedFrames());
+
+        // the most recently used frame is always kept
+        imageData.setCacheLimit(0);
+        assertEquals(1, imageData.getNumCachedFrames());
+        assertEquals(FRAME_BYTES, imageData.getCachedBytes());
+        gif.assertFrame(0, imageData.getImage(0));
+        assertEquals(11, imageData.getNumDecodedFrames());
+    }
+
+    @Test
+    public void testOutOfOrderWithEviction() throws IOException {
+        Random r = new Random(3);
+        TestGIF gif = new TestGIF(r, 16, true);
+        imageData = gif.create();
+        for(int cachedFrames=1 ; cachedFrames<=4 ; cachedFrames++) {
+            imageData.setCacheLimit(cachedFrames * FRAME_BYTES);
+            for(int i=0 ; i<100 ; i++) {
+                int index = r.nextInt(16);
+                gif.assertFrame(index, imageData.getImage(index));
+                assertTrue(imageData.getNumCachedFrames() <= cachedFrames);
+            }
+        }
+    }
+
+    /**
+     * Frames after restore to background and restore to previous frames
+     * are requested after the frames they depend on have been evicted.
+     */
+    @Test
+    public void testDisposalAcrossEvictedFrames() throws IOException {
+        int[] disposals = {
+            GIFMetadata.DISPOSAL_DO_NOT_DISPOSE,
+            GIFMetadata.DISPOSAL_RESTORE_TO_PREVIOUS,
+            GIFMetadata.DISPOSAL_RESTORE_TO_PREVIOUS,
+            GIFMetadata.DISPOSAL_RESTORE_TO_BACKGROUND,
+            GIFMetadata.DISPOSAL_RESTORE_TO_BACKGROUND,
+            GIFMetadata.DISPOSAL_NONE,
+            GIFMetadata.DISPOSAL_RESTORE_TO_BACKGROUND,
+            GIFMetadata.DISPOSAL_RESTORE_TO_PREVIOUS,
+            GIFMetadata.DISPOSAL_DO_NOT_DISPOSE,
+        };
+        for(int transparent=0 ; transparent<2 ; transparent++) {
+            TestGIF gif = new TestGIF(new Random(4), disposals, transparent == 1);
+            imageData = gif.create();
+            imageData.setCacheLimit(FRAME_BYTES);
+            for(int index : new int[] { 8, 2, 3, 6, 4, 1, 5, 0, 7, 3, 8, 5 }) {
+                gif.assertFrame(index, imageData.getImage(index));
+                assertEquals(1, imageData.getNumCachedFrames());
+            }
+            tearDown();
+        }
+    }
+
+    /**
+     * A synthetic GIF together with the expected composited frames.
+     */
+    private class TestGIF {
+        final int[] delays;
+        final int[][] expected;
+        final byte[] data;
+
+        TestGIF(Random r, int numFrames, boolean transparent) {
+            this(r, createDisposals(r, numFrames), transparent);
+        }
+
+        /**
+         * @param r the random generator for the frame contents
+         * @param disposals the disposal method of each frame
+         * @param transparent true if the background index is transparent
+         */
+        TestGIF(Random r, int[] disposals, boolean transparent) {
+            int numFrames = disposals.length;
+            int transparentIndex = transparent ? BACKGROUND_INDEX : -1;
+            int background = transparent ? 0 : 0xFF000000 | COLORS[BACKGROUND_INDEX];
+
+            GIFBuilder b = new GIFBuilder(WIDTH, HEIGHT, COLORS, BACKGROUND_INDEX);
+            delays = new int[numFrames];
+            expected = new int[numFrames][];
+
+            int[] canvas = new int[WIDTH * HEIGHT];
+            Arrays.fill(canvas, background);
+
+            for(int i=0 ; i<numFrames ; i++) {
+                int width = 1 + r.nextInt(WIDTH);
+                int height = 1 + r.nextInt(HEIGHT);
+                int left = r.nextInt(WIDTH - width + 1);
+                int top = r.nextInt(HEIGHT - height + 1);
+                byte[] pixels = new byte[width * height];
+                for(int j=0 ; j<pixels.length ; j++) {
+                    pixels[j] = (byte)r.nextInt(COLORS.length);
+                }
+                delays[i] = 10 * (1 + r.nextInt(20));
+                b.graphicControl(disposals[i], delays[i], transparentIndex);
+                b.image(left, top, width, height, null, pixels);
+
+                int[] previous = canvas.clone();
+                for(int y=0 ; y<height ; y++) {
+                    for(int x=0 ; x<width ; x++) {
+                        int index = pixels[y*width + x];
+                        if(index != transparentIndex) {
+                            canvas[(top+y)*WIDTH + left+x] = 0xFF000000 | COLORS[index];
+                        }
+                    }
+                }
+                expected[i] = canvas.clone();
+
+                switch(disposals[i]) {
+                    case GIFMetadata.DISPOSAL_RESTORE_TO_BACKGROUND:
+                        for(int y=0 ; y<height ; y++) {
+                            Arrays.fill(canvas, (top+y)*WIDTH + left, (top+y)*WIDTH + left+width, background);
+                        }
+                        break;
+                    case GIFMetadata.DISPOSAL_RESTORE_TO_PREVIOUS:
+                        canvas = previous;
+                        break;
+                }
+            }
+            data = b.finish();
+        }
+
+        ImageData create() throws IOException {
+            file = File.createTempFile("imagedatatest", ".gif");
+            FileOutputStream fos = new FileOutputStream(file);
+            try {
+                fos.write(data);
+            } finally {
+                fos.close();
+            }
+            ImageData result = ImageData.create(file);
+            assertNotNull(result);
+            return result;
+        }
+
+        void assertFrame(int index, BufferedImage img) {
+            assertEquals(WIDTH, img.getWidth());
+            assertEquals(HEIGHT, img.getHeight());
+            int[] rgb = img.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+            assertArrayEquals("frame " + index, expected[index], rgb);
+        }
+    }
+
+    private static int[] createDisposals(Random r, int numFrames) {
+        int[] disposals = new int[numFrames];
+        for(int i=0 ; i<numFrames ; i++) {
+            disposals[i] = r.nextInt(4);
+        }
+        return disposals;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2008-2011, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlthemeeditor.imgconv;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.Logger;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Matthias Mann
+ */
+public class ImageGeneratorTest {
+
+    private final ArrayList<File> files = new ArrayList<File>();
+
+    @After
+    public void tearDown() {
+        for(File file : files) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testFramesMatchSource() throws IOException {
+        int[] contents = { 0, 1, 1, 2, 0, 3, 3, 3, 1, 4 };
+        ImageData imageData = createImageData(64, 48, contents, new Random(1));
+        try {
+            ImageGenerator gen = new ImageGenerator(imageData, false, 256);
+            assertFalse(gen.isCutoff());
+            assertEquals(contents.length, gen.getNumSourceFrames());
+            assertEquals(5, gen.getNumAreas());
+            assertEquals(7, gen.getNumFrames());
+            assertEquals(60, gen.getFrame(1).delayMS);
+            assertEquals(90, gen.getFrame(4).delayMS);
+            assertFramesMatch(imageData, gen);
+        } finally {
+            imageData.dispose();
+        }
+    }
+
+    @Test
+    public void testMultipleTextures() throws IOException {
+        int[] contents = new int[20];
+        for(int i=0 ; i<contents.length ; i++) {
+            contents[i] = i;
+        }
+        ImageData imageData = createImageData(100, 100, contents, new Random(2));
+        try {
+            ImageGenerator gen = new ImageGenerator(imageData, false, 128);
+            assertTrue(gen.getNumTextures() > 1);
+            assertFramesMatch(imageData, gen);
+        } finally {
+            imageData.dispose();
+        }
+    }
+
+    /**
+     * Converts a large GIF and logs how long decoding alone, the pipelined
+     * generation and writing the textures take. With a second core the
+     * generation should take about as long as decoding alone.
+     */
+    @Test
+    public void largeGIFBenchmark() throws IOException {
+        int[] contents = new int[150];
+        for(int i=0 ; i<contents.length ; i++) {
+            contents[i] = i % 50;
+        }
+        File gifFile = createGIF(320, 240, contents, new Random(3));
+
+        ImageData imageData = ImageData.create(gifFile);
+        long start = System.nanoTime();
+        for(int i=0 ; i<imageData.getNumImages() ; i++) {
+            imageData.getImage(i);
+        }
+        long decodeTime = System.nanoTime() - start;
+        imageData.dispose();
+
+        imageData = ImageData.create(gifFile);
+        start = System.nanoTime();
+        ImageGenerator gen = new ImageGenerator(imageData, false);
+        long generateTime = System.nanoTime() - start;
+        imageData.dispose();
+        assertEquals(contents.length, gen.getNumSourceFrames());
+        assertEquals(50, gen.getNumAreas());
+
+        File pngFile = File.createTempFile("imagegeneratortest", ".png");
+        files.addAll(Arrays.asList(gen.getFilesCreatedForName(pngFile)));
+        start = System.nanoTime();
+        gen.write(pngFile);
+        long writeTime = System.nanoTime() - start;
+        for(File file : gen.getFilesCreatedForName(pngFile)) {
+            assertTrue(file.length() > 0);
+        }
+
+        Logger.getLogger(ImageGeneratorTest.class.getName()).info(String.format(
+                "%d frames %dx%d: decode %d ms, generate %d ms, write %d ms (%d textures, %d cores)",
+                contents.length, 320, 240, decodeTime/1000000, generateTime/1000000,
+                writeTime/1000000, gen.getNumTextures(), Runtime.getRuntime().availableProcessors()));
+    }
+
+    private ImageData createImageData(int width, int height, int[] contents, Random r) throws IOException {
+        ImageData imageData = ImageData.create(createGIF(width, height, contents, r));
+        assertNotNull(imageData);
+        return imageData;
+    }
+
+    /**
+     * Creates a GIF where each frame shows only the block of its content
+     * number - frames with the same content number are identical.
+     */
+    private File createGIF(int width, int height, int[] contents, Random r) throws IOException {
+        int[] colors = new int[16];
+        for(int i=1 ; i<colors.length ; i++) {
+            colors[i] = r.nextInt() & 0xFFFFFF;
+        }
+        int numContents = 0;
+        for(int content : contents) {
+            numContents = Math.max(numContents, content + 1);
+        }
+        int[][] blocks = new int[numContents][];
+        byte[][] blockPixels = new byte[numContents][];
+        for(int i=0 ; i<numContents ; i++) {
+            int w = 1 + r.nextInt(width);
+            int h = 1 + r.nextInt(height);
+            blocks[i] = new int[] { r.nextInt(width - w + 1), r.nextInt(height - h + 1), w, h };
+            blockPixels[i] = new byte[w * h];
+            for(int j=0 ; j<blockPixels[i].length ; j++) {
+                blockPixels[i][j] = (byte)r.nextInt(colors.length);
+            }
+        }
+
+        GIFBuilder b = new GIFBuilder(width, height, colors, 0);
+        for(int content : contents) {
+            int[] block = blocks[content];
+            b.graphicControl(GIFMetadata.DISPOSAL_RESTORE_TO_BACKGROUND, 30, 0);
+            b.image(block[0], block[1], block[2], block[3], null, blockPixels[content]);
+        }
+
+        File file = File.createTempFile("imagegeneratortest", ".gif");
+        files.add(file);
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(b.finish());
+        } finally {
+            fos.close();
+        }
+        return file;
+    }
+
+    /**
+     * Rebuilds every frame from its area in the textures and compares it
+     * with the source frames after merging consecutive identical frames.
+     */
+    private static void assertFramesMatch(ImageData imageData, ImageGenerator gen) {
+        int[][] textures = new int[gen.getNumTextures()][];
+        for(int i=0 ; i<textures.length ; i++) {
+            IntBuffer ib = IntBuffer.allocate(gen.getWidth(i) * gen.getHeight(i));
+            assertTrue(gen.getTextureData(i, ib));
+            textures[i] = ib.array();
+        }
+
+        ArrayList<int[]> expectedPixels = new ArrayList<int[]>();
+        ArrayList<Integer> expectedDelays = new ArrayList<Integer>();
+        for(int i=0 ; i<imageData.getNumImages() ; i++) {
+            BufferedImage img = imageData.getImage(i);
+            int[] pixels = clearTransparent(img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth()));
+            int last = expectedPixels.size() - 1;
+            if(last >= 0 && Arrays.equals(expectedPixels.get(last), pixels)) {
+                expectedDelays.set(last, expectedDelays.get(last) + imageData.getDelayMS(i));
+            } else {
+                expectedPixels.add(pixels);
+                expectedDelays.add(imageData.getDelayMS(i));
+            }
+        }
+
+        assertEquals(expectedPixels.size(), gen.getNumFrames());
+        for(int i=0 ; i<gen.getNumFrames() ; i++) {
+            ImageGenerator.Frame frame = gen.getFrame(i);
+            ImageGenerator.Area area = frame.area;
+            int textureWidth = gen.getWidth(area.texture);
+            int[] pixels = new int[area.frameWidth * area.frameHeight];
+            for(int y=0 ; y<area.height ; y++) {
+                System.arraycopy(textures[area.texture], (area.y + y) * textureWidth + area.x,
+                        pixels, (area.offsetY + y) * area.frameWidth + area.offsetX, area.width);
+            }
+            assertArrayEquals("frame " + i, expectedPixels.get(i), clearTransparent(pixels));
+            assertEquals(expectedDelays.get(i).intValue(), frame.delayMS);
+        }
+    }
+
+    private static int[] clearTransparent(int[] pixels) {
+        for(int i=0 ; i<pixels.length ; i++) {
+            if((pixels[i] >>> 24) == 0) {
+                pixels[i] = 0;
+            }
+        }
+        return pixels;
+    }
+}